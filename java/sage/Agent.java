@@ -468,6 +468,38 @@ public class Agent extends DBObject implements Favorite
     // 05-04-2017 JS: I removed evaluating anything other than the length of hash since if it is
     // zero we have nothing to work with and that always means we need to check all of the provided
     // airings. This resulted in a moderate performance bump.
+    // The index narrows it down using all of our criteria together, so it's used first if we have
+    // one for these airings. The hashes below only use one of them at a time.
+    AiringIndex airingIndex = cache.getAiringIndex(allAirings);
+    int[] candidates = (airingIndex != null && !VERIFY_AIRING_OPTIMIZATION) ?
+      airingIndex.getCandidates(this) : null;
+    if (candidates != null)
+    {
+      Airing[] indexedAirs = airingIndex.getAirings();
+      cache.airWorkCache.ensureAddCapacity(candidates.length);
+      // These are in the same order as the airings, so they're already sorted
+      boolean emptyCache = cache.airWorkCache.apparentSize() == 0;
+      for (int i = 0; i < candidates.length; i++)
+      {
+        Airing airing = indexedAirs[candidates[i]];
+        if (emptyCache)
+        {
+          if (followsTrend(airing, mustBeViewable, sbCache, skipKeyword, ignoreDisabledFlag))
+            cache.airWorkCache.add(airing);
+        }
+        else
+        {
+          int insertIndex;
+          if ((insertIndex = cache.airWorkCache.binarySearch(airing)) < 0 &&
+            followsTrend(airing, mustBeViewable, sbCache, skipKeyword, ignoreDisabledFlag))
+          {
+            cache.airWorkCache.add(-(insertIndex + 1), airing);
+          }
+        }
+      }
+      return;
+    }
+
     int hashesSize = hashes.size();
     boolean fullCheck = hashesSize == 0;
 
@@ -0,0 +1,326 @@
+/*
+ * Copyright 2015 The SageTV Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sage;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An inverted index over a set of Airings that Carny uses to find which ones an Agent could match
+ * without calling followsTrend on all of them. Each of the criteria an Agent can have that's
+ * indexed (title, person, category, channel, network, timeslot and first run/rerun) narrows down
+ * the candidates and they're all combined, so an Agent for a title on a specific channel only
+ * gets the Airings of that title on that channel. The candidates still need to be checked with
+ * followsTrend since the keys are hashes and there's other criteria that isn't indexed.
+ * <p>
+ * Titles, people, categories, channels and networks have too many different values to use a
+ * bitset for each of them, so they are sorted lists of the positions of the Airings. Timeslots and
+ * first runs only have a few values, so those use bitsets.
+ * <p>
+ * The index is built once for each profiling pass and is read only after that, so it can be used
+ * by all of the agent workers at the same time.
+ */
+final class AiringIndex
+{
+  private static final int HOURS_PER_WEEK = 24 * 7;
+
+  /**
+   * Builds the index. The Airings must be sorted by ID, the candidates are returned in the same
+   * order.
+   */
+  AiringIndex(Airing[] airings)
+  {
+    this.airings = airings;
+    Map<Integer, PostingList> titleBuild = new HashMap<Integer, PostingList>();
+    Map<Integer, PostingList> personBuild = new HashMap<Integer, PostingList>();
+    Map<Integer, PostingList> categoryBuild = new HashMap<Integer, PostingList>();
+    Map<Integer, PostingList> channelBuild = new HashMap<Integer, PostingList>();
+    Map<Integer, PostingList> networkBuild = new HashMap<Integer, PostingList>();
+    firstRuns = new BitSet(airings.length);
+    weekHours = new BitSet[HOURS_PER_WEEK];
+    days = new BitSet[7];
+    hours = new BitSet[24];
+    Calendar cal = new GregorianCalendar();
+    for (int i = 0; i < airings.length; i++)
+    {
+      Airing air = airings[i];
+      Show show = air.getShow();
+      // These can't match anything
+      if (show == null)
+        continue;
+      if (show.title != null)
+        addPosting(titleBuild, getKey(show.title), i);
+      Person[] people = show.people;
+      for (int j = 0; j < people.length; j++)
+        addPosting(personBuild, getKey(people[j]), i);
+      // Agents only look at the first two categories, and either one can match either of theirs
+      Stringer[] categories = show.categories;
+      for (int j = 0; j < Math.min(2, categories.length); j++)
+        addPosting(categoryBuild, getKey(categories[j]), i);
+      Channel c = air.getChannel();
+      if (c != null)
+      {
+        if (c.name != null)
+          addPosting(channelBuild, c.name.hashCode(), i);
+        if (c.network != null)
+          addPosting(networkBuild, getKey(c.network), i);
+      }
+      if (air.isFirstRun())
+        firstRuns.set(i);
+
+      // This is what BigBrother.alignsSlot checks against
+      int[] slotRange = Profiler.determineSlots(air, cal);
+      for (int slot = slotRange[0]; slot <= slotRange[1]; slot++)
+      {
+        if (slot < HOURS_PER_WEEK)
+        {
+          setBit(weekHours, slot, i);
+          setBit(days, slot / 24, i);
+        }
+        setBit(hours, slot % 24, i);
+      }
+    }
+    titles = compact(titleBuild);
+    people = compact(personBuild);
+    categories = compact(categoryBuild);
+    channels = compact(channelBuild);
+    networks = compact(networkBuild);
+  }
+
+  Airing[] getAirings()
+  {
+    return airings;
+  }
+
+  /**
+   * Returns the positions of the Airings that could match this Agent in ascending order, or null
+   * if the Agent doesn't have any criteria that's indexed and all of the Airings need to be
+   * checked.
+   */
+  int[] getCandidates(Agent agent)
+  {
+    // The clauses with the position lists; we go through the shortest one and check the rest
+    int[][] lists = new int[7][];
+    int numLists = 0;
+    if (agent.title != null)
+      lists[numLists++] = get(titles, getKey(agent.title));
+    if (agent.person != null)
+      lists[numLists++] = get(people, getKey(agent.person));
+    if (agent.category != null)
+      lists[numLists++] = get(categories, getKey(agent.category));
+    if (agent.subCategory != null)
+      lists[numLists++] = get(categories, getKey(agent.subCategory));
+    if (agent.chanName.length() > 0)
+    {
+      String[] chanNames = agent.chanNames;
+      if (chanNames == null || chanNames.length == 0)
+        return EMPTY;
+      int[] chanList = get(channels, chanNames[0].hashCode());
+      for (int i = 1; i < chanNames.length; i++)
+        chanList = union(chanList, get(channels, chanNames[i].hashCode()));
+      lists[numLists++] = chanList;
+    }
+    if (agent.network != null)
+      lists[numLists++] = get(networks, getKey(agent.network));
+
+    boolean firstRunOnly = (agent.agentMask & Agent.FIRSTRUN_MASK) == Agent.FIRSTRUN_MASK;
+    boolean rerunOnly = (agent.agentMask & Agent.RERUN_MASK) == Agent.RERUN_MASK;
+    BitSet slots = null;
+    if (agent.slotType != 0 && agent.timeslots != null && agent.timeslots.length > 0)
+      slots = getSlots(agent.slotType, agent.timeslots);
+
+    if (numLists == 0)
+    {
+      if (slots == null && !firstRunOnly && !rerunOnly)
+        return null;
+      BitSet bits;
+      if (slots != null)
+        bits = slots;
+      else
+      {
+        bits = new BitSet(airings.length);
+        bits.set(0, airings.length);
+      }
+      if (firstRunOnly)
+        bits.and(firstRuns);
+      if (rerunOnly)
+        bits.andNot(firstRuns);
+      int[] rv = new int[bits.cardinality()];
+      for (int i = bits.nextSetBit(0), j = 0; i >= 0; i = bits.nextSetBit(i + 1))
+        rv[j++] = i;
+      return rv;
+    }
+
+    int shortest = 0;
+    for (int i = 1; i < numLists; i++)
+    {
+      if (lists[i].length < lists[shortest].length)
+        shortest = i;
+    }
+    int[] driver = lists[shortest];
+    int[] rv = new int[driver.length];
+    int numMatches = 0;
+    candidate_loop:
+    for (int i = 0; i < driver.length; i++)
+    {
+      int pos = driver[i];
+      if (firstRunOnly && !firstRuns.get(pos))
+        continue;
+      if (rerunOnly && firstRuns.get(pos))
+        continue;
+      if (slots != null && !slots.get(pos))
+        continue;
+      for (int j = 0; j < numLists; j++)
+      {
+        if (j != shortest && Arrays.binarySearch(lists[j], pos) < 0)
+          continue candidate_loop;
+      }
+      rv[numMatches++] = pos;
+    }
+    return (numMatches == rv.length) ? rv : Arrays.copyOf(rv, numMatches);
+  }
+
+  // Returns the Airings that are in any of the timeslots, or null if we can't tell from the index
+  private BitSet getSlots(int slotType, int[] timeslots)
+  {
+    BitSet rv = new BitSet(airings.length);
+    for (int i = 0; i < timeslots.length; i++)
+    {
+      int slot = timeslots[i];
+      if (slot < 0 || slot >= HOURS_PER_WEEK)
+        return null;
+      BitSet bits;
+      if (slotType == BigBrother.FULL_ALIGN)
+        bits = weekHours[slot];
+      else if (slotType == BigBrother.DAY_ALIGN)
+        bits = days[slot / 24];
+      else if (slotType == BigBrother.TIME_ALIGN)
+        bits = hours[slot % 24];
+      else
+        return null;
+      if (bits != null)
+        rv.or(bits);
+    }
+    return rv;
+  }
+
+  private static int getKey(Stringer s)
+  {
+    // The hash should always be set, but Stringer.equalsIgnoreCase doesn't count on that either
+    return (s.ignoreCaseHash != 0 || s.name == null) ? s.ignoreCaseHash : s.name.toLowerCase().hashCode();
+  }
+
+  private static int getKey(Person p)
+  {
+    return (p.ignoreCaseHash != 0 || p.name == null) ? p.ignoreCaseHash : p.name.toLowerCase().hashCode();
+  }
+
+  private static int[] get(Map<Integer, int[]> map, int key)
+  {
+    int[] rv = map.get(key);
+    return (rv == null) ? EMPTY : rv;
+  }
+
+  private static void setBit(BitSet[] bits, int index, int pos)
+  {
+    if (bits[index] == null)
+      bits[index] = new BitSet();
+    bits[index].set(pos);
+  }
+
+  private static void addPosting(Map<Integer, PostingList> map, int key, int pos)
+  {
+    PostingList list = map.get(key);
+    if (list == null)
+      map.put(key, list = new PostingList());
+    list.add(pos);
+  }
+
+  private static Map<Integer, int[]> compact(Map<Integer, PostingList> map)
+  {
+    Map<Integer, int[]> rv = new HashMap<Integer, int[]>(Math.max(16, (int) (map.size() / 0.75f) + 1));
+    for (Map.Entry<Integer, PostingList> entry : map.entrySet())
+      rv.put(entry.getKey(), entry.getValue().toArray());
+    return rv;
+  }
+
+  // Merges two sorted lists of positions
+  private static int[] union(int[] a, int[] b)
+  {
+    if (a.length == 0)
+      return b;
+    if (b.length == 0)
+      return a;
+    int[] rv = new int[a.length + b.length];
+    int i = 0, j = 0, k = 0;
+    while (i < a.length && j < b.length)
+    {
+      if (a[i] < b[j])
+        rv[k++] = a[i++];
+      else if (a[i] > b[j])
+        rv[k++] = b[j++];
+      else
+      {
+        rv[k++] = a[i++];
+        j++;
+      }
+    }
+    while (i < a.length)
+      rv[k++] = a[i++];
+    while (j < b.length)
+      rv[k++] = b[j++];
+    return (k == rv.length) ? rv : Arrays.copyOf(rv, k);
+  }
+
+  private static class PostingList
+  {
+    int[] data = new int[4];
+    int size;
+
+    void add(int pos)
+    {
+      // The positions are added in order, an Airing can have the same key more than once though
+      if (size > 0 && data[size - 1] == pos)
+        return;
+      if (size == data.length)
+        data = Arrays.copyOf(data, size * 2);
+      data[size++] = pos;
+    }
+
+    int[] toArray()
+    {
+      return Arrays.copyOf(data, size);
+    }
+  }
+
+  private static final int[] EMPTY = new int[0];
+
+  private final Airing[] airings;
+  private final Map<Integer, int[]> titles;
+  private final Map<Integer, int[]> people;
+  private final Map<Integer, int[]> categories;
+  private final Map<Integer, int[]> channels;
+  private final Map<Integer, int[]> networks;
+  private final BitSet firstRuns;
+  // Indexed by hour of the week, day of the week and hour of the day
+  private final BitSet[] weekHours;
+  private final BitSet[] days;
+  private final BitSet[] hours;
+}
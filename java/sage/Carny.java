@@ -56,6 +56,15 @@ public final class Carny implements Runnable
   // increase collisions which will cause more airings to be grouped together at the expense of a
   // very moderate performance loss.
   private static final String MAP_DENSITY = "carny_map_density";
+  // When only some Airings have changed in the DB since the last pass, we only profile those
+  // Airings instead of doing a full pass. A full pass is still done when there are more changes
+  // than the max, or if it has been longer than the interval since the last full pass.
+  private static final String CARNY_INCREMENTAL = "carny_incremental";
+  private static final String CARNY_INCREMENTAL_MAX_CHANGES = "carny_incremental_max_changes";
+  private static final String CARNY_INCREMENTAL_FULL_INTERVAL = "carny_incremental_full_interval";
+  // This uses an inverted index of the airings to find the ones each agent could match, instead of
+  // looking through everything in the map buckets for any of its criteria.
+  private static final String CARNY_AIRING_INDEX = "carny_airing_index";
   static final String CARNY_KEY = "carny";
 
   private static final long LOOKAHEAD = 14*24*60*60*1000L;
@@ -178,6 +187,9 @@ public final class Carny implements Runnable
             continue;
           }
         }
+        // Changes to what's been watched or to the Favorites affect the watch probabilities of the
+        // Agents, so those always need a full pass
+        boolean fullPass = false;
         while (!jobs.isEmpty())
         {
           Object[] currJob = jobs.remove(0);
@@ -189,9 +201,12 @@ public final class Carny implements Runnable
           }
           else if (currJob[0] == WASTED_JOB)
             applyWasteData((Airing) currJob[1]);
+          if (currJob[0] != STD_JOB && currJob[0] != REQUIRED_JOB)
+            fullPass = true;
           synchronized (jobs) { jobs.notifyAll(); }
         }
-        stdProcessing();
+        if (fullPass || !incrementalProcessing())
+          stdProcessing();
 
       }catch(Throwable t)
       {
@@ -301,6 +316,7 @@ public final class Carny implements Runnable
 
     handleAddedFavorite(rv);
 
+    prioritizeAgent(rv);
     submitJob(new Object[] { LOVE_JOB, null });
     sage.plugin.PluginEventManager.postEvent(sage.plugin.PluginEventManager.FAVORITE_ADDED,
         new Object[] { sage.plugin.PluginEventManager.VAR_FAVORITE, rv });
@@ -563,6 +579,7 @@ public final class Carny implements Runnable
       clientSyncAll();
       SchedulerSelector.getInstance().kick(true);
     }
+    prioritizeAgent(fav);
     submitJob(new Object[] { LOVE_JOB, null });
     sage.plugin.PluginEventManager.postEvent(sage.plugin.PluginEventManager.FAVORITE_MODIFIED,
         new Object[] { sage.plugin.PluginEventManager.VAR_FAVORITE, fav });
@@ -697,6 +714,7 @@ public final class Carny implements Runnable
           //Next update the Carny internal state
           if(enabled) {
               handleAddedFavorite(fav);
+              prioritizeAgent(fav);
           } else {
               handleRemovedFavorite(fav, Arrays.asList(Wizard.getInstance().getFavorites()));
           }
@@ -785,6 +803,15 @@ public final class Carny implements Runnable
     }
   }
 
+  // The next profiling pass will do this agent before the others
+  private void prioritizeAgent(Agent agent)
+  {
+    synchronized (changedAgents)
+    {
+      changedAgents.add(agent);
+    }
+  }
+
   void submitJob(Object[] jobData)
   {
     synchronized (jobs)
@@ -1107,16 +1134,8 @@ public final class Carny implements Runnable
     return returnMap;
   }
 
-  private void stdProcessing()
+  private static int getMapBitShift()
   {
-    String lastMessage = null;
-    if (!doneInit)
-    {
-      lastMessage = Sage.rez("Module_Init_Progress", new Object[] { Sage.rez("Profiler"), new Double(0)});
-      Sage.setSplashText(lastMessage);
-    }
-
-    boolean disableCarnyMaps = Sage.getBoolean(DISABLE_CARNY_MAPS, false);
     // Windows is still 32-bit, so we use this to keep memory usage down by what can be a
     // substantial amount.
     // 05/20/2017 JS: I did have 1 bit shifted for Linux, but I felt might not work well for
@@ -1128,6 +1147,20 @@ public final class Carny implements Runnable
       mapBitShift = 27;
     else if (mapBitShift < 0)
       mapBitShift = 0;
+    return mapBitShift;
+  }
+
+  private void stdProcessing()
+  {
+    String lastMessage = null;
+    if (!doneInit)
+    {
+      lastMessage = Sage.rez("Module_Init_Progress", new Object[] { Sage.rez("Profiler"), new Double(0)});
+      Sage.setSplashText(lastMessage);
+    }
+
+    boolean disableCarnyMaps = Sage.getBoolean(DISABLE_CARNY_MAPS, false);
+    int mapBitShift = getMapBitShift();
     // This tracks when we started trying to compile the profiler info so we don't keep aborting
     // attempts forever if it takes a long time to figure out
     if (lastCycleCompleteTime >= cycleStartTime)
@@ -1142,6 +1175,16 @@ public final class Carny implements Runnable
       // Clear this out since we're getting fresh airings from the DB now
       swapMap.clear();
     }
+    synchronized (changedAirings)
+    {
+      // Same for these, anything that changes after this will be picked up by the next pass
+      changedAirings.clear();
+      removedAirings.clear();
+      changedShows.clear();
+      changedFileAirings.clear();
+      fullPassRequired = false;
+      incrementalReady = false;
+    }
     // We are getting binary sorted by CT code because these will not include old airings that have
     // been replaced with new ones on the same station and timeslot.
     DBObject[] rawAirs = wiz.getRawAccess(Wizard.AIRING_CODE, Wizard.AIRINGS_BY_CT_CODE);
@@ -1195,36 +1238,37 @@ public final class Carny implements Runnable
     }
 
     // Add all of the work into a shared queue so we don't end up giving one thread a lot more work
-    // over another.
-    int submittedAgents;
-    if (!doneInit && Sage.getBoolean(LIMITED_CARNY_INIT, true))
-    {
-      for (int i = 0, allAgentsLen = allAgents.length; i < allAgentsLen; i++)
-      {
-        Agent currAgent = (Agent) allAgents[i];
-        // This is an inexpensive check against two flags so we aren't adding agents to the queue
-        // that we already know shouldn't be there.
-        if (currAgent != null && !currAgent.testAgentFlag(Agent.DISABLED_FLAG) && currAgent.isFavorite())
-        {
-          agentWorkQueue.add(currAgent);
-        }
-      }
-      submittedAgents = agentWorkQueue.size();
-    }
-    else
-    {
-      for (int i = 0, allAgentsLen = allAgents.length; i < allAgentsLen; i++)
-      {
-        Agent currAgent = (Agent) allAgents[i];
-        // This is an inexpensive check against a flag so we aren't adding agents to the queue that
-        // we already know shouldn't be there.
-        if (currAgent != null && !currAgent.testAgentFlag(Agent.DISABLED_FLAG))
-        {
-          agentWorkQueue.add(currAgent);
-        }
-      }
-      submittedAgents = agentWorkQueue.size();
-    }
+    // over another. The Favorites that were just changed go first, then the rest of the Favorites
+    // and then everything else. The workers merge their results the same way regardless of which
+    // order the agents are done in.
+    Set<Agent> priorityAgents;
+    synchronized (changedAgents)
+    {
+      priorityAgents = new HashSet<Agent>(changedAgents);
+    }
+    currPriorityAgents = priorityAgents;
+    boolean favoritesOnly = !doneInit && Sage.getBoolean(LIMITED_CARNY_INIT, true);
+    List<Agent> favoriteAgents = new ArrayList<Agent>();
+    List<Agent> otherAgents = new ArrayList<Agent>();
+    for (int i = 0, allAgentsLen = allAgents.length; i < allAgentsLen; i++)
+    {
+      Agent currAgent = (Agent) allAgents[i];
+      // This is an inexpensive check against two flags so we aren't adding agents to the queue
+      // that we already know shouldn't be there.
+      if (currAgent == null || currAgent.testAgentFlag(Agent.DISABLED_FLAG))
+        continue;
+      if (priorityAgents.contains(currAgent))
+        agentWorkQueue.add(currAgent);
+      else if (currAgent.isFavorite())
+        favoriteAgents.add(currAgent);
+      else if (!favoritesOnly)
+        otherAgents.add(currAgent);
+    }
+    agentWorkQueue.addAll(favoriteAgents);
+    agentWorkQueue.addAll(otherAgents);
+    int submittedAgents = agentWorkQueue.size();
+    favoriteAgents = null;
+    otherAgents = null;
 
     Map<Integer, Airing[]> allAirsMap;
     Map<Integer, Airing[]> remAirsMap;
@@ -1292,7 +1336,14 @@ public final class Carny implements Runnable
     // Free these fairly huge arrays up for GC.
     airset = null;
     remAirSet = null;
-    CarnyCache seedCache = new CarnyCache(allAirsMap, remAirsMap, watchAirsMap, wastedAirsMap);
+    CarnyCache seedCache;
+    if (!disableCarnyMaps && Sage.getBoolean(CARNY_AIRING_INDEX, true))
+    {
+      seedCache = new CarnyCache(allAirsMap, remAirsMap, watchAirsMap, wastedAirsMap,
+        new AiringIndex(allAirs), new AiringIndex(remAirs));
+    }
+    else
+      seedCache = new CarnyCache(allAirsMap, remAirsMap, watchAirsMap, wastedAirsMap);
 
     if (Sage.DBG) System.out.println("CARNY Processing " + submittedAgents + " Agents & " + allAirs.length + " Airs");
 
@@ -1325,7 +1376,7 @@ public final class Carny implements Runnable
     {
       Callable<CarnyWorkerCallback> newJob = new CarnyAgentWorker(controlCPUUsage, totalThreads,
         doneInit, useLegacyKeyword, aggressiveNegativeProfiling, mapBitShift, allAirs, remAirs,
-        watchAirs, wastedAirs, i != 0 ? new CarnyCache(seedCache) : seedCache);
+        watchAirs, wastedAirs, i != 0 ? new CarnyCache(seedCache) : seedCache, null);
 
       agentWorkerFutures[i] = agentWorkers.submit(newJob);
     }
@@ -1668,6 +1719,18 @@ public final class Carny implements Runnable
 
     prepped = true;
     lastCycleCompleteTime = Sage.eventTime();
+    // Anything that was changed after we started will still be done first on the next pass
+    synchronized (changedAgents)
+    {
+      changedAgents.removeAll(priorityAgents);
+    }
+    synchronized (changedAirings)
+    {
+      // A pass limited to the Favorites can't be updated incrementally since the other Agents
+      // aren't in it yet
+      incrementalReady = !favoritesOnly;
+      lastFullCycleTime = lastCycleCompleteTime;
+    }
 
     long timeSpan = lastCycleCompleteTime - cycleStartTime;
     if (timeSpan < Sage.MILLIS_PER_MIN * 2)
@@ -1692,6 +1755,363 @@ public final class Carny implements Runnable
     System.exit(0);*/
   }
 
+  /**
+   * Called by the Wizard for each change that's made to the DB; these are the same changes that go
+   * into the transaction log. We keep track of which Airings were changed so the next pass only
+   * needs to profile those.
+   */
+  void notifyDBChange(byte opCode, byte tableCode, DBObject obj)
+  {
+    switch (tableCode)
+    {
+      case Wizard.AIRING_CODE:
+        addAiringChange((Airing) obj, opCode == Wizard.REMOVE);
+        break;
+      case Wizard.SHOW_CODE:
+        // New Shows don't matter until there's an Airing for them
+        if (opCode == Wizard.UPDATE)
+        {
+          synchronized (changedAirings)
+          {
+            if (!fullPassRequired)
+            {
+              changedShows.add((Show) obj);
+              checkChangeCount();
+            }
+          }
+        }
+        break;
+      case Wizard.MEDIAFILE_CODE:
+        // Recordings change what's watched and the keep at most limits of Favorites
+        Airing fileAir = ((MediaFile) obj).getContentAiring();
+        addAiringChange(fileAir, false);
+        if (fileAir != null)
+        {
+          synchronized (changedAirings)
+          {
+            if (!fullPassRequired)
+              changedFileAirings.add(fileAir);
+          }
+        }
+        break;
+      case Wizard.WATCH_CODE:
+        addAiringChange(((Watched) obj).getAiring(), false);
+        break;
+      case Wizard.WASTED_CODE:
+        addAiringChange(((Wasted) obj).getAiring(), false);
+        break;
+      case Wizard.AGENT_CODE:
+      case Wizard.CHANNEL_CODE:
+        // These can change what any of the Airings match
+        synchronized (changedAirings)
+        {
+          requireFullPass();
+        }
+        break;
+    }
+  }
+
+  private void addAiringChange(Airing air, boolean removed)
+  {
+    if (air == null)
+      return;
+    synchronized (changedAirings)
+    {
+      if (fullPassRequired)
+        return;
+      if (removed)
+      {
+        changedAirings.remove(air);
+        removedAirings.add(air);
+      }
+      else
+      {
+        removedAirings.remove(air);
+        changedAirings.add(air);
+      }
+      checkChangeCount();
+    }
+  }
+
+  // Must be called while synchronized on changedAirings
+  private void checkChangeCount()
+  {
+    if (changedAirings.size() + removedAirings.size() + changedShows.size() >
+        Sage.getInt(CARNY_INCREMENTAL_MAX_CHANGES, 5000))
+    {
+      requireFullPass();
+    }
+  }
+
+  // Must be called while synchronized on changedAirings
+  private void requireFullPass()
+  {
+    fullPassRequired = true;
+    changedAirings.clear();
+    removedAirings.clear();
+    changedShows.clear();
+    changedFileAirings.clear();
+  }
+
+  /**
+   * Updates the profile for only the Airings that have changed in the DB since the last pass. All
+   * of the enabled Agents are checked against just those Airings using the watch probabilities from
+   * the last full pass, and the results for those Airings replace what we had for them in the WP
+   * map, cause map, must see set, love set and pots. The Agents and the maps in the CarnyCache only
+   * cover the changed Airings, so this takes time based on how much changed rather than how big the
+   * guide is.
+   *
+   * @return <code>false</code> if a full pass needs to be done instead.
+   */
+  private boolean incrementalProcessing()
+  {
+    if (!doneInit || !prepped || !Sage.getBoolean(CARNY_INCREMENTAL, true))
+      return false;
+    Set<Airing> deltaAirs;
+    Set<Airing> deltaRemoved;
+    Set<Show> deltaShows;
+    Set<Airing> deltaFileAirs;
+    synchronized (changedAirings)
+    {
+      // We still do a full pass every so often so Airings that moved into the scheduling window
+      // since the last one get profiled
+      if (!incrementalReady || fullPassRequired || Sage.eventTime() - lastFullCycleTime >
+          Sage.getLong(CARNY_INCREMENTAL_FULL_INTERVAL, 12 * Sage.MILLIS_PER_HR))
+        return false;
+      deltaAirs = new HashSet<Airing>(changedAirings);
+      deltaRemoved = new HashSet<Airing>(removedAirings);
+      deltaShows = new HashSet<Show>(changedShows);
+      deltaFileAirs = new HashSet<Airing>(changedFileAirings);
+      changedAirings.clear();
+      removedAirings.clear();
+      changedShows.clear();
+      changedFileAirings.clear();
+    }
+    long startTime = Sage.eventTime();
+    for (Show show : deltaShows)
+    {
+      Airing[] showAirs = wiz.getAirings(show, 0);
+      for (int i = 0; i < showAirs.length; i++)
+      {
+        if (!deltaRemoved.contains(showAirs[i]))
+          deltaAirs.add(showAirs[i]);
+      }
+    }
+    if (deltaAirs.size() + deltaRemoved.size() > Sage.getInt(CARNY_INCREMENTAL_MAX_CHANGES, 5000))
+      return false;
+    if (deltaAirs.isEmpty() && deltaRemoved.isEmpty())
+    {
+      if (Sage.DBG) System.out.println("CARNY has no changes to profile.");
+      return true;
+    }
+
+    // When the recordings of a Favorite with a keep at most limit and manual deleting change, that
+    // can change whether any of its airings get scheduled; not just the changed ones. The merge below
+    // only updates the changed airings, so those need a full pass.
+    for (Airing a : deltaAirs)
+    {
+      if (wiz.getFileForAiring(a) != null)
+        deltaFileAirs.add(a);
+    }
+    if (!deltaFileAirs.isEmpty())
+    {
+      StringBuilder sb = new StringBuilder();
+      DBObject[] agents = wiz.getRawAccess(Wizard.AGENT_CODE, Wizard.AGENTS_BY_CARNY_CODE);
+      for (int i = 0; i < agents.length; i++)
+      {
+        Agent currAgent = (Agent) agents[i];
+        if (currAgent == null || currAgent.testAgentFlag(Agent.DISABLED_FLAG) || !currAgent.isFavorite() ||
+          !currAgent.testAgentFlag(Agent.DONT_AUTODELETE_FLAG) || currAgent.getAgentFlag(Agent.KEEP_AT_MOST_MASK) <= 0)
+          continue;
+        for (Airing a : deltaFileAirs)
+        {
+          if (currAgent.followsTrend(a, false, sb))
+          {
+            if (Sage.DBG) System.out.println("CARNY needs a full pass since the recordings changed for keep at most " +
+              "Favorite " + currAgent);
+            return false;
+          }
+        }
+      }
+    }
+
+    // This splits them up the same way a full pass does.
+    List<Airing> airset = new ArrayList<>();
+    List<Airing> remAirSet = new ArrayList<>();
+    long currLookahead = Sage.getLong("scheduling_lookahead", LOOKAHEAD);
+    int testMask = DBObject.MEDIA_MASK_TV;
+    long currTime = Sage.time();
+    for (Airing a : deltaAirs)
+    {
+      boolean inAirSet = false;
+      if (a.hasMediaMaskAny(testMask))
+      {
+        if (a.getStartTime() < currTime + currLookahead &&
+            a.getStartTime() >= currTime - Scheduler.SCHEDULING_LOOKBEHIND && a.isTV())
+        {
+          airset.add(a);
+          inAirSet = true;
+        }
+        else
+        {
+          remAirSet.add(a);
+        }
+      }
+      if (!inAirSet)
+      {
+        MediaFile mf = wiz.getFileForAiring(a);
+        if (mf != null && !mf.isArchiveFile() && mf.isTV())
+          airset.add(a);
+      }
+    }
+    Collections.sort(airset, DBObject.ID_COMPARATOR);
+    Collections.sort(remAirSet, DBObject.ID_COMPARATOR);
+
+    // The keep at most limits of Favorites depend on all of their recordings, not just the ones
+    // that changed.
+    MediaFile[] mfs = wiz.getFiles();
+    List<Airing> fileAirSet = new ArrayList<>(mfs.length);
+    for (int i = 0, mfsLen = mfs.length; i < mfsLen; i++)
+    {
+      MediaFile mf = mfs[i];
+      if (mf != null && !mf.isArchiveFile() && mf.isTV())
+      {
+        Airing contentAir = mf.getContentAiring();
+        if (contentAir != null)
+          fileAirSet.add(contentAir);
+      }
+    }
+    Collections.sort(fileAirSet, DBObject.ID_COMPARATOR);
+
+    Airing[] allAirs = airset.toArray(Pooler.EMPTY_AIRING_ARRAY);
+    Airing[] remAirs = remAirSet.toArray(Pooler.EMPTY_AIRING_ARRAY);
+    Airing[] fileAirs = fileAirSet.toArray(Pooler.EMPTY_AIRING_ARRAY);
+    int mapBitShift = getMapBitShift();
+    CarnyCache cache;
+    if (Sage.getBoolean(DISABLE_CARNY_MAPS, false))
+      cache = new CarnyCache(null, null, null, null);
+    else
+    {
+      // The watched and wasted maps are only used to calculate the watch probabilities which we
+      // don't do here.
+      boolean useIndex = Sage.getBoolean(CARNY_AIRING_INDEX, true);
+      cache = new CarnyCache(buildMap(allAirs, mapBitShift), buildMap(remAirs, mapBitShift),
+        new HashMap<Integer, Airing[]>(), new HashMap<Integer, Wasted[]>(),
+        useIndex ? new AiringIndex(allAirs) : null, useIndex ? new AiringIndex(remAirs) : null);
+    }
+
+    DBObject[] allAgents = wiz.getRawAccess(Wizard.AGENT_CODE, Wizard.AGENTS_BY_CARNY_CODE);
+    for (int i = 0, allAgentsLen = allAgents.length; i < allAgentsLen; i++)
+    {
+      Agent currAgent = (Agent) allAgents[i];
+      if (currAgent != null && !currAgent.testAgentFlag(Agent.DISABLED_FLAG))
+        agentWorkQueue.add(currAgent);
+    }
+    int submittedAgents = agentWorkQueue.size();
+    if (Sage.DBG) System.out.println("CARNY Incremental processing " + submittedAgents + " Agents & " +
+      allAirs.length + " Airs, " + deltaRemoved.size() + " removed Airs");
+
+    CarnyWorkerCallback callback;
+    try
+    {
+      callback = new CarnyAgentWorker(false, 1, doneInit,
+        Sage.getBoolean("use_legacy_keyword_favorites", true),
+        Sage.getBoolean("aggressive_negative_profiling", false), mapBitShift, allAirs, remAirs,
+        null, null, cache, fileAirs).call();
+    }
+    catch (Exception e)
+    {
+      agentWorkQueue.clear();
+      if (Sage.DBG)
+      {
+        System.out.println("CARNY created an exception while processing incrementally: " + e.getMessage());
+        e.printStackTrace(System.out);
+      }
+      return false;
+    }
+    if (!callback.complete)
+    {
+      // We stopped for another job; those always do a full pass.
+      agentWorkQueue.clear();
+      synchronized (changedAirings)
+      {
+        requireFullPass();
+      }
+      return true;
+    }
+
+    // Keyword Favorites can match Airings that aren't in the changes. What we have for those is
+    // still correct, so they're skipped.
+    Set<Airing> newMustSees = new HashSet<Airing>();
+    for (int i = 0, size = callback.newMustSeeSet.size(); i < size; i++)
+    {
+      Airing a = callback.newMustSeeSet.get(i);
+      if (deltaAirs.contains(a))
+        newMustSees.add(a);
+    }
+    // Remove any blackballs that are favorites now; unless they're marked don't like
+    Set<Airing> badAirs = new HashSet<Airing>();
+    for (int i = 0, size = callback.blackBalled.size(); i < size; i++)
+    {
+      Airing a = callback.blackBalled.get(i);
+      if (deltaAirs.contains(a) && !newMustSees.contains(a))
+        badAirs.add(a);
+    }
+    for (Airing a : deltaAirs)
+    {
+      if (wiz.getWastedForAiring(a) != null)
+        badAirs.add(a);
+    }
+    newMustSees.removeAll(badAirs);
+    Set<Airing> watchedPotsToClear = new HashSet<Airing>(callback.watchedPotsToClear);
+
+    Set<Airing> affectedAirs = new HashSet<Airing>(deltaAirs);
+    affectedAirs.addAll(deltaRemoved);
+    synchronized (this)
+    {
+      loveAirSet.removeAll(affectedAirs);
+      mustSeeSet.removeAll(affectedAirs);
+      wpMap.keySet().removeAll(affectedAirs);
+      causeMap.keySet().removeAll(affectedAirs);
+
+      for (int i = 0, size = callback.newLoveAirSet.size(); i < size; i++)
+      {
+        Airing a = callback.newLoveAirSet.get(i);
+        if (deltaAirs.contains(a))
+          loveAirSet.add(a);
+      }
+      mustSeeSet.addAll(newMustSees);
+      for (int i = 0, size = callback.newWPCauses.size(); i < size; i++)
+      {
+        WPCauseValue value = callback.newWPCauses.get(i);
+        if (!deltaAirs.contains(value.airing) || badAirs.contains(value.airing))
+          continue;
+        causeMap.put(value.airing, value.agent);
+        if (!watchedPotsToClear.contains(value.airing))
+          wpMap.put(value.airing, value.wp);
+      }
+      List<Airing> newPots = new ArrayList<>(pots.length + callback.airSet.size());
+      for (int i = 0; i < pots.length; i++)
+      {
+        if (!affectedAirs.contains(pots[i]))
+          newPots.add(pots[i]);
+      }
+      for (int i = 0, size = callback.airSet.size(); i < size; i++)
+      {
+        Airing a = callback.airSet.get(i);
+        if (deltaAirs.contains(a) && !badAirs.contains(a))
+          newPots.add(a);
+      }
+      pots = newPots.toArray(Pooler.EMPTY_AIRING_ARRAY);
+    }
+    clientSyncAll();
+
+    if (Sage.DBG) System.out.println("CARNY finished incremental processing in " +
+      (Sage.eventTime() - startTime) + "ms");
+    SchedulerSelector.getInstance().kick(false);
+    return true;
+  }
+
   public int getWatchCount() { return globalWatchCount; }
 
   public synchronized float getWP(Airing air)
@@ -2123,6 +2543,7 @@ public final class Carny implements Runnable
 
   private long lastCycleCompleteTime;
   private long cycleStartTime;
+  private long lastFullCycleTime;
 
   // Airing -> Float
   private Map<Airing, Float> wpMap;
@@ -2141,6 +2562,19 @@ public final class Carny implements Runnable
   // fairly quickly.
   private ConcurrentLinkedQueue<Agent> agentWorkQueue;
   private ExecutorService agentWorkers;
+  // Favorites that were added or changed since the last time profiling finished, these are
+  // processed first
+  private final Set<Agent> changedAgents = new HashSet<Agent>();
+  private volatile Set<Agent> currPriorityAgents = Collections.emptySet();
+  // The changes made to the DB since the last pass started, these are all guarded by changedAirings
+  private final Set<Airing> changedAirings = new HashSet<Airing>();
+  private final Set<Airing> removedAirings = new HashSet<Airing>();
+  private final Set<Show> changedShows = new HashSet<Show>();
+  // The content Airings of the MediaFiles that changed, these can be for recordings that were deleted
+  private final Set<Airing> changedFileAirings = new HashSet<Airing>();
+  private boolean fullPassRequired = true;
+  // Set once a full pass of all of the Agents has completed
+  private boolean incrementalReady;
 
   private static final int strComp(DBObject s1, DBObject s2)
   {
@@ -2550,11 +2984,13 @@ public final class Carny implements Runnable
     private final Airing remAirs[];
     private final Airing watchAirs[];
     private final Airing wastedAirs[];
+    // This is only set for incremental passes, it's the content airings of all of the recordings.
+    private final Airing fileAirs[];
 
     public CarnyAgentWorker(boolean controlCPUUsage, int totalThreads, boolean doneInit,
                             boolean legacyKeyword, boolean aggressiveNegativeProfiling, int mapBitShift,
                             Airing[] allAirs, Airing[] remAirs, Airing[] watchAirs, Airing[] wastedAirs,
-                            CarnyCache cache)
+                            CarnyCache cache, Airing[] fileAirs)
     {
       this.controlCPUUsage = controlCPUUsage;
       this.totalThreads = totalThreads;
@@ -2568,6 +3004,7 @@ public final class Carny implements Runnable
       this.remAirs = remAirs;
       this.watchAirs = watchAirs;
       this.wastedAirs = wastedAirs;
+      this.fileAirs = fileAirs;
     }
 
     // Returns false if the whole queue needs to be stopped for a new job. The above shared
@@ -2605,7 +3042,9 @@ public final class Carny implements Runnable
           break;
         }
 
-        if (controlCPUUsage)
+        // Don't slow down for the Favorites that were just changed since the user will be waiting
+        // to see what gets scheduled for them
+        if (controlCPUUsage && !currPriorityAgents.contains(currAgent))
           try {Thread.sleep(SLEEP_PERIOD * totalThreads);} catch (Exception e) {}
         if (doneInit)
         {
@@ -2624,7 +3063,9 @@ public final class Carny implements Runnable
 
         // This clears the array and then adds all of the hashes for this agent.
         currAgent.getHashes(cache.currentHashes, mapBitShift);
-        if (!currAgent.calcWatchProb(controlCPUUsage, watchAirs, wastedAirs, aggressiveNegativeProfiling, cache))
+        // Incremental passes use the watch probability from the last full pass.
+        if (fileAirs == null &&
+          !currAgent.calcWatchProb(controlCPUUsage, watchAirs, wastedAirs, aggressiveNegativeProfiling, cache))
         {
           callback.addTraitor(currAgent);
           continue;
@@ -2671,6 +3112,10 @@ public final class Carny implements Runnable
         if (isFavorite && currAgent.testAgentFlag(Agent.DONT_AUTODELETE_FLAG) &&
           currAgent.getAgentFlag(Agent.KEEP_AT_MOST_MASK) > 0)
         {
+          // An incremental pass only has the changed airings, so we need to check all of the
+          // recordings for this and then go back to the changed airings afterwards.
+          if (fileAirs != null)
+            currAgent.getRelatedAirings(fileAirs, controlCPUUsage, true, legacyKeyword, null, cache, sbCache);
           int fileCount = 0;
           for (int j = 0, potsWorkCacheSize = cache.airWorkCache.size; j < potsWorkCacheSize; j++)
           {
@@ -2683,6 +3128,8 @@ public final class Carny implements Runnable
           {
             dontScheduleThisAgent = true;
           }
+          if (fileAirs != null)
+            currAgent.getRelatedAirings(allAirs, controlCPUUsage, true, legacyKeyword, allAirsMap, cache, sbCache);
         }
 
         int potsWorkCacheSize = cache.airWorkCache.size;
@@ -2737,7 +3184,10 @@ public final class Carny implements Runnable
             if (isWatchedForSchedulingPurposes)
               callback.addWatchedPotsToClear(agentPot);
           }
-          else if (causeValue.compareAndReplace(currAgent, false) && isWatchedForSchedulingPurposes)
+          // The agents aren't always processed in AGENT_SORTER order since changed Favorites are
+          // moved to the front of the queue, so ties need to be broken the same way as when the
+          // workers are merged or the results would depend on the order.
+          else if (causeValue.compareAndReplace(currAgent, true) && isWatchedForSchedulingPurposes)
           {
             callback.addWatchedPotsToClear(agentPot);
           }
@@ -3012,6 +3462,8 @@ public final class Carny implements Runnable
     final Map<Integer, Airing[]> remAirsMap;
     final Map<Integer, Airing[]> watchAirsMap;
     final Map<Integer, Wasted[]> wastedAirsMap;
+    final AiringIndex allAirsIndex;
+    final AiringIndex remAirsIndex;
     final int hashZero;
     final boolean useMaps;
 
@@ -3031,14 +3483,22 @@ public final class Carny implements Runnable
     public CarnyCache(CarnyCache cache)
     {
       this(cache.allAirsMap, cache.remAirsMap, cache.watchAirsMap, cache.wastedAirsMap,
-        cache.paidProgRez, cache.hashZero, cache.useMaps);
+        cache.allAirsIndex, cache.remAirsIndex, cache.paidProgRez, cache.hashZero, cache.useMaps);
     }
 
     // Create a new shared cache.
     public CarnyCache(Map<Integer, Airing[]> allAirsMap, Map<Integer, Airing[]> remAirsMap,
                       Map<Integer, Airing[]> watchAirsMap, Map<Integer, Wasted[]> wastedAirsMap)
     {
-      this(allAirsMap, remAirsMap, watchAirsMap, wastedAirsMap,
+      this(allAirsMap, remAirsMap, watchAirsMap, wastedAirsMap, null, null);
+    }
+
+    // Create a new shared cache that also has indexes of the airings.
+    CarnyCache(Map<Integer, Airing[]> allAirsMap, Map<Integer, Airing[]> remAirsMap,
+               Map<Integer, Airing[]> watchAirsMap, Map<Integer, Wasted[]> wastedAirsMap,
+               AiringIndex allAirsIndex, AiringIndex remAirsIndex)
+    {
+      this(allAirsMap, remAirsMap, watchAirsMap, wastedAirsMap, allAirsIndex, remAirsIndex,
         Sage.rez("Paid_Programming").toLowerCase(),
         (allAirsMap != null && remAirsMap != null && watchAirsMap != null && wastedAirsMap != null &&
           allAirsMap.get(0) == null && remAirsMap.get(0) == null &&
@@ -3048,6 +3508,7 @@ public final class Carny implements Runnable
 
     private CarnyCache(Map<Integer, Airing[]> allAirsMap, Map<Integer, Airing[]> remAirsMap,
                        Map<Integer, Airing[]> watchAirsMap, Map<Integer, Wasted[]> wastedAirsMap,
+                       AiringIndex allAirsIndex, AiringIndex remAirsIndex,
                        String paidProgRez, int hashZero, boolean useMaps)
     {
       this.paidProgRez = paidProgRez;
@@ -3055,12 +3516,24 @@ public final class Carny implements Runnable
       this.remAirsMap = remAirsMap;
       this.watchAirsMap = watchAirsMap;
       this.wastedAirsMap = wastedAirsMap;
+      this.allAirsIndex = allAirsIndex;
+      this.remAirsIndex = remAirsIndex;
 
       // If we know none of the maps have anything mapped to zero, we don't need to check this for
       // anything and this gives us a small performance bump.
       this.hashZero = hashZero;
       this.useMaps = useMaps;
     }
+
+    // Returns the index that was built for these airings, or null if there isn't one.
+    AiringIndex getAiringIndex(DBObject[] airings)
+    {
+      if (allAirsIndex != null && allAirsIndex.getAirings() == airings)
+        return allAirsIndex;
+      if (remAirsIndex != null && remAirsIndex.getAirings() == airings)
+        return remAirsIndex;
+      return null;
+    }
   }
 
   /**
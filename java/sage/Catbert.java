@@ -49,7 +49,6 @@ import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -516,8 +515,16 @@ public class Catbert
     return con.safeLookup("ReturnValue");
   }
 
-  private static Map<String, JEP> parserCache =
-      Collections.synchronizedMap(new HashMap<String, JEP>());
+  private static final ExpressionCache parserCache =
+      new ExpressionCache(Sage.getInt("ui/expression_cache_size", 50000));
+
+  /**
+   * Returns a description of the size and hit rate of the cache of parsed expressions.
+   */
+  public static String getExpressionCacheStats()
+  {
+    return parserCache.toString();
+  }
 
   public static Object evaluateExpression(String expr, final Context context, ZPseudoComp inUIComp, Widget src) throws Exception
   {
@@ -1808,6 +1815,15 @@ public class Catbert
       {
         if (actClass == null)
           actClass = Class.forName(className.replace('_', '.'), true, Sage.extClassLoader);
+        CallSite callSite = findCallSite(args);
+        if (callSite != null)
+        {
+          stack.push(callSite.invoke(args));
+          return;
+        }
+        // Get this before the arguments are converted so we can cache what we resolve for these types
+        Class<?>[] argClasses = REFLECTION_CALL_SITE_CACHE ? getArgClasses(args) : null;
+        Class<?>[] conversions = new Class[args.length];
         Class<?>[][] paramTypes = null;
         paramTypes = new Class[curNumberOfParameters][];
         for (int i = 0; i < curNumberOfParameters; i++)
@@ -1972,22 +1988,15 @@ public class Catbert
           {
             if (paramTypes[i] != null && methArgs[i].isPrimitive() && !methArgs[i].isAssignableFrom(((Class[])paramTypes[i])[1]))
             {
-              if (methArgs[i] == Byte.TYPE)
-                args[i] = ((Number) args[i]).byteValue();
-              else if (methArgs[i] == Short.TYPE)
-                args[i] = ((Number) args[i]).shortValue();
-              else if (methArgs[i] == Integer.TYPE)
-                args[i] = ((Number) args[i]).intValue();
-              else if (methArgs[i] == Long.TYPE)
-                args[i] = ((Number) args[i]).longValue();
-              else if (methArgs[i] == Float.TYPE)
-                args[i] = ((Number) args[i]).floatValue();
-              else if (methArgs[i] == Double.TYPE)
-                args[i] = ((Number) args[i]).doubleValue();
+              conversions[i] = methArgs[i];
+              args[i] = convertArg(args[i], methArgs[i]);
             } else if (args[i] instanceof Person && methArgs[i].isAssignableFrom(String.class)) {
+              conversions[i] = String.class;
               args[i] = ((Person) args[i]).toString();
             }
           }
+          if (argClasses != null)
+            addCallSite(new CallSite(argClasses, theConst, null, false, conversions));
           result = theConst.newInstance(args);
         }
         else
@@ -2113,7 +2122,8 @@ public class Catbert
               throw new sage.jep.ParseException("UNKNOWN METHOD ERROR name=" + methodName + " args=" + Arrays.asList(args));
           }
           int paramTypesOffset = 0;
-          if (((theMeth.getModifiers() & Modifier.STATIC) == 0) && (instObj == null))
+          boolean argIsThis = ((theMeth.getModifiers() & Modifier.STATIC) == 0) && (instObj == null);
+          if (argIsThis)
           {
             instObj = args[0];
             args = Arrays.asList(args).subList(1, args.length).toArray();
@@ -2123,22 +2133,15 @@ public class Catbert
           {
             if (paramTypes[i] != null && methArgs[i].isPrimitive() && !methArgs[i].isAssignableFrom(((Class[])paramTypes[i + paramTypesOffset])[1]))
             {
-              if (methArgs[i] == Byte.TYPE)
-                args[i] = new Byte(((Number) args[i]).byteValue());
-              else if (methArgs[i] == Short.TYPE)
-                args[i] = new Short(((Number) args[i]).shortValue());
-              else if (methArgs[i] == Integer.TYPE)
-                args[i] = new Integer(((Number) args[i]).intValue());
-              else if (methArgs[i] == Long.TYPE)
-                args[i] = new Long(((Number) args[i]).longValue());
-              else if (methArgs[i] == Float.TYPE)
-                args[i] = new Float(((Number) args[i]).floatValue());
-              else if (methArgs[i] == Double.TYPE)
-                args[i] = new Double(((Number) args[i]).doubleValue());
+              conversions[i] = methArgs[i];
+              args[i] = convertArg(args[i], methArgs[i]);
             } else if (args[i] instanceof Person && methArgs[i].isAssignableFrom(String.class)) {
+              conversions[i] = String.class;
               args[i] = ((Person) args[i]).toString();
             }
           }
+          if (argClasses != null)
+            addCallSite(new CallSite(argClasses, null, theMeth, argIsThis, conversions));
           result = theMeth.invoke(instObj, args);
         }
       }
@@ -2154,7 +2157,30 @@ public class Catbert
       stack.push(result);
     }
 
-    // NOTE We don't cache the reflected method object because of operator overloading
+    // Returns the cached target for calls with the same argument types as these, or null if there isn't one
+    private CallSite findCallSite(Object[] args)
+    {
+      CallSite[] currSites = callSites;
+      for (int i = 0; i < currSites.length; i++)
+      {
+        if (currSites[i].matches(args))
+          return currSites[i];
+      }
+      return null;
+    }
+
+    private synchronized void addCallSite(CallSite newSite)
+    {
+      // The newest one goes first and the oldest one falls off if it's full; the array is replaced rather than
+      // modified so the lookups don't need to lock
+      CallSite[] newSites = new CallSite[Math.min(callSites.length + 1, MAX_CALL_SITES)];
+      newSites[0] = newSite;
+      System.arraycopy(callSites, 0, newSites, 1, newSites.length - 1);
+      callSites = newSites;
+    }
+
+    // The method object is cached per argument type signature because of operator overloading
+    private volatile CallSite[] callSites = new CallSite[0];
     private String methodName;
     private Class<?> actClass;
     private Method[] nameMatchedMeths;
@@ -2165,6 +2191,97 @@ public class Catbert
     private String className;
   }
 
+  private static final boolean REFLECTION_CALL_SITE_CACHE = Sage.getBoolean("ui/reflection_call_site_cache", true);
+  // Calls with more than this many different argument type signatures will have to resolve some of them again
+  private static final int MAX_CALL_SITES = 4;
+
+  private static Class<?>[] getArgClasses(Object[] args)
+  {
+    Class<?>[] rv = new Class[args.length];
+    for (int i = 0; i < args.length; i++)
+      rv[i] = (args[i] == null) ? null : args[i].getClass();
+    return rv;
+  }
+
+  private static Object convertArg(Object arg, Class<?> type)
+  {
+    if (type == Byte.TYPE)
+      return new Byte(((Number) arg).byteValue());
+    else if (type == Short.TYPE)
+      return new Short(((Number) arg).shortValue());
+    else if (type == Integer.TYPE)
+      return new Integer(((Number) arg).intValue());
+    else if (type == Long.TYPE)
+      return new Long(((Number) arg).longValue());
+    else if (type == Float.TYPE)
+      return new Float(((Number) arg).floatValue());
+    else if (type == Double.TYPE)
+      return new Double(((Number) arg).doubleValue());
+    else if (type == String.class)
+      return arg.toString();
+    else
+      return arg;
+  }
+
+  /**
+   * The method or constructor that a ReflectedJEPFunction resolved for a specific set of argument types, along with
+   * the conversions that need to be done on the arguments to call it.
+   */
+  private static final class CallSite
+  {
+    CallSite(Class<?>[] argClasses, Constructor<?> constructor, Method method, boolean argIsThis, Class<?>[] conversions)
+    {
+      this.argClasses = argClasses;
+      this.constructor = constructor;
+      this.method = method;
+      this.argIsThis = argIsThis;
+      boolean hasConversions = false;
+      for (int i = 0; i < conversions.length; i++)
+        if (conversions[i] != null)
+          hasConversions = true;
+      this.conversions = hasConversions ? conversions : null;
+    }
+
+    boolean matches(Object[] args)
+    {
+      if (args.length != argClasses.length)
+        return false;
+      for (int i = 0; i < args.length; i++)
+      {
+        if (args[i] == null ? argClasses[i] != null : args[i].getClass() != argClasses[i])
+          return false;
+      }
+      return true;
+    }
+
+    Object invoke(Object[] args) throws Exception
+    {
+      Object instObj = null;
+      if (argIsThis)
+      {
+        instObj = args[0];
+        Object[] methArgs = new Object[args.length - 1];
+        System.arraycopy(args, 1, methArgs, 0, methArgs.length);
+        args = methArgs;
+      }
+      if (conversions != null)
+      {
+        for (int i = 0; i < args.length; i++)
+        {
+          if (conversions[i] != null)
+            args[i] = convertArg(args[i], conversions[i]);
+        }
+      }
+      return (constructor != null) ? constructor.newInstance(args) : method.invoke(instObj, args);
+    }
+
+    private final Class<?>[] argClasses;
+    private final Constructor<?> constructor;
+    private final Method method;
+    private final boolean argIsThis;
+    private final Class<?>[] conversions;
+  }
+
   /**
    * Install API functions outside of initialization.
    * @param foo
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2015 The SageTV Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sage;
+
+import sage.jep.JEP;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds the parsed expressions for Catbert. This is shared by all of the UIManagers, so lookups don't take any locks;
+ * they're done on every evaluation of every widget from all the UI threads. The cache is bounded since expressions
+ * can be built dynamically, when it gets too big the least recently used ones are removed. Those will just get parsed
+ * again if they're used after that.
+ */
+final class ExpressionCache
+{
+  ExpressionCache(int maxSize)
+  {
+    this.maxSize = Math.max(16, maxSize);
+    map = new ConcurrentHashMap<String, Entry>(Math.min(this.maxSize, 4096), 0.75f,
+        Math.max(16, Runtime.getRuntime().availableProcessors() * 4));
+  }
+
+  /**
+   * Returns the parsed expression, or null if it's not in the cache.
+   */
+  JEP get(String expr)
+  {
+    Entry entry = map.get(expr);
+    if (entry == null)
+    {
+      misses.incrementAndGet();
+      return null;
+    }
+    // These don't need to be exact, so avoid making all the UI threads contend on the same counter
+    entry.lastUsed = ++clock;
+    hits++;
+    return entry.parser;
+  }
+
+  void put(String expr, JEP parser)
+  {
+    Entry entry = new Entry(parser);
+    entry.lastUsed = ++clock;
+    map.put(expr, entry);
+    if (map.size() > maxSize)
+      trim();
+  }
+
+  int size()
+  {
+    return map.size();
+  }
+
+  void clear()
+  {
+    map.clear();
+  }
+
+  // Removes the least recently used eighth of the cache. Only one thread does this at a time, the others will just
+  // keep on going; the cache may go slightly over its size while this is going on.
+  private void trim()
+  {
+    if (!trimming.compareAndSet(false, true))
+      return;
+    try
+    {
+      @SuppressWarnings("unchecked")
+      Map.Entry<String, Entry>[] entries = map.entrySet().toArray(new Map.Entry[0]);
+      final long[] lastUsed = new long[entries.length];
+      Integer[] order = new Integer[entries.length];
+      for (int i = 0; i < entries.length; i++)
+      {
+        lastUsed[i] = entries[i].getValue().lastUsed;
+        order[i] = i;
+      }
+      Arrays.sort(order, new Comparator<Integer>()
+      {
+        public int compare(Integer o1, Integer o2)
+        {
+          long l1 = lastUsed[o1.intValue()];
+          long l2 = lastUsed[o2.intValue()];
+          return (l1 < l2) ? -1 : ((l1 == l2) ? 0 : 1);
+        }
+      });
+      int numToRemove = entries.length - (maxSize - maxSize / 8);
+      for (int i = 0; i < numToRemove; i++)
+      {
+        Map.Entry<String, Entry> entry = entries[order[i].intValue()];
+        // Only remove it if it wasn't replaced in the meantime
+        if (map.remove(entry.getKey(), entry.getValue()))
+          evictions++;
+      }
+    }
+    finally
+    {
+      trimming.set(false);
+    }
+  }
+
+  public String toString()
+  {
+    return "ExpressionCache[size=" + map.size() + " max=" + maxSize + " hits=" + hits + " misses=" + misses +
+        " evictions=" + evictions + "]";
+  }
+
+  private static class Entry
+  {
+    Entry(JEP parser)
+    {
+      this.parser = parser;
+    }
+    final JEP parser;
+    volatile long lastUsed;
+  }
+
+  private final int maxSize;
+  private final ConcurrentHashMap<String, Entry> map;
+  private final AtomicBoolean trimming = new AtomicBoolean();
+  // Incremented without synchronization, it only needs to give a rough order for the LRU
+  private long clock;
+  private long hits;
+  private final AtomicLong misses = new AtomicLong();
+  private long evictions;
+}
@@ -39,21 +39,53 @@ public class FFMPEGTranscodeJob extends TranscodeJob
     Sage.put(Ministry.TRANSCODE_JOB_PROPS + '/' + jobID + '/' + TRANSCODE_PROCESSOR, "sagetv");
   }
 
+  public void startTranscode()
+  {
+    int numParallel = getParallelSegmentCount();
+    if (numParallel <= 1)
+    {
+      super.startTranscode();
+      return;
+    }
+    // Each segment goes to its own file anyways, so we do several of them at once and then tell the
+    // Ministry they're all done at the same time like it was the last one
+    createFilenames();
+    setJobState(TRANSCODING);
+    transcodeSegment = getStartingSegment();
+    if (Sage.DBG) System.out.println("Initiating xcode for segments " + getStartingSegment() + "-" + getEndingSegment() +
+        " of " + mf + " with " + numParallel + " at a time");
+    synchronized (segmentLock)
+    {
+      segmentTrannies = new FFMPEGTranscoder[mf.getNumSegments()];
+      nextSegment = getStartingSegment();
+      numSegmentsDone = 0;
+      segmentThreads = Math.max(1, getJobThreads() / numParallel);
+      for (int i = 0; i < numParallel; i++)
+      {
+        if (!startNextSegment())
+        {
+          jobState = TRANSCODE_FAILED;
+          saveToProps();
+          return;
+        }
+      }
+    }
+    monitorThread = new ParallelTranscodeMonitor();
+    monitorThread.setDaemon(true);
+    monitorThread.setPriority(Thread.MIN_PRIORITY);
+    monitorThread.start();
+  }
+
   protected void transcodeNow()
   {
-    tranny = new FFMPEGTranscoder();
-    tranny.setSourceFile(null, mf.getFile(transcodeSegment));
-    tranny.setOutputFile(getTempFile(transcodeSegment));
-    tranny.setTranscodeFormat(mf.getFileFormat(), targetFormat);
+    tranny = createTranscoder(transcodeSegment);
+    tranny.setThreadLimit(Ministry.getInstance().getThreadsPerJob());
     if (segmentForLastPass != transcodeSegment)
     {
       currPass = 0;
       segmentForLastPass = transcodeSegment;
     }
-    // Don't do multipass for 3GP, PSP or iPod because of the bitrate restrictions
-    enableMultipass = Sage.getBoolean("transcoder/enable_multipass_encoding", false) &&
-        ("mpeg4".equals(targetFormat.getPrimaryVideoFormat()) || "xvid".equals(targetFormat.getPrimaryVideoFormat())) &&
-        !"3gp".equals(targetFormat.getFormatName()) && !"mp4".equals(targetFormat.getFormatName()) && !"psp".equals(targetFormat.getFormatName());
+    enableMultipass = isMultipassEnabled();
     if (enableMultipass)
     {
       if (currPass == 0)
@@ -67,41 +99,105 @@ public class FFMPEGTranscodeJob extends TranscodeJob
         currPass++;
       }
       tranny.setPass(currPass);
+      // Other jobs can be doing multipass encodes at the same time, so each one needs its own log
+      tranny.setPassLogFile(getPassLogFile());
     }
+    try
+    {
+      tranny.startTranscode();
+    }
+    catch (java.io.IOException ex)
+    {
+      System.out.println("TRANSCODING ENGINE FAILED TO CREATE");
+      jobState = TRANSCODE_FAILED;
+      saveToProps();
+      tranny = null;
+      return;
+    }
+    monitorThread = new TranscodeMonitor();
+    monitorThread.setDaemon(true);
+    monitorThread.setPriority(Thread.MIN_PRIORITY);
+    monitorThread.start();
+  }
+
+  private FFMPEGTranscoder createTranscoder(int segment)
+  {
+    FFMPEGTranscoder rv = new FFMPEGTranscoder();
+    rv.setSourceFile(null, mf.getFile(segment));
+    rv.setOutputFile(getTempFile(segment));
+    rv.setTranscodeFormat(mf.getFileFormat(), targetFormat);
     if (clipStartTime > 0 || clipDuration > 0)
     {
-      if (transcodeSegment == getStartingSegment())
+      if (segment == getStartingSegment())
       {
-        if (transcodeSegment == getEndingSegment())
+        if (segment == getEndingSegment())
         {
-          tranny.setEditParameters(clipStartTime, clipDuration);
+          rv.setEditParameters(clipStartTime, clipDuration);
         }
         else if (clipStartTime > 0)
         {
-          tranny.setEditParameters(clipStartTime, 0);
+          rv.setEditParameters(clipStartTime, 0);
         }
       }
-      else if (transcodeSegment == getEndingSegment() && clipDuration > 0)
+      else if (segment == getEndingSegment() && clipDuration > 0)
       {
-        tranny.setEditParameters(0, clipDuration - (mf.getStart(transcodeSegment) - mf.getRecordTime() - clipStartTime));
+        rv.setEditParameters(0, clipDuration - (mf.getStart(segment) - mf.getRecordTime() - clipStartTime));
       }
     }
+    return rv;
+  }
+
+  // FFMPEG adds "-0.log" to this for the log file of the first stream
+  private String getPassLogFile()
+  {
+    return getTempFile(transcodeSegment).getAbsolutePath() + ".pass";
+  }
+
+  private boolean isMultipassEnabled()
+  {
+    // Don't do multipass for 3GP, PSP or iPod because of the bitrate restrictions
+    return Sage.getBoolean("transcoder/enable_multipass_encoding", false) &&
+        ("mpeg4".equals(targetFormat.getPrimaryVideoFormat()) || "xvid".equals(targetFormat.getPrimaryVideoFormat())) &&
+        !"3gp".equals(targetFormat.getFormatName()) && !"mp4".equals(targetFormat.getFormatName()) && !"psp".equals(targetFormat.getFormatName());
+  }
+
+  // The number of segments to transcode at the same time, the passes of a multipass encode all use the same
+  // log file so those are always done one at a time
+  private int getParallelSegmentCount()
+  {
+    int numSegments = getEndingSegment() - getStartingSegment() + 1;
+    if (numSegments < 2 || isMultipassEnabled())
+      return 1;
+    return Math.min(numSegments, Sage.getInt("transcoder/max_parallel_segments", Math.max(1, getJobThreads() / 4)));
+  }
+
+  private int getJobThreads()
+  {
+    int rv = Ministry.getInstance().getThreadsPerJob();
+    return (rv == 0) ? Carny.PROCESSOR_COUNT : rv;
+  }
+
+  // segmentLock must be held when calling this
+  private boolean startNextSegment()
+  {
+    int segment = nextSegment++;
+    if (Sage.DBG) System.out.println("Initiating xcode for " + mf.getFile(segment));
+    SeekerSelector.getInstance().requestFileStorage(getTempFile(segment), estimateTranscodeSize(segment));
+    getTempFile(segment).deleteOnExit();
+    FFMPEGTranscoder segTranny = createTranscoder(segment);
+    segTranny.setThreadLimit(segmentThreads);
     try
     {
-      tranny.startTranscode();
+      segTranny.startTranscode();
     }
     catch (java.io.IOException ex)
     {
-      System.out.println("TRANSCODING ENGINE FAILED TO CREATE");
-      jobState = TRANSCODE_FAILED;
-      saveToProps();
-      tranny = null;
-      return;
+      System.out.println("TRANSCODING ENGINE FAILED TO CREATE for segment " + segment);
+      SeekerSelector.getInstance().clearFileStorageRequest(getTempFile(segment));
+      return false;
     }
-    monitorThread = new TranscodeMonitor();
-    monitorThread.setDaemon(true);
-    monitorThread.setPriority(Thread.MIN_PRIORITY);
-    monitorThread.start();
+    segmentTrannies[segment] = segTranny;
+    return true;
   }
 
   public void cleanupCurrentTranscode()
@@ -112,10 +208,43 @@ public class FFMPEGTranscodeJob extends TranscodeJob
       tranny.stopTranscode();
       tranny = null;
     }
+    synchronized (segmentLock)
+    {
+      if (segmentTrannies != null)
+      {
+        for (int i = 0; i < segmentTrannies.length; i++)
+        {
+          if (segmentTrannies[i] != null)
+          {
+            segmentTrannies[i].stopTranscode();
+            SeekerSelector.getInstance().clearFileStorageRequest(getTempFile(i));
+          }
+        }
+        segmentTrannies = null;
+      }
+    }
   }
 
   public float getPercentComplete()
   {
+    synchronized (segmentLock)
+    {
+      if (segmentTrannies != null)
+      {
+        // This is by the duration of the whole segments, so it's not exact when it's a clip
+        long totalTime = 0;
+        long doneTime = 0;
+        for (int i = getStartingSegment(); i <= getEndingSegment(); i++)
+        {
+          long segDur = mf.getDuration(i);
+          totalTime += segDur;
+          if (i < nextSegment)
+            doneTime += (segmentTrannies[i] == null) ? segDur :
+              Math.min(segDur, segmentTrannies[i].getCurrentTranscodeStreamTime());
+        }
+        return (totalTime == 0) ? 0 : ((float) doneTime) / totalTime;
+      }
+    }
     FFMPEGTranscoder tempy = tranny;
     if (tempy != null)
     {
@@ -134,6 +263,12 @@ public class FFMPEGTranscodeJob extends TranscodeJob
   private boolean enableMultipass;
   private int currPass;
   private int segmentForLastPass = -1;
+  // For transcoding the segments in parallel, these are indexed by segment and only the running ones are set
+  private final Object segmentLock = new Object();
+  private FFMPEGTranscoder[] segmentTrannies;
+  private int nextSegment;
+  private int numSegmentsDone;
+  private int segmentThreads;
   private class TranscodeMonitor extends Thread
   {
     public void run()
@@ -154,6 +289,8 @@ public class FFMPEGTranscodeJob extends TranscodeJob
           }
           else
             jobState = TRANSCODE_FAILED;
+          if (enableMultipass)
+            new java.io.File(getPassLogFile() + "-0.log").delete();
           Ministry.getInstance().kick();
           saveToProps();
           return;
@@ -162,4 +299,54 @@ public class FFMPEGTranscodeJob extends TranscodeJob
       }
     }
   }
+  private class ParallelTranscodeMonitor extends Thread
+  {
+    public void run()
+    {
+      while (jobState == TRANSCODING)
+      {
+        synchronized (segmentLock)
+        {
+          // We've been cleaned up
+          if (segmentTrannies == null)
+            return;
+          for (int i = getStartingSegment(); i < nextSegment && jobState == TRANSCODING; i++)
+          {
+            FFMPEGTranscoder segTranny = segmentTrannies[i];
+            if (segTranny == null || !segTranny.isTranscodeDone())
+              continue;
+            boolean ok = segTranny.didTranscodeCompleteOK();
+            segTranny.stopTranscode();
+            segmentTrannies[i] = null;
+            SeekerSelector.getInstance().clearFileStorageRequest(getTempFile(i));
+            if (!ok)
+            {
+              if (Sage.DBG) System.out.println("Transcoding failed for segment " + i + " of " + mf);
+              jobState = TRANSCODE_FAILED;
+            }
+            else
+            {
+              setTempFileTime(i);
+              numSegmentsDone++;
+              // Start the next one in the slot this one was using
+              if (nextSegment <= getEndingSegment() && !startNextSegment())
+                jobState = TRANSCODE_FAILED;
+            }
+          }
+          if (jobState == TRANSCODING && numSegmentsDone == getEndingSegment() - getStartingSegment() + 1)
+          {
+            transcodeSegment = getEndingSegment();
+            jobState = TRANSCODING_SEGMENT_COMPLETE;
+          }
+          if (jobState != TRANSCODING)
+          {
+            Ministry.getInstance().kick();
+            saveToProps();
+            return;
+          }
+        }
+        try{Thread.sleep(1000);}catch(Exception e){}
+      }
+    }
+  }
 }
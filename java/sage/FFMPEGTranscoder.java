@@ -749,6 +749,8 @@ public class FFMPEGTranscoder implements TranscodeEngine
 
     // output file threading (encode)
     int numThreads = Sage.getInt("xcode_process_num_threads", 0);
+    if (numThreads == 0)
+      numThreads = threadLimit;
     if (numThreads == 0)
     {
       try
@@ -1220,7 +1222,7 @@ public class FFMPEGTranscoder implements TranscodeEngine
       xcodeParamsVec.add("-pass");
       xcodeParamsVec.add(Integer.toString(pass));
       xcodeParamsVec.add("-passlogfile");
-      xcodeParamsVec.add("multipassxcode");
+      xcodeParamsVec.add(passLogFile);
     }
 
     // We only want to use these sync parameters if we're doing dynamic adjustment placeshifting
@@ -1679,11 +1681,23 @@ public class FFMPEGTranscoder implements TranscodeEngine
     pass = x;
   }
 
+  // The prefix for the log files that are passed between the passes of a multipass encode
+  public void setPassLogFile(String x)
+  {
+    passLogFile = x;
+  }
+
   public void setThreadingEnabled(boolean x)
   {
     multiThread = x;
   }
 
+  // Used instead of the number of processors when the encoding threads aren't set in the properties
+  public void setThreadLimit(int x)
+  {
+    threadLimit = x;
+  }
+
   public void enableSegmentedOutput(int segmentDurMsec, java.io.File[] segFiles)
   {
     httplsMode = true;
@@ -1828,11 +1842,13 @@ public class FFMPEGTranscoder implements TranscodeEngine
   protected sage.media.format.ContainerFormat sourceFormat;
 
   protected int pass;
+  protected String passLogFile = "multipassxcode";
 
   protected int preservedAudioBitrate;
   protected int preservedVideoBitrate;
 
   protected boolean multiThread = true;
+  protected int threadLimit;
 
   protected byte[] nioTmpBuf;
 
@@ -15,8 +15,28 @@
  */
 package sage;
 
+/**
+ * Sorted index over the objects in a {@link Table}.
+ * <p>
+ * The entries are held in leaf pages of at most {@link #PAGE_SIZE} objects with a Fenwick tree over the
+ * page sizes. That keeps positional lookups, inserts and removes at O(log n) rather than shifting one
+ * flat array the size of the table on every change. Code that wants the whole index as an array uses
+ * {@link #toArray()}, which is built once and then reused until the next modification.
+ * <p>
+ * Readers that shouldn't wait on a writer can use a read-only snapshot of the index instead (see
+ * {@link Table#acquireReadView(Index)}). Snapshots share the leaf pages with the live index; the first time a
+ * writer modifies a page after a snapshot is published it copies that page, so publishing is O(n / PAGE_SIZE).
+ */
 public final class Index
 {
+  // The number of objects a leaf page can hold before it gets split in half
+  static final int PAGE_SIZE = 512;
+  // Bulk rebuilds leave some room in each page so the next inserts don't immediately split them
+  private static final int PAGE_FILL = (PAGE_SIZE * 3) / 4;
+  // Pages this small get merged into their neighbor when entries are removed
+  private static final int PAGE_MERGE = PAGE_SIZE / 8;
+  private static final int MIN_PAGE_ALLOC = 16;
+
   Index(java.util.Comparator inComp)
   {
     this((byte)0, inComp);
@@ -24,32 +44,34 @@ public final class Index
 
   Index(byte inIndexCode, java.util.Comparator inComp)
   {
-    data = new DBObject[Wizard.INC_SIZE];
     indexCode = inIndexCode;
     comp = inComp;
+    snapshot = false;
+    allocate(0);
   }
 
-  void add(DBObject addMe)
+  // Creates a read-only snapshot of the current state of the live index
+  private Index(Index live)
   {
-    int index = binarySearch(addMe);
-    if (index < 0) index = -(index + 1);
+    indexCode = live.indexCode;
+    comp = live.comp;
+    table = live.table;
+    snapshot = true;
+    numPages = live.numPages;
+    size = live.size;
+    pages = java.util.Arrays.copyOf(live.pages, numPages);
+    pageSizes = java.util.Arrays.copyOf(live.pageSizes, numPages);
+    sharedPages = new boolean[numPages];
+    tree = java.util.Arrays.copyOf(live.tree, numPages + 1);
+    flat = live.flat;
+  }
 
-    if ((index == table.num) && (data.length > table.num))
-    {
-      data[index] = addMe;
-    }
-    else
-    {
-      DBObject[] newData = data;
-      if (data.length == table.num)
-      {
-        newData = new DBObject[table.num + Wizard.INC_SIZE];
-        if (index > 0) System.arraycopy(data, 0, newData, 0, index);
-      }
-      if (index < table.num) System.arraycopy(data, index, newData, index + 1, table.num - index);
-      newData[index] = addMe;
-      data = newData;
-    }
+  void add(DBObject addMe)
+  {
+    long loc = locate(addMe);
+    int local = (int) loc;
+    if (local < 0) local = -(local + 1);
+    insertAt((int)(loc >>> 32), local, addMe);
   }
 
   boolean remove(DBObject removeMe)
@@ -60,12 +82,7 @@ public final class Index
       if (Sage.DBG) System.out.println("BAD Remove of non-existent " + removeMe + " idxCode=" + indexCode);
       return false;
     }
-
-    if (index < table.num - 1)
-    {
-      System.arraycopy(data, index + 1, data, index, table.num - index - 1);
-    }
-    data[table.num - 1] = null;
+    removeAt(index);
     return true;
   }
 
@@ -82,59 +99,13 @@ public final class Index
       return false;
     }
 
-    int low, high;
-    /*
-     * 10-25-02 Previously, high and then low below were oldIndex - 1 and oldIndex + 1. I changed
-     * them to be oldIndex because there's no reason the change needs to alter the position in the index
-     */
-    if (originalcmp > 0)
-    {
-      low = 0;
-      high = oldIndex;
-    }
-    else
-    {
-      low = oldIndex;
-      high = table.num - 1;
-    }
-    int mid = (low + high) >> 1;
-    while (low <= high)
-    {
-      mid = (low + high) >> 1;
-    DBObject midVal = data[mid];
-    int cmp = comp.compare(midVal, newMe);
-
-    if (cmp < 0)
-      low = mid + 1;
-    else if (cmp > 0)
-      high = mid - 1;
-    else
-      break;
-    }
-    if (low > high)
-      mid = low;  // key not found, this is the insertion point
-
-    // This means we're moving our position to later in the array,
-    // so we need to adjust down an index because the original object
-    // will effectively be removed as part of this insertion
-    if (originalcmp < 0)
-      mid--;
-
-    // mid is the new index we want it at
-    if (mid < oldIndex)
-    {
-      // Shift the block to the right and put the updated one at the left edge
-      for (int i = oldIndex; i > mid; i--)
-        data[i] = data[i - 1];
-    }
-    else if (mid > oldIndex)
-    {
-      // Shift the block to the left and put the updated one at the right edge
-      for (int i = oldIndex; i < mid; i++)
-        data[i] = data[i + 1];
-    }
-    // else if they're equal, we've got nothing to do!
-    data[mid] = updateMe;
+    // Pull it out of its old position and then insert it where the new values sort to. The object itself
+    // stays the same, the caller updates its fields after all of the indices have been repositioned.
+    removeAt(oldIndex);
+    long loc = locate(newMe);
+    int local = (int) loc;
+    if (local < 0) local = -(local + 1);
+    insertAt((int)(loc >>> 32), local, updateMe);
     return true;
   }
 
@@ -144,7 +115,7 @@ public final class Index
       table.acquireReadLock();
       int index = binarySearch(matchMe);
       if (index < 0) return null;
-      else return data[index];
+      else return get(index);
     } finally {
       table.releaseReadLock();
     }
@@ -160,7 +131,7 @@ public final class Index
       table.acquireReadLock();
       int index = binarySearch(idMatch);
       if (index < 0) return null;
-      else return data[index];
+      else return get(index);
     } finally {
       table.releaseReadLock();
     }
@@ -170,8 +141,7 @@ public final class Index
   {
     try {
       table.acquireWriteLock();
-      for (int i = 0; i < data.length; i++)
-        data[i] = null;
+      allocate(0);
     } finally {
       table.releaseWriteLock();
     }
@@ -181,58 +151,471 @@ public final class Index
   {
     try {
       table.acquireWriteLock();
-      DBObject[] newData = new DBObject[data.length];
-      System.arraycopy(data, 0, newData, 0, table.num);
-      mergeSort(data, newData, 0, table.num);
-      data = newData;
-      newData = null;
+      DBObject[] src = new DBObject[size];
+      copyInto(0, src, 0, size);
+      DBObject[] dest = src.clone();
+      mergeSort(src, dest, 0, size);
+      setAll(dest, size);
     } finally {
       table.releaseWriteLock();
     }
   }
 
+  /**
+   * Returns the number of objects in this index.
+   */
+  int size()
+  {
+    return size;
+  }
+
+  /**
+   * Returns the object at the specified position in this index, or null if it's out of range.
+   */
+  DBObject get(int index)
+  {
+    if (index < 0 || index >= size) return null;
+    // Most callers walk the index sequentially or look around the position they just found, so remember
+    // the last page that was used and skip the tree walk when we're still inside of it.
+    Cursor c = cursor;
+    if (c != null && c.modCount == modCount && index >= c.start && index < c.end)
+      return c.page[index - c.start];
+    long loc = findPage(index);
+    int p = (int)(loc >>> 32);
+    int local = (int) loc;
+    int start = index - local;
+    cursor = new Cursor(pages[p], start, start + pageSizes[p], modCount);
+    return pages[p][local];
+  }
+
+  /**
+   * Sets the object at the specified position. This does not maintain the sort order; it's used to fill in
+   * an index after {@link #allocate(int)} and {@link #check()} should be called when it's done.
+   */
+  void set(int index, DBObject obj)
+  {
+    if (index < 0 || index >= size)
+      throw new ArrayIndexOutOfBoundsException(index);
+    long loc = findPage(index);
+    writablePage((int)(loc >>> 32))[(int) loc] = obj;
+    mutated();
+  }
+
+  /**
+   * Copies a range of this index into the destination array, this works like System.arraycopy.
+   */
+  void copyInto(int srcPos, Object[] dest, int destPos, int length)
+  {
+    if (length <= 0) return;
+    if (srcPos < 0 || srcPos + length > size)
+      throw new ArrayIndexOutOfBoundsException("srcPos=" + srcPos + " length=" + length + " size=" + size);
+    DBObject[] currFlat = flat;
+    if (currFlat != null)
+    {
+      System.arraycopy(currFlat, srcPos, dest, destPos, length);
+      return;
+    }
+    long loc = findPage(srcPos);
+    int p = (int)(loc >>> 32);
+    int local = (int) loc;
+    while (length > 0)
+    {
+      int numToCopy = Math.min(length, pageSizes[p] - local);
+      System.arraycopy(pages[p], local, dest, destPos, numToCopy);
+      destPos += numToCopy;
+      length -= numToCopy;
+      local = 0;
+      p++;
+    }
+  }
+
+  /**
+   * Returns all of the objects in this index in sorted order. The returned array is shared between callers
+   * until the index is modified again so it must NOT be changed.
+   */
+  DBObject[] toArray()
+  {
+    DBObject[] rv = flat;
+    if (rv == null)
+    {
+      int currMod = modCount;
+      rv = new DBObject[size];
+      copyInto(0, rv, 0, rv.length);
+      if (currMod == modCount)
+        flat = rv;
+    }
+    return rv;
+  }
+
+  /**
+   * Resets this index so it holds newSize null entries, those are then filled in with {@link #set(int, DBObject)}.
+   */
+  void allocate(int newSize)
+  {
+    int newNumPages = Math.max(1, (newSize + PAGE_SIZE - 1) / PAGE_SIZE);
+    DBObject[][] newPages = new DBObject[newNumPages][];
+    int[] newSizes = new int[newNumPages];
+    int remaining = newSize;
+    for (int i = 0; i < newNumPages; i++)
+    {
+      newSizes[i] = Math.min(PAGE_SIZE, remaining);
+      newPages[i] = new DBObject[Math.max(MIN_PAGE_ALLOC, newSizes[i])];
+      remaining -= newSizes[i];
+    }
+    pages = newPages;
+    pageSizes = newSizes;
+    sharedPages = new boolean[newNumPages];
+    numPages = newNumPages;
+    size = newSize;
+    rebuildTree();
+    mutated();
+  }
+
+  /**
+   * Replaces the contents of this index with the first length objects from src, in that order.
+   */
+  void setAll(DBObject[] src, int length)
+  {
+    int newNumPages = Math.max(1, (length + PAGE_FILL - 1) / PAGE_FILL);
+    DBObject[][] newPages = new DBObject[newNumPages][];
+    int[] newSizes = new int[newNumPages];
+    int offset = 0;
+    for (int i = 0; i < newNumPages; i++)
+    {
+      newSizes[i] = Math.min(PAGE_FILL, length - offset);
+      newPages[i] = new DBObject[Math.max(MIN_PAGE_ALLOC, (i == newNumPages - 1) ? newSizes[i] : PAGE_SIZE)];
+      System.arraycopy(src, offset, newPages[i], 0, newSizes[i]);
+      offset += newSizes[i];
+    }
+    pages = newPages;
+    pageSizes = newSizes;
+    sharedPages = new boolean[newNumPages];
+    numPages = newNumPages;
+    size = length;
+    rebuildTree();
+    mutated();
+  }
+
   public int binarySearch(Object key)
   {
-    int low = 0;
-    int high = table.num - 1;
+    long loc = locate(key);
+    int p = (int)(loc >>> 32);
+    int local = (int) loc;
+    int start = prefix(p);
+    if (local >= 0)
+      return start + local; // key found
+    else
+      return local - start; // key not found, this is -(insertion point + 1)
+  }
 
+  public int binarySearch(int key)
+  {
+    // Find the last page whose first entry is not greater than the key
+    int p = 0;
+    int low = 1;
+    int high = numPages - 1;
     while (low <= high)
     {
       int mid = (low + high) >> 1;
-    Object midVal = data[mid];
-    int cmp = comp.compare(midVal, key);
+      DBObject midVal = pages[mid][0];
+      int cmp = (midVal == null) ? 1 : (midVal.id - key);
+      if (cmp <= 0)
+      {
+        p = mid;
+        low = mid + 1;
+      }
+      else
+        high = mid - 1;
+    }
 
-    if (cmp < 0)
-      low = mid + 1;
-    else if (cmp > 0)
-      high = mid - 1;
-    else
-      return mid; // key found
+    DBObject[] page = pages[p];
+    int start = prefix(p);
+    low = 0;
+    high = pageSizes[p] - 1;
+
+    while (low <= high)
+    {
+      int mid = (low + high) >> 1;
+      DBObject midVal = page[mid];
+      int cmp = (midVal == null) ? 1 : (midVal.id - key);
+
+      if (cmp < 0)
+        low = mid + 1;
+      else if (cmp > 0)
+        high = mid - 1;
+      else
+        return start + mid; // key found
     }
 
-    return -(low + 1);  // key not found.
+    return -(start + low + 1);  // key not found.
   }
 
-  public int binarySearch(int key)
+  /**
+   * Finds the page a key belongs in and does a binary search inside of that page. The page is returned in the
+   * upper 32 bits and the result of the search in the page (same semantics as binarySearch) in the lower 32.
+   */
+  private long locate(Object key)
   {
-    int low = 0;
-    int high = table.num - 1;
+    // Find the last page whose first entry is not greater than the key
+    int p = 0;
+    int low = 1;
+    int high = numPages - 1;
+    while (low <= high)
+    {
+      int mid = (low + high) >> 1;
+      if (comp.compare(pages[mid][0], key) <= 0)
+      {
+        p = mid;
+        low = mid + 1;
+      }
+      else
+        high = mid - 1;
+    }
+
+    DBObject[] page = pages[p];
+    low = 0;
+    high = pageSizes[p] - 1;
 
     while (low <= high)
     {
       int mid = (low + high) >> 1;
-    DBObject midVal = data[mid];
-    int cmp = (midVal == null) ? 1 : (midVal.id - key);
+      int cmp = comp.compare(page[mid], key);
+
+      if (cmp < 0)
+        low = mid + 1;
+      else if (cmp > 0)
+        high = mid - 1;
+      else
+        return (((long) p) << 32) | mid; // key found
+    }
+    return (((long) p) << 32) | ((-(low + 1)) & 0xFFFFFFFFL); // key not found
+  }
 
-    if (cmp < 0)
-      low = mid + 1;
-    else if (cmp > 0)
-      high = mid - 1;
+  private void insertAt(int p, int local, DBObject addMe)
+  {
+    if (pageSizes[p] == PAGE_SIZE)
+    {
+      splitPage(p);
+      if (local > pageSizes[p])
+      {
+        local -= pageSizes[p];
+        p++;
+      }
+    }
+    DBObject[] page = pages[p];
+    int num = pageSizes[p];
+    if (num == page.length)
+    {
+      DBObject[] newPage = new DBObject[Math.min(PAGE_SIZE, page.length * 2)];
+      System.arraycopy(page, 0, newPage, 0, num);
+      pages[p] = page = newPage;
+      sharedPages[p] = false;
+    }
     else
-      return mid; // key found
+      page = writablePage(p);
+    if (local < num)
+      System.arraycopy(page, local, page, local + 1, num - local);
+    page[local] = addMe;
+    pageSizes[p]++;
+    size++;
+    treeAdd(p, 1);
+    mutated();
+  }
+
+  private void removeAt(int index)
+  {
+    long loc = findPage(index);
+    int p = (int)(loc >>> 32);
+    int local = (int) loc;
+    DBObject[] page = writablePage(p);
+    int num = pageSizes[p];
+    if (local < num - 1)
+      System.arraycopy(page, local + 1, page, local, num - local - 1);
+    page[num - 1] = null;
+    pageSizes[p]--;
+    size--;
+    if (pageSizes[p] < PAGE_MERGE && numPages > 1)
+    {
+      // Fold small pages into a neighbor so mass removals don't leave us with lots of tiny pages
+      if (p + 1 < numPages && pageSizes[p] + pageSizes[p + 1] <= PAGE_FILL)
+        mergePages(p);
+      else if (p > 0 && pageSizes[p - 1] + pageSizes[p] <= PAGE_FILL)
+        mergePages(p - 1);
+      else if (pageSizes[p] == 0)
+        deletePage(p);
+      else
+        treeAdd(p, -1);
     }
+    else
+      treeAdd(p, -1);
+    mutated();
+  }
 
-    return -(low + 1);  // key not found.
+  private void splitPage(int p)
+  {
+    ensurePageCapacity();
+    DBObject[] page = writablePage(p);
+    int half = pageSizes[p] >> 1;
+    DBObject[] newPage = new DBObject[PAGE_SIZE];
+    System.arraycopy(page, half, newPage, 0, pageSizes[p] - half);
+    java.util.Arrays.fill(page, half, pageSizes[p], null);
+    System.arraycopy(pages, p + 1, pages, p + 2, numPages - p - 1);
+    System.arraycopy(pageSizes, p + 1, pageSizes, p + 2, numPages - p - 1);
+    System.arraycopy(sharedPages, p + 1, sharedPages, p + 2, numPages - p - 1);
+    pages[p + 1] = newPage;
+    sharedPages[p + 1] = false;
+    pageSizes[p + 1] = pageSizes[p] - half;
+    pageSizes[p] = half;
+    numPages++;
+    rebuildTree();
+  }
+
+  // Merges page p + 1 into page p
+  private void mergePages(int p)
+  {
+    int num = pageSizes[p];
+    int nextNum = pageSizes[p + 1];
+    DBObject[] page = pages[p];
+    if (page.length < num + nextNum)
+    {
+      DBObject[] newPage = new DBObject[PAGE_SIZE];
+      System.arraycopy(page, 0, newPage, 0, num);
+      pages[p] = page = newPage;
+      sharedPages[p] = false;
+    }
+    else
+      page = writablePage(p);
+    System.arraycopy(pages[p + 1], 0, page, num, nextNum);
+    pageSizes[p] = num + nextNum;
+    deletePage(p + 1);
+  }
+
+  private void deletePage(int p)
+  {
+    System.arraycopy(pages, p + 1, pages, p, numPages - p - 1);
+    System.arraycopy(pageSizes, p + 1, pageSizes, p, numPages - p - 1);
+    System.arraycopy(sharedPages, p + 1, sharedPages, p, numPages - p - 1);
+    numPages--;
+    pages[numPages] = null;
+    pageSizes[numPages] = 0;
+    sharedPages[numPages] = false;
+    rebuildTree();
+  }
+
+  private void ensurePageCapacity()
+  {
+    if (numPages == pages.length)
+    {
+      int newLength = pages.length + Math.max(4, pages.length >> 2);
+      DBObject[][] newPages = new DBObject[newLength][];
+      System.arraycopy(pages, 0, newPages, 0, numPages);
+      int[] newSizes = new int[newLength];
+      System.arraycopy(pageSizes, 0, newSizes, 0, numPages);
+      boolean[] newShared = new boolean[newLength];
+      System.arraycopy(sharedPages, 0, newShared, 0, numPages);
+      pages = newPages;
+      pageSizes = newSizes;
+      sharedPages = newShared;
+    }
+  }
+
+  private void rebuildTree()
+  {
+    if (tree == null || tree.length < pages.length + 1)
+      tree = new int[pages.length + 1];
+    else
+      java.util.Arrays.fill(tree, 0);
+    for (int i = 1; i <= numPages; i++)
+    {
+      tree[i] += pageSizes[i - 1];
+      int parent = i + (i & -i);
+      if (parent <= numPages)
+        tree[parent] += tree[i];
+    }
+  }
+
+  private void treeAdd(int p, int delta)
+  {
+    for (int i = p + 1; i <= numPages; i += i & -i)
+      tree[i] += delta;
+  }
+
+  // Returns the total number of entries in the pages before page p
+  private int prefix(int p)
+  {
+    int sum = 0;
+    for (int i = p; i > 0; i -= i & -i)
+      sum += tree[i];
+    return sum;
+  }
+
+  // Returns the page that holds the specified position in the upper 32 bits and the offset in that page in the lower 32
+  private long findPage(int index)
+  {
+    int p = 0;
+    int remaining = index;
+    for (int mask = Integer.highestOneBit(numPages); mask != 0; mask >>= 1)
+    {
+      int next = p + mask;
+      if (next <= numPages && tree[next] <= remaining)
+      {
+        p = next;
+        remaining -= tree[next];
+      }
+    }
+    // Positions past the end land after the last page, keep them on it
+    if (p >= numPages)
+    {
+      p = numPages - 1;
+      remaining += pageSizes[p];
+    }
+    return (((long) p) << 32) | remaining;
+  }
+
+  // Returns page p after making sure it's not shared with a published snapshot
+  private DBObject[] writablePage(int p)
+  {
+    if (sharedPages[p])
+    {
+      pages[p] = pages[p].clone();
+      sharedPages[p] = false;
+    }
+    return pages[p];
+  }
+
+  /**
+   * Publishes a read-only snapshot of the current contents of this index. The table's write lock must be held.
+   */
+  void publishSnapshot()
+  {
+    Index snap = new Index(this);
+    java.util.Arrays.fill(sharedPages, 0, numPages, true);
+    published = snap;
+  }
+
+  /**
+   * Returns the last snapshot published for this index, or null if there isn't one.
+   */
+  Index getPublishedSnapshot()
+  {
+    return published;
+  }
+
+  void discardSnapshot()
+  {
+    published = null;
+  }
+
+  boolean isSnapshot()
+  {
+    return snapshot;
+  }
+
+  private void mutated()
+  {
+    modCount++;
+    flat = null;
+    cursor = null;
   }
 
   private void mergeSort(Object src[], Object dest[], int low, int high)
@@ -280,28 +663,62 @@ public final class Index
   {
     int index = binarySearch(matchMe);
     if (index < 0) return index;
-    if (data[index].id == matchMe.id) return index;
+    if (get(index).id == matchMe.id) return index;
 
-    for (int i = -1; (i + index >= 0) && (comp.compare(matchMe, data[i + index]) == 0); i--)
-      if (data[index + i].id == matchMe.id)
+    for (int i = -1; (i + index >= 0) && (comp.compare(matchMe, get(i + index)) == 0); i--)
+      if (get(index + i).id == matchMe.id)
         return index + i;
-    for (int i = 1; (i + index < table.num) && (comp.compare(matchMe, data[i + index]) == 0); i++)
-      if (data[index + i].id == matchMe.id)
+    for (int i = 1; (i + index < size) && (comp.compare(matchMe, get(i + index)) == 0); i++)
+      if (get(index + i).id == matchMe.id)
         return index + i;
     return index;
   }
 
   void massRemove(java.util.Set killUs)
   {
-    for (int i = 0; i < table.num; i++)
+    for (int p = 0; p < numPages; p++)
+    {
+      DBObject[] page = writablePage(p);
+      for (int i = 0; i < pageSizes[p]; i++)
+      {
+        if (killUs.contains(page[i]))
+          page[i] = null;
+      }
+    }
+    mutated();
+  }
+
+  // Remembers the last page that get() used
+  private static final class Cursor
+  {
+    Cursor(DBObject[] page, int start, int end, int modCount)
     {
-      if (killUs.contains(data[i]))
-        data[i] = null;
+      this.page = page;
+      this.start = start;
+      this.end = end;
+      this.modCount = modCount;
     }
+
+    final DBObject[] page;
+    final int start;
+    final int end;
+    final int modCount;
   }
 
   Table table;
   byte indexCode;
   java.util.Comparator comp;
-  DBObject[] data;
+  private final boolean snapshot;
+  private volatile Index published;
+  private DBObject[][] pages;
+  private int[] pageSizes;
+  // Pages that are also referenced by a published snapshot and must be copied before they are modified
+  private boolean[] sharedPages;
+  // Fenwick tree over pageSizes (1-based) for position lookups
+  private int[] tree;
+  private int numPages;
+  private int size;
+  private int modCount;
+  private volatile DBObject[] flat;
+  private volatile Cursor cursor;
 }
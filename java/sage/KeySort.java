@@ -0,0 +1,213 @@
+/*
+ * Copyright 2015 The SageTV Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sage;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Sorts data by keys that were already worked out for each element, for sorts where getting the
+ * key is what's expensive; like calling an API method or making a collation key. Then each key
+ * only gets figured out once instead of twice for every comparison.
+ * <p>
+ * The positions of the elements are merge sorted by their keys and then the data is put in that
+ * order, so the sort is stable like Arrays.sort is. Large sorts are split up into a run for each
+ * processor that are sorted at the same time and then merged, so the key Comparator must be
+ * safe to use from more than one thread at once.
+ */
+public final class KeySort
+{
+  private KeySort() {}
+
+  private static final int INSERTION_SORT_SIZE = 16;
+
+  private static ExecutorService sortWorkers;
+
+  /**
+   * Sorts the data in place using the key at the same position for each element.
+   */
+  public static void sort(Object[] data, Object[] keys, Comparator keyCompare)
+  {
+    int[] order = sortPositions(keys, keyCompare, Sage.getInt("parallel_sort_threshold", 20000), Carny.PROCESSOR_COUNT);
+    Object[] orgData = data.clone();
+    for (int i = 0; i < order.length; i++)
+      data[i] = orgData[order[i]];
+  }
+
+  /**
+   * Returns the positions of the keys in sorted order, the sort is split up into as many as maxRuns
+   * runs that are sorted in parallel when there's at least parallelThreshold of them.
+   */
+  static int[] sortPositions(Object[] keys, Comparator keyCompare, int parallelThreshold, int maxRuns)
+  {
+    int count = keys.length;
+    int[] rv = new int[count];
+    for (int i = 0; i < count; i++)
+      rv[i] = i;
+    int[] temp = new int[count];
+    int numRuns = Math.min(maxRuns, count / INSERTION_SORT_SIZE);
+    if (count < parallelThreshold || numRuns < 2)
+    {
+      mergeSort(rv, temp, 0, count, keys, keyCompare);
+      return rv;
+    }
+
+    int[] runStarts = new int[numRuns + 1];
+    for (int i = 0; i <= numRuns; i++)
+      runStarts[i] = (int) ((long) count * i / numRuns);
+    List<Future<?>> runFutures = new ArrayList<Future<?>>(numRuns);
+    ExecutorService workers = getSortWorkers();
+    for (int i = 1; i < numRuns; i++)
+      runFutures.add(workers.submit(new RunSorter(rv, temp, runStarts[i], runStarts[i + 1], keys, keyCompare)));
+    // We do the first one ourself so this thread isn't sitting around
+    mergeSort(rv, temp, runStarts[0], runStarts[1], keys, keyCompare);
+    for (int i = 0; i < runFutures.size(); i++)
+      waitFor(runFutures.get(i));
+
+    // Merge pairs of runs until there's just one left
+    int[] src = rv;
+    int[] dest = temp;
+    while (numRuns > 1)
+    {
+      int newNumRuns = 0;
+      for (int i = 0; i < numRuns; i += 2)
+      {
+        if (i + 1 < numRuns)
+          merge(src, dest, runStarts[i], runStarts[i + 1], runStarts[i + 2], keys, keyCompare);
+        else
+          System.arraycopy(src, runStarts[i], dest, runStarts[i], runStarts[i + 1] - runStarts[i]);
+        runStarts[newNumRuns++] = runStarts[i];
+      }
+      runStarts[newNumRuns] = count;
+      numRuns = newNumRuns;
+      int[] swap = src;
+      src = dest;
+      dest = swap;
+    }
+    return src;
+  }
+
+  private static void waitFor(Future<?> f)
+  {
+    try
+    {
+      f.get();
+    }
+    catch (InterruptedException e)
+    {
+      throw new RuntimeException(e);
+    }
+    catch (ExecutionException e)
+    {
+      // Let the same exceptions through that a sort on this thread would have thrown
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      if (e.getCause() instanceof Error)
+        throw (Error) e.getCause();
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  private static synchronized ExecutorService getSortWorkers()
+  {
+    if (sortWorkers == null)
+    {
+      sortWorkers = Executors.newCachedThreadPool(new ThreadFactory()
+      {
+        @Override
+        public Thread newThread(Runnable r)
+        {
+          Thread newThread = new Thread(r);
+          newThread.setName("KeySortWorker");
+          newThread.setDaemon(true);
+          return newThread;
+        }
+      });
+    }
+    return sortWorkers;
+  }
+
+  private static class RunSorter implements Runnable
+  {
+    RunSorter(int[] order, int[] temp, int lo, int hi, Object[] keys, Comparator keyCompare)
+    {
+      this.order = order;
+      this.temp = temp;
+      this.lo = lo;
+      this.hi = hi;
+      this.keys = keys;
+      this.keyCompare = keyCompare;
+    }
+
+    public void run()
+    {
+      mergeSort(order, temp, lo, hi, keys, keyCompare);
+    }
+
+    private final int[] order;
+    private final int[] temp;
+    private final int lo;
+    private final int hi;
+    private final Object[] keys;
+    private final Comparator keyCompare;
+  }
+
+  // Sorts the positions in [lo, hi) of order, temp is used for the same range
+  private static void mergeSort(int[] order, int[] temp, int lo, int hi, Object[] keys, Comparator keyCompare)
+  {
+    if (hi - lo <= INSERTION_SORT_SIZE)
+    {
+      for (int i = lo + 1; i < hi; i++)
+      {
+        int x = order[i];
+        int j = i;
+        while (j > lo && keyCompare.compare(keys[order[j - 1]], keys[x]) > 0)
+        {
+          order[j] = order[j - 1];
+          j--;
+        }
+        order[j] = x;
+      }
+      return;
+    }
+    int mid = (lo + hi) >>> 1;
+    mergeSort(order, temp, lo, mid, keys, keyCompare);
+    mergeSort(order, temp, mid, hi, keys, keyCompare);
+    // Already in order
+    if (keyCompare.compare(keys[order[mid - 1]], keys[order[mid]]) <= 0)
+      return;
+    merge(order, temp, lo, mid, hi, keys, keyCompare);
+    System.arraycopy(temp, lo, order, lo, hi - lo);
+  }
+
+  // Merges the sorted ranges [lo, mid) and [mid, hi) of src into the same range in dest, ties go to the first range
+  private static void merge(int[] src, int[] dest, int lo, int mid, int hi, Object[] keys, Comparator keyCompare)
+  {
+    int i = lo, j = mid, k = lo;
+    while (i < mid && j < hi)
+      dest[k++] = (keyCompare.compare(keys[src[j]], keys[src[i]]) < 0) ? src[j++] : src[i++];
+    while (i < mid)
+      dest[k++] = src[i++];
+    while (j < hi)
+      dest[k++] = src[j++];
+  }
+}
@@ -26,12 +26,14 @@ public class MediaServer implements Runnable
 {
   private static final int DOS_BYTE_LIMIT = 1000000;
   private static final String MEDIA_SERVER_PORT = "media_server_port";
-  private static final int TIMEOUT = 1000*60*30;
-  private static final int SELECT_TIMEOUT = 30000;
-  private static final boolean MEDIA_SERVER_DEBUG = Sage.DBG && Sage.getBoolean("media_server_debug", false);
+  static final int TIMEOUT = 1000*60*30;
+  static final int SELECT_TIMEOUT = 30000;
+  static final boolean MEDIA_SERVER_DEBUG = Sage.DBG && Sage.getBoolean("media_server_debug", false);
   public static final String XCODE_QUALITIES_PROPERTY_ROOT = "media_server/transcode_quality/";
   private static final byte[] OK_BYTES = "OK\r\n".getBytes();
   private static final byte[] RN_BYTES = "\r\n".getBytes();
+  // The most we hand to a single transferTo call; this keeps each sendfile call well under the 32-bit limits
+  private static final long MAX_TRANSFER_CHUNK = 8*1024*1024;
   public MediaServer()
   {
     alive = true;
@@ -76,7 +78,15 @@ public class MediaServer implements Runnable
         nextExt = nextExt.substring(1);
       readAheadFormats.add(nextExt.toLowerCase());
     }
-    useNioTransfers = Sage.getBoolean("use_nio_transfers", false);
+    // We don't use them by default on Windows because of poor performance w/ network shares
+    useNioTransfers = Sage.getBoolean("use_nio_transfers", !Sage.WINDOWS_OS);
+    // Older 32-bit Linux JVMs couldn't sendfile from offsets beyond 2GB, this lets them go back to copying for those
+    largeFileNioTransfers = Sage.getBoolean("media_server/use_nio_transfers_beyond_2gb", true);
+    // Each readahead buffer holds at least this much, or the size of the last request if that's larger
+    readAheadBufferSize = Math.max(65536, Sage.getInt("media_server/readahead_buffer_size", 65536));
+    // Instead of a thread per connection, idle connections wait in a few selector threads and only get a thread
+    // while they're processing a request
+    reactorMode = Sage.getBoolean("media_server/reactor_mode", false);
   }
 
   public static void main(String[] args) { new MediaServer().run(); }
@@ -89,6 +99,47 @@ public class MediaServer implements Runnable
   private java.util.Map clientRequestedFiles;
   private java.util.Set readAheadFormats;
   private boolean useNioTransfers;
+  private boolean largeFileNioTransfers;
+  private int readAheadBufferSize;
+  private boolean reactorMode;
+  private MediaServerReactor reactor;
+  private final java.util.Set<Connection> activeConnections = java.util.Collections.synchronizedSet(new java.util.HashSet<Connection>());
+  private final java.util.concurrent.atomic.AtomicLong totalBytesSent = new java.util.concurrent.atomic.AtomicLong();
+  private final java.util.concurrent.atomic.AtomicLong totalZeroCopyBytesSent = new java.util.concurrent.atomic.AtomicLong();
+  private final java.util.concurrent.atomic.AtomicLong totalBytesReceived = new java.util.concurrent.atomic.AtomicLong();
+
+  /**
+   * Returns a line of throughput information for each of the currently open connections. The zero copy bytes are
+   * the ones that were sent with transferTo rather than being copied through one of our buffers.
+   */
+  public String[] getConnectionStats()
+  {
+    Connection[] conns;
+    synchronized (activeConnections)
+    {
+      conns = activeConnections.toArray(new Connection[0]);
+    }
+    String[] rv = new String[conns.length];
+    for (int i = 0; i < conns.length; i++)
+      rv[i] = conns[i].getStats();
+    return rv;
+  }
+
+  public long getTotalBytesSent()
+  {
+    return totalBytesSent.get();
+  }
+
+  public long getTotalZeroCopyBytesSent()
+  {
+    return totalZeroCopyBytesSent.get();
+  }
+
+  public long getTotalBytesReceived()
+  {
+    return totalBytesReceived.get();
+  }
+
   public synchronized boolean areClientsConnected()
   {
     return numClients != 0;
@@ -143,6 +194,11 @@ public class MediaServer implements Runnable
   public void kill()
   {
     alive = false;
+    if (reactor != null)
+    {
+      reactor.kill();
+      reactor = null;
+    }
     if (serverSocket != null)
     {
       try
@@ -173,7 +229,15 @@ public class MediaServer implements Runnable
 					}
 					else*/
           {
-            Pooler.execute(new Connection(s), "MediaServerConnection");
+            if (reactorMode)
+            {
+              if (reactor == null)
+                reactor = new MediaServerReactor(Sage.getInt("media_server/reactor_threads", 1),
+                    Sage.getInt("media_server/reactor_worker_threads", Math.max(16, 8 * Carny.PROCESSOR_COUNT)));
+              reactor.addConnection(new Connection(s));
+            }
+            else
+              Pooler.execute(new Connection(s), "MediaServerConnection");
           }
         }
       }
@@ -217,7 +281,34 @@ public class MediaServer implements Runnable
     public Connection(java.nio.channels.SocketChannel ins)
     {
       s = ins;
+      connectTime = Sage.eventTime();
+    }
+
+    public String getStats()
+    {
+      long duration = Math.max(1, Sage.eventTime() - connectTime);
+      return "MediaServer connection " + s + " file=" + currFile + " sent=" + bytesSent + " zeroCopy=" + zeroCopyBytesSent +
+          " recvd=" + bytesReceived + " duration=" + (duration / 1000) + "s rate=" + (bytesSent * 8 / duration) + "kbps";
+    }
+
+    private void addBytesReceived(long numBytes)
+    {
+      if (numBytes > 0)
+      {
+        bytesReceived += numBytes;
+        totalBytesReceived.addAndGet(numBytes);
+      }
+    }
 
+    private void addBytesSent(long numBytes, boolean zeroCopy)
+    {
+      bytesSent += numBytes;
+      totalBytesSent.addAndGet(numBytes);
+      if (zeroCopy)
+      {
+        zeroCopyBytesSent += numBytes;
+        totalZeroCopyBytesSent.addAndGet(numBytes);
+      }
     }
 
     private StringBuffer result = new StringBuffer();
@@ -775,7 +866,7 @@ public class MediaServer implements Runnable
           int buffSize = readAheadData.remaining();
           int currSize = (int)Math.min(length, buffSize);
           readAheadData.limit(currSize + readAheadData.position());
-          s.write(readAheadData);
+          addBytesSent(s.write(readAheadData), false);
           readAheadData.limit(readAheadData.limit() + buffSize - currSize);
           length -= currSize;
           offset += currSize;
@@ -785,7 +876,7 @@ public class MediaServer implements Runnable
             buffSize = readAheadData2.remaining();
             currSize = (int)Math.min(length, buffSize);
             readAheadData2.limit(currSize + readAheadData2.position());
-            s.write(readAheadData2);
+            addBytesSent(s.write(readAheadData2), false);
             readAheadData2.limit(readAheadData2.limit() + buffSize - currSize);
             length -= currSize;
             offset += currSize;
@@ -805,27 +896,28 @@ public class MediaServer implements Runnable
         long readThisTime = Math.min(currFileSize - offset, length);
         if (readThisTime > 0)
         {
-          if (!useNioTransfers || (Sage.LINUX_OS && offset +length >= Integer.MAX_VALUE))
+          if (!useNioTransfers || (Sage.LINUX_OS && !largeFileNioTransfers && offset +length >= Integer.MAX_VALUE))
           {
             // NOTE: Due to Java using the sendfile kernel API call to do the transfer,
-            // there's a 32-bit limitation here. This is very unfortunate. But since it's
-            // compiled into the JVM and into the Linux kernel there's really no other way around this
-            // We also don't use them by default on Windows because of poor performance w/ network shares
+            // there's a 32-bit limitation here on older JVMs. Those need to copy the data for files
+            // larger than 2GB.
             if (hackBuf == null)
             {
-              hackBuf = java.nio.ByteBuffer.allocateDirect(65536);
+              hackBuf = Pooler.getPooledDirectBuffer(65536);
             }
             hackBuf.clear();
             hackBuf.limit((int)Math.min(readThisTime, hackBuf.capacity()));
             int currRead = fileChannel.read(hackBuf, offset);
             hackBuf.flip();
-            s.write(hackBuf);
+            addBytesSent(s.write(hackBuf), false);
             offset += currRead;
             length -= currRead;
           }
           else
           {
-            long currRead = fileChannel.transferTo(offset, readThisTime, s);
+            // Do it in chunks so no single sendfile call has to deal with a huge length
+            long currRead = fileChannel.transferTo(offset, Math.min(readThisTime, MAX_TRANSFER_CHUNK), s);
+            addBytesSent(currRead, true);
             offset += currRead;
             length -= currRead;
           }
@@ -840,8 +932,10 @@ public class MediaServer implements Runnable
       {
         if (readAheadData == null)
         {
-          readAheadData = java.nio.ByteBuffer.allocateDirect(Math.max(65536, (int)orgLength));
-          readAheadData2 = java.nio.ByteBuffer.allocateDirect(Math.max(65536, (int)orgLength));
+          readAheadData = Pooler.getPooledDirectBuffer(Math.max(readAheadBufferSize, (int)orgLength));
+          readAheadData.limit(0);
+          readAheadData2 = Pooler.getPooledDirectBuffer(Math.max(readAheadBufferSize, (int)orgLength));
+          readAheadData2.limit(0);
         }
 
         // Swap them if there's data in the secondary buffer
@@ -856,7 +950,11 @@ public class MediaServer implements Runnable
         if (readAheadData.remaining() == 0)
         {
           if (readAheadData.capacity() < orgLength)
-            readAheadData = java.nio.ByteBuffer.allocateDirect(Math.max(65536, (int)orgLength));
+          {
+            Pooler.returnPooledDirectBuffer(readAheadData);
+            readAheadData = Pooler.getPooledDirectBuffer(Math.max(readAheadBufferSize, (int)orgLength));
+            readAheadData.limit(0);
+          }
           if (fileChannel.size() - offset >= readAheadData.capacity())
           {
             readAheadData.clear();
@@ -873,7 +971,11 @@ public class MediaServer implements Runnable
         if (readAheadData2.remaining() == 0)
         {
           if (readAheadData2.capacity() < orgLength)
-            readAheadData2 = java.nio.ByteBuffer.allocateDirect(Math.max(65536, (int)orgLength));
+          {
+            Pooler.returnPooledDirectBuffer(readAheadData2);
+            readAheadData2 = Pooler.getPooledDirectBuffer(Math.max(readAheadBufferSize, (int)orgLength));
+            readAheadData2.limit(0);
+          }
           offset = readAheadPos + readAheadData.remaining();
           if (fileChannel.size() - offset >= readAheadData2.capacity())
           {
@@ -927,6 +1029,7 @@ public class MediaServer implements Runnable
           fileChannel.write(commBufRead, offset);
         }
 
+        addBytesReceived(currWrite);
         offset += currWrite;
         commBufRead.limit(oldLimit);
       }
@@ -944,7 +1047,7 @@ public class MediaServer implements Runnable
             // We also don't use them by default on Windows because of poor performance w/ network shares
             if (hackBuf == null)
             {
-              hackBuf = java.nio.ByteBuffer.allocateDirect(65536);
+              hackBuf = Pooler.getPooledDirectBuffer(65536);
             }
             hackBuf.clear();
             hackBuf.limit((int)Math.min(length, hackBuf.capacity()));
@@ -960,12 +1063,14 @@ public class MediaServer implements Runnable
               fileChannel.write(hackBuf, offset);
             }
 
+            addBytesReceived(currRead);
             offset += currRead;
             length -= currRead;
           }
           else
           {
             long currRead = fileChannel.transferFrom(s, offset, length);
+            addBytesReceived(currRead);
             offset += currRead;
             length -= currRead;
           }
@@ -982,496 +1087,555 @@ public class MediaServer implements Runnable
     {
       try
       {
-        s.socket().setTcpNoDelay(true);
-        clientConnected();
-        blocking = Sage.getBoolean("use_blocking_socket_for_mediaserver", true);
-        if (blocking)
-        {
-          s.configureBlocking(true);
-          // Timeouts don't work in NIO
-          //s.socket().setSoTimeout(1000*60*30); // in case they're paused for awhile...the clients auto-reconnect anyways
-          s.socket().setKeepAlive(true);
-        }
-        else
+        open();
+        StringBuffer tempString = readLineBytes();
+        while (tempString != null && alive && processCommand(tempString))
         {
-          s.configureBlocking(false);
-          readSelector = java.nio.channels.spi.SelectorProvider.provider().openSelector();
-          s.register(readSelector, java.nio.channels.SelectionKey.OP_READ);
+          //outStream.flush();
+          tempString = readLineBytes();
         }
-        commBufRead = java.nio.ByteBuffer.allocate(4096);
-        commBufWrite = java.nio.ByteBuffer.allocate(4096);
-        // There's only 4 commands we take.
-        // 1 - OPEN filename
-        // 2 - CLOSE
-        // 3 - SIZE
-        // 4 - READ offset length
-        StringBuffer tempString = readLineBytes();
-        while (tempString != null && alive)
+      }
+      catch (Exception e)
+      {
+        System.out.println("Error in MediaServerConnection of :" + e);
+        e.printStackTrace(System.out);
+      }
+      finally
+      {
+        close();
+      }
+    }
+
+    /**
+     * Sets up the socket and buffers for this connection. This must be called before any requests are processed.
+     */
+    void open() throws java.io.IOException
+    {
+      s.socket().setTcpNoDelay(true);
+      clientConnected();
+      activeConnections.add(this);
+      // The reactor only hands us the connection once there's a request to read so we always block after that
+      blocking = reactorMode || Sage.getBoolean("use_blocking_socket_for_mediaserver", true);
+      if (blocking)
+      {
+        s.configureBlocking(true);
+        // Timeouts don't work in NIO
+        //s.socket().setSoTimeout(1000*60*30); // in case they're paused for awhile...the clients auto-reconnect anyways
+        s.socket().setKeepAlive(true);
+      }
+      else
+      {
+        s.configureBlocking(false);
+        readSelector = java.nio.channels.spi.SelectorProvider.provider().openSelector();
+        s.register(readSelector, java.nio.channels.SelectionKey.OP_READ);
+      }
+      commBufRead = java.nio.ByteBuffer.allocate(4096);
+      commBufWrite = java.nio.ByteBuffer.allocate(4096);
+    }
+
+    /**
+     * Handles one request from the client.
+     *
+     * @param tempString the request line
+     * @return false if the client asked to end the connection
+     */
+    boolean processCommand(StringBuffer tempString) throws java.io.IOException
+    {
+      // There's only 4 commands we take.
+      // 1 - OPEN filename
+      // 2 - CLOSE
+      // 3 - SIZE
+      // 4 - READ offset length
+      if (MEDIA_SERVER_DEBUG) System.out.println("MediaServer recvd:" + tempString);
+      if (tempString.indexOf("OPEN ") == 0)
+      {
+        closeFile();
+        String fname = tempString.substring(5);
+        // Do the platform path character conversion
+        fname = IOUtils.convertPlatformPathChars(fname);
+        if (MEDIA_SERVER_DEBUG) System.out.println("Converted pathname to:" + fname);
+        openFile(fname);
+      }
+      else if (tempString.indexOf("OPENW ") == 0)
+      {
+        closeFile();
+        String fname = tempString.substring(6);
+        fname = convertToUnicode(fname);
+        // Do the platform path character conversion
+        fname = IOUtils.convertPlatformPathChars(fname);
+        if (MEDIA_SERVER_DEBUG) System.out.println("Converted pathname to:" + fname);
+        openFile(fname);
+      }
+      else if (tempString.indexOf("WRITEOPEN ") == 0)
+      {
+        closeFile();
+        int idx = tempString.lastIndexOf(" ");
+        String fname = tempString.substring(10, idx);
+        // Do the platform path character conversion
+        fname = IOUtils.convertPlatformPathChars(fname);
+        int uploadKey = Integer.parseInt(tempString.substring(idx + 1));
+        if (MEDIA_SERVER_DEBUG) System.out.println("Converted pathname to:" + fname);
+        openWriteFile(fname, uploadKey, true);
+      }
+      else if (tempString.indexOf("WRITEOPENW ") == 0)
+      {
+        closeFile();
+        int idx = tempString.lastIndexOf(" ");
+        String fname = tempString.substring(11, idx);
+        fname = convertToUnicode(fname);
+        // Do the platform path character conversion
+        fname = IOUtils.convertPlatformPathChars(fname);
+        int uploadKey = Integer.parseInt(tempString.substring(idx + 1));
+        if (MEDIA_SERVER_DEBUG) System.out.println("Converted pathname to:" + fname);
+        openWriteFile(fname, uploadKey, true);
+      }
+      else if (tempString.indexOf("LISTW ") == 0)
+      {
+        String dirName = tempString.substring(6);
+        dirName = IOUtils.convertPlatformPathChars(convertToUnicode(dirName));
+        if (MEDIA_SERVER_DEBUG) System.out.println("Dir listing requested for:" + dirName);
+        java.io.File theDir = new java.io.File(dirName);
+        if (checkDirAccess(theDir))
         {
-          if (MEDIA_SERVER_DEBUG) System.out.println("MediaServer recvd:" + tempString);
-          if (tempString.indexOf("OPEN ") == 0)
+          if (theDir.isDirectory())
           {
-            closeFile();
-            String fname = tempString.substring(5);
-            // Do the platform path character conversion
-            fname = IOUtils.convertPlatformPathChars(fname);
-            if (MEDIA_SERVER_DEBUG) System.out.println("Converted pathname to:" + fname);
-            openFile(fname);
-          }
-          else if (tempString.indexOf("OPENW ") == 0)
-          {
-            closeFile();
-            String fname = tempString.substring(6);
-            fname = convertToUnicode(fname);
-            // Do the platform path character conversion
-            fname = IOUtils.convertPlatformPathChars(fname);
-            if (MEDIA_SERVER_DEBUG) System.out.println("Converted pathname to:" + fname);
-            openFile(fname);
-          }
-          else if (tempString.indexOf("WRITEOPEN ") == 0)
-          {
-            closeFile();
-            int idx = tempString.lastIndexOf(" ");
-            String fname = tempString.substring(10, idx);
-            // Do the platform path character conversion
-            fname = IOUtils.convertPlatformPathChars(fname);
-            int uploadKey = Integer.parseInt(tempString.substring(idx + 1));
-            if (MEDIA_SERVER_DEBUG) System.out.println("Converted pathname to:" + fname);
-            openWriteFile(fname, uploadKey, true);
-          }
-          else if (tempString.indexOf("WRITEOPENW ") == 0)
-          {
-            closeFile();
-            int idx = tempString.lastIndexOf(" ");
-            String fname = tempString.substring(11, idx);
-            fname = convertToUnicode(fname);
-            // Do the platform path character conversion
-            fname = IOUtils.convertPlatformPathChars(fname);
-            int uploadKey = Integer.parseInt(tempString.substring(idx + 1));
-            if (MEDIA_SERVER_DEBUG) System.out.println("Converted pathname to:" + fname);
-            openWriteFile(fname, uploadKey, true);
-          }
-          else if (tempString.indexOf("LISTW ") == 0)
-          {
-            String dirName = tempString.substring(6);
-            dirName = IOUtils.convertPlatformPathChars(convertToUnicode(dirName));
-            if (MEDIA_SERVER_DEBUG) System.out.println("Dir listing requested for:" + dirName);
-            java.io.File theDir = new java.io.File(dirName);
-            if (checkDirAccess(theDir))
-            {
-              if (theDir.isDirectory())
-              {
-                commBufWrite.clear();
-                commBufWrite.put(OK_BYTES);
-                // Now write one line which is the number of entries and then write each entry on a separate line after that
-                String[] kids = theDir.list();
-                commBufWrite.put((Integer.toString(kids == null ? 0 : kids.length) + "\r\n").getBytes()).flip();
-                int numWritten = s.write(commBufWrite);
-                if (MEDIA_SERVER_DEBUG) System.out.println("MediaServer wrote out " + numWritten + " bytes");
-                if (kids != null)
-                {
-                  commBufWrite.clear();
-                  for (int i = 0; i < kids.length; i++)
-                  {
-                    byte[] currBytes = kids[i].getBytes("UTF-16BE");
-                    if (commBufWrite.remaining() < currBytes.length + 2)
-                    {
-                      commBufWrite.flip();
-                      numWritten = s.write(commBufWrite);
-                      if (MEDIA_SERVER_DEBUG) System.out.println("MediaServer wrote out " + numWritten + " bytes");
-                      commBufWrite.clear();
-                    }
-                    commBufWrite.put(currBytes);
-                    commBufWrite.put(RN_BYTES);
-                  }
-                  if (commBufWrite.position() > 0)
-                  {
-                    commBufWrite.flip();
-                    numWritten = s.write(commBufWrite);
-                    if (MEDIA_SERVER_DEBUG) System.out.println("MediaServer wrote out " + numWritten + " bytes");
-                  }
-                }
-              }
-              else
-              {
-                commBufWrite.clear();
-                commBufWrite.put("NO_EXIST\r\n".getBytes()).flip();
-                int numWritten = s.write(commBufWrite);
-                if (MEDIA_SERVER_DEBUG) System.out.println("MediaServer wrote out " + numWritten + " bytes");
-              }
-            }
-            else
+            commBufWrite.clear();
+            commBufWrite.put(OK_BYTES);
+            // Now write one line which is the number of entries and then write each entry on a separate line after that
+            String[] kids = theDir.list();
+            commBufWrite.put((Integer.toString(kids == null ? 0 : kids.length) + "\r\n").getBytes()).flip();
+            int numWritten = s.write(commBufWrite);
+            if (MEDIA_SERVER_DEBUG) System.out.println("MediaServer wrote out " + numWritten + " bytes");
+            if (kids != null)
             {
               commBufWrite.clear();
-              commBufWrite.put("NON_MEDIA\r\n".getBytes()).flip();
-              int numWritten = s.write(commBufWrite);
-              if (MEDIA_SERVER_DEBUG) System.out.println("MediaServer wrote out " + numWritten + " bytes");
-            }
-          }
-          else if (tempString.indexOf("LISTRECURSIVEW ") == 0 || tempString.indexOf("LISTRECURSIVEALLW ") == 0)
-          {
-            String dirName;
-            boolean allFiles;
-            if (tempString.indexOf("LISTRECURSIVEW ") == 0)
-            {
-              dirName = tempString.substring(15);
-              allFiles = false;
-            }
-            else
-            {
-              dirName = tempString.substring(18);
-              allFiles = true;
-            }
-            dirName = IOUtils.convertPlatformPathChars(convertToUnicode(dirName));
-            if (MEDIA_SERVER_DEBUG) System.out.println("Recursive dir listing requested for:" + dirName);
-            java.io.File theDir = new java.io.File(dirName);
-            if (checkDirAccess(theDir))
-            {
-              if (theDir.isDirectory())
+              for (int i = 0; i < kids.length; i++)
               {
-                commBufWrite.clear();
-                commBufWrite.put(OK_BYTES);
-                // Now write one line which is the number of entries and then write each entry on a separate line after that
-                java.io.File[] kids = IOUtils.listFilesRecursive(theDir, allFiles);
-                commBufWrite.put((Integer.toString(kids == null ? 0 : kids.length) + "\r\n").getBytes()).flip();
-                int numWritten = s.write(commBufWrite);
-                if (MEDIA_SERVER_DEBUG) System.out.println("MediaServer wrote out " + numWritten + " bytes");
-                if (kids != null)
+                byte[] currBytes = kids[i].getBytes("UTF-16BE");
+                if (commBufWrite.remaining() < currBytes.length + 2)
                 {
+                  commBufWrite.flip();
+                  numWritten = s.write(commBufWrite);
+                  if (MEDIA_SERVER_DEBUG) System.out.println("MediaServer wrote out " + numWritten + " bytes");
                   commBufWrite.clear();
-                  for (int i = 0; i < kids.length; i++)
-                  {
-                    byte[] currBytes = kids[i].getAbsolutePath().getBytes("UTF-16BE");
-                    if (commBufWrite.remaining() < currBytes.length + 2)
-                    {
-                      commBufWrite.flip();
-                      numWritten = s.write(commBufWrite);
-                      if (MEDIA_SERVER_DEBUG) System.out.println("MediaServer wrote out " + numWritten + " bytes");
-                      commBufWrite.clear();
-                    }
-                    commBufWrite.put(currBytes);
-                    commBufWrite.put(RN_BYTES);
-                  }
-                  if (commBufWrite.position() > 0)
-                  {
-                    commBufWrite.flip();
-                    numWritten = s.write(commBufWrite);
-                    if (MEDIA_SERVER_DEBUG) System.out.println("MediaServer wrote out " + numWritten + " bytes");
-                  }
                 }
+                commBufWrite.put(currBytes);
+                commBufWrite.put(RN_BYTES);
               }
-              else
+              if (commBufWrite.position() > 0)
               {
-                commBufWrite.clear();
-                commBufWrite.put("NO_EXIST\r\n".getBytes()).flip();
-                int numWritten = s.write(commBufWrite);
+                commBufWrite.flip();
+                numWritten = s.write(commBufWrite);
                 if (MEDIA_SERVER_DEBUG) System.out.println("MediaServer wrote out " + numWritten + " bytes");
               }
             }
-            else
-            {
-              commBufWrite.clear();
-              commBufWrite.put("NON_MEDIA\r\n".getBytes()).flip();
-              int numWritten = s.write(commBufWrite);
-              if (MEDIA_SERVER_DEBUG) System.out.println("MediaServer wrote out " + numWritten + " bytes");
-            }
           }
-          else if ("CLOSE".contentEquals(tempString))
+          else
           {
-            closeFile();
             commBufWrite.clear();
-            commBufWrite.put(OK_BYTES).flip();
+            commBufWrite.put("NO_EXIST\r\n".getBytes()).flip();
             int numWritten = s.write(commBufWrite);
             if (MEDIA_SERVER_DEBUG) System.out.println("MediaServer wrote out " + numWritten + " bytes");
           }
-          else if ("SIZE".contentEquals(tempString))
-            sizeFile();
-          else if (tempString.indexOf("READ ") == 0)
-          {
-            int idx = tempString.lastIndexOf(" ");
-            readFile(Long.parseLong(tempString.substring(5, idx)),
-                Long.parseLong(tempString.substring(idx + 1)));
-          }
-          else if (tempString.indexOf("WRITE ") == 0)
-          {
-            int idx = tempString.lastIndexOf(" ");
-            writeFile(Long.parseLong(tempString.substring(6, idx)),
-                Long.parseLong(tempString.substring(idx + 1)));
-          }
-          else if (tempString.indexOf("XCODE_SETUP ") == 0)
+        }
+        else
+        {
+          commBufWrite.clear();
+          commBufWrite.put("NON_MEDIA\r\n".getBytes()).flip();
+          int numWritten = s.write(commBufWrite);
+          if (MEDIA_SERVER_DEBUG) System.out.println("MediaServer wrote out " + numWritten + " bytes");
+        }
+      }
+      else if (tempString.indexOf("LISTRECURSIVEW ") == 0 || tempString.indexOf("LISTRECURSIVEALLW ") == 0)
+      {
+        String dirName;
+        boolean allFiles;
+        if (tempString.indexOf("LISTRECURSIVEW ") == 0)
+        {
+          dirName = tempString.substring(15);
+          allFiles = false;
+        }
+        else
+        {
+          dirName = tempString.substring(18);
+          allFiles = true;
+        }
+        dirName = IOUtils.convertPlatformPathChars(convertToUnicode(dirName));
+        if (MEDIA_SERVER_DEBUG) System.out.println("Recursive dir listing requested for:" + dirName);
+        java.io.File theDir = new java.io.File(dirName);
+        if (checkDirAccess(theDir))
+        {
+          if (theDir.isDirectory())
           {
-            String xcodeMode = tempString.substring(tempString.indexOf(" ") + 1);
-            if (Sage.DBG) System.out.println("MediaServer is serving up in transcode mode: " + xcodeMode);
-            xcoder = new FFMPEGTranscoder();
-            xcoder.setTranscodeFormat(xcodeMode, null);
             commBufWrite.clear();
-            commBufWrite.put(OK_BYTES).flip();
+            commBufWrite.put(OK_BYTES);
+            // Now write one line which is the number of entries and then write each entry on a separate line after that
+            java.io.File[] kids = IOUtils.listFilesRecursive(theDir, allFiles);
+            commBufWrite.put((Integer.toString(kids == null ? 0 : kids.length) + "\r\n").getBytes()).flip();
             int numWritten = s.write(commBufWrite);
             if (MEDIA_SERVER_DEBUG) System.out.println("MediaServer wrote out " + numWritten + " bytes");
-          }
-          else if (tempString.indexOf("REMUX_SETUP ") == 0)
-          {
-            // REMUX_SETUP Mode OutputFormat Parameters...
-            // Auto:
-            // REMUX_SETUP AUTO OutputFormat IsTV
-            // Ex. REMUX_SETUP AUTO PS TRUE
-
-            // The file must be closed to turn this mode off.
-            if (remuxer != null)
+            if (kids != null)
             {
               commBufWrite.clear();
-              commBufWrite.put("INIT_ERROR\r\n".getBytes()).flip();
-
-              if (Sage.DBG) System.out.println("MediaServer is already in remux mode ignoring: " +
-                  tempString.substring(tempString.indexOf(" ") + 1));
-            }
-            else
-            {
-              if (Sage.DBG) System.out.println("MediaServer is writing in remux mode: " +
-                  tempString.substring(tempString.indexOf(" ") + 1));
-
-              StringTokenizer toker = new StringTokenizer(tempString.substring(12), " ");
-
-              if (toker.countTokens() == 3)
+              for (int i = 0; i < kids.length; i++)
               {
-                String mode = toker.nextToken();
-                int outputFormat = toker.nextToken().equalsIgnoreCase("TS") ? MPEGParser2.REMUX_TS : MPEGParser2.REMUX_PS;
-
-                if (mode.equalsIgnoreCase("AUTO"))
-                {
-                  boolean isTV = toker.nextToken().equalsIgnoreCase("TRUE");
-                  remuxer = new MediaServerRemuxer(fileChannel, outputFormat, isTV, this);
-                } else
+                byte[] currBytes = kids[i].getAbsolutePath().getBytes("UTF-16BE");
+                if (commBufWrite.remaining() < currBytes.length + 2)
                 {
-                  // If a client is trying to use a newer mode, that doesn't exist, this default
-                  // will be used since it should always work. This default is better than nothing
-                  // and will be logged so we know to tell the user to upgrade.
-                  if (Sage.DBG) System.out.println("MediaServer remux mode not supported;" +
-                      " defaulting to AUTO TRUE");
-                  remuxer = new MediaServerRemuxer(fileChannel, outputFormat, true, this);
+                  commBufWrite.flip();
+                  numWritten = s.write(commBufWrite);
+                  if (MEDIA_SERVER_DEBUG) System.out.println("MediaServer wrote out " + numWritten + " bytes");
+                  commBufWrite.clear();
                 }
+                commBufWrite.put(currBytes);
+                commBufWrite.put(RN_BYTES);
               }
-              else
+              if (commBufWrite.position() > 0)
               {
-                commBufWrite.clear();
-                commBufWrite.put("PARAM_ERROR\r\n".getBytes()).flip();
+                commBufWrite.flip();
+                numWritten = s.write(commBufWrite);
+                if (MEDIA_SERVER_DEBUG) System.out.println("MediaServer wrote out " + numWritten + " bytes");
               }
-
-              commBufWrite.clear();
-              commBufWrite.put(OK_BYTES).flip();
             }
-
-            int numWritten = s.write(commBufWrite);
-            if (MEDIA_SERVER_DEBUG) System.out.println("MediaServer wrote out " + numWritten + " bytes");
           }
-          else if (tempString.indexOf("REMUX_CONFIG ") == 0)
+          else
           {
-            if (remuxer != null)
-            {
-              String config = tempString.substring(13);
-              if (config.equals("INIT"))
-              {
-                commBufWrite.clear();
-                commBufWrite.put((remuxer.isInitialized() ? "TRUE\r\n" : "FALSE\r\n").getBytes()).flip();
-              }
-              else if (config.equals("SWITCHED"))
-              {
-                commBufWrite.clear();
-                commBufWrite.put((remuxer.isSwitched() ? "TRUE\r\n" : "FALSE\r\n").getBytes()).flip();
-              }
-              else if (config.equals("FORCE_SWITCHED"))
-              {
-                remuxer.forceSwitched();
-                commBufWrite.clear();
-                commBufWrite.put(OK_BYTES).flip();
-              }
-              else if (config.equals("DISABLE_ASSIST"))
-              {
-                remuxer.disableInterAssist();
-                commBufWrite.clear();
-                commBufWrite.put(OK_BYTES).flip();
-              }
-              else if (config.equals("FORMAT"))
-              {
-                commBufWrite.clear();
-                commBufWrite.put((remuxer.isInitialized() ?
-                    remuxer.getContainerFormat().getFullPropertyString(false) + "\r\n" : "NULL\r\n").getBytes()).flip();
-              }
-              else if (config.equals("FILE"))
-              {
-                commBufWrite.clear();
-                commBufWrite.put((currFile != null ?
-                    currFile.getAbsoluteFile() + "\r\n" : "NULL\r\n").getBytes()).flip();
-              }
-              else if (config.equals("MODE"))
-              {
-                commBufWrite.clear();
-                commBufWrite.put((remuxer.getOutputFormat() == MPEGParser2.REMUX_TS ?
-                    "TS\r\n" : "PS\r\n").getBytes()).flip();
-              }
-              else if (config.startsWith("BUFFER "))
-              {
-                remuxer.setBufferLimit(Long.parseLong(config.substring(7)));
-                fileChannel.position(0);
-                commBufWrite.clear();
-                commBufWrite.put(OK_BYTES).flip();
-              }
-              else
-              {
-                commBufWrite.clear();
-                commBufWrite.put("ERROR\r\n".getBytes()).flip();
-              }
-            }
-            else
-            {
-              commBufWrite.clear();
-              commBufWrite.put("NO_INIT\r\n".getBytes()).flip();
-            }
-
+            commBufWrite.clear();
+            commBufWrite.put("NO_EXIST\r\n".getBytes()).flip();
             int numWritten = s.write(commBufWrite);
             if (MEDIA_SERVER_DEBUG) System.out.println("MediaServer wrote out " + numWritten + " bytes");
           }
-          else if (tempString.indexOf("REMUX_SWITCH ") == 0)
-          {
-            if (remuxer != null)
-            {
-              int idx = tempString.lastIndexOf(" ");
-              String fname = tempString.substring(13, idx);
-              // Do the platform path character conversion
-              fname = IOUtils.convertPlatformPathChars(fname);
-              int uploadKey = Integer.parseInt(tempString.substring(idx + 1));
-              if (MEDIA_SERVER_DEBUG) System.out.println("Converted pathname to:" + fname);
+        }
+        else
+        {
+          commBufWrite.clear();
+          commBufWrite.put("NON_MEDIA\r\n".getBytes()).flip();
+          int numWritten = s.write(commBufWrite);
+          if (MEDIA_SERVER_DEBUG) System.out.println("MediaServer wrote out " + numWritten + " bytes");
+        }
+      }
+      else if ("CLOSE".contentEquals(tempString))
+      {
+        closeFile();
+        commBufWrite.clear();
+        commBufWrite.put(OK_BYTES).flip();
+        int numWritten = s.write(commBufWrite);
+        if (MEDIA_SERVER_DEBUG) System.out.println("MediaServer wrote out " + numWritten + " bytes");
+      }
+      else if ("SIZE".contentEquals(tempString))
+        sizeFile();
+      else if (tempString.indexOf("READ ") == 0)
+      {
+        int idx = tempString.lastIndexOf(" ");
+        readFile(Long.parseLong(tempString.substring(5, idx)),
+            Long.parseLong(tempString.substring(idx + 1)));
+      }
+      else if (tempString.indexOf("WRITE ") == 0)
+      {
+        int idx = tempString.lastIndexOf(" ");
+        writeFile(Long.parseLong(tempString.substring(6, idx)),
+            Long.parseLong(tempString.substring(idx + 1)));
+      }
+      else if (tempString.indexOf("XCODE_SETUP ") == 0)
+      {
+        String xcodeMode = tempString.substring(tempString.indexOf(" ") + 1);
+        if (Sage.DBG) System.out.println("MediaServer is serving up in transcode mode: " + xcodeMode);
+        xcoder = new FFMPEGTranscoder();
+        xcoder.setTranscodeFormat(xcodeMode, null);
+        commBufWrite.clear();
+        commBufWrite.put(OK_BYTES).flip();
+        int numWritten = s.write(commBufWrite);
+        if (MEDIA_SERVER_DEBUG) System.out.println("MediaServer wrote out " + numWritten + " bytes");
+      }
+      else if (tempString.indexOf("REMUX_SETUP ") == 0)
+      {
+        // REMUX_SETUP Mode OutputFormat Parameters...
+        // Auto:
+        // REMUX_SETUP AUTO OutputFormat IsTV
+        // Ex. REMUX_SETUP AUTO PS TRUE
 
-              remuxer.startSwitch(fname, uploadKey);
-              //Later we will call openWriteFile(fname, uploadKey);
+        // The file must be closed to turn this mode off.
+        if (remuxer != null)
+        {
+          commBufWrite.clear();
+          commBufWrite.put("INIT_ERROR\r\n".getBytes()).flip();
 
-              commBufWrite.clear();
-              commBufWrite.put("OK\r\n".getBytes()).flip();
-            }
-            else
-            {
-              commBufWrite.clear();
-              commBufWrite.put("NO_INIT\r\n".getBytes()).flip();
-            }
+          if (Sage.DBG) System.out.println("MediaServer is already in remux mode ignoring: " +
+              tempString.substring(tempString.indexOf(" ") + 1));
+        }
+        else
+        {
+          if (Sage.DBG) System.out.println("MediaServer is writing in remux mode: " +
+              tempString.substring(tempString.indexOf(" ") + 1));
 
-            int numWritten = s.write(commBufWrite);
-            if (MEDIA_SERVER_DEBUG) System.out.println("MediaServer wrote out " + numWritten + " bytes");
-          }
-          else if (tempString.indexOf("TRUNC ") == 0)
+          StringTokenizer toker = new StringTokenizer(tempString.substring(12), " ");
+
+          if (toker.countTokens() == 3)
           {
-            int idx = tempString.lastIndexOf(" ");
+            String mode = toker.nextToken();
+            int outputFormat = toker.nextToken().equalsIgnoreCase("TS") ? MPEGParser2.REMUX_TS : MPEGParser2.REMUX_PS;
 
-            if (fileChannel != null)
+            if (mode.equalsIgnoreCase("AUTO"))
             {
-              fileChannel.truncate(Long.parseLong(tempString.substring(6, tempString.length())));
-              commBufWrite.clear();
-              commBufWrite.put(OK_BYTES).flip();
-            }
-            else
+              boolean isTV = toker.nextToken().equalsIgnoreCase("TRUE");
+              remuxer = new MediaServerRemuxer(fileChannel, outputFormat, isTV, this);
+            } else
             {
-              commBufWrite.clear();
-              commBufWrite.put("NON_MEDIA\r\n".getBytes()).flip();
+              // If a client is trying to use a newer mode, that doesn't exist, this default
+              // will be used since it should always work. This default is better than nothing
+              // and will be logged so we know to tell the user to upgrade.
+              if (Sage.DBG) System.out.println("MediaServer remux mode not supported;" +
+                  " defaulting to AUTO TRUE");
+              remuxer = new MediaServerRemuxer(fileChannel, outputFormat, true, this);
             }
-
-            int numWritten = s.write(commBufWrite);
-            if (MEDIA_SERVER_DEBUG) System.out.println("MediaServer wrote out " + numWritten + " bytes");
           }
-          else if (tempString.indexOf("FORCE ") == 0)
+          else
           {
-            int idx = tempString.lastIndexOf(" ");
+            commBufWrite.clear();
+            commBufWrite.put("PARAM_ERROR\r\n".getBytes()).flip();
+          }
 
-            if (fileChannel != null)
-            {
-              fileChannel.force(tempString.substring(6, tempString.length()).equalsIgnoreCase("TRUE"));
-              commBufWrite.clear();
-              commBufWrite.put(OK_BYTES).flip();
-            }
-            else
-            {
-              commBufWrite.clear();
-              commBufWrite.put("NON_MEDIA\r\n".getBytes()).flip();
-            }
+          commBufWrite.clear();
+          commBufWrite.put(OK_BYTES).flip();
+        }
 
-            int numWritten = s.write(commBufWrite);
-            if (MEDIA_SERVER_DEBUG) System.out.println("MediaServer wrote out " + numWritten + " bytes");
+        int numWritten = s.write(commBufWrite);
+        if (MEDIA_SERVER_DEBUG) System.out.println("MediaServer wrote out " + numWritten + " bytes");
+      }
+      else if (tempString.indexOf("REMUX_CONFIG ") == 0)
+      {
+        if (remuxer != null)
+        {
+          String config = tempString.substring(13);
+          if (config.equals("INIT"))
+          {
+            commBufWrite.clear();
+            commBufWrite.put((remuxer.isInitialized() ? "TRUE\r\n" : "FALSE\r\n").getBytes()).flip();
           }
-          else if (tempString.indexOf("QUIT") == 0)
+          else if (config.equals("SWITCHED"))
           {
-            break;
+            commBufWrite.clear();
+            commBufWrite.put((remuxer.isSwitched() ? "TRUE\r\n" : "FALSE\r\n").getBytes()).flip();
+          }
+          else if (config.equals("FORCE_SWITCHED"))
+          {
+            remuxer.forceSwitched();
+            commBufWrite.clear();
+            commBufWrite.put(OK_BYTES).flip();
+          }
+          else if (config.equals("DISABLE_ASSIST"))
+          {
+            remuxer.disableInterAssist();
+            commBufWrite.clear();
+            commBufWrite.put(OK_BYTES).flip();
+          }
+          else if (config.equals("FORMAT"))
+          {
+            commBufWrite.clear();
+            commBufWrite.put((remuxer.isInitialized() ?
+                remuxer.getContainerFormat().getFullPropertyString(false) + "\r\n" : "NULL\r\n").getBytes()).flip();
+          }
+          else if (config.equals("FILE"))
+          {
+            commBufWrite.clear();
+            commBufWrite.put((currFile != null ?
+                currFile.getAbsoluteFile() + "\r\n" : "NULL\r\n").getBytes()).flip();
+          }
+          else if (config.equals("MODE"))
+          {
+            commBufWrite.clear();
+            commBufWrite.put((remuxer.getOutputFormat() == MPEGParser2.REMUX_TS ?
+                "TS\r\n" : "PS\r\n").getBytes()).flip();
+          }
+          else if (config.startsWith("BUFFER "))
+          {
+            remuxer.setBufferLimit(Long.parseLong(config.substring(7)));
+            fileChannel.position(0);
+            commBufWrite.clear();
+            commBufWrite.put(OK_BYTES).flip();
           }
           else
           {
             commBufWrite.clear();
-            commBufWrite.put(("UNKNOWN COMMAND " + tempString + "\r\n").getBytes()).flip();
-            int numWritten = s.write(commBufWrite);
-            if (MEDIA_SERVER_DEBUG) System.out.println("MediaServer wrote out " + numWritten + " bytes");
+            commBufWrite.put("ERROR\r\n".getBytes()).flip();
           }
-          //outStream.flush();
-          tempString = readLineBytes();
         }
+        else
+        {
+          commBufWrite.clear();
+          commBufWrite.put("NO_INIT\r\n".getBytes()).flip();
+        }
+
+        int numWritten = s.write(commBufWrite);
+        if (MEDIA_SERVER_DEBUG) System.out.println("MediaServer wrote out " + numWritten + " bytes");
       }
-      catch (Exception e)
+      else if (tempString.indexOf("REMUX_SWITCH ") == 0)
       {
-        System.out.println("Error in MediaServerConnection of :" + e);
-        e.printStackTrace(System.out);
+        if (remuxer != null)
+        {
+          int idx = tempString.lastIndexOf(" ");
+          String fname = tempString.substring(13, idx);
+          // Do the platform path character conversion
+          fname = IOUtils.convertPlatformPathChars(fname);
+          int uploadKey = Integer.parseInt(tempString.substring(idx + 1));
+          if (MEDIA_SERVER_DEBUG) System.out.println("Converted pathname to:" + fname);
+
+          remuxer.startSwitch(fname, uploadKey);
+          //Later we will call openWriteFile(fname, uploadKey);
+
+          commBufWrite.clear();
+          commBufWrite.put("OK\r\n".getBytes()).flip();
+        }
+        else
+        {
+          commBufWrite.clear();
+          commBufWrite.put("NO_INIT\r\n".getBytes()).flip();
+        }
+
+        int numWritten = s.write(commBufWrite);
+        if (MEDIA_SERVER_DEBUG) System.out.println("MediaServer wrote out " + numWritten + " bytes");
       }
-      finally
+      else if (tempString.indexOf("TRUNC ") == 0)
       {
-        clientDisconnected();
-        try
+        int idx = tempString.lastIndexOf(" ");
+
+        if (fileChannel != null)
         {
-          if (remuxer != null)
-            remuxer.close();
-          remuxer = null;
+          fileChannel.truncate(Long.parseLong(tempString.substring(6, tempString.length())));
+          commBufWrite.clear();
+          commBufWrite.put(OK_BYTES).flip();
         }
-        catch (Exception e)
-        {}
-        try
+        else
         {
-          if (fileChannel != null)
-            fileChannel.close();
-          fileChannel = null;
+          commBufWrite.clear();
+          commBufWrite.put("NON_MEDIA\r\n".getBytes()).flip();
         }
-        catch (Exception e)
-        {}
-        try
+
+        int numWritten = s.write(commBufWrite);
+        if (MEDIA_SERVER_DEBUG) System.out.println("MediaServer wrote out " + numWritten + " bytes");
+      }
+      else if (tempString.indexOf("FORCE ") == 0)
+      {
+        int idx = tempString.lastIndexOf(" ");
+
+        if (fileChannel != null)
         {
-          if (fileStream != null)
-            fileStream.close();
-          fileStream = null;
+          fileChannel.force(tempString.substring(6, tempString.length()).equalsIgnoreCase("TRUE"));
+          commBufWrite.clear();
+          commBufWrite.put(OK_BYTES).flip();
         }
-        catch (Exception e)
-        {}
-        /*try
+        else
         {
-          if (uploadStream != null)
-            uploadStream.close();
-          uploadStream = null;
+          commBufWrite.clear();
+          commBufWrite.put("NON_MEDIA\r\n".getBytes()).flip();
         }
-        catch (Exception e)
-        {}*/
+
+        int numWritten = s.write(commBufWrite);
+        if (MEDIA_SERVER_DEBUG) System.out.println("MediaServer wrote out " + numWritten + " bytes");
+      }
+      else if (tempString.indexOf("QUIT") == 0)
+      {
+        return false;
+      }
+      else
+      {
+        commBufWrite.clear();
+        commBufWrite.put(("UNKNOWN COMMAND " + tempString + "\r\n").getBytes()).flip();
+        int numWritten = s.write(commBufWrite);
+        if (MEDIA_SERVER_DEBUG) System.out.println("MediaServer wrote out " + numWritten + " bytes");
+      }
+      return true;
+    }
+
+    /**
+     * Returns true if processing this request may have to wait a long time, like a read from a file that's still
+     * being recorded, downloaded or transcoded where it waits for the data to show up, or an upload
+     */
+    boolean mayBlock(StringBuffer request)
+    {
+      if (request.indexOf("WRITE ") == 0)
+        return true;
+      if (request.indexOf("READ ") == 0)
+        return xcoder != null || remuxer != null || downer != null ||
+            (currFile != null && MMC.getInstance().isRecording(currFile));
+      return false;
+    }
+
+    /**
+     * Returns true if there's more data from the client in our buffer, so its next request can be read without waiting
+     */
+    boolean hasBufferedRequest()
+    {
+      return commBufRead.position() > 0 && commBufRead.hasRemaining();
+    }
+
+    /**
+     * Releases everything used by this connection and closes the socket.
+     */
+    void close()
+    {
+      clientDisconnected();
+      activeConnections.remove(this);
+      if (Sage.DBG && bytesSent + bytesReceived > 0) System.out.println(getStats());
+      Pooler.returnPooledDirectBuffer(hackBuf);
+      hackBuf = null;
+      Pooler.returnPooledDirectBuffer(readAheadData);
+      readAheadData = null;
+      Pooler.returnPooledDirectBuffer(readAheadData2);
+      readAheadData2 = null;
+      try
+      {
+        if (remuxer != null)
+          remuxer.close();
+        remuxer = null;
+      }
+      catch (Exception e)
+      {}
+      try
+      {
+        if (fileChannel != null)
+          fileChannel.close();
+        fileChannel = null;
+      }
+      catch (Exception e)
+      {}
+      try
+      {
+        if (fileStream != null)
+          fileStream.close();
+        fileStream = null;
+      }
+      catch (Exception e)
+      {}
+      /*try
+      {
+        if (uploadStream != null)
+          uploadStream.close();
+        uploadStream = null;
+      }
+      catch (Exception e)
+      {}*/
+      try
+      {
+        s.close();
+        s = null;
+      }
+      catch (Exception e)
+      {}
+      if (readSelector != null)
+      {
         try
         {
-          s.close();
-          s = null;
+          readSelector.close();
+          readSelector = null;
         }
         catch (Exception e)
         {}
-        if (readSelector != null)
-        {
-          try
-          {
-            readSelector.close();
-            readSelector = null;
-          }
-          catch (Exception e)
-          {}
-        }
-        if (xcoder != null)
-        {
-          xcoder.stopTranscode();
-          xcoder = null;
-        }
+      }
+      if (xcoder != null)
+      {
+        xcoder.stopTranscode();
+        xcoder = null;
       }
     }
 
@@ -1507,6 +1671,14 @@ public class MediaServer implements Runnable
     protected boolean readAhead;
 
     protected TranscodeEngine xcoder;
+
+    // Throughput counters for this connection; these are only updated by the connection's thread
+    protected final long connectTime;
+    protected volatile long bytesSent;
+    protected volatile long zeroCopyBytesSent;
+    protected volatile long bytesReceived;
+    // When the connection started waiting in the reactor for its next request
+    long idleSince;
   }
   private static final java.util.Map largeFileSizeMap = new java.util.HashMap();
   private static long LARGE_FILE_SIZE = 900000000000L;
@@ -0,0 +1,306 @@
+/*
+ * Copyright 2015 The SageTV Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sage;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Event driven request handling for the MediaServer. Connections that are waiting for their next request are
+ * registered with one of a few selector threads instead of each one having its own thread. Once a request line
+ * arrives the connection is handed to a worker thread which processes it with the same code the thread per
+ * connection mode uses, and keeps going as long as the client has already sent more requests. Then the connection
+ * goes back to waiting in the selector.
+ * <p>
+ * Reads are requested by the clients in small pieces that only hold a worker for a short time, so a fixed number
+ * of workers can keep up with many more connections than that. Once all of them are busy, connections that are
+ * ready wait in a queue for the next free worker instead of each one getting its own thread. Requests that can
+ * block for a while (like waiting for a recording to grow, or an upload) would tie up the workers and stall every
+ * other connection, so those are handed off to a separate pool that creates threads as needed.
+ */
+class MediaServerReactor
+{
+  MediaServerReactor(int numLoops, int numWorkers)
+  {
+    alive = true;
+    // The workers are only created as they're needed, and ones that are idle for a minute go away
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(Math.max(1, numWorkers), Math.max(1, numWorkers), 60,
+        TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new WorkerThreadFactory("MediaServerWorker-"));
+    pool.allowCoreThreadTimeOut(true);
+    workers = pool;
+    blockingWorkers = Executors.newCachedThreadPool(new WorkerThreadFactory("MediaServerBlockingWorker-"));
+    loops = new EventLoop[Math.max(1, numLoops)];
+    for (int i = 0; i < loops.length; i++)
+    {
+      loops[i] = new EventLoop();
+      Thread t = new Thread(loops[i], "MediaServerReactor-" + i);
+      t.setDaemon(true);
+      t.start();
+    }
+    if (Sage.DBG) System.out.println("MediaServer is using reactor mode with " + loops.length + " selector threads and " +
+        Math.max(1, numWorkers) + " worker threads");
+  }
+
+  /**
+   * Takes over a newly accepted connection.
+   */
+  void addConnection(final MediaServer.Connection conn)
+  {
+    workers.execute(new Runnable()
+    {
+      public void run()
+      {
+        try
+        {
+          conn.open();
+        }
+        catch (Exception e)
+        {
+          System.out.println("Error in MediaServerConnection of :" + e);
+          conn.close();
+          return;
+        }
+        waitForRequest(conn);
+      }
+    });
+  }
+
+  void kill()
+  {
+    alive = false;
+    for (int i = 0; i < loops.length; i++)
+      loops[i].selector.wakeup();
+    workers.shutdown();
+    blockingWorkers.shutdown();
+  }
+
+  // Called from a worker once it's done with the requests that the client has sent so far
+  private void waitForRequest(MediaServer.Connection conn)
+  {
+    if (!alive)
+    {
+      conn.close();
+      return;
+    }
+    try
+    {
+      conn.s.configureBlocking(false);
+    }
+    catch (IOException e)
+    {
+      System.out.println("Error in MediaServerConnection of :" + e);
+      conn.close();
+      return;
+    }
+    conn.idleSince = Sage.eventTime();
+    EventLoop loop = loops[(nextLoop.getAndIncrement() & 0x7FFFFFFF) % loops.length];
+    loop.pending.add(conn);
+    loop.selector.wakeup();
+  }
+
+  // The request is one that's already been read, or null if it still needs to be read
+  private void processRequests(final MediaServer.Connection conn, StringBuffer request, boolean blockingWorker)
+  {
+    try
+    {
+      conn.s.configureBlocking(true);
+      do
+      {
+        if (request == null)
+          request = conn.readLineBytes();
+        if (request == null || !alive)
+        {
+          conn.close();
+          return;
+        }
+        if (!blockingWorker && conn.mayBlock(request))
+        {
+          final StringBuffer blockingRequest = request;
+          blockingWorkers.execute(new Runnable()
+          {
+            public void run()
+            {
+              processRequests(conn, blockingRequest, true);
+            }
+          });
+          return;
+        }
+        if (!conn.processCommand(request))
+        {
+          conn.close();
+          return;
+        }
+        request = null;
+      } while (conn.hasBufferedRequest());
+    }
+    catch (Exception e)
+    {
+      // Clients dropping the connection while idle is normal, so only log errors for real requests
+      if (!(e instanceof java.io.EOFException))
+      {
+        System.out.println("Error in MediaServerConnection of :" + e);
+        e.printStackTrace(System.out);
+      }
+      conn.close();
+      return;
+    }
+    waitForRequest(conn);
+  }
+
+  private class EventLoop implements Runnable
+  {
+    EventLoop()
+    {
+      try
+      {
+        selector = Selector.open();
+      }
+      catch (IOException e)
+      {
+        throw new RuntimeException(e);
+      }
+    }
+
+    public void run()
+    {
+      List<MediaServer.Connection> ready = new ArrayList<MediaServer.Connection>();
+      long lastIdleCheck = Sage.eventTime();
+      while (alive)
+      {
+        try
+        {
+          selector.select(MediaServer.SELECT_TIMEOUT);
+          MediaServer.Connection conn;
+          while ((conn = pending.poll()) != null)
+          {
+            try
+            {
+              conn.s.register(selector, SelectionKey.OP_READ, conn);
+            }
+            catch (IOException e)
+            {
+              conn.close();
+            }
+          }
+          // The keys need to be cancelled and flushed out of the selector before the channels can go back to blocking
+          // mode, selectNow will do that but it may also find more connections that are ready
+          ready.clear();
+          do
+          {
+            Iterator<SelectionKey> walker = selector.selectedKeys().iterator();
+            while (walker.hasNext())
+            {
+              SelectionKey key = walker.next();
+              walker.remove();
+              key.cancel();
+              ready.add((MediaServer.Connection) key.attachment());
+            }
+          } while (!ready.isEmpty() && selector.selectNow() > 0);
+          for (int i = 0; i < ready.size(); i++)
+          {
+            final MediaServer.Connection readyConn = ready.get(i);
+            workers.execute(new Runnable()
+            {
+              public void run()
+              {
+                processRequests(readyConn, null, false);
+              }
+            });
+          }
+          if (Sage.eventTime() - lastIdleCheck > MediaServer.SELECT_TIMEOUT)
+          {
+            lastIdleCheck = Sage.eventTime();
+            closeIdleConnections();
+          }
+        }
+        catch (Exception e)
+        {
+          if (alive)
+          {
+            System.out.println("Error in MediaServerReactor of :" + e);
+            e.printStackTrace(System.out);
+          }
+        }
+      }
+      Iterator<SelectionKey> walker = selector.keys().iterator();
+      while (walker.hasNext())
+        ((MediaServer.Connection) walker.next().attachment()).close();
+      try
+      {
+        selector.close();
+      }
+      catch (IOException e){}
+    }
+
+    // This is the same timeout a blocking connection has for getting its next request
+    private void closeIdleConnections()
+    {
+      Iterator<SelectionKey> walker = selector.keys().iterator();
+      while (walker.hasNext())
+      {
+        SelectionKey key = walker.next();
+        MediaServer.Connection conn = (MediaServer.Connection) key.attachment();
+        if (key.isValid() && Sage.eventTime() - conn.idleSince > MediaServer.TIMEOUT)
+        {
+          if (MediaServer.MEDIA_SERVER_DEBUG) System.out.println("MediaServer closing idle connection:" + conn.s);
+          key.cancel();
+          conn.close();
+        }
+      }
+    }
+
+    private final Selector selector;
+    private final Queue<MediaServer.Connection> pending = new ConcurrentLinkedQueue<MediaServer.Connection>();
+  }
+
+  private static class WorkerThreadFactory implements ThreadFactory
+  {
+    WorkerThreadFactory(String namePrefix)
+    {
+      this.namePrefix = namePrefix;
+    }
+
+    public Thread newThread(Runnable r)
+    {
+      Thread t = new Thread(r, namePrefix + threadNum.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    }
+
+    private final String namePrefix;
+    private final AtomicInteger threadNum = new AtomicInteger();
+  }
+
+  private volatile boolean alive;
+  private final EventLoop[] loops;
+  private final ExecutorService workers;
+  // For the requests that can block for a long time
+  private final ExecutorService blockingWorkers;
+  private final AtomicInteger nextLoop = new AtomicInteger();
+}
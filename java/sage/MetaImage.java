@@ -46,6 +46,7 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -84,6 +85,12 @@ public class MetaImage
   private static final Object globalRawCacheLock = new Object();
   // Use weak keys for these maps so we don't hold onto the NIA references
   private static final Map<NativeImageAllocator, Object> niaCacheLocks = Collections.synchronizedMap(new WeakHashMap<NativeImageAllocator, Object>());
+  // These track the order the cached images were used in so we can find the one to release without scanning all of the
+  // MetaImages. The LRU locks are only held while the list is being changed, so it's OK to get them while synced on a
+  // MetaImage; but NEVER sync on a MetaImage while holding an LRU lock.
+  private static final ImageLRU javaImageLRU = new ImageLRU();
+  private static final ImageLRU rawImageLRU = new ImageLRU();
+  private static final Map<NativeImageAllocator, ImageLRU> nativeImageLRUs = Collections.synchronizedMap(new WeakHashMap<NativeImageAllocator, ImageLRU>());
   private static final boolean DEBUG_MI = false;
   private static final boolean ASYNC_LOAD_URL_IMAGES = Sage.getBoolean("async_load_url_images", true);
   private static Map<UIManager, AsyncLoader> uimgrToAsyncLoaderMap = new WeakHashMap<UIManager, AsyncLoader>();
@@ -303,6 +310,42 @@ public class MetaImage
       return rv;
     }
   }
+  private static ImageLRU getNativeImageLRU(NativeImageAllocator nia)
+  {
+    synchronized (nativeImageLRUs)
+    {
+      ImageLRU rv = nativeImageLRUs.get(nia);
+      if (rv == null)
+        nativeImageLRUs.put(nia, rv = new ImageLRU());
+      return rv;
+    }
+  }
+
+  /**
+   * Returns a line for each of the image caches with its size in bytes, the number of images in its LRU list and the
+   * hit/miss/eviction counts. These are for tuning the cache size properties.
+   */
+  public static String[] getImageCacheStats()
+  {
+    List<String> rv = new ArrayList<String>();
+    rv.add("java size=" + javaImageCacheSize + " " + javaImageLRU);
+    rv.add("raw size=" + rawImageCacheSize + " " + rawImageLRU);
+    NativeImageAllocator[] nias;
+    synchronized (nativeImageLRUs)
+    {
+      nias = nativeImageLRUs.keySet().toArray(new NativeImageAllocator[0]);
+    }
+    for (int i = 0; i < nias.length; i++)
+    {
+      if (nias[i] != null)
+        rv.add("native " + nias[i].getClass().getSimpleName() + " size=" + getNativeImageCacheSize(nias[i]) + " " +
+            nativeImageLRUs.get(nias[i]));
+    }
+    if (ScaledImageDiskCache.getInstance() != null)
+      rv.add("disk " + ScaledImageDiskCache.getInstance());
+    return rv.toArray(Pooler.EMPTY_STRING_ARRAY);
+  }
+
   public static boolean isThreadLockedOnNCL(Thread testMe)
   {
     return nclPendingThreads.contains(testMe);
@@ -420,6 +463,7 @@ public class MetaImage
       }
     }
     nativeImageCacheSizeMap.remove(nia);
+    nativeImageLRUs.remove(nia);
     Sage.gc(true);
   }
   public static MetaImage getMetaImage(MetaFont src)
@@ -1286,6 +1330,7 @@ public class MetaImage
         width[idx] = img.getWidth(null);
         height[idx] = img.getHeight(null);
         lastUsedJava[idx] = Sage.eventTime();
+        javaImageLRU.touch(getJavaLRUNode(idx));
       }
       //		synchronized (globalJavaCacheLock)
       {
@@ -1332,6 +1377,7 @@ public class MetaImage
           }
         }
         javaImage[idx] = null;
+        removeLRUNode(javaImageLRU, javaLRUNodes, idx);
         javaImageCacheSize -= javaMemSize[idx];
         javaMemSize[idx] = 0;
       }
@@ -1359,6 +1405,7 @@ public class MetaImage
             Sage.gc();
           }
           javaImage[i] = null;
+          removeLRUNode(javaImageLRU, javaLRUNodes, i);
           javaImageCacheSize -= javaMemSize[i];
           javaMemSize[i] = 0;
         }
@@ -1459,10 +1506,12 @@ public class MetaImage
       lastUsedJava[imageIndex] = Sage.eventTime();
       if (javaImage[imageIndex] != null && !loadFailed)
       {
+        javaImageLRU.hit(getJavaLRUNode(imageIndex));
         addJavaRef(imageIndex);
         return javaImage[imageIndex];
       }
     }
+    javaImageLRU.miss();
     long javaCacheReserve = 0;
     synchronized (globalJavaCacheLock)
     {
@@ -1756,6 +1805,7 @@ public class MetaImage
             if (nid.nativeImage[imageIndex] != 0)
               nia.releaseNativeImage(nid.nativeImage[imageIndex]);
             nid.nativeImage[imageIndex] = 0;
+            removeLRUNode(getNativeImageLRU(nia), nid.nativeLRUNodes, imageIndex);
             nativeImageCacheSize -= nid.nativeMemSize[imageIndex];
             nid.nativeMemSize[imageIndex] = 0;
             nativeImageCacheSizeMap.put(nia, new Long(nativeImageCacheSize));
@@ -1793,6 +1843,7 @@ public class MetaImage
         memChange = memSize - nid.nativeMemSize[imageIndex];
         nid.nativeMemSize[imageIndex] = memSize;
         nid.lastUsedNative[imageIndex] = Sage.eventTime();
+        getNativeImageLRU(nia).touch(nid.getLRUNode(imageIndex));
       }
       Long nativeImageCacheSizeObj = nativeImageCacheSizeMap.get(nia);
       long nativeImageCacheSize = (nativeImageCacheSizeObj == null) ? 0 : nativeImageCacheSizeObj.longValue();
@@ -1811,10 +1862,12 @@ public class MetaImage
       nid.lastUsedNative[imageIndex] = Sage.eventTime();
       if (nid.nativeImage[imageIndex] != 0)
       {
+        getNativeImageLRU(nia).hit(nid.getLRUNode(imageIndex));
         addNativeRef(nid, imageIndex);
         return nid.nativeImage[imageIndex];
       }
     }
+    getNativeImageLRU(nia).miss();
     Object ncl;
     synchronized (ncl = getNiaCacheLock(nia))
     {
@@ -1909,6 +1962,7 @@ public class MetaImage
               numReleased++;
               nid.nativeImage[i] = 0;
               nid.lastUsedNative[i] = 0;
+              removeLRUNode(getNativeImageLRU(nia), nid.nativeLRUNodes, i);
               freedAmount += nid.nativeMemSize[i];
               nid.nativeMemSize[i] = 0;
             }
@@ -1932,8 +1986,65 @@ public class MetaImage
     return getLeastRecentlyUsedImage(nia, dontKillMe, saveMeIndex, false);
   }
 
-  @SuppressWarnings("unused")
   private static Object[] getLeastRecentlyUsedImage(NativeImageAllocator nia, MetaImage dontKillMe, int saveMeIndex, boolean isRaw)
+  {
+    ImageLRU lru = (nia != null) ? getNativeImageLRU(nia) : (isRaw ? rawImageLRU : javaImageLRU);
+    // Images that are in use get moved to the end of the list, so once we've looked at everything that was in it there's
+    // nothing in there we can release
+    int numToCheck = lru.size();
+    for (int n = 0; n < numToCheck; n++)
+    {
+      LRUNode node = lru.getOldest();
+      if (node == null)
+        break;
+      MetaImage mi = node.mi;
+      int i = node.index;
+      boolean cached;
+      boolean inUse;
+      synchronized (mi)
+      {
+        if (i >= mi.numImages)
+        {
+          cached = false;
+          inUse = false;
+        }
+        else if (nia != null)
+        {
+          NativeImageData nid = mi.getNativeImageData(nia);
+          cached = nid.nativeImage[i] != 0;
+          inUse = nid.nativeRefCount[i] > 0;
+        }
+        else if (isRaw)
+        {
+          cached = mi.rawImage[i] != null && mi.rawMemSize[i] != 0;
+          inUse = mi.rawRefCount[i] > 0;
+        }
+        else
+        {
+          cached = mi.javaImage[i] != null && mi.javaMemSize[i] != 0;
+          inUse = mi.javaRefCount[i] > 0;
+        }
+      }
+      if (!cached || mi.permanent)
+        lru.remove(node);
+      else if (inUse || (mi == dontKillMe && i == saveMeIndex))
+        lru.touch(node);
+      else
+      {
+        lru.evicted();
+        if (DEBUG_MI) System.out.println("Oldest image sysmem=" + nia + " mi=" + mi + " idx=" + i);
+        return new Object[] { mi, new Integer(i) };
+      }
+    }
+    // Images that were cached without going through the LRU tracking can only be found by looking at all of them
+    Object[] rv = scanForLeastRecentlyUsedImage(nia, dontKillMe, saveMeIndex, isRaw);
+    if (rv != null)
+      lru.evicted();
+    return rv;
+  }
+
+  @SuppressWarnings("unused")
+  private static Object[] scanForLeastRecentlyUsedImage(NativeImageAllocator nia, MetaImage dontKillMe, int saveMeIndex, boolean isRaw)
   {
     long oldest = Long.MAX_VALUE;
     MetaImage oldestImage = null;
@@ -2682,6 +2793,7 @@ public class MetaImage
         rawImage[idx] = img;
         width[idx] = img.getWidth();
         height[idx] = img.getHeight();
+        rawImageLRU.touch(getRawLRUNode(idx));
       }
       //synchronized (globalCacheLock)
       {
@@ -2729,10 +2841,12 @@ public class MetaImage
       lastUsedRaw[imageIndex] = Sage.eventTime();
       if (rawImage[imageIndex] != null)
       {
+        rawImageLRU.hit(getRawLRUNode(imageIndex));
         addRawRef(imageIndex);
         return rawImage[imageIndex];
       }
     }
+    rawImageLRU.miss();
     long rawCacheReserve = 0;
     synchronized (globalRawCacheLock)
     {
@@ -2855,8 +2969,15 @@ public class MetaImage
           File f = (File) src;
           if (Sage.DBG) System.out.println("Loading RawImage of size " + getWidth(imageIndex) + "x" +
               getHeight(imageIndex) + " for " + src + " fileSize=" + f.length());
-          setRawImage(loadScaledImageFromFileSafely(f.toString(),
-              imageIndex == 0 ? 0 : getWidth(imageIndex), imageIndex == 0 ? 0 : getHeight(imageIndex)), imageIndex, rawCacheReserve);
+          String diskKey = getDiskCacheKey(f, null, imageIndex, 0);
+          sage.media.image.RawImage newRaw = getDiskCachedRawImage(diskKey);
+          if (newRaw == null)
+          {
+            newRaw = loadScaledImageFromFileSafely(f.toString(),
+                imageIndex == 0 ? 0 : getWidth(imageIndex), imageIndex == 0 ? 0 : getHeight(imageIndex));
+            putDiskCachedRawImage(diskKey, newRaw);
+          }
+          setRawImage(newRaw, imageIndex, rawCacheReserve);
           rawCacheReserve = 0;
         }
         else if (src instanceof MediaFile)
@@ -2867,10 +2988,16 @@ public class MetaImage
           File localSrcFile = mf.getFile(0);
           if (mf.isLocalFile() || !Sage.client/*isTrueClient()*/) // optimize for pseudo-clients
           {
-            setRawImage(sage.media.image.ImageLoader.loadResizedRotatedImageFromFile(localSrcFile.toString(),
-                imageIndex == 0 ? 0 : getWidth(imageIndex), imageIndex == 0 ? 0 : getHeight(imageIndex),
-                    32, autoRotated),
-                    imageIndex, rawCacheReserve);
+            String diskKey = getDiskCacheKey(localSrcFile, null, imageIndex, autoRotated);
+            sage.media.image.RawImage newRaw = getDiskCachedRawImage(diskKey);
+            if (newRaw == null)
+            {
+              newRaw = sage.media.image.ImageLoader.loadResizedRotatedImageFromFile(localSrcFile.toString(),
+                  imageIndex == 0 ? 0 : getWidth(imageIndex), imageIndex == 0 ? 0 : getHeight(imageIndex),
+                      32, autoRotated);
+              putDiskCachedRawImage(diskKey, newRaw);
+            }
+            setRawImage(newRaw, imageIndex, rawCacheReserve);
           }
           else
           {
@@ -2890,18 +3017,32 @@ public class MetaImage
           File localSrcFile = mft.mf.getSpecificThumbnailFile();
           if ((mft.mf.isLocalFile() || !Sage.client) && !mft.mf.isThumbnailEmbedded())
           {
-            setRawImage(sage.media.image.ImageLoader.loadResizedRotatedImageFromFile(localSrcFile.toString(),
-                imageIndex == 0 ? 0 : getWidth(imageIndex), imageIndex == 0 ? 0 : getHeight(imageIndex),
-                    32, autoRotated),
-                    imageIndex, rawCacheReserve);
+            String diskKey = getDiskCacheKey(localSrcFile, null, imageIndex, autoRotated);
+            sage.media.image.RawImage newRaw = getDiskCachedRawImage(diskKey);
+            if (newRaw == null)
+            {
+              newRaw = sage.media.image.ImageLoader.loadResizedRotatedImageFromFile(localSrcFile.toString(),
+                  imageIndex == 0 ? 0 : getWidth(imageIndex), imageIndex == 0 ? 0 : getHeight(imageIndex),
+                      32, autoRotated);
+              putDiskCachedRawImage(diskKey, newRaw);
+            }
+            setRawImage(newRaw, imageIndex, rawCacheReserve);
           }
           else
           {
-            byte[] imageBytes = mft.mf.loadEmbeddedThumbnailData();
-            setRawImage(sage.media.image.ImageLoader.loadScaledImageFromMemory(imageBytes,
-                imageIndex == 0 ? 0 : getWidth(imageIndex), imageIndex == 0 ? 0 : getHeight(imageIndex),
-                    32, autoRotated),
-                    imageIndex, rawCacheReserve);
+            // Embedded thumbnails are keyed off the media file they're in; on a client that won't be a local file
+            // so they won't get cached
+            String diskKey = getDiskCacheKey(mft.mf.getFile(0), "thumb", imageIndex, autoRotated);
+            sage.media.image.RawImage newRaw = getDiskCachedRawImage(diskKey);
+            if (newRaw == null)
+            {
+              byte[] imageBytes = mft.mf.loadEmbeddedThumbnailData();
+              newRaw = sage.media.image.ImageLoader.loadScaledImageFromMemory(imageBytes,
+                  imageIndex == 0 ? 0 : getWidth(imageIndex), imageIndex == 0 ? 0 : getHeight(imageIndex),
+                      32, autoRotated);
+              putDiskCachedRawImage(diskKey, newRaw);
+            }
+            setRawImage(newRaw, imageIndex, rawCacheReserve);
           }
           rawCacheReserve = 0;
         }
@@ -3114,6 +3255,7 @@ public class MetaImage
           sage.media.image.ImageLoader.freeImage(rawImage[idx]);
         }
         rawImage[idx] = null;
+        removeLRUNode(rawImageLRU, rawLRUNodes, idx);
         rawImageCacheSize -= rawMemSize[idx];
         rawMemSize[idx] = 0;
       }
@@ -3139,6 +3281,7 @@ public class MetaImage
             sage.media.image.ImageLoader.freeImage(rawImage[i]);
           }
           rawImage[i] = null;
+          removeLRUNode(rawImageLRU, rawLRUNodes, i);
           rawImageCacheSize -= rawMemSize[i];
           rawMemSize[i] = 0;
         }
@@ -3147,6 +3290,36 @@ public class MetaImage
     if (DEBUG_MI) System.out.println("MetaImage releaseRawImages returning rawImageCacheSize=" + rawImageCacheSize + " " + this);
   }
 
+  // These must be called while synced on this MetaImage
+  private LRUNode getJavaLRUNode(int idx)
+  {
+    javaLRUNodes = ensureLRUNode(javaLRUNodes, idx);
+    return javaLRUNodes[idx];
+  }
+  private LRUNode getRawLRUNode(int idx)
+  {
+    rawLRUNodes = ensureLRUNode(rawLRUNodes, idx);
+    return rawLRUNodes[idx];
+  }
+  private LRUNode[] ensureLRUNode(LRUNode[] nodes, int idx)
+  {
+    if (nodes == null || nodes.length <= idx)
+    {
+      LRUNode[] newNodes = new LRUNode[Math.max(idx + 1, numImages)];
+      if (nodes != null)
+        System.arraycopy(nodes, 0, newNodes, 0, nodes.length);
+      nodes = newNodes;
+    }
+    if (nodes[idx] == null)
+      nodes[idx] = new LRUNode(this, idx);
+    return nodes;
+  }
+  private static void removeLRUNode(ImageLRU lru, LRUNode[] nodes, int idx)
+  {
+    if (nodes != null && idx < nodes.length && nodes[idx] != null)
+      lru.remove(nodes[idx]);
+  }
+
   public static void printCacheContents()
   {
     //		synchronized (globalCacheLock)
@@ -3360,6 +3533,31 @@ public class MetaImage
     return str.endsWith(".tif") || str.endsWith(".tiff");
   }
 
+  // Returns the key for the scaled image at imageIndex from a source file in the ScaledImageDiskCache, or null if it
+  // shouldn't be cached there
+  private String getDiskCacheKey(File srcFile, String variant, int imageIndex, int rotation)
+  {
+    if (srcFile == null || ScaledImageDiskCache.getInstance() == null)
+      return null;
+    return ScaledImageDiskCache.getKey(srcFile, variant, imageIndex == 0 ? 0 : getWidth(imageIndex),
+        imageIndex == 0 ? 0 : getHeight(imageIndex), rotation);
+  }
+
+  private static sage.media.image.RawImage getDiskCachedRawImage(String diskKey)
+  {
+    if (diskKey == null)
+      return null;
+    sage.media.image.RawImage rv = ScaledImageDiskCache.getInstance().get(diskKey);
+    if (rv != null && DEBUG_MI) System.out.println("Loaded RawImage from disk cache " + rv + " for " + diskKey);
+    return rv;
+  }
+
+  private static void putDiskCachedRawImage(String diskKey, sage.media.image.RawImage img)
+  {
+    if (diskKey != null)
+      ScaledImageDiskCache.getInstance().put(diskKey, img);
+  }
+
   public static sage.media.image.RawImage loadScaledImageFromFileSafely(String imgFile, int width, int height) throws IOException
   {
     return loadScaledImageFromFileSafely(imgFile, width, height, 0);
@@ -3759,6 +3957,8 @@ public class MetaImage
   private int[] rawMemSize;
   private int[] rawRefCount;
   private NativeImageData[] nativeAllocData;
+  private LRUNode[] javaLRUNodes;
+  private LRUNode[] rawLRUNodes;
   private boolean loadFailed;
   private long lastUrlLoadTime;
   private boolean permanent;
@@ -3796,10 +3996,95 @@ public class MetaImage
       System.arraycopy(nativeRefCount, 0, newnativeRefCount, 0, nativeRefCount.length);
       nativeRefCount = newnativeRefCount;
     }
+    // Must be called while synced on the MetaImage
+    LRUNode getLRUNode(int idx)
+    {
+      nativeLRUNodes = ensureLRUNode(nativeLRUNodes, idx);
+      return nativeLRUNodes[idx];
+    }
     long[] nativeImage;
     long[] lastUsedNative;
     int[] nativeMemSize;
     int[] nativeRefCount;
+    LRUNode[] nativeLRUNodes;
     WeakReference<NativeImageAllocator> nia;
   }
+
+  // The link for one image of a MetaImage in an ImageLRU
+  private static class LRUNode
+  {
+    LRUNode(MetaImage mi, int index)
+    {
+      this.mi = mi;
+      this.index = index;
+    }
+    final MetaImage mi;
+    final int index;
+    LRUNode prev;
+    LRUNode next;
+  }
+
+  // A doubly linked list of the images in one cache with the least recently used one at the front. Images are added
+  // or moved to the back when they're used and removed when they're released.
+  private static class ImageLRU
+  {
+    ImageLRU()
+    {
+      head = new LRUNode(null, -1);
+      head.prev = head.next = head;
+    }
+    synchronized void touch(LRUNode node)
+    {
+      if (node.next != null)
+      {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+      }
+      else
+        size++;
+      node.prev = head.prev;
+      node.next = head;
+      head.prev.next = node;
+      head.prev = node;
+    }
+    synchronized void hit(LRUNode node)
+    {
+      hits++;
+      touch(node);
+    }
+    synchronized void miss()
+    {
+      misses++;
+    }
+    synchronized void evicted()
+    {
+      evictions++;
+    }
+    synchronized void remove(LRUNode node)
+    {
+      if (node.next == null)
+        return;
+      node.prev.next = node.next;
+      node.next.prev = node.prev;
+      node.prev = node.next = null;
+      size--;
+    }
+    synchronized LRUNode getOldest()
+    {
+      return (head.next == head) ? null : head.next;
+    }
+    synchronized int size()
+    {
+      return size;
+    }
+    public synchronized String toString()
+    {
+      return "images=" + size + " hits=" + hits + " misses=" + misses + " evictions=" + evictions;
+    }
+    private final LRUNode head;
+    private int size;
+    private long hits;
+    private long misses;
+    private long evictions;
+  }
 }
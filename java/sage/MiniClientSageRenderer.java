@@ -34,6 +34,16 @@ public class MiniClientSageRenderer extends SageRenderer
   private static java.util.Map clientPlayerSocketMap = new java.util.HashMap();
   private static java.util.Map clientPlayerSocketMapTimes = new java.util.HashMap();
   private static Object mapLock = new Object();
+  private static final int CONTENT_IMAGE_ID_CACHE_SIZE = Sage.getInt("miniclient/content_image_id_cache_size", 4096);
+  // Maps the resource IDs of images to the content based IDs we sent to clients for them, this is shared by all the
+  // clients so they can skip loading images another client already had to load
+  private static final java.util.Map contentImageIDs = new java.util.LinkedHashMap(256, 0.75f, true)
+  {
+    protected boolean removeEldestEntry(java.util.Map.Entry eldest)
+    {
+      return size() > CONTENT_IMAGE_ID_CACHE_SIZE;
+    }
+  };
 
   private static java.util.Map externalFSXferAuths = new java.util.HashMap();
 
@@ -3009,6 +3019,20 @@ public class MiniClientSageRenderer extends SageRenderer
       String imageRezID = image.getUniqueResourceID(imageIndex);
       int width = image.getWidth(imageIndex);
       int height = image.getHeight(imageIndex);
+      byte[] imageBytes = null;
+      if (contentHashedImageIDs)
+      {
+        String contentID = getContentImageID(imageRezID);
+        if (contentID == null)
+        {
+          pauseIfNotRenderingThread();
+          imageBytes = image.getSourceAsBytes();
+          if (imageBytes != null)
+            contentID = putContentImageID(imageRezID, "src", computeContentDigest(imageBytes), width, height);
+        }
+        if (contentID != null)
+          imageRezID = contentID;
+      }
       if (advImageCaching)
       {
         int newHandle;
@@ -3027,7 +3051,8 @@ public class MiniClientSageRenderer extends SageRenderer
         {
           pauseIfNotRenderingThread(true);
           prepImageTargetedMini(newHandle, width, height, imageRezID);
-          byte[] imageBytes = image.getSourceAsBytes();
+          if (imageBytes == null)
+            imageBytes = image.getSourceAsBytes();
           if (imageBytes != null)
             loadImageCompressedMini(newHandle, imageBytes);
           image.setNativePointer(this, imageIndex, newHandle, width*height*4);
@@ -3061,7 +3086,8 @@ public class MiniClientSageRenderer extends SageRenderer
         else
         {
           pauseIfNotRenderingThread();
-          byte[] imageBytes = image.getSourceAsBytes();
+          if (imageBytes == null)
+            imageBytes = image.getSourceAsBytes();
           if (imageBytes != null)
             nativePtr = loadImageCompressedMini(nativePtr, imageBytes);
         }
@@ -3332,6 +3358,21 @@ public class MiniClientSageRenderer extends SageRenderer
           int width = image.getWidth(imageIndex);
           int height = image.getHeight(imageIndex);
           String imageRezID = image.getUniqueResourceID(imageIndex);
+          if (contentHashedImageIDs)
+          {
+            // This also lets images that don't have a resource ID of their own (generated ones or ones with shape
+            // options) get cached by the client.
+            String contentID = getContentImageID(imageRezID);
+            if (contentID == null)
+            {
+              pauseIfNotRenderingThread();
+              tightImage = image.getRawImage(imageIndex);
+              if (tightImage != null)
+                contentID = putContentImageID(imageRezID, "px", computeContentDigest(tightImage), width, height);
+            }
+            if (contentID != null)
+              imageRezID = contentID;
+          }
           pauseIfNotRenderingThread();
           if (advImageCaching)
           {
@@ -3355,7 +3396,7 @@ public class MiniClientSageRenderer extends SageRenderer
           {
             synchronized (MetaImage.getNiaCacheLock(this))
             {
-              while((nativePtr = prepImageMini(width, height, image.getUniqueResourceID(imageIndex))) == 0)
+              while((nativePtr = prepImageMini(width, height, imageRezID)) == 0)
               {
                 Object[] oldestImage =
                     MetaImage.getLeastRecentlyUsedImage(this, image, imageIndex);
@@ -3382,7 +3423,8 @@ public class MiniClientSageRenderer extends SageRenderer
                 image.getSource() +
                 " width: "+width+" height: "+height);
             pauseIfNotRenderingThread();
-            tightImage = image.getRawImage(imageIndex);
+            if (tightImage == null)
+              tightImage = image.getRawImage(imageIndex);
 
             // Save the image as a PNG and then transfer that (but do a quick check for a JPEG filename
             // and use JPEG in that case)
@@ -3994,6 +4036,7 @@ public class MiniClientSageRenderer extends SageRenderer
           hasOfflineCache = true;
         else
           hasOfflineCache = false;
+        contentHashedImageIDs = hasOfflineCache && Sage.getBoolean("miniclient/content_hashed_image_cache", true);
 
         String yuvCacheProp = recvr.getStringReply();
         if (Sage.DBG) System.out.println("MiniClient GFX_YUV_IMAGE_CACHE=" + yuvCacheProp);
@@ -6749,6 +6792,74 @@ public class MiniClientSageRenderer extends SageRenderer
     return clientCanDoAuth && Sage.getBoolean("miniclient/enable_cached_authentication", true);
   }
 
+  // Returns the content based resource ID that was last used for an image with the specified resource ID, this lets us
+  // ask the client for it without loading the image again.
+  private static String getContentImageID(String imageRezID)
+  {
+    if (imageRezID == null || imageRezID.length() == 0)
+      return null;
+    synchronized (contentImageIDs)
+    {
+      return (String) contentImageIDs.get(imageRezID);
+    }
+  }
+
+  private static String putContentImageID(String imageRezID, String type, String digest, int width, int height)
+  {
+    String rv = "sha1-" + type + "-" + digest + "-" + width + "-" + height;
+    if (imageRezID != null && imageRezID.length() > 0)
+    {
+      synchronized (contentImageIDs)
+      {
+        contentImageIDs.put(imageRezID, rv);
+      }
+    }
+    return rv;
+  }
+
+  private static String computeContentDigest(byte[] data)
+  {
+    java.security.MessageDigest md = createContentDigest();
+    md.update(data);
+    return toHexString(md.digest());
+  }
+
+  private static String computeContentDigest(sage.media.image.RawImage img)
+  {
+    java.security.MessageDigest md = createContentDigest();
+    java.nio.ByteBuffer data = img.getROData();
+    data.limit(Math.min(data.capacity(), img.getStride() * img.getHeight()));
+    md.update(data);
+    // Include the format so images with the same bytes but a different layout aren't matched
+    md.update((byte) (img.hasAlpha() ? 1 : 0));
+    md.update(Integer.toString(img.getStride()).getBytes());
+    return toHexString(md.digest());
+  }
+
+  private static java.security.MessageDigest createContentDigest()
+  {
+    try
+    {
+      return java.security.MessageDigest.getInstance("SHA-1");
+    }
+    catch (java.security.NoSuchAlgorithmException e)
+    {
+      // Every JVM is required to support SHA-1
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static String toHexString(byte[] b)
+  {
+    StringBuilder sb = new StringBuilder(b.length * 2);
+    for (int i = 0; i < b.length; i++)
+    {
+      sb.append(Character.forDigit((b[i] >> 4) & 0xF, 16));
+      sb.append(Character.forDigit(b[i] & 0xF, 16));
+    }
+    return sb.toString();
+  }
+
   private static java.util.Set createSetFromString(String s)
   {
     if (s == null || s.length() == 0)
@@ -7459,6 +7570,8 @@ public class MiniClientSageRenderer extends SageRenderer
 
   private int gfxScalingCaps;
   private boolean hasOfflineCache;
+  // If true then the resource IDs for the client's offline image cache are based on a digest of the image data
+  private boolean contentHashedImageIDs;
 
   private long mediaPlayerDelay;
 
@@ -272,12 +272,12 @@ public class Ministry implements Runnable
             TranscodeJob tj = (TranscodeJob) waitingForConversion.get(i);
             if (tj.isReadyForConversion())
             {
-              waitingForConversion.removeElementAt(i);
+              waitingForConversion.removeElementAt(i--);
               startConversion(tj);
             }
             else if (tj.hasLostHope())
             {
-              waitingForConversion.removeElementAt(i);
+              waitingForConversion.removeElementAt(i--);
             }
             else
             {
@@ -288,52 +288,64 @@ public class Ministry implements Runnable
 
         synchronized (converting)
         {
-          if (converting.size() > 0)
+          // Deal with the jobs that are done with what they were doing first so their slots are free
+          // for the ones that are waiting in this same pass
+          int numRunning = 0;
+          for (int i = 0; i < converting.size(); i++)
           {
-            TranscodeJob mainConvert = (TranscodeJob) converting.get(0);
-            switch (mainConvert.getJobState())
+            TranscodeJob currConvert = (TranscodeJob) converting.get(i);
+            switch (currConvert.getJobState())
             {
-              case TranscodeJob.WAITING:
-                mainConvert.startTranscode();
-                dirty = true;
-                break;
               case TranscodeJob.TRANSCODING:
+                numRunning++;
                 break;
               case TranscodeJob.TRANSCODE_FAILED:
-                converting.remove(0);
-                waitingForAbsolution.add(mainConvert);
-                mainConvert.cleanupCurrentTranscode();
-                mainConvert.abandon();
+                converting.removeElementAt(i--);
+                waitingForAbsolution.add(currConvert);
+                currConvert.cleanupCurrentTranscode();
+                currConvert.abandon();
                 dirty = true;
                 break;
               case TranscodeJob.DESTROYED:
-                converting.remove(0);
-                mainConvert.cleanupCurrentTranscode();
-                mainConvert.abandon();
+                converting.removeElementAt(i--);
+                currConvert.cleanupCurrentTranscode();
+                currConvert.abandon();
                 dirty = true;
                 break;
               case TranscodeJob.TRANSCODING_SEGMENT_COMPLETE:
-                mainConvert.cleanupCurrentTranscode();
-                if (mainConvert.getClipDuration() == 0 || mainConvert.transcodeSegment < mainConvert.getEndingSegment())
-                  mainConvert.getTempFile(mainConvert.transcodeSegment).setLastModified(mainConvert.getMediaFile().
-                      getEnd(mainConvert.transcodeSegment));
-                else
-                  mainConvert.getTempFile(mainConvert.transcodeSegment).setLastModified(mainConvert.getMediaFile().
-                      getRecordTime() + mainConvert.getClipStartTime() + mainConvert.getClipDuration());
-                if (mainConvert.transcodeSegment  < mainConvert.getEndingSegment())
+                currConvert.cleanupCurrentTranscode();
+                currConvert.setTempFileTime(currConvert.transcodeSegment);
+                if (currConvert.transcodeSegment  < currConvert.getEndingSegment())
                 {
-                  mainConvert.continueTranscode();
+                  // The job keeps its slot for the next segment
+                  currConvert.continueTranscode();
+                  numRunning++;
                 }
                 else
                 {
-                  mainConvert.setJobState(TranscodeJob.LIMBO);
-                  converting.remove(0);
-                  waitingForAbsolution.add(mainConvert);
+                  currConvert.setJobState(TranscodeJob.LIMBO);
+                  converting.removeElementAt(i--);
+                  waitingForAbsolution.add(currConvert);
                 }
                 dirty = true;
                 break;
             }
           }
+
+          // Now start the waiting jobs in the order they became ready until we're using all the slots
+          int maxJobs = getMaxConcurrentJobs();
+          for (int i = 0; i < converting.size() && numRunning < maxJobs; i++)
+          {
+            TranscodeJob currConvert = (TranscodeJob) converting.get(i);
+            if (currConvert.getJobState() == TranscodeJob.WAITING)
+            {
+              if (Sage.DBG) System.out.println("Ministry is starting transcode job " + currConvert.getJobID() + " with " +
+                  numRunning + " of " + maxJobs + " already running");
+              currConvert.startTranscode();
+              numRunning++;
+              dirty = true;
+            }
+          }
         }
 
         Hunter seek = SeekerSelector.getInstance();
@@ -799,6 +811,32 @@ public class Ministry implements Runnable
     }
   }
 
+  /**
+   * Returns how many transcode jobs can be running at the same time. By default there's one for every
+   * four threads in the budget, which is the number of processors unless it's set otherwise.
+   */
+  public int getMaxConcurrentJobs()
+  {
+    return Math.max(1, Sage.getInt("transcoder/max_concurrent_jobs", Math.max(1, getThreadBudget() / 4)));
+  }
+
+  /**
+   * Returns how many encoding threads each transcode job should use so all of the jobs together stay in
+   * the thread budget, or zero if there's only one job at a time and it can use as many as it wants.
+   */
+  public int getThreadsPerJob()
+  {
+    int maxJobs = getMaxConcurrentJobs();
+    if (maxJobs <= 1)
+      return 0;
+    return Math.max(1, getThreadBudget() / maxJobs);
+  }
+
+  private int getThreadBudget()
+  {
+    return Math.max(1, Sage.getInt("transcoder/thread_budget", Carny.PROCESSOR_COUNT));
+  }
+
   private void startConversion(TranscodeJob tj)
   {
     tj.setJobState(TranscodeJob.WAITING);
@@ -177,6 +177,63 @@ public class Pooler
     sbPool.push(v);
   }
 
+  // Direct buffers are expensive to allocate and their native memory isn't reclaimed until they're GC'd, so the ones used
+  // for file serving are shared. They're kept in power of 2 size classes and the capacity may be larger than what
+  // was asked for.
+  public static java.nio.ByteBuffer getPooledDirectBuffer(int minSize)
+  {
+    int sizeClass = getDirectBufferSizeClass(minSize);
+    if (DISABLE_POOLER || sizeClass >= directBufferPools.length) return java.nio.ByteBuffer.allocateDirect(minSize);
+    synchronized (directBufferPools)
+    {
+      java.util.Stack<java.nio.ByteBuffer> pool = directBufferPools[sizeClass];
+      if (!pool.isEmpty())
+      {
+        java.nio.ByteBuffer rv = pool.pop();
+        pooledDirectBytes -= rv.capacity();
+        rv.clear();
+        return rv;
+      }
+    }
+    if (Sage.DBG && (((numDirectBuffersCreated++) % 20) == 0)) System.out.println("Increased direct buffer pool to size=" + numDirectBuffersCreated);
+    return java.nio.ByteBuffer.allocateDirect(MIN_POOLED_DIRECT_BUFFER << sizeClass);
+  }
+  public static void returnPooledDirectBuffer(java.nio.ByteBuffer v)
+  {
+    if (DISABLE_POOLER || v == null || !v.isDirect()) return;
+    int sizeClass = getDirectBufferSizeClass(v.capacity());
+    // Only take back buffers that came from here
+    if (sizeClass >= directBufferPools.length || v.capacity() != (MIN_POOLED_DIRECT_BUFFER << sizeClass))
+      return;
+    synchronized (directBufferPools)
+    {
+      // Don't hold onto too much native memory
+      if (pooledDirectBytes + v.capacity() > MAX_POOLED_DIRECT_BYTES)
+        return;
+      pooledDirectBytes += v.capacity();
+      directBufferPools[sizeClass].push(v);
+    }
+  }
+  private static int getDirectBufferSizeClass(int size)
+  {
+    int sizeClass = 0;
+    while ((MIN_POOLED_DIRECT_BUFFER << sizeClass) < size && sizeClass < directBufferPools.length)
+      sizeClass++;
+    return sizeClass;
+  }
+  private static final int MIN_POOLED_DIRECT_BUFFER = 65536;
+  private static final long MAX_POOLED_DIRECT_BYTES = 64*1024*1024;
+  // 64K up to 8MB
+  @SuppressWarnings("unchecked")
+  private static final java.util.Stack<java.nio.ByteBuffer>[] directBufferPools = new java.util.Stack[8];
+  static
+  {
+    for (int i = 0; i < directBufferPools.length; i++)
+      directBufferPools[i] = new java.util.Stack<java.nio.ByteBuffer>();
+  }
+  private static long pooledDirectBytes;
+  private static int numDirectBuffersCreated;
+
   // Executes the Runnable argument in another thread immediately and sets the thread at the specified priority,
   // all executions are in daemon threads
   public static void execute(Runnable runny)
@@ -267,6 +267,12 @@ public abstract class PredefinedJEPFunction extends sage.jep.function.PostfixMat
     else
       return null;
   }
+  // For calls that modify the Widget, the UI gets its own copy of them first if it's sharing them
+  protected Widget getEditableWidget(Catbert.FastStack stack)
+  {
+    Widget w = getWidget(stack);
+    return (w != null && stack.getUIMgr() != null) ? stack.getUIMgr().getEditableWidget(w) : w;
+  }
   protected sage.plugin.PluginWrapper getPlugin(Catbert.FastStack stack)
   {
     Object o = stack.pop();
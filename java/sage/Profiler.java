@@ -35,7 +35,12 @@ public class Profiler
   // around NUM_SLOTS
   static int[] determineSlots(Airing a)
   {
-    java.util.Calendar cal = new java.util.GregorianCalendar();
+    return determineSlots(a, new java.util.GregorianCalendar());
+  }
+
+  // Reuses the Calendar for when we need to do this for a lot of Airings
+  static int[] determineSlots(Airing a, java.util.Calendar cal)
+  {
     cal.setTimeInMillis(a.time);
     int startIdx = 24*(cal.get(java.util.Calendar.DAY_OF_WEEK) -
         java.util.Calendar.SUNDAY);
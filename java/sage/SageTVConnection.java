@@ -24,6 +24,14 @@ public class SageTVConnection implements Runnable, Wizard.XctSyncClient, Carny.P
   public static final int STVCS_TIMEOUT = 300000;
   private static final boolean TRANSLATE_DB_IDS = false;
   private static final byte[] OK_BYTES = "OK\r\n".getBytes();
+  // Pipelined DB sync sends the xcts queued up for a client in batches of about this size, and allows this many
+  // batches to be sent before we wait for the client to acknowledge the oldest one.
+  private static final int SYNC_BATCH_BYTES = 65536;
+  private static final int MAX_UNACKED_SYNCS = 8;
+  private static final String PIPELINED_DB_SYNC = "pipelined_db_sync";
+  private static final String CARNY_DELTA_SYNC = "carny_delta_sync";
+  // The names used in CARNY_DELTA requests for the Carny sets and maps, indexed by (msg type - LOVE_SYNC_MSG)
+  private static final String[] CARNY_SYNC_NAMES = { "LOVE", "MUSTSEE", "CAUSEMAP", "WPMAP" };
   public SageTVConnection(java.net.Socket s) throws Throwable
   {
     alive = true;
@@ -86,7 +94,14 @@ public class SageTVConnection implements Runnable, Wizard.XctSyncClient, Carny.P
   {
     if (!Sage.client)
       throw new IllegalStateException("This is a client mode call.");
-    outStream.write("LISTENER\r\n".getBytes(Sage.BYTE_CHARSET));
+    // Servers that don't know about these options ignore the extra tokens
+    StringBuilder listenerReq = new StringBuilder("LISTENER");
+    if (Sage.getBoolean(PIPELINED_DB_SYNC, true))
+      listenerReq.append(" PIPELINE");
+    if (Sage.getBoolean(CARNY_DELTA_SYNC, true))
+      listenerReq.append(" CARNY_DELTA");
+    listenerReq.append("\r\n");
+    outStream.write(listenerReq.toString().getBytes(Sage.BYTE_CHARSET));
     outStream.flush();
     linkType = CLIENT_LISTENER;
     String tempString = readLineBytes(inStream);
@@ -366,6 +381,15 @@ public class SageTVConnection implements Runnable, Wizard.XctSyncClient, Carny.P
       else if (myTokes[0].equals("LISTENER"))
       {
         linkType = CLIENT_LISTENER;
+        // The client will process WIZARD_SYNC requests in order and reply to each one, so we can send it more
+        // before we get the replies back
+        // It can also apply changes to the Carny sets and maps so we don't have to resend all of them every time
+        // the profiler runs
+        java.util.List<String> options = java.util.Arrays.asList(myTokes);
+        pipelinedSync = options.contains("PIPELINE") && Sage.getBoolean(PIPELINED_DB_SYNC, true);
+        carnyDeltaSync = options.contains("CARNY_DELTA") && Sage.getBoolean(CARNY_DELTA_SYNC, true);
+        if (Sage.DBG) System.out.println("Listener options for client " + mySock + " pipelinedSync=" + pipelinedSync +
+            " carnyDeltaSync=" + carnyDeltaSync);
         outStream.write(OK_BYTES);
       }
       else if (myTokes[0].equals("WIZARD_SYNC"))
@@ -399,6 +423,10 @@ public class SageTVConnection implements Runnable, Wizard.XctSyncClient, Carny.P
       {
         recvCarnySyncWPMap(myTokes);
       }
+      else if (myTokes[0].equals("CARNY_DELTA"))
+      {
+        recvCarnyDelta(myTokes);
+      }
       // All of the below requests have been moved into the messaging system
       /*			else if (myTokes[0].equals("WATCH_LIVE"))
 			{
@@ -704,6 +732,202 @@ public class SageTVConnection implements Runnable, Wizard.XctSyncClient, Carny.P
     outStream.write(OK_BYTES);
   }
 
+  // CARNY_DELTA name baseVersion newVersion numRemoved numChanged
+  // A baseVersion of zero means this replaces everything we have, otherwise it's the changes since that version.
+  private void recvCarnyDelta(String[] myTokes) throws java.io.IOException
+  {
+    if (myTokes.length != 6)
+    {
+      outStream.write("ERROR need 6 tokens for CARNY_DELTA command\r\n".getBytes(Sage.BYTE_CHARSET));
+      System.out.println("ERROR need 6 tokens for CARNY_DELTA command." +
+          java.util.Arrays.asList(myTokes));
+      return;
+    }
+    int msgType = LOVE_SYNC_MSG + java.util.Arrays.asList(CARNY_SYNC_NAMES).indexOf(myTokes[1]);
+    if (msgType < LOVE_SYNC_MSG)
+    {
+      // We can't know how big the data is, so this connection can't be used anymore
+      throw new java.io.IOException("Unknown CARNY_DELTA type of " + myTokes[1]);
+    }
+    int baseVersion = Integer.parseInt(myTokes[2]);
+    int newVersion = Integer.parseInt(myTokes[3]);
+    int numRemoved = Integer.parseInt(myTokes[4]);
+    int numChanged = Integer.parseInt(myTokes[5]);
+    int[] removed = new int[numRemoved];
+    for (int i = 0; i < numRemoved; i++)
+      removed[i] = readDBID();
+    int[] changedIDs = new int[numChanged];
+    Object[] changedValues = new Object[numChanged];
+    for (int i = 0; i < numChanged; i++)
+    {
+      changedIDs[i] = readDBID();
+      changedValues[i] = readCarnySyncValue(msgType);
+    }
+
+    CarnySyncState state = carnySyncStates[msgType - LOVE_SYNC_MSG];
+    if (baseVersion == 0)
+      state.data = new java.util.HashMap<Integer, Object>();
+    else if (state.data == null || state.version != baseVersion)
+    {
+      if (Sage.DBG) System.out.println("Carny " + myTokes[1] + " delta is from version " + baseVersion +
+          " but we have " + state.version + ", asking for a full resync");
+      outStream.write("RESYNC\r\n".getBytes(Sage.BYTE_CHARSET));
+      return;
+    }
+    for (int i = 0; i < numRemoved; i++)
+      state.data.remove(removed[i]);
+    for (int i = 0; i < numChanged; i++)
+      state.data.put(changedIDs[i], changedValues[i]);
+    state.version = newVersion;
+
+    // Carny gets a new set/map rather than having its current one modified since that may be in use
+    Wizard wiz = Wizard.getInstance();
+    java.util.Set loveSet = new java.util.HashSet();
+    java.util.Map dataMap = new java.util.HashMap();
+    java.util.Iterator<java.util.Map.Entry<Integer, Object>> walker = state.data.entrySet().iterator();
+    while (walker.hasNext())
+    {
+      java.util.Map.Entry<Integer, Object> ent = walker.next();
+      Airing theAir = wiz.getAiringForID(ent.getKey().intValue());
+      if (theAir == null)
+        continue;
+      if (msgType == LOVE_SYNC_MSG || msgType == MUST_SEE_SYNC_MSG)
+        loveSet.add(theAir);
+      else if (msgType == WP_MAP_SYNC_MSG)
+        dataMap.put(theAir, ent.getValue());
+      else
+      {
+        Agent theAgent = wiz.getAgentForID(((Integer) ent.getValue()).intValue());
+        if (theAgent != null)
+          dataMap.put(theAir, theAgent);
+      }
+    }
+    switch (msgType)
+    {
+      case LOVE_SYNC_MSG:
+        Carny.getInstance().updateLoves(loveSet);
+        break;
+      case MUST_SEE_SYNC_MSG:
+        Carny.getInstance().updateMustSees(loveSet);
+        break;
+      case CAUSE_MAP_SYNC_MSG:
+        Carny.getInstance().updateCauseMap(dataMap);
+        break;
+      case WP_MAP_SYNC_MSG:
+        Carny.getInstance().updateWPMap(dataMap);
+        break;
+    }
+    outStream.write(OK_BYTES);
+  }
+
+  private Object readCarnySyncValue(int msgType) throws java.io.IOException
+  {
+    if (msgType == CAUSE_MAP_SYNC_MSG)
+      return new Integer(readDBID());
+    else if (msgType == WP_MAP_SYNC_MSG)
+      return new Float(inStream.readFloat());
+    else
+      return Boolean.TRUE;
+  }
+
+  private void writeCarnySyncValue(int msgType, Object value) throws java.io.IOException
+  {
+    if (msgType == CAUSE_MAP_SYNC_MSG)
+      outStream.writeInt(convertToRemoteDBID(((Integer) value).intValue()));
+    else if (msgType == WP_MAP_SYNC_MSG)
+      outStream.writeFloat(((Float) value).floatValue());
+  }
+
+  // Sends one of the Carny sets or maps to a client that supports CARNY_DELTA. Only what changed since the version
+  // the client last acknowledged is sent, and all of it is sent again if the client doesn't have that version.
+  private void sendCarnyDelta(int msgType, Object setOrMap) throws java.io.IOException
+  {
+    java.util.Map<Integer, Object> currData = new java.util.HashMap<Integer, Object>();
+    // To protect against a ConcurrentModificationException against Carny.notifyAiringSwap
+    synchronized (setOrMap)
+    {
+      if (setOrMap instanceof java.util.Set)
+      {
+        java.util.Iterator w = ((java.util.Set) setOrMap).iterator();
+        while (w.hasNext())
+          currData.put(((DBObject) w.next()).id, Boolean.TRUE);
+      }
+      else
+      {
+        java.util.Iterator w = ((java.util.Map) setOrMap).entrySet().iterator();
+        while (w.hasNext())
+        {
+          java.util.Map.Entry ent = (java.util.Map.Entry) w.next();
+          Object value = ent.getValue();
+          if (value instanceof Agent)
+            value = new Integer(((Agent) value).id);
+          currData.put(((DBObject) ent.getKey()).id, value);
+        }
+      }
+    }
+    synchronized (this)
+    {
+      CarnySyncState state = carnySyncStates[msgType - LOVE_SYNC_MSG];
+      String str;
+      if (state.data != null)
+      {
+        java.util.List<Integer> removed = new java.util.ArrayList<Integer>();
+        java.util.Iterator<Integer> oldWalker = state.data.keySet().iterator();
+        while (oldWalker.hasNext())
+        {
+          Integer id = oldWalker.next();
+          if (!currData.containsKey(id))
+            removed.add(id);
+        }
+        java.util.Map<Integer, Object> changed = new java.util.HashMap<Integer, Object>();
+        java.util.Iterator<java.util.Map.Entry<Integer, Object>> newWalker = currData.entrySet().iterator();
+        while (newWalker.hasNext())
+        {
+          java.util.Map.Entry<Integer, Object> ent = newWalker.next();
+          if (!ent.getValue().equals(state.data.get(ent.getKey())))
+            changed.put(ent.getKey(), ent.getValue());
+        }
+        if (removed.isEmpty() && changed.isEmpty())
+          return;
+        str = writeCarnyDelta(msgType, state.version, removed, changed);
+        if ("RESYNC".equals(str))
+          str = writeCarnyDelta(msgType, 0, java.util.Collections.<Integer>emptyList(), currData);
+      }
+      else
+        str = writeCarnyDelta(msgType, 0, java.util.Collections.<Integer>emptyList(), currData);
+      if ("OK".equals(str))
+      {
+        state.data = currData;
+        state.version++;
+      }
+      else
+      {
+        if (Sage.DBG) System.out.println("Client Carny " + CARNY_SYNC_NAMES[msgType - LOVE_SYNC_MSG] + " sync denied:" + str);
+        // Send all of it next time since we don't know what the client has now
+        state.data = null;
+      }
+    }
+  }
+
+  private String writeCarnyDelta(int msgType, int baseVersion, java.util.List<Integer> removed,
+      java.util.Map<Integer, Object> changed) throws java.io.IOException
+  {
+    outStream.write(("CARNY_DELTA " + CARNY_SYNC_NAMES[msgType - LOVE_SYNC_MSG] + " " + baseVersion + " " +
+        (carnySyncStates[msgType - LOVE_SYNC_MSG].version + 1) + " " + removed.size() + " " + changed.size() + "\r\n").
+        getBytes(Sage.BYTE_CHARSET));
+    for (int i = 0; i < removed.size(); i++)
+      outStream.writeInt(convertToRemoteDBID(removed.get(i).intValue()));
+    java.util.Iterator<java.util.Map.Entry<Integer, Object>> walker = changed.entrySet().iterator();
+    while (walker.hasNext())
+    {
+      java.util.Map.Entry<Integer, Object> ent = walker.next();
+      outStream.writeInt(convertToRemoteDBID(ent.getKey().intValue()));
+      writeCarnySyncValue(msgType, ent.getValue());
+    }
+    outStream.flush();
+    return readLineBytes(inStream);
+  }
+
   private void recvPropertySync(String[] myTokes) throws java.io.IOException
   {
     if (myTokes.length != 2)
@@ -2253,6 +2477,11 @@ public class SageTVConnection implements Runnable, Wizard.XctSyncClient, Carny.P
           return true;
         }
       }
+      if (carnyDeltaSync)
+      {
+        sendCarnyDelta(LOVE_SYNC_MSG, s);
+        return true;
+      }
       synchronized (this)
       {
         // To protect against a ConcurrentModificationException against Carny.notifyAiringSwap
@@ -2297,6 +2526,11 @@ public class SageTVConnection implements Runnable, Wizard.XctSyncClient, Carny.P
           return true;
         }
       }
+      if (carnyDeltaSync)
+      {
+        sendCarnyDelta(MUST_SEE_SYNC_MSG, s);
+        return true;
+      }
       synchronized (this)
       {
         // To protect against a ConcurrentModificationException against Carny.notifyAiringSwap
@@ -2342,6 +2576,11 @@ public class SageTVConnection implements Runnable, Wizard.XctSyncClient, Carny.P
           return true;
         }
       }
+      if (carnyDeltaSync)
+      {
+        sendCarnyDelta(CAUSE_MAP_SYNC_MSG, m);
+        return true;
+      }
       synchronized (this)
       {
         // To protect against a ConcurrentModificationException against Carny.notifyAiringSwap
@@ -2390,6 +2629,11 @@ public class SageTVConnection implements Runnable, Wizard.XctSyncClient, Carny.P
           return true;
         }
       }
+      if (carnyDeltaSync)
+      {
+        sendCarnyDelta(WP_MAP_SYNC_MSG, m);
+        return true;
+      }
       synchronized (this)
       {
         // To protect against a ConcurrentModificationException against Carny.notifyAiringSwap
@@ -2700,6 +2944,56 @@ public class SageTVConnection implements Runnable, Wizard.XctSyncClient, Carny.P
     }
   }
 
+  // Sends a batch of xcts to a client that supports pipelining. This only waits for the replies if there's too many
+  // batches that haven't been acknowledged yet.
+  private void xctBatchOut(java.util.List<ListenerMsg> batch) throws java.io.IOException
+  {
+    long safePoint = 0;
+    synchronized (this)
+    {
+      TimeoutHandler.registerTimeout(30000, mySock);
+      outStream.write("WIZARD_SYNC\r\n".getBytes(Sage.BYTE_CHARSET));
+      for (int i = 0; i < batch.size(); i++)
+      {
+        ListenerMsg currMsg = batch.get(i);
+        // The xctIn call on the other end processes xcts until it hits XCTS_DONE so we can put many in one request
+        outStream.writeInt(currMsg.data.length + 4);
+        if (currMsg.data.length > 0)
+          outStream.write(currMsg.data);
+        safePoint = Math.max(safePoint, currMsg.safePoint);
+      }
+      outStream.writeInt(5);
+      outStream.writeByte(Wizard.XCTS_DONE);
+      outStream.flush();
+      TimeoutHandler.clearTimeout(mySock);
+      unackedSyncs.add(safePoint);
+    }
+    readSyncAcks(MAX_UNACKED_SYNCS - 1);
+  }
+
+  // Reads the replies to pipelined WIZARD_SYNC batches until no more than maxUnacked of them are outstanding. The client
+  // is only up to date with a batch once we get its reply so that's when we advance the listener quanta.
+  private void readSyncAcks(int maxUnacked) throws java.io.IOException
+  {
+    while (unackedSyncs.size() > maxUnacked)
+    {
+      String tempString;
+      synchronized (this)
+      {
+        TimeoutHandler.registerTimeout(30000, mySock);
+        tempString = readLineBytes(inStream);
+        TimeoutHandler.clearTimeout(mySock);
+      }
+      if (tempString == null || !"OK".equals(tempString))
+      {
+        NetworkClient.communicationFailure(this);
+        throw new java.io.IOException("Bad response received from:" + mySock.toString() + " of " + tempString);
+      }
+      long safePoint = unackedSyncs.removeFirst();
+      listenerMsgShare.quanta = Math.max(listenerMsgShare.quanta, safePoint);
+    }
+  }
+
   public void inactiveFile(String inactiveFilename)
   {
     try
@@ -3282,6 +3576,7 @@ public class SageTVConnection implements Runnable, Wizard.XctSyncClient, Carny.P
         try
         {
           boolean didUpdate = false;
+          java.util.List<ListenerMsg> syncBatch = new java.util.ArrayList<ListenerMsg>();
           while (alive)
           {
             ListenerMsg currMsg = null;
@@ -3292,16 +3587,53 @@ public class SageTVConnection implements Runnable, Wizard.XctSyncClient, Carny.P
               if (listenerMsgShare.queue.isEmpty())
               {
                 didUpdate = false;
-                try
+                if (unackedSyncs.isEmpty())
                 {
-                  listenerMsgShare.queue.wait(30000);
+                  try
+                  {
+                    listenerMsgShare.queue.wait(30000);
+                  }
+                  catch (Exception e){}
+                  continue;
+                }
+              }
+              else
+              {
+                currMsg = (ListenerMsg) listenerMsgShare.queue.remove(0);
+                if (pipelinedSync && currMsg.type == WIZARD_SYNC_MSG)
+                {
+                  // Send all of the DB xcts that are waiting behind this one in the same batch
+                  syncBatch.clear();
+                  syncBatch.add(currMsg);
+                  int batchBytes = currMsg.data.length;
+                  while (batchBytes < SYNC_BATCH_BYTES && !listenerMsgShare.queue.isEmpty() &&
+                      ((ListenerMsg) listenerMsgShare.queue.get(0)).type == WIZARD_SYNC_MSG)
+                  {
+                    ListenerMsg nextMsg = (ListenerMsg) listenerMsgShare.queue.remove(0);
+                    syncBatch.add(nextMsg);
+                    batchBytes += nextMsg.data.length;
+                  }
                 }
-                catch (Exception e){}
-                continue;
               }
-              currMsg = (ListenerMsg) listenerMsgShare.queue.remove(0);
             }
             didUpdate = true;
+            if (currMsg == null)
+            {
+              // Nothing else to send right now so get the replies for the batches that are still out there
+              readSyncAcks(0);
+              continue;
+            }
+            if (pipelinedSync)
+            {
+              if (currMsg.type == WIZARD_SYNC_MSG)
+              {
+                // The quanta gets updated when the client acknowledges the batch
+                xctBatchOut(syncBatch);
+                continue;
+              }
+              // The other requests wait for their own reply so we need to get the outstanding ones first
+              readSyncAcks(0);
+            }
             /*						if (Math.random() < 0.2)
 						{
 							System.out.println("INTRODUCING ARTIFICAL DELAY!!!");
@@ -3384,6 +3716,16 @@ public class SageTVConnection implements Runnable, Wizard.XctSyncClient, Carny.P
   private final java.util.Map threadSuspendMap = new java.util.HashMap();
   private ParallelListenerSharedData listenerMsgShare;
   private Thread listenerMsgThread;
+  // Set when the client can receive more WIZARD_SYNC requests before it has replied to the previous ones
+  private boolean pipelinedSync;
+  // Set when the client can apply CARNY_DELTA requests
+  private boolean carnyDeltaSync;
+  // On the server this is what the client last acknowledged of each of the Carny sets and maps, on the client it's
+  // what we've received; indexed by (msg type - LOVE_SYNC_MSG)
+  private final CarnySyncState[] carnySyncStates = { new CarnySyncState(), new CarnySyncState(),
+      new CarnySyncState(), new CarnySyncState() };
+  // The safe points for the WIZARD_SYNC batches that haven't been acknowledged yet, oldest first; only used by the listener thread
+  private final java.util.LinkedList<Long> unackedSyncs = new java.util.LinkedList<Long>();
 
   private java.net.Socket mySock;
   private MyDataOutput outStream;
@@ -3475,6 +3817,13 @@ public class SageTVConnection implements Runnable, Wizard.XctSyncClient, Carny.P
     public String[] props;
     public long safePoint;
   }
+  // One of the Carny sets or maps keyed by Airing ID, with the values as they're sent in CARNY_DELTA requests
+  private static class CarnySyncState
+  {
+    int version;
+    java.util.Map<Integer, Object> data;
+  }
+
   class ParallelListenerSharedData
   {
     public java.util.Vector queue = new java.util.Vector();
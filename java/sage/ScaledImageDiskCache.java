@@ -0,0 +1,316 @@
+/*
+ * Copyright 2015 The SageTV Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Keeps decoded and scaled images on disk so they don't need to be decoded again after they've been dropped from the
+ * RAM caches in MetaImage, or after we restart. Each image is stored in its own file as a small header followed by
+ * the pixels in the same layout the RawImage uses, so loading one is just mapping that part of the file.
+ * <p>
+ * Entries are keyed by the path of the source file, its modification time and size, the size the image was scaled to
+ * and any other variations of how it was loaded (like rotation). If the source file changes the old entry just stops
+ * getting used and it'll eventually be cleaned out when the cache is over its size limit, which removes the least
+ * recently used files first.
+ * <p>
+ * This is enabled with the ui/scaled_image_disk_cache property and its size is set in bytes with
+ * ui/scaled_image_disk_cache_size.
+ */
+final class ScaledImageDiskCache
+{
+  private static final String SCALED_IMAGE_DISK_CACHE = "ui/scaled_image_disk_cache";
+  private static final String SCALED_IMAGE_DISK_CACHE_SIZE = "ui/scaled_image_disk_cache_size";
+  private static final int MAGIC = 0x53494D43; // SIMC
+  private static final int VERSION = 1;
+  private static final String SUFFIX = ".img";
+  // Don't update the last modified time of an entry on every hit, the LRU order doesn't need to be that exact
+  private static final long TOUCH_INTERVAL = Sage.MILLIS_PER_HR;
+
+  private static class ScaledImageDiskCacheHolder
+  {
+    private static final ScaledImageDiskCache instance = createInstance();
+  }
+
+  /**
+   * Returns the cache, or null if scaled images should not be cached on disk.
+   */
+  static ScaledImageDiskCache getInstance()
+  {
+    return ScaledImageDiskCacheHolder.instance;
+  }
+
+  private static ScaledImageDiskCache createInstance()
+  {
+    if (!Sage.getBoolean(SCALED_IMAGE_DISK_CACHE, true))
+      return null;
+    File cacheDir = new File(Sage.getPath("cache"), "scaledimages");
+    cacheDir.mkdirs();
+    if (!cacheDir.isDirectory())
+    {
+      if (Sage.DBG) System.out.println("Unable to create scaled image disk cache directory " + cacheDir);
+      return null;
+    }
+    ScaledImageDiskCache rv = new ScaledImageDiskCache(cacheDir, Sage.getLong(SCALED_IMAGE_DISK_CACHE_SIZE, 256000000));
+    if (Sage.DBG) System.out.println("Scaled images will be cached under " + cacheDir + " " + rv);
+    return rv;
+  }
+
+  private ScaledImageDiskCache(File cacheDir, long maxSize)
+  {
+    this.cacheDir = cacheDir;
+    this.maxSize = maxSize;
+    // Anything bigger than this would push too much else out of the cache
+    maxEntrySize = maxSize / 16;
+    File[] files = cacheDir.listFiles();
+    if (files != null)
+    {
+      for (int i = 0; i < files.length; i++)
+      {
+        // Leftovers from an interrupted write
+        if (!files[i].getName().endsWith(SUFFIX))
+          files[i].delete();
+        else
+          usedBytes += files[i].length();
+      }
+    }
+    if (usedBytes > maxSize)
+      trim();
+  }
+
+  /**
+   * Builds the key that identifies a scaled copy of a source file. Returns null if the file can't be checked for
+   * changes, in which case it shouldn't be cached.
+   */
+  static String getKey(File srcFile, String variant, int width, int height, int rotation)
+  {
+    long lastModified = srcFile.lastModified();
+    if (lastModified == 0)
+      return null;
+    StringBuilder sb = new StringBuilder(srcFile.getAbsolutePath());
+    if (variant != null)
+      sb.append('#').append(variant);
+    sb.append('|').append(lastModified).append('|').append(srcFile.length()).append('|').append(width).append('x').
+        append(height).append('|').append(rotation);
+    return sb.toString();
+  }
+
+  /**
+   * Returns the cached image for the key, or null if there isn't one. The pixels of the returned image are mapped from
+   * the cache file; it's safe to modify them, that won't change what's on disk.
+   */
+  sage.media.image.RawImage get(String key)
+  {
+    File f = getFile(key);
+    if (!f.isFile())
+    {
+      misses++;
+      return null;
+    }
+    RandomAccessFile raf = null;
+    try
+    {
+      raf = new RandomAccessFile(f, "rw");
+      if (raf.readInt() != MAGIC || raf.readInt() != VERSION || !key.equals(raf.readUTF()))
+      {
+        // Hash collision or a file from a different version, it'll get replaced when this one is stored
+        misses++;
+        return null;
+      }
+      int width = raf.readInt();
+      int height = raf.readInt();
+      int stride = raf.readInt();
+      boolean hasAlpha = raf.readBoolean();
+      long dataOffset = raf.getFilePointer();
+      long dataSize = ((long) stride) * height;
+      if (width <= 0 || height <= 0 || stride < width*4 || raf.length() < dataOffset + dataSize)
+      {
+        misses++;
+        return null;
+      }
+      // Use a private mapping since whoever gets this image may write to it
+      MappedByteBuffer data = raf.getChannel().map(FileChannel.MapMode.PRIVATE, dataOffset, dataSize);
+      long now = System.currentTimeMillis();
+      if (now - f.lastModified() > TOUCH_INTERVAL)
+        f.setLastModified(now);
+      hits++;
+      return new sage.media.image.RawImage(width, height, data, hasAlpha, stride, true);
+    }
+    catch (IOException e)
+    {
+      if (Sage.DBG) System.out.println("ERROR reading scaled image disk cache file " + f + " of:" + e);
+      misses++;
+      return null;
+    }
+    finally
+    {
+      if (raf != null)
+      {
+        // The mapping stays valid after the file is closed
+        try
+        {
+          raf.close();
+        }
+        catch (IOException e){}
+      }
+    }
+  }
+
+  /**
+   * Stores a copy of the image under the key. The image itself is not modified or retained.
+   */
+  void put(String key, sage.media.image.RawImage img)
+  {
+    if (img == null || img == sage.media.image.ImageLoader.getNullImage() || img.getData() == null)
+      return;
+    long dataSize = ((long) img.getStride()) * img.getHeight();
+    if (dataSize > maxEntrySize || img.getData().capacity() < dataSize)
+      return;
+    File f = getFile(key);
+    File tempFile = null;
+    RandomAccessFile raf = null;
+    try
+    {
+      tempFile = File.createTempFile("simg", ".tmp", cacheDir);
+      raf = new RandomAccessFile(tempFile, "rw");
+      raf.writeInt(MAGIC);
+      raf.writeInt(VERSION);
+      raf.writeUTF(key);
+      raf.writeInt(img.getWidth());
+      raf.writeInt(img.getHeight());
+      raf.writeInt(img.getStride());
+      raf.writeBoolean(img.hasAlpha());
+      ByteBuffer data = img.getROData();
+      data.limit((int) dataSize);
+      FileChannel fc = raf.getChannel();
+      while (data.hasRemaining())
+        fc.write(data);
+      raf.close();
+      raf = null;
+      long fileSize = tempFile.length();
+      synchronized (this)
+      {
+        if (f.isFile())
+        {
+          long oldSize = f.length();
+          // This fails on Windows if the old one is still mapped, the one that's there is fine to use in that case
+          if (!f.delete())
+            return;
+          usedBytes -= oldSize;
+        }
+        if (!tempFile.renameTo(f))
+          return;
+        tempFile = null;
+        usedBytes += fileSize;
+        stores++;
+        if (usedBytes > maxSize)
+          trim();
+      }
+    }
+    catch (IOException e)
+    {
+      if (Sage.DBG) System.out.println("ERROR writing scaled image disk cache file " + f + " of:" + e);
+    }
+    finally
+    {
+      if (raf != null)
+      {
+        try
+        {
+          raf.close();
+        }
+        catch (IOException e){}
+      }
+      if (tempFile != null)
+        tempFile.delete();
+    }
+  }
+
+  // Removes the least recently used files until we're down to 3/4 of the max size
+  private synchronized void trim()
+  {
+    File[] files = cacheDir.listFiles();
+    if (files == null)
+      return;
+    final long[] lastModified = new long[files.length];
+    Integer[] order = new Integer[files.length];
+    for (int i = 0; i < files.length; i++)
+    {
+      lastModified[i] = files[i].lastModified();
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>()
+    {
+      public int compare(Integer o1, Integer o2)
+      {
+        long l1 = lastModified[o1.intValue()];
+        long l2 = lastModified[o2.intValue()];
+        return (l1 < l2) ? -1 : ((l1 == l2) ? 0 : 1);
+      }
+    });
+    long target = maxSize * 3 / 4;
+    int numRemoved = 0;
+    for (int i = 0; i < order.length && usedBytes > target; i++)
+    {
+      File f = files[order[i].intValue()];
+      if (!f.getName().endsWith(SUFFIX))
+        continue;
+      long size = f.length();
+      if (f.delete())
+      {
+        usedBytes -= size;
+        numRemoved++;
+      }
+    }
+    evictions += numRemoved;
+    if (Sage.DBG) System.out.println("Scaled image disk cache removed " + numRemoved + " old images " + this);
+  }
+
+  private File getFile(String key)
+  {
+    // 64-bit FNV-1a hash of the key, the full key is stored in the file to detect collisions
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < key.length(); i++)
+    {
+      hash ^= key.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    return new File(cacheDir, Long.toHexString(hash) + SUFFIX);
+  }
+
+  public String toString()
+  {
+    return "ScaledImageDiskCache[size=" + usedBytes + " max=" + maxSize + " hits=" + hits + " misses=" + misses +
+        " stores=" + stores + " evictions=" + evictions + "]";
+  }
+
+  private final File cacheDir;
+  private final long maxSize;
+  private final long maxEntrySize;
+  private long usedBytes;
+  // Stats for tuning the cache size, these don't need to be exact
+  private int hits;
+  private int misses;
+  private int stores;
+  private int evictions;
+}
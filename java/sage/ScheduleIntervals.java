@@ -0,0 +1,329 @@
+/*
+ * Copyright 2015 The SageTV Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sage;
+
+import java.util.Arrays;
+
+/**
+ * Overlap checks on the scheduling times of a set of Airings for the Scheduler, so it doesn't have
+ * to compare each Airing against everything else that's in the schedule. The times are kept in
+ * primitive arrays and two of them overlap the same way they do in
+ * Scheduler.doesSchedulingOverlap, the end times are exclusive.
+ * <p>
+ * An instance is an interval tree over a fixed set of times. They're sorted by start time and each
+ * node of the implicit binary tree over that array knows the latest end time below it, so finding
+ * what overlaps a time range is O(log n) plus the number of overlaps. Building it is O(n log n).
+ * <p>
+ * There's also a sweep over the times to check if a set of recordings fits on a number of encoders
+ * that can all record any of them. A Timeline holds what's been put on one encoder so far while the
+ * Scheduler tries out permutations.
+ */
+final class ScheduleIntervals
+{
+  /**
+   * Builds the tree for the first count times, the indices returned from it refer to the positions
+   * in these arrays. The arrays are not retained.
+   */
+  ScheduleIntervals(long[] starts, long[] ends, int count)
+  {
+    order = sortByStart(starts, count);
+    this.starts = new long[count];
+    this.ends = new long[count];
+    for (int i = 0; i < count; i++)
+    {
+      this.starts[i] = starts[order[i]];
+      this.ends[i] = ends[order[i]];
+    }
+    maxEnds = new long[count];
+    if (count > 0)
+      buildMaxEnds(0, count - 1);
+  }
+
+  int size()
+  {
+    return order.length;
+  }
+
+  /**
+   * Returns the indices of the times that overlap this range in ascending order.
+   */
+  int[] getOverlaps(long start, long end)
+  {
+    if (order.length == 0)
+      return EMPTY;
+    int[][] buf = new int[][] { new int[8] };
+    int num = findOverlaps(0, order.length - 1, start, end, buf, 0);
+    if (num == 0)
+      return EMPTY;
+    int[] rv = (num == buf[0].length) ? buf[0] : Arrays.copyOf(buf[0], num);
+    for (int i = 0; i < num; i++)
+      rv[i] = order[rv[i]];
+    Arrays.sort(rv);
+    return rv;
+  }
+
+  boolean overlaps(long start, long end)
+  {
+    return overlaps(0, order.length - 1, start, end);
+  }
+
+  private boolean overlaps(int lo, int hi, long start, long end)
+  {
+    while (lo <= hi)
+    {
+      int mid = (lo + hi) >>> 1;
+      if (maxEnds[mid] <= start)
+        return false;
+      if (overlaps(lo, mid - 1, start, end))
+        return true;
+      // Everything after this starts later, so none of it can overlap either
+      if (starts[mid] >= end)
+        return false;
+      if (ends[mid] > start)
+        return true;
+      lo = mid + 1;
+    }
+    return false;
+  }
+
+  // Adds the sorted positions of the overlaps in this part of the tree to buf and returns the new count
+  private int findOverlaps(int lo, int hi, long start, long end, int[][] buf, int num)
+  {
+    while (lo <= hi)
+    {
+      int mid = (lo + hi) >>> 1;
+      if (maxEnds[mid] <= start)
+        return num;
+      num = findOverlaps(lo, mid - 1, start, end, buf, num);
+      if (starts[mid] >= end)
+        return num;
+      if (ends[mid] > start)
+      {
+        if (num == buf[0].length)
+          buf[0] = Arrays.copyOf(buf[0], num * 2);
+        buf[0][num++] = mid;
+      }
+      lo = mid + 1;
+    }
+    return num;
+  }
+
+  private long buildMaxEnds(int lo, int hi)
+  {
+    int mid = (lo + hi) >>> 1;
+    long max = ends[mid];
+    if (lo < mid)
+      max = Math.max(max, buildMaxEnds(lo, mid - 1));
+    if (mid < hi)
+      max = Math.max(max, buildMaxEnds(mid + 1, hi));
+    maxEnds[mid] = max;
+    return max;
+  }
+
+  /**
+   * Returns the most of the times that overlap at any single point. If that's no more than the
+   * number of encoders then they can all be recorded, as long as each encoder can record any of
+   * them. The times must end after they start.
+   */
+  static int getMaxConcurrent(long[] starts, long[] ends, int count)
+  {
+    int[] sorted = sortByStart(starts, count);
+    // Min heap of the end times of the ones that are still going at the current start time
+    long[] active = new long[Math.max(1, Math.min(count, 16))];
+    int numActive = 0;
+    int rv = 0;
+    for (int i = 0; i < count; i++)
+    {
+      int x = sorted[i];
+      while (numActive > 0 && active[0] <= starts[x])
+      {
+        active[0] = active[--numActive];
+        siftDown(active, numActive);
+      }
+      if (numActive == active.length)
+        active = Arrays.copyOf(active, numActive * 2);
+      active[numActive] = ends[x];
+      siftUp(active, numActive++);
+      rv = Math.max(rv, numActive);
+    }
+    return rv;
+  }
+
+  /**
+   * Splits the times up into groups where nothing in one group overlaps anything in another group and
+   * returns the group each one is in. The groups are numbered in time order.
+   */
+  static int[] getOverlapGroups(long[] starts, long[] ends, int count)
+  {
+    int[] sorted = sortByStart(starts, count);
+    int[] rv = new int[count];
+    int group = -1;
+    long groupEnd = 0;
+    for (int i = 0; i < count; i++)
+    {
+      int x = sorted[i];
+      if (group == -1 || starts[x] >= groupEnd)
+      {
+        group++;
+        groupEnd = ends[x];
+      }
+      else
+        groupEnd = Math.max(groupEnd, ends[x]);
+      rv[x] = group;
+    }
+    return rv;
+  }
+
+  // Returns the indices sorted by start time, this is a stable merge sort so equal times stay in order
+  private static int[] sortByStart(long[] starts, int count)
+  {
+    int[] rv = new int[count];
+    for (int i = 0; i < count; i++)
+      rv[i] = i;
+    int[] temp = new int[count];
+    for (int width = 1; width < count; width *= 2)
+    {
+      for (int lo = 0; lo < count - width; lo += width * 2)
+      {
+        int mid = lo + width;
+        int hi = Math.min(lo + width * 2, count);
+        // Already in order
+        if (starts[rv[mid - 1]] <= starts[rv[mid]])
+          continue;
+        int i = lo, j = mid, k = lo;
+        while (i < mid && j < hi)
+          temp[k++] = (starts[rv[j]] < starts[rv[i]]) ? rv[j++] : rv[i++];
+        while (i < mid)
+          temp[k++] = rv[i++];
+        while (j < hi)
+          temp[k++] = rv[j++];
+        System.arraycopy(temp, lo, rv, lo, hi - lo);
+      }
+    }
+    return rv;
+  }
+
+  private static void siftUp(long[] heap, int i)
+  {
+    long x = heap[i];
+    while (i > 0)
+    {
+      int parent = (i - 1) >>> 1;
+      if (heap[parent] <= x)
+        break;
+      heap[i] = heap[parent];
+      i = parent;
+    }
+    heap[i] = x;
+  }
+
+  private static void siftDown(long[] heap, int size)
+  {
+    if (size == 0)
+      return;
+    long x = heap[0];
+    int i = 0;
+    while (true)
+    {
+      int child = i * 2 + 1;
+      if (child >= size)
+        break;
+      if (child + 1 < size && heap[child + 1] < heap[child])
+        child++;
+      if (heap[child] >= x)
+        break;
+      heap[i] = heap[child];
+      i = child;
+    }
+    heap[i] = x;
+  }
+
+  /**
+   * The times that have been put on one encoder, none of them overlap each other. Since they're
+   * sorted by start time the end times are sorted too, so checking a new one against them is a
+   * binary search.
+   */
+  static final class Timeline
+  {
+    boolean overlaps(long start, long end)
+    {
+      // The last one that starts before we end is also the last one to end out of those
+      int i = firstStartAtOrAfter(end) - 1;
+      return i >= 0 && ends[i] > start;
+    }
+
+    /**
+     * Adds the time if it doesn't overlap anything that's already here, returns false if it does.
+     */
+    boolean add(long start, long end)
+    {
+      if (overlaps(start, end))
+        return false;
+      int i = firstStartAtOrAfter(start);
+      while (i < size && starts[i] == start && ends[i] <= end)
+        i++;
+      if (size == starts.length)
+      {
+        starts = Arrays.copyOf(starts, size * 2);
+        ends = Arrays.copyOf(ends, size * 2);
+      }
+      System.arraycopy(starts, i, starts, i + 1, size - i);
+      System.arraycopy(ends, i, ends, i + 1, size - i);
+      starts[i] = start;
+      ends[i] = end;
+      size++;
+      return true;
+    }
+
+    int size()
+    {
+      return size;
+    }
+
+    void clear()
+    {
+      size = 0;
+    }
+
+    private int firstStartAtOrAfter(long time)
+    {
+      int lo = 0;
+      int hi = size;
+      while (lo < hi)
+      {
+        int mid = (lo + hi) >>> 1;
+        if (starts[mid] < time)
+          lo = mid + 1;
+        else
+          hi = mid;
+      }
+      return lo;
+    }
+
+    private long[] starts = new long[8];
+    private long[] ends = new long[8];
+    private int size;
+  }
+
+  private static final int[] EMPTY = new int[0];
+
+  // The positions of the times in the arrays we were built from, in the order they're stored here
+  private final int[] order;
+  private final long[] starts;
+  private final long[] ends;
+  // The latest end time in the subtree under each node
+  private final long[] maxEnds;
+}
@@ -38,6 +38,10 @@ public class Scheduler implements SchedulerInterface
   public static final long SCHEDULING_LOOKBEHIND = 180000L;// 3 min
   private static final float FUZZIFIER = 0.05f;//0.1f;
   private static final String SCHEDULER_EXPORT_FILE = "scheduler_export_file";
+  private static final String SCHEDULER_INCREMENTAL = "scheduler/incremental";
+  private static final String SCHEDULER_INCREMENTAL_FULL_INTERVAL = "scheduler/incremental_full_interval";
+  // If more than this much of the must see scheduling needs to be redone then it all gets redone
+  private static final float MAX_REPAIR_FRACTION = 0.5f;
 
   private static final boolean EXPONENTIAL_RED = true;
   private static final boolean SDBG = Sage.DBG && "true".equals(Sage.get("scheduler_debug", null));
@@ -692,6 +696,271 @@ public class Scheduler implements SchedulerInterface
     //System.out.println("Must See " + mustAir + " options=" + v);
   }
 
+  /*
+   * Figures out which part of the schedule needs to be redone since the last update. Everything the must see
+   * scheduling looks at is a node; the manual records, forced recordings, what's already in the must sees and the
+   * Favorites along with their other airings. Nodes are connected if they overlap in time or are the same Show, those
+   * are the only ways they can affect each other when the conflicts get resolved. So if anything changed in a
+   * connected set then the whole set gets redone, and the must sees in the other sets are left the way they are.
+   * Potentials get redone if they changed or they're in the time window of a set that's being redone. A potential
+   * that changed also makes the sets it overlaps get redone, and its time is a window too.
+   *
+   * This returns null if the whole schedule should be redone instead. Either way it saves what it saw so the next
+   * update can compare against it.
+   */
+  private ScheduleRepair getScheduleRepair(long currTime, long desiredStartLookTime, Vector<Airing> mrList,
+      Vector<Airing> forcedEncodingAirs, boolean canRepair)
+  {
+    boolean full = !canRepair || !Sage.getBoolean(SCHEDULER_INCREMENTAL, true) ||
+        Sage.eventTime() - lastFullScheduleTime > Sage.getLong(SCHEDULER_INCREMENTAL_FULL_INTERVAL,
+            6 * Sage.MILLIS_PER_HR);
+
+    // Any changes to the encoders or the Favorites can move anything in the schedule around
+    Map<CaptureDevice, Integer> encSigs = new HashMap<CaptureDevice, Integer>();
+    for (EncoderSchedule es : encoderScheduleMap.values())
+      encSigs.put(es.capDev, es.stationSet.hashCode() * 31 + es.qualitySet.hashCode());
+    long favSig = 0;
+    Agent[] favs = wiz.getFavorites();
+    for (int i = 0; i < favs.length; i++)
+    {
+      favSig = favSig * 31 + favs[i].id;
+      favSig = favSig * 31 + favs[i].createTime;
+      favSig = favSig * 31 + Arrays.hashCode(favs[i].weakAgents);
+    }
+    full |= !encSigs.equals(lastRepairEncSigs) || favSig != lastRepairFavSig;
+
+    List<Airing> nodes = new ArrayList<Airing>();
+    Set<Airing> nodeSet = new HashSet<Airing>();
+    for (int i = 0; i < mrList.size(); i++)
+      if (nodeSet.add(mrList.get(i))) nodes.add(mrList.get(i));
+    for (int i = 0; i < forcedEncodingAirs.size(); i++)
+      if (nodeSet.add(forcedEncodingAirs.get(i))) nodes.add(forcedEncodingAirs.get(i));
+    for (EncoderSchedule es : encoderScheduleMap.values())
+    {
+      for (int i = 0; i < es.mustSee.size(); i++)
+        if (nodeSet.add(es.mustSee.get(i))) nodes.add(es.mustSee.get(i));
+      if (es.currRecord != null && nodeSet.add(es.currRecord))
+        nodes.add(es.currRecord);
+    }
+    Map<DBObject, Vector<Airing>> optionMap = new HashMap<DBObject, Vector<Airing>>();
+    List<Airing> pots = new ArrayList<Airing>();
+    for (int i = 0; i < lookaheadAirs.length; i++)
+    {
+      Airing air = lookaheadAirs[i];
+      if (!wiz.ok(air))
+        continue;
+      if (air.isMustSee())
+      {
+        if (nodeSet.add(air))
+          nodes.add(air);
+        if (!optionMap.containsKey(air.getShow()))
+          processMustSeeForAirs(air, desiredStartLookTime, optionMap);
+      }
+      else if (getSchedulingStart(air) >= desiredStartLookTime)
+        pots.add(air);
+    }
+    for (Vector<Airing> options : optionMap.values())
+    {
+      for (int i = 0; i < options.size(); i++)
+        if (nodeSet.add(options.get(i))) nodes.add(options.get(i));
+    }
+
+    Map<Airing, Integer> sigs = new HashMap<Airing, Integer>();
+    for (int i = 0; i < nodes.size(); i++)
+      sigs.put(nodes.get(i), getRepairSig(nodes.get(i), currTime, desiredStartLookTime));
+    for (int i = 0; i < pots.size(); i++)
+      if (!sigs.containsKey(pots.get(i))) sigs.put(pots.get(i), getRepairSig(pots.get(i), currTime, desiredStartLookTime));
+    for (EncoderSchedule es : encoderScheduleMap.values())
+    {
+      if (es.currRecord != null)
+        sigs.put(es.currRecord, (sigs.get(es.currRecord) * 31 + es.capDev.hashCode()) * 31 + (es.isForced ? 1 : 0));
+    }
+
+    // Figure out what changed, anything that was a node last time and isn't now counts as a change too
+    Map<Airing, Integer> oldSigs = lastRepairSigs;
+    Set<Airing> oldNodes = lastRepairNodes;
+    lastRepairSigs = sigs;
+    lastRepairNodes = nodeSet;
+    lastRepairEncSigs = encSigs;
+    lastRepairFavSig = favSig;
+    if (full)
+      return null;
+    int numCurrNodes = nodes.size();
+    boolean[] dirty = new boolean[numCurrNodes];
+    for (int i = 0; i < numCurrNodes; i++)
+      dirty[i] = !sigs.get(nodes.get(i)).equals(oldSigs.get(nodes.get(i)));
+    for (Airing air : oldNodes)
+    {
+      if (!nodeSet.contains(air))
+        nodes.add(air);
+    }
+    for (Airing air : oldSigs.keySet())
+    {
+      if (!sigs.containsKey(air) && !oldNodes.contains(air))
+        nodes.add(air);
+    }
+
+    // Connect the nodes that overlap, and then the ones that are the same Show
+    int numNodes = nodes.size();
+    long[] starts = new long[numNodes];
+    long[] ends = new long[numNodes];
+    for (int i = 0; i < numNodes; i++)
+    {
+      starts[i] = getSchedulingStart(nodes.get(i));
+      ends[i] = getSchedulingEnd(nodes.get(i));
+    }
+    int[] groups = ScheduleIntervals.getOverlapGroups(starts, ends, numNodes);
+    int numGroups = 0;
+    for (int i = 0; i < numNodes; i++)
+      numGroups = Math.max(numGroups, groups[i] + 1);
+    int[] parents = new int[numGroups];
+    for (int i = 0; i < numGroups; i++)
+      parents[i] = i;
+    Map<Show, Integer> showGroups = new HashMap<Show, Integer>();
+    for (int i = 0; i < numNodes; i++)
+    {
+      Show show = nodes.get(i).getShow();
+      if (show == null)
+        continue;
+      Integer showGroup = showGroups.get(show);
+      if (showGroup == null)
+        showGroups.put(show, groups[i]);
+      else
+        parents[findRepairGroup(parents, groups[i])] = findRepairGroup(parents, showGroup);
+    }
+    boolean[] dirtyGroups = new boolean[numGroups];
+    for (int i = 0; i < numNodes; i++)
+    {
+      if (i >= numCurrNodes || dirty[i])
+        dirtyGroups[findRepairGroup(parents, groups[i])] = true;
+    }
+    // A potential that changed (like becoming Wasted) can change how the nodes it overlaps get resolved, so those
+    // sets get redone too, and its own time is a window so the other potentials around it are redone with it
+    List<Airing> changedPots = new ArrayList<Airing>();
+    for (int i = 0; i < pots.size(); i++)
+    {
+      if (!sigs.get(pots.get(i)).equals(oldSigs.get(pots.get(i))))
+        changedPots.add(pots.get(i));
+    }
+    if (!changedPots.isEmpty())
+    {
+      ScheduleIntervals nodeTimes = new ScheduleIntervals(starts, ends, numNodes);
+      for (int i = 0; i < changedPots.size(); i++)
+      {
+        Airing air = changedPots.get(i);
+        int[] overlaps = nodeTimes.getOverlaps(getSchedulingStart(air), getSchedulingEnd(air));
+        for (int j = 0; j < overlaps.length; j++)
+          dirtyGroups[findRepairGroup(parents, groups[overlaps[j]])] = true;
+        Integer showGroup = showGroups.get(air.getShow());
+        if (showGroup != null)
+          dirtyGroups[findRepairGroup(parents, showGroup)] = true;
+      }
+    }
+
+    ScheduleRepair rv = new ScheduleRepair();
+    rv.numNodes = numCurrNodes;
+    long[] winStarts = new long[numGroups + changedPots.size()];
+    long[] winEnds = new long[numGroups + changedPots.size()];
+    boolean[] windowed = new boolean[numGroups];
+    for (int i = 0; i < numNodes; i++)
+    {
+      if (!dirtyGroups[findRepairGroup(parents, groups[i])])
+        continue;
+      rv.airs.add(nodes.get(i));
+      int g = groups[i];
+      if (!windowed[g])
+      {
+        windowed[g] = true;
+        winStarts[g] = starts[i];
+        winEnds[g] = ends[i];
+      }
+      else
+      {
+        winStarts[g] = Math.min(winStarts[g], starts[i]);
+        winEnds[g] = Math.max(winEnds[g], ends[i]);
+      }
+    }
+    if (rv.airs.size() > numCurrNodes * MAX_REPAIR_FRACTION)
+      return null;
+    for (int i = 0; i < numGroups; i++)
+    {
+      if (windowed[i])
+      {
+        winStarts[rv.numWindows] = winStarts[i];
+        winEnds[rv.numWindows++] = winEnds[i];
+        rv.windowTime += winEnds[i] - winStarts[i];
+      }
+    }
+    for (int i = 0; i < changedPots.size(); i++)
+    {
+      Airing air = changedPots.get(i);
+      winStarts[rv.numWindows] = getSchedulingStart(air);
+      winEnds[rv.numWindows++] = getSchedulingEnd(air);
+      rv.windowTime += getSchedulingEnd(air) - getSchedulingStart(air);
+    }
+    ScheduleIntervals windows = new ScheduleIntervals(winStarts, winEnds, rv.numWindows);
+    for (int i = 0; i < pots.size(); i++)
+    {
+      Airing air = pots.get(i);
+      Integer showGroup = showGroups.get(air.getShow());
+      if (!sigs.get(air).equals(oldSigs.get(air)) || windows.overlaps(getSchedulingStart(air), getSchedulingEnd(air)) ||
+          (showGroup != null && dirtyGroups[findRepairGroup(parents, showGroup)]))
+        rv.potentials.add(air);
+    }
+    return rv;
+  }
+
+  private static int findRepairGroup(int[] parents, int group)
+  {
+    while (parents[group] != group)
+    {
+      parents[group] = parents[parents[group]];
+      group = parents[group];
+    }
+    return group;
+  }
+
+  // Hash of everything about an Airing that the scheduling decisions depend on, other than what else is scheduled
+  private int getRepairSig(Airing air, long currTime, long desiredStartLookTime)
+  {
+    long schedStart = getSchedulingStart(air);
+    long schedEnd = getSchedulingEnd(air);
+    int rv = Long.valueOf(schedStart).hashCode();
+    rv = rv * 31 + Long.valueOf(schedEnd).hashCode();
+    rv = rv * 31 + air.stationID;
+    rv = rv * 31 + Float.floatToIntBits(god.getWP(air));
+    Agent cause = god.getCauseAgent(air);
+    rv = rv * 31 + (cause == null ? 0 : cause.id);
+    int flags = (air.isMustSee() ? 1 : 0) | (air.isDontLike() ? 2 : 0) |
+        (wiz.getFileForAiring(air) != null ? 4 : 0) | (wiz.getWastedForAiring(air) != null ? 8 : 0) |
+        (BigBrother.isWatched(air, true) ? 16 : 0) | (schedStart >= desiredStartLookTime ? 32 : 0) |
+        (schedEnd <= currTime ? 64 : 0) | (wiz.ok(air) ? 128 : 0);
+    rv = rv * 31 + flags;
+    ManualRecord mr = wiz.getManualRecord(air);
+    if (mr != null)
+    {
+      rv = rv * 31 + Arrays.hashCode(mr.weakAirings);
+      rv = rv * 31 + (mr.getRecordingQuality() == null ? 0 : mr.getRecordingQuality().hashCode());
+    }
+    return rv;
+  }
+
+  // Puts back the conflicts from the last update that don't involve anything that's being redone
+  private static void keepConflicts(Map<DBObject, Vector<Airing>> oldConflicts,
+      Map<DBObject, Vector<Airing>> conflicts, Set<Airing> repairAirs)
+  {
+    for (Map.Entry<DBObject, Vector<Airing>> ent : oldConflicts.entrySet())
+    {
+      if (conflicts.containsKey(ent.getKey()) || repairAirs.contains(ent.getKey()))
+        continue;
+      boolean repaired = false;
+      for (int i = 0; !repaired && i < ent.getValue().size(); i++)
+        repaired = repairAirs.contains(ent.getValue().get(i));
+      if (!repaired)
+        conflicts.put(ent.getKey(), ent.getValue());
+    }
+  }
+
   private void updateSchedule(long currTime)
   {
     /*
@@ -703,6 +972,9 @@ public class Scheduler implements SchedulerInterface
     cachedSchedStarts.clear();
     cachedSchedEnds.clear();
     long schedUpdateStartTime = Sage.eventTime();
+    // If this doesn't finish then we don't know what state the schedule is in, so the next one needs to redo it all
+    boolean canRepair = incrementalReady;
+    incrementalReady = false;
     if (Sage.DBG) System.out.println("Scheduler.updateSchedule() called " + (
       (" manual=" + Arrays.asList(wiz.getManualRecords()) + " schedules=" + encoderScheduleMap +
           " scheduleRandSize=" + scheduleRandoms.size())));
@@ -825,6 +1097,9 @@ public class Scheduler implements SchedulerInterface
     PotVec potentials = new PotVec();
 
     // Clear these before we do the MR permutation
+    Map<DBObject, Vector<Airing>> oldConflicts = new HashMap<DBObject, Vector<Airing>>(pendingConflicts);
+    Map<DBObject, Vector<Airing>> oldUnresolvedConflicts =
+        new HashMap<DBObject, Vector<Airing>>(pendingUnresolvedConflicts);
     pendingConflicts.clear();
     pendingUnresolvedConflicts.clear();
 
@@ -916,6 +1191,18 @@ public class Scheduler implements SchedulerInterface
     for (int i = 0; i < sortedEncNames.length; i++)
       sortedEncs[i] = encoderScheduleMap.get(sortedEncNames[i]);
 
+    /*
+     * Only redo the parts of the schedule that could have been affected by what changed since the last update. The
+     * must sees for everything else are left in the schedules and their conflicts are carried over.
+     */
+    ScheduleRepair repair = getScheduleRepair(currTime, desiredStartLookTime, mrList, forcedEncodingAirs, canRepair);
+    if (repair != null)
+    {
+      mrList.retainAll(repair.airs);
+      keepConflicts(oldConflicts, pendingConflicts, repair.airs);
+      keepConflicts(oldUnresolvedConflicts, pendingUnresolvedConflicts, repair.airs);
+    }
+
     if (SDBG) System.out.println("mrList=" + mrList + " forcedEncodings=" + forcedEncodings);
     Vector<EncAir> scheduledMRs = generateSingleMultiTunerSchedulingPermutation(mrList, sortedEncs, forcedEncodings);
     //quickMultiTunerSchedule(mrList, forcedEncodings);
@@ -949,6 +1236,8 @@ public class Scheduler implements SchedulerInterface
       for (int i = 0; i < es.mustSee.size(); i++)
       {
         Airing testAir = es.mustSee.elementAt(i);
+        if (repair != null && !repair.airs.contains(testAir))
+          continue;
 
         ManualRecord mr = wiz.getManualRecord(testAir);
         if (!forcedEncodingAirs.contains(testAir) && !mrList.contains(testAir))
@@ -984,6 +1273,8 @@ public class Scheduler implements SchedulerInterface
       for (int i = 0; i < es.schedule.size(); i++)
       {
         Airing currAir = es.schedule.elementAt(i);
+        if (repair != null && !repair.airs.contains(currAir))
+          continue;
         ManualRecord mr = wiz.getManualRecord(currAir);
         if ((currAir.isMustSee() || (mr != null && mr.getEndTime() > currTime)) &&
             !es.mustSee.contains(currAir))
@@ -1003,6 +1294,8 @@ public class Scheduler implements SchedulerInterface
       // been removed from the DB due to an EPG update
       if (!wiz.ok(lookaheadAirs[i]) || !okToSchedule(lookaheadAirs[i], currTime))
         continue;
+      if (repair != null && !(lookaheadAirs[i].isMustSee() ? repair.airs : repair.potentials).contains(lookaheadAirs[i]))
+        continue;
       // If we've already put this Show into the must see map then continue on.
       if (showSetMap.containsKey(lookaheadAirs[i].getShow()))
         continue;
@@ -1141,6 +1434,7 @@ public class Scheduler implements SchedulerInterface
           currPermute.addAll(forcedEncodings);
           currPermute.addAll(immutableSchedule);
           currPermute.addAll(mutableSchedule);
+          ScheduleIntervals permuteIntervals = getIntervals(currPermute);
           for (int j = 0; j < unwantedAirs.size(); j++)
           {
             // The mustBeWeakAir will NOT be an MR
@@ -1148,14 +1442,14 @@ public class Scheduler implements SchedulerInterface
             long mustBeWeakStart = getSchedulingStart(mustBeWeakAir);
             long mustBeWeakEnd = getSchedulingEnd(mustBeWeakAir);
             boolean hasOverlaps = false;
-            for (int k = 0; k < currPermute.size(); k++)
+            int[] permOverlaps = permuteIntervals.getOverlaps(mustBeWeakStart, mustBeWeakEnd);
+            for (int k = 0; k < permOverlaps.length; k++)
             {
-              EncAir encAirData = currPermute.elementAt(k);
+              EncAir encAirData = currPermute.elementAt(permOverlaps[k]);
               // testPermAir is what is in the schedule for this permute, and mustBeWeakAir is what is not
               Airing testPermAir = encAirData.air;
               ManualRecord testPermMR = wiz.getManualRecord(testPermAir);
-              if (doesSchedulingOverlap(testPermAir, mustBeWeakStart, mustBeWeakEnd) &&
-                  stationDeviceOverlapExists(mustBeWeakAir, testPermAir))
+              if (stationDeviceOverlapExists(mustBeWeakAir, testPermAir))
               {
                 hasOverlaps = true;
                 Airing godRes = god.doBattle(testPermAir, mustBeWeakAir);
@@ -1221,6 +1515,11 @@ public class Scheduler implements SchedulerInterface
           // for scheduling with a large number of tuners.
           CaptureDevice[] optimumMultiNames = optNameVec.toArray(new CaptureDevice[0]);
 
+          // The schedule doesn't change until we find a permutation that works and we're done looking,
+          // so the overlaps for the conflict webs can all come from the same index of it
+          ScheduleIntervals forcedIntervals = getIntervals(forcedEncodings);
+          ScheduleIntervals immutIntervals = getIntervals(immutableSchedule);
+          ScheduleIntervals mutIntervals = getIntervals(mutableSchedule);
           while (!currAirOptions.isEmpty())
           {
             currAirOpt = currAirOptions.firstElement();
@@ -1254,19 +1553,21 @@ public class Scheduler implements SchedulerInterface
               long evilAirEnd = getSchedulingEnd(evilAir);
 
               // First find the immutable overlaps
-              for (int a = 0; a < forcedEncodings.size(); a++)
+              int[] forcedLaps = forcedIntervals.getOverlaps(evilAirStart, evilAirEnd);
+              for (int a = 0; a < forcedLaps.length; a++)
               {
-                EncAir ea = forcedEncodings.get(a);
-                if (doesSchedulingOverlap(ea.air, evilAirStart, evilAirEnd) && proccessedForOverlaps.add(ea.air))
+                EncAir ea = forcedEncodings.get(forcedLaps[a]);
+                if (proccessedForOverlaps.add(ea.air))
                 {
                   forcedOverlaps.add(new EncAir(ea.air, nameTransMap.get(ea.capDev), true));
                   findConflicts.add(ea.air);
                 }
               }
-              for (int a = 0; a < immutableSchedule.size(); a++)
+              int[] immutLaps = immutIntervals.getOverlaps(evilAirStart, evilAirEnd);
+              for (int a = 0; a < immutLaps.length; a++)
               {
-                EncAir ea = immutableSchedule.get(a);
-                if (doesSchedulingOverlap(ea.air, evilAirStart, evilAirEnd) && proccessedForOverlaps.add(ea.air))
+                EncAir ea = immutableSchedule.get(immutLaps[a]);
+                if (proccessedForOverlaps.add(ea.air))
                 {
                   immutOverlapSet.add(ea.air);
                   findConflicts.add(ea.air);
@@ -1275,10 +1576,11 @@ public class Scheduler implements SchedulerInterface
               }
 
               // Check all of the remaining mutable entries for conflicts
-              for (int a = 0; a < mutableSchedule.size(); a++)
+              int[] mutLaps = mutIntervals.getOverlaps(evilAirStart, evilAirEnd);
+              for (int a = 0; a < mutLaps.length; a++)
               {
-                EncAir ea = mutableSchedule.get(a);
-                if (doesSchedulingOverlap(ea.air, evilAirStart, evilAirEnd) && proccessedForOverlaps.add(ea.air))
+                EncAir ea = mutableSchedule.get(mutLaps[a]);
+                if (proccessedForOverlaps.add(ea.air))
                 {
                   // Airing/Show
                   DBObject testShowForConflict = (showSetMap.containsKey(ea.air) ? ea.air : ea.air.getShow());
@@ -1877,6 +2179,7 @@ public class Scheduler implements SchedulerInterface
             currPermute.addAll(forcedEncodings);
             currPermute.addAll(immutableSchedule);
             currPermute.addAll(mutableSchedule);
+            ScheduleIntervals permuteIntervals = getIntervals(currPermute);
             for (int j = 0; j < unwantedAirs.size(); j++)
             {
               // The mustBeWeakAir will NOT be an MR
@@ -1884,14 +2187,14 @@ public class Scheduler implements SchedulerInterface
               long mustBeWeakStart = getSchedulingStart(mustBeWeakAir);
               long mustBeWeakEnd = getSchedulingEnd(mustBeWeakAir);
               boolean hasOverlaps = false;
-              for (int k = 0; k < currPermute.size(); k++)
+              int[] permOverlaps = permuteIntervals.getOverlaps(mustBeWeakStart, mustBeWeakEnd);
+              for (int k = 0; k < permOverlaps.length; k++)
               {
-                EncAir encAirData = currPermute.elementAt(k);
+                EncAir encAirData = currPermute.elementAt(permOverlaps[k]);
                 // testPermAir is what is in the schedule for this permute, and mustBeWeakAir is what is not
                 Airing testPermAir = encAirData.air;
                 ManualRecord testPermMR = wiz.getManualRecord(testPermAir);
-                if (doesSchedulingOverlap(testPermAir, mustBeWeakStart, mustBeWeakEnd) &&
-                    stationDeviceOverlapExists(mustBeWeakAir, testPermAir))
+                if (stationDeviceOverlapExists(mustBeWeakAir, testPermAir))
                 {
                   hasOverlaps = true;
                   Airing godRes = god.doBattle(testPermAir, mustBeWeakAir);
@@ -2304,7 +2607,13 @@ public class Scheduler implements SchedulerInterface
     agentSchedRedMap = null;
     cachedSchedStarts.clear();
     cachedSchedEnds.clear();
-    if (Sage.DBG) System.out.println("Total Schedule eval time=" + (Sage.eventTime() - schedUpdateStartTime) + " msec");
+    if (repair == null)
+      lastFullScheduleTime = Sage.eventTime();
+    incrementalReady = true;
+    if (Sage.DBG) System.out.println("Total Schedule eval time=" + (Sage.eventTime() - schedUpdateStartTime) + " msec " +
+        ((repair == null) ? "full" : ("repaired=" + repair.airs.size() + "/" + repair.numNodes + " windows=" +
+            repair.numWindows + " (" + (repair.windowTime / Sage.MILLIS_PER_MIN) + " min)")) +
+        " potentials=" + potentials.size());
   }
 
   private boolean stationDeviceOverlapExists(Airing a1, Airing a2)
@@ -2802,6 +3111,24 @@ public class Scheduler implements SchedulerInterface
     int maxViolatorNum = 0; // Max MR to fail tests
     long maxTimeForSMTSP = Sage.getLong("scheduler/max_time_for_smtsp", 30000); // Clamp down on failures after oh so much time.
     long startTime= Sage.eventTime();
+    // What's already scheduled on each encoder doesn't change, so index it once. The ones we're placing
+    // can't overlap each other on an encoder, so those go on a timeline for it that's cleared for each permutation.
+    ScheduleIntervals[] fixedIntervals = new ScheduleIntervals[encs.length];
+    ScheduleIntervals.Timeline[] permTimelines = new ScheduleIntervals.Timeline[encs.length];
+    for (int i = 0; i < encs.length; i++)
+    {
+      Vector<EncAir> encFixed = new Vector<EncAir>();
+      for (int j = 0; j < alreadyScheduled.size(); j++)
+      {
+        EncAir alreadyEnced = alreadyScheduled.get(j);
+        if (alreadyEnced.capDev.equals(encs[i].capDev))
+          encFixed.add(alreadyEnced);
+      }
+      fixedIntervals[i] = getIntervals(encFixed);
+      permTimelines[i] = new ScheduleIntervals.Timeline();
+    }
+    long[] mrStarts = getSchedulingStarts(airList);
+    long[] mrEnds = getSchedulingEnds(airList);
     while (!airList.isEmpty())
     {
       if (countNeedsInc)
@@ -2842,15 +3169,17 @@ public class Scheduler implements SchedulerInterface
           encoderPermutationLUT = new int[numMRs];
           forceRollBit = numMRs - 1;
           startTime = Sage.eventTime();
+          mrStarts = getSchedulingStarts(airList);
+          mrEnds = getSchedulingEnds(airList);
           continue;
         }
         countNeedsInc = false;
       }
       forceRollBit = numMRs - 1;
 
-      // allocate a new vector and add force tunes; again?
       Vector<EncAir> currPerm = new Vector<EncAir>();
-      currPerm.addAll(alreadyScheduled);
+      for (int i = 0; i < permTimelines.length; i++)
+        permTimelines[i].clear();
 
       // Every time we search, start off clean and allow inserting.
       boolean clean = true;
@@ -2872,24 +3201,17 @@ public class Scheduler implements SchedulerInterface
           break;
         }
 
-        // O(N) walk the current, successul schedules and check for overlap if they are on
-        // the same encoder as our current permutation.
+        // Check for overlaps with what's already on the encoder for our current permutation.
         // If we hit an overlap; record our index and break out so we can try somethign else
-        // else - record 0
-        for (int i = 0; i < currPerm.size(); i++)
+        if (fixedIntervals[currPermCount].overlaps(mrStarts[permIdx], mrEnds[permIdx]) ||
+            !permTimelines[currPermCount].add(mrStarts[permIdx], mrEnds[permIdx]))
         {
-          EncAir alreadyEnced = currPerm.get(i);
-          if (alreadyEnced.capDev.equals(encs[currPermCount].capDev) &&
-              doesSchedulingOverlap(alreadyEnced.air, currMR))
-          {
-            clean = false;
-            forceRollBit = permIdx;
-            maxViolatorNum = Math.max(maxViolatorNum, permIdx);
-            break;
-          }
+          clean = false;
+          forceRollBit = permIdx;
+          maxViolatorNum = Math.max(maxViolatorNum, permIdx);
+          break;
         }
-        if (clean)
-          currPerm.add(new EncAir(currMR, encs[currPermCount].capDev, true));
+        currPerm.add(new EncAir(currMR, encs[currPermCount].capDev, true));
       }
       if (!clean)
       {
@@ -2898,8 +3220,7 @@ public class Scheduler implements SchedulerInterface
         continue;
       }
 
-      // We managed to walk through the whole list
-      currPerm.removeAll(alreadyScheduled);
+      // We managed to walk through the whole list, this doesn't include alreadyScheduled
       return currPerm;
     }
 
@@ -2927,13 +3248,41 @@ public class Scheduler implements SchedulerInterface
     // the new iterative way
     airList = new Vector<Airing>(airList);
     int numMRs = airList.size();
+    long[] mrStarts = new long[numMRs];
+    long[] mrEnds = new long[numMRs];
+    boolean anyEncoder = true;
+    boolean nonEmpty = true;
+    for (int i = 0; i < numMRs; i++)
+    {
+      Airing currMR = airList.get(i);
+      mrStarts[i] = currMR.getSchedulingStart();
+      mrEnds[i] = currMR.getSchedulingEnd();
+      nonEmpty &= mrEnds[i] > mrStarts[i];
+      for (int j = 0; j < encs.length && anyEncoder; j++)
+        anyEncoder = encs[j].stationSet.contains(currMR.stationID) && encs[j].supportsAirQuality(currMR);
+    }
+    if (nonEmpty)
+    {
+      // If more of them are on at once than we have encoders then no permutation will work. If every encoder
+      // can record all of them, then there's a permutation that works as long as that's not the case.
+      int maxConcurrent = ScheduleIntervals.getMaxConcurrent(mrStarts, mrEnds, numMRs);
+      if (maxConcurrent > encs.length)
+      {
+        if (SDBG) System.out.println("(test sched) SCHEDULER CANNOT GENERATE SIMPLE PERMUTATION!!" + " airList=" + airList);
+        return false;
+      }
+      if (anyEncoder)
+        return true;
+    }
+    ScheduleIntervals.Timeline[] permTimelines = new ScheduleIntervals.Timeline[encs.length];
+    for (int i = 0; i < encs.length; i++)
+      permTimelines[i] = new ScheduleIntervals.Timeline();
     int[] permuteCounts = new int[numMRs];
     int currRollBit = permuteCounts.length - 1;
     boolean countNeedsInc = false;
     int forceRollBit = permuteCounts.length - 1;
     int maxViolatorNum = 0;
     int loopCount = 0;
-    Vector<EncAir> currPerm = new Vector<EncAir>();
     while (!airList.isEmpty())
     {
       if(SDBG && (++loopCount % 1000) == 0) {
@@ -2963,7 +3312,8 @@ public class Scheduler implements SchedulerInterface
         countNeedsInc = false;
       }
       forceRollBit = permuteCounts.length - 1;
-      currPerm.clear();
+      for (int i = 0; i < permTimelines.length; i++)
+        permTimelines[i].clear();
       int permIdx = 0;
 
       boolean clean = true;
@@ -2981,20 +3331,13 @@ public class Scheduler implements SchedulerInterface
           maxViolatorNum = Math.max(maxViolatorNum, permIdx);
           break;
         }
-        for (int i = 0; i < currPerm.size(); i++)
+        if (!permTimelines[currPermCount].add(mrStarts[permIdx], mrEnds[permIdx]))
         {
-          EncAir alreadyEnced = currPerm.get(i);
-          if (alreadyEnced.capDev.equals(encs[currPermCount].capDev) &&
-              alreadyEnced.air.doesSchedulingOverlap(currMR))
-          {
-            clean = false;
-            forceRollBit = permIdx;
-            maxViolatorNum = Math.max(maxViolatorNum, permIdx);
-            break;
-          }
+          clean = false;
+          forceRollBit = permIdx;
+          maxViolatorNum = Math.max(maxViolatorNum, permIdx);
+          break;
         }
-        if (clean)
-          currPerm.add(new EncAir(currMR, encs[currPermCount].capDev, true));
       }
       if (!clean)
       {
@@ -3047,6 +3390,34 @@ public class Scheduler implements SchedulerInterface
     }
   }
 
+  // Indexes the scheduling times of the Airings, the indices in it are the positions in the list
+  private ScheduleIntervals getIntervals(List<EncAir> encAirs)
+  {
+    int size = encAirs.size();
+    long[] starts = new long[size];
+    long[] ends = new long[size];
+    for (int i = 0; i < size; i++)
+    {
+      Airing air = encAirs.get(i).air;
+      starts[i] = getSchedulingStart(air);
+      ends[i] = getSchedulingEnd(air);
+    }
+    return new ScheduleIntervals(starts, ends, size);
+  }
+  private long[] getSchedulingStarts(List<Airing> airs)
+  {
+    long[] rv = new long[airs.size()];
+    for (int i = 0; i < rv.length; i++)
+      rv[i] = getSchedulingStart(airs.get(i));
+    return rv;
+  }
+  private long[] getSchedulingEnds(List<Airing> airs)
+  {
+    long[] rv = new long[airs.size()];
+    for (int i = 0; i < rv.length; i++)
+      rv[i] = getSchedulingEnd(airs.get(i));
+    return rv;
+  }
   private long getSchedulingStart(Airing a)
   {
     Long x = cachedSchedStarts.get(a);
@@ -3113,6 +3484,24 @@ public class Scheduler implements SchedulerInterface
 
   private Map<Integer, Integer> chanTunerQualMap;
 
+  // What the last update saw, for figuring out what needs to be redone in the next one
+  private boolean incrementalReady;
+  private long lastFullScheduleTime;
+  private Map<Airing, Integer> lastRepairSigs;
+  private Set<Airing> lastRepairNodes;
+  private Map<CaptureDevice, Integer> lastRepairEncSigs;
+  private long lastRepairFavSig;
+
+  // The must see airings and potentials that get redone in an incremental update
+  private static class ScheduleRepair
+  {
+    Set<Airing> airs = new HashSet<Airing>();
+    Set<Airing> potentials = new HashSet<Airing>();
+    int numNodes;
+    int numWindows;
+    long windowTime;
+  }
+
   private static class EncAir
   {
     public EncAir(Airing air, CaptureDevice capDev, boolean req)
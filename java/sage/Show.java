@@ -163,6 +163,9 @@ public final class Show extends DBObject
 
   public String getEpisodeName()
   {
+    long ref = episodeNameRef;
+    if (ref != 0)
+      return ShowTextStore.getInstance().getString(ref);
     if (episodeNameBytes != null)
     {
       // Doing it this way should be thread safe, we may create the String twice but we'd always
@@ -184,6 +187,9 @@ public final class Show extends DBObject
 
   public String getDesc()
   {
+    long ref = descRef;
+    if (ref != 0)
+      return ShowTextStore.getInstance().getString(ref);
     if (descBytes != null)
     {
       // Doing it this way should be thread safe, we may create the String twice but we'd always
@@ -357,9 +363,11 @@ public final class Show extends DBObject
     title = fromMe.title;
     episodeNameBytes = fromMe.episodeNameBytes;
     episodeNameStr = fromMe.episodeNameStr;
+    episodeNameRef = fromMe.episodeNameRef;
     externalID = fromMe.externalID;
     descBytes = fromMe.descBytes;
     descStr = fromMe.descStr;
+    descRef = fromMe.descRef;
     categories = fromMe.categories;
     people = fromMe.people;
     roles = fromMe.roles;
@@ -461,19 +469,24 @@ public final class Show extends DBObject
     title = wiz.getTitleForID(readID(in, idMap));
 
     // We lazily create these String to speed up loading time and reduce memory overhead
+    ShowTextStore textStore = ShowTextStore.getInstance();
     int size = in.readShort();
     if (size == 0)
       episodeNameStr = "";
     else {
-      episodeNameBytes = new byte[size];
-      in.readFully(episodeNameBytes);
+      byte[] bytes = new byte[size];
+      in.readFully(bytes);
+      if (textStore == null || (episodeNameRef = textStore.add(bytes)) == 0)
+        episodeNameBytes = bytes;
     }
     size = in.readShort();
     if (size == 0)
       descStr = "";
     else {
-      descBytes = new byte[size];
-      in.readFully(descBytes);
+      byte[] bytes = new byte[size];
+      in.readFully(bytes);
+      if (textStore == null || (descRef = textStore.add(bytes)) == 0)
+        descBytes = bytes;
     }
 
     Stringer category = wiz.getCategoryForID(readID(in, idMap));
@@ -649,14 +662,14 @@ public final class Show extends DBObject
     boolean useLookupIdx = (flags & Wizard.WRITE_OPT_USE_ARRAY_INDICES) != 0;
     out.writeLong(duration);
     out.writeInt((title == null) ? 0 : (useLookupIdx ? title.lookupIdx : title.id));
-    byte[] barr = episodeNameBytes;
+    byte[] barr = (episodeNameRef != 0) ? ShowTextStore.getInstance().getBytes(episodeNameRef) : episodeNameBytes;
     if (barr != null) {
       out.writeShort(barr.length);
       out.write(barr);
     }
     else
       out.writeUTF(episodeNameStr);
-    barr = descBytes;
+    barr = (descRef != 0) ? ShowTextStore.getInstance().getBytes(descRef) : descBytes;
     if (barr != null) {
       out.writeShort(barr.length);
       out.write(barr);
@@ -1537,8 +1550,12 @@ public final class Show extends DBObject
   Stringer title;
   volatile String episodeNameStr;
   byte[] episodeNameBytes;
+  // Location of the episode name in the ShowTextStore, or 0 if it's not in there
+  long episodeNameRef;
   volatile String descStr;
   byte[] descBytes;
+  // Location of the description in the ShowTextStore, or 0 if it's not in there
+  long descRef;
   Stringer[] categories;
   Person[] people;
   byte[] roles;
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2015 The SageTV Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Holds the episode name and description text of Shows in memory mapped segment files instead of on the heap. With
+ * a large EPG these are most of the memory the Show table uses, and they're only needed when something actually
+ * displays or searches them. The text is appended when the Show is loaded and is decoded from the mapping each time
+ * it's asked for.
+ * <p>
+ * This is enabled with the wizard/mapped_show_text property. The segment files are only a cache of what's in the DB
+ * file, they are recreated every time we start up.
+ */
+final class ShowTextStore
+{
+  private static final String MAPPED_SHOW_TEXT = "wizard/mapped_show_text";
+  private static final String MAPPED_SHOW_TEXT_MAX_SEGMENTS = "wizard/mapped_show_text_max_segments";
+  private static final int SEGMENT_SIZE = 32*1024*1024;
+
+  private static class ShowTextStoreHolder
+  {
+    private static final ShowTextStore instance = createInstance();
+  }
+
+  /**
+   * Returns the store, or null if Show text should be kept on the heap.
+   */
+  static ShowTextStore getInstance()
+  {
+    return ShowTextStoreHolder.instance;
+  }
+
+  private static ShowTextStore createInstance()
+  {
+    if (!Sage.getBoolean(MAPPED_SHOW_TEXT, false))
+      return null;
+    File storeDir = new File(Sage.getPath("cache"), "showtext");
+    storeDir.mkdirs();
+    File[] oldFiles = storeDir.listFiles();
+    if (oldFiles != null)
+    {
+      for (int i = 0; i < oldFiles.length; i++)
+        oldFiles[i].delete();
+    }
+    if (Sage.DBG) System.out.println("Show text will be stored in mapped files under " + storeDir);
+    return new ShowTextStore(storeDir, Math.max(1, Sage.getInt(MAPPED_SHOW_TEXT_MAX_SEGMENTS, 64)));
+  }
+
+  private ShowTextStore(File storeDir, int maxSegments)
+  {
+    this.storeDir = storeDir;
+    segments = new MappedByteBuffer[maxSegments];
+  }
+
+  /**
+   * Copies the data into the store and returns the reference to use to retrieve it. Returns 0 if the store is full or
+   * the data can't be stored; the caller should keep it on the heap in that case.
+   */
+  synchronized long add(byte[] data)
+  {
+    if (data.length > 0xFFFF || full)
+      return 0;
+    if (writeBuf == null || writeBuf.remaining() < data.length + 2)
+    {
+      if (numSegments == segments.length || !addSegment())
+      {
+        if (Sage.DBG) System.out.println("Mapped Show text store is full, keeping the rest on the heap");
+        full = true;
+        return 0;
+      }
+    }
+    int pos = writeBuf.position();
+    writeBuf.putShort((short) data.length);
+    writeBuf.put(data);
+    return (((long) numSegments) << 32) | pos;
+  }
+
+  private boolean addSegment()
+  {
+    File segFile = new File(storeDir, "showtext" + numSegments + ".seg");
+    RandomAccessFile raf = null;
+    try
+    {
+      raf = new RandomAccessFile(segFile, "rw");
+      raf.setLength(SEGMENT_SIZE);
+      MappedByteBuffer seg = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+      segFile.deleteOnExit();
+      segments[numSegments++] = seg;
+      writeBuf = seg.duplicate();
+      return true;
+    }
+    catch (IOException e)
+    {
+      if (Sage.DBG) System.out.println("ERROR creating mapped Show text segment " + segFile + " of:" + e);
+      return false;
+    }
+    finally
+    {
+      if (raf != null)
+      {
+        // The mapping stays valid after the file is closed
+        try
+        {
+          raf.close();
+        }
+        catch (IOException e){}
+      }
+    }
+  }
+
+  /**
+   * Returns the data that was stored for the specified reference.
+   */
+  byte[] getBytes(long ref)
+  {
+    ByteBuffer buf = segments[(int) (ref >>> 32) - 1].duplicate();
+    buf.position((int) ref);
+    byte[] rv = new byte[buf.getShort() & 0xFFFF];
+    buf.get(rv);
+    return rv;
+  }
+
+  /**
+   * Returns the data that was stored for the specified reference decoded as a String.
+   */
+  String getString(long ref)
+  {
+    try
+    {
+      return new String(getBytes(ref), Sage.I18N_CHARSET);
+    }
+    catch (UnsupportedEncodingException uee)
+    {
+      if (Sage.DBG) System.out.println("Unicode ERROR creating String of:" + uee);
+      return "";
+    }
+  }
+
+  /**
+   * Returns the number of bytes used in the mapped segments.
+   */
+  synchronized long getUsedBytes()
+  {
+    return (numSegments == 0) ? 0 : (((long) (numSegments - 1)) * SEGMENT_SIZE + writeBuf.position());
+  }
+
+  private final File storeDir;
+  // Segments are only ever added, and a reference is only handed out after its data is written
+  private final MappedByteBuffer[] segments;
+  private int numSegments;
+  private ByteBuffer writeBuf;
+  private boolean full;
+}
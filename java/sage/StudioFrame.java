@@ -2521,6 +2521,8 @@ public class StudioFrame implements java.awt.event.ActionListener, STVEditor, Tr
     try
     {
       mergeGroup = tv.sage.ModuleManager.loadModuleGroup(fakePrefs);
+      // The merge modifies these Widgets, so we can't use a copy that's shared with anything else
+      mergeGroup.makeEditable();
     }
     catch (tv.sage.SageException se)
     {
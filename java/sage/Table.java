@@ -15,11 +15,19 @@
  */
 package sage;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class Table
 {
   private static final boolean VERIFY_INDICES = false;
+  // When enabled, readers that use acquireReadView() get the last published snapshot of an index instead of
+  // waiting while a writer holds the lock
+  private static final boolean SNAPSHOT_READS = Sage.getBoolean("wizard/snapshot_reads", true);
+  // Snapshots that nobody has asked for in this long are dropped so they don't hold onto old pages
+  private static final long SNAPSHOT_IDLE_TIME = 60000;
   Table(byte inTableCode, Index inPrimary)
   {
     this(inTableCode, inPrimary, new Index[0]);
@@ -80,11 +88,11 @@ public class Table
         modCount++;
       }
       if (VERIFY_INDICES) {
-        for (int i = 0; i < primary.data.length - 1; i++) {
-          if (primary.comp.compare(primary.data[i], primary.data[i + 1]) > 0)
+        for (int i = 0; i < primary.size() - 1; i++) {
+          if (primary.comp.compare(primary.get(i), primary.get(i + 1)) > 0)
             System.out.println("PRIMARY REMOVE SORT IS SCREWED UP code=" + tableCode);
           for (int j = 0; j < others.length; j++)
-            if (others[j].comp.compare(others[j].data[i], others[j].data[i + 1]) > 0)
+            if (others[j].comp.compare(others[j].get(i), others[j].get(i + 1)) > 0)
               System.out.println("OTHER REMOVE SORT IS SCREWED UP code=" + tableCode + " otherIdx=" + j);
         }
       }
@@ -106,11 +114,11 @@ public class Table
       num++;
       modCount++;
       if (VERIFY_INDICES) {
-        for (int i = 0; i < primary.data.length - 1; i++) {
-          if (primary.comp.compare(primary.data[i], primary.data[i + 1]) > 0)
+        for (int i = 0; i < primary.size() - 1; i++) {
+          if (primary.comp.compare(primary.get(i), primary.get(i + 1)) > 0)
             System.out.println("PRIMARY ADD SORT IS SCREWED UP code=" + tableCode);
           for (int j = 0; j < others.length; j++)
-            if (others[j].comp.compare(others[j].data[i], others[j].data[i + 1]) > 0)
+            if (others[j].comp.compare(others[j].get(i), others[j].get(i + 1)) > 0)
               System.out.println("OTHER ADD SORT IS SCREWED UP code=" + tableCode + " otherIdx=" + j);
         }
       }
@@ -133,11 +141,11 @@ public class Table
       modCount++;
 
       if (VERIFY_INDICES) {
-        for (int i = 0; i < primary.data.length - 1; i++) {
-          if (primary.comp.compare(primary.data[i], primary.data[i + 1]) > 0)
+        for (int i = 0; i < primary.size() - 1; i++) {
+          if (primary.comp.compare(primary.get(i), primary.get(i + 1)) > 0)
             System.out.println("PRIMARY UPDATE SORT IS SCREWED UP code=" + tableCode);
           for (int j = 0; j < others.length; j++)
-            if (others[j].comp.compare(others[j].data[i], others[j].data[i + 1]) > 0)
+            if (others[j].comp.compare(others[j].get(i), others[j].get(i + 1)) > 0)
               System.out.println("OTHER UPDATE SORT IS SCREWED UP code=" + tableCode + " otherIdx=" + j);
         }
       }
@@ -191,7 +199,7 @@ public class Table
 
   void acquireReadLock() {
     if (!wiz.isDBLoading())
-      rwLock.readLock().lock();
+      lockAndTime(rwLock.readLock(), readLockWaits, readLockWaitNanos);
   }
 
   void releaseReadLock() {
@@ -201,12 +209,94 @@ public class Table
 
   void acquireWriteLock() {
     if (!wiz.isDBLoading())
-      rwLock.writeLock().lock();
+      lockAndTime(rwLock.writeLock(), writeLockWaits, writeLockWaitNanos);
   }
 
   void releaseWriteLock() {
-    if (!wiz.isDBLoading())
+    if (!wiz.isDBLoading()) {
+      if (rwLock.getWriteHoldCount() == 1) {
+        if (!snapshotRequested && primary.getPublishedSnapshot() != null &&
+            Sage.eventTime() - lastSnapshotRequest > SNAPSHOT_IDLE_TIME) {
+          primary.discardSnapshot();
+          for (int i = 0; i < others.length; i++)
+            others[i].discardSnapshot();
+        } else if (snapshotRequested || primary.getPublishedSnapshot() != null) {
+          // Once readers are using snapshots, every write has to show up in them when it's done. Otherwise a thread
+          // could write something and then not see it when it reads while someone else is writing.
+          snapshotRequested = false;
+          primary.publishSnapshot();
+          for (int i = 0; i < others.length; i++)
+            others[i].publishSnapshot();
+        }
+      }
       rwLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Returns a view of the specified index of this table that can be read from. Normally this acquires the read
+   * lock and returns the index itself. If snapshot reads are enabled and another thread is writing to the table,
+   * this returns the read-only snapshot published when the last write finished instead of waiting for the writer. The
+   * returned view must be passed to {@link #releaseReadView(Index)} when done.
+   */
+  Index acquireReadView(Index idx) {
+    if (wiz.isDBLoading())
+      return idx;
+    if (SNAPSHOT_READS) {
+      if (tryLockNow(rwLock.readLock()))
+        return idx;
+      Index snap = idx.getPublishedSnapshot();
+      lastSnapshotRequest = Sage.eventTime();
+      if (snap != null) {
+        // This has everything up to the last write that finished since they all publish a new one
+        snapshotReads.incrementAndGet();
+        return snap;
+      }
+      snapshotRequested = true;
+    }
+    acquireReadLock();
+    return idx;
+  }
+
+  void releaseReadView(Index view) {
+    if (!view.isSnapshot())
+      releaseReadLock();
+  }
+
+  private static boolean tryLockNow(Lock lock) {
+    // The timed version honors the fairness setting of the lock, the untimed tryLock() does not
+    try {
+      return lock.tryLock(0, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  private static void lockAndTime(Lock lock, AtomicLong waits, AtomicLong waitNanos) {
+    if (tryLockNow(lock))
+      return;
+    long waitStart = System.nanoTime();
+    lock.lock();
+    waitNanos.addAndGet(System.nanoTime() - waitStart);
+    waits.incrementAndGet();
+  }
+
+  /**
+   * Returns a description of how often and for how long threads have had to wait on the lock for this table.
+   */
+  String getLockStats() {
+    return "reads(waits=" + readLockWaits.get() + " waitMsec=" + (readLockWaitNanos.get() / 1000000) +
+        " snapshots=" + snapshotReads.get() + ") writes(waits=" + writeLockWaits.get() + " waitMsec=" +
+        (writeLockWaitNanos.get() / 1000000) + ")";
+  }
+
+  long getLockWaitNanos() {
+    return readLockWaitNanos.get() + writeLockWaitNanos.get();
+  }
+
+  long getSnapshotReads() {
+    return snapshotReads.get();
   }
 
   void setWizard(Wizard inWiz) {
@@ -221,4 +311,11 @@ public class Table
   long modCount = 0;
   private ReentrantReadWriteLock rwLock;
   private Wizard wiz;
+  private volatile boolean snapshotRequested;
+  private volatile long lastSnapshotRequest;
+  private final AtomicLong readLockWaits = new AtomicLong();
+  private final AtomicLong readLockWaitNanos = new AtomicLong();
+  private final AtomicLong writeLockWaits = new AtomicLong();
+  private final AtomicLong writeLockWaitNanos = new AtomicLong();
+  private final AtomicLong snapshotReads = new AtomicLong();
 }
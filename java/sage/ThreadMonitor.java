@@ -188,6 +188,11 @@ public final class ThreadMonitor extends Thread
         }
         System.out.println(outLine.toString());
 
+        // Report how much time threads have spent waiting on the DB table locks
+        String dbLockStats = Wizard.getInstance().getLockContentionStats();
+        if (dbLockStats.length() > 0)
+          System.out.println("DB lock contention" + dbLockStats);
+
 
         // Every 10 iterations, clean out any old threads from the cpu time map
         iterations++;
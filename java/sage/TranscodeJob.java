@@ -197,6 +197,29 @@ public abstract class TranscodeJob
   public java.io.File getTargetFile(int segment) { return (targetFiles != null && targetFiles.length > segment) ? targetFiles[segment] : null; }
   public java.io.File getTempFile(int segment) { return (tempFiles != null && tempFiles.length > segment) ? tempFiles[segment] : null; }
   public long estimateTranscodeSize()
+  {
+    long overallBitrate = getTargetBitrate();
+    // If we have no bitrate info, then it's probably a transmux and those are usually about the same size
+    if (overallBitrate == 0)
+      return mf.getFile(transcodeSegment).length();
+    else
+      return (overallBitrate / 8) * ((clipDuration <= 0 ? mf.getRecordDuration() : clipDuration) / 1000);
+  }
+  // This is only for what's in this one segment, and the part of it that's in the clip if there is one
+  public long estimateTranscodeSize(int segment)
+  {
+    long overallBitrate = getTargetBitrate();
+    if (overallBitrate == 0)
+      return mf.getFile(segment).length();
+    long segStart = mf.getStart(segment);
+    long segEnd = segStart + mf.getDuration(segment);
+    if (clipStartTime > 0)
+      segStart = Math.max(segStart, mf.getRecordTime() + clipStartTime);
+    if (clipDuration > 0)
+      segEnd = Math.min(segEnd, mf.getRecordTime() + clipStartTime + clipDuration);
+    return (overallBitrate / 8) * (Math.max(0, segEnd - segStart) / 1000);
+  }
+  private long getTargetBitrate()
   {
     long overallBitrate = targetFormat.getBitrate();
     if (overallBitrate == 0)
@@ -207,11 +230,16 @@ public abstract class TranscodeJob
         overallBitrate += bf.getBitrate();
       }
     }
-    // If we have no bitrate info, then it's probably a transmux and those are usually about the same size
-    if (overallBitrate == 0)
-      return mf.getFile(transcodeSegment).length();
+    return overallBitrate;
+  }
+
+  // The transcoded file for a segment gets the time of the end of what's in it
+  public void setTempFileTime(int segment)
+  {
+    if (clipDuration == 0 || segment < getEndingSegment())
+      getTempFile(segment).setLastModified(mf.getEnd(segment));
     else
-      return (overallBitrate / 8) * ((clipDuration <= 0 ? mf.getRecordDuration() : clipDuration) / 1000);
+      getTempFile(segment).setLastModified(mf.getRecordTime() + clipStartTime + clipDuration);
   }
 
   public void startTranscode()
@@ -1272,10 +1272,34 @@ public class UIManager implements Runnable, UIClient
     {
       if (currUI.getUI().getRelatedContext() != null && currUI.getUI().getRelatedContext().getParent() != null)
         staticContext.putAll(currUI.getUI().getRelatedContext().getParent().getMap());
-      advanceUI(new PseudoMenu(this, currUI.getBlueprint()));
+      advanceUI(new PseudoMenu(this, moduleGroup.getEditableWidget(currUI.getBlueprint())));
     }
   }
 
+  /**
+   * Gives this UI its own copy of the Widgets if it's sharing them with other UIs, this needs to be done before they
+   * get modified. The cached Widgets are cleared if they were copied, the current menu is still the shared one though.
+   * @return true if the Widgets were copied
+   */
+  public boolean makeWidgetsEditable()
+  {
+    if (moduleGroup == null || !moduleGroup.makeEditable())
+      return false;
+    uiWidgMap.clear();
+    menuWidgetCache = null;
+    hookCache = null;
+    return true;
+  }
+
+  /**
+   * Returns this UI's own copy of the Widget so it can be modified.
+   */
+  public Widget getEditableWidget(Widget w)
+  {
+    makeWidgetsEditable();
+    return (moduleGroup == null) ? w : moduleGroup.getEditableWidget(w);
+  }
+
   public void freshStartup()
   {
     uiHistory.clear();
@@ -1361,6 +1385,7 @@ public class UIManager implements Runnable, UIClient
     {
       if (Sage.DBG) System.out.println("Importing all currently enabled STVIs into the loaded STV...");
       pluginImportsActive = true;
+      makeWidgetsEditable();
       long oldModTime = getModuleGroup().defaultModule.lastModified();
       for (int i = 0; i < imports.length; i++)
       {
@@ -2826,6 +2851,9 @@ public class UIManager implements Runnable, UIClient
         return myStudio;
       try
       {
+        // Studio modifies the Widgets so this UI can't share them anymore, reload the menu so it shows the changes
+        if (makeWidgetsEditable())
+          fullyRefreshCurrUI();
         myStudio = (STVEditor) Class.forName("sage.StudioFrame").newInstance();
         myStudio.setUIMgr(this);
         return myStudio;
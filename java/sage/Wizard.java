@@ -51,6 +51,7 @@ import sage.io.BufferedSageFile;
 import sage.io.EncryptedSageFile;
 import sage.io.LocalSageFile;
 import sage.io.SageDataFile;
+import sage.io.SageFileSource;
 
 import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
@@ -74,8 +75,17 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.Queue;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 /*
@@ -354,8 +364,8 @@ public class Wizard implements EPGDBPublic2
     if (t == null) return 0;
     Index idx=t.primary;
     int count=0;
-    for (int i = 0; i < idx.data.length; i++) {
-      DBObject obj = idx.data[i];
+    for (int i = 0; i < idx.size(); i++) {
+      DBObject obj = idx.get(i);
       if (obj != null && (obj.getMediaMask() & mediaMask) != 0)
         count++;
     }
@@ -365,7 +375,31 @@ public class Wizard implements EPGDBPublic2
 
   public DBObject[] getRawAccess(byte tableCode, byte indexCode)
   {
-    return getIndex(tableCode, indexCode).data;
+    // The array is copied out of the pages of the index, so that can't be done while a writer is changing them.
+    // A snapshot never changes so the array it builds is kept for as long as that snapshot is.
+    Index idx = getIndex(tableCode, indexCode);
+    Index view = idx.table.acquireReadView(idx);
+    try {
+      return view.toArray();
+    } finally {
+      idx.table.releaseReadView(view);
+    }
+  }
+
+  /**
+   * Returns the lock contention statistics for each table that has had threads wait on its lock or read from
+   * a snapshot, this is empty if there hasn't been any contention.
+   */
+  public String getLockContentionStats()
+  {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < tables.length; i++)
+    {
+      Table t = tables[i];
+      if (t == null || t.getLockWaitNanos() == 0 && t.getSnapshotReads() == 0) continue;
+      sb.append(' ').append(getNameForCode(t.tableCode)).append(':').append(t.getLockStats());
+    }
+    return sb.toString();
   }
 
   // Avoid the DB locks if we are loading as we do that single threaded so we have
@@ -422,6 +456,13 @@ public class Wizard implements EPGDBPublic2
   private static final String LAST_MAINTENANCE = "last_maintenance";
   private static final String NODATA_MAX_LEN = "nodata_max_len";
   private static final String NODATA_DUR_FOR_MAXRULE = "nodata_dur_for_maxrule";
+  private static final String XCT_GROUP_COMMIT = "xct_group_commit";
+  private static final String XCT_SYNC_INTERVAL = "xct_sync_interval";
+  private static final String XCT_SYNC_BATCH = "xct_sync_batch";
+  private static final String BACKGROUND_COMPACTION = "background_compaction";
+  private static final String PARALLEL_LOAD = "parallel_load";
+  // Number of objects written at a time while holding a table's read lock during background compaction
+  private static final int COMPACTION_BATCH_SIZE = 1024;
 
   // This indicates that the mediaMaskB in DBObject should be generated by ALL DBObjects during this load
   public static boolean GENERATE_MEDIA_MASK = false;
@@ -490,6 +531,13 @@ public class Wizard implements EPGDBPublic2
     lastMaintenance = Math.min(Sage.time(), Sage.getLong(prefsRoot + LAST_MAINTENANCE, 0));
     noDataMaxLen = Sage.getLong(prefsRoot + NODATA_MAX_LEN, 2*Sage.MILLIS_PER_HR);
     noDataMaxRuleDur = Sage.getLong(prefsRoot + NODATA_DUR_FOR_MAXRULE, 2*Sage.MILLIS_PER_DAY);
+    // With group commit the DB file isn't opened in synchronous write mode; transactions accumulate in the write
+    // buffer and get synced to disk together at most xct_sync_interval msec after they were logged (or sooner
+    // once xct_sync_batch of them are waiting). Without it we sync once a minute like we always did.
+    groupCommit = Sage.getBoolean(prefsRoot + XCT_GROUP_COMMIT, true);
+    xctSyncInterval = groupCommit ? Math.max(10, Sage.getLong(prefsRoot + XCT_SYNC_INTERVAL, 1000)) : 60000;
+    xctSyncBatch = Math.max(1, Sage.getInt(prefsRoot + XCT_SYNC_BATCH, 1000));
+    backgroundCompaction = Sage.getBoolean(prefsRoot + BACKGROUND_COMPACTION, true);
     listeners = new Vector<XctSyncClient>();
     pendingWriteXcts = new Vector<XctObject>();
     if (Sage.client)
@@ -646,7 +694,10 @@ public class Wizard implements EPGDBPublic2
         {
           while (true)
           {
-            try{Thread.sleep(60000);}catch(Exception e){}
+            synchronized (xctSyncLock)
+            {
+              try{xctSyncLock.wait(xctSyncInterval);}catch(Exception e){}
+            }
             flushDbOut();
           }
         }
@@ -670,17 +721,76 @@ public class Wizard implements EPGDBPublic2
   }
 
   public void flushDbOut(){
+    SageFileSource syncMe = null;
     synchronized (outLock)
     {
-      if (dbout != null)
+      if (dbout != null && (!groupCommit || unsyncedXcts > 0))
       {
         try
         {
-          dbout.sync();
+          if (groupCommit)
+          {
+            // Write out the buffer now, but do the fsync outside of the lock so threads logging
+            // transactions aren't waiting on the disk.
+            dbout.flush();
+            syncMe = SageDataFile.getSourceRandomFile(dbout);
+          }
+          else
+            dbout.sync();
+          unsyncedXcts = 0;
         }
         catch (Exception e){}
       }
     }
+    if (syncMe != null)
+    {
+      try
+      {
+        syncMe.sync();
+        numXctSyncs++;
+      }
+      catch (Exception e)
+      {
+        // This happens if the DB file was swapped out from under us, that one has already been synced
+      }
+    }
+  }
+
+  /**
+   * Returns the mode the DB file should be opened in for writing.
+   */
+  private String getDBFileMode()
+  {
+    return groupCommit ? "rw" : "rwd";
+  }
+
+  // Called with the outLock held after a transaction has been written to the DB file
+  private void xctLogged(byte xctType, byte objectType, DBObject obj)
+  {
+    if (compactXcts != null)
+    {
+      synchronized (compactXctLock)
+      {
+        // Check again now that we have the lock since the compaction may have just finished
+        if (compactXcts != null)
+          compactXcts.add(new XctObject(xctType, objectType, obj));
+      }
+    }
+    if (++unsyncedXcts >= xctSyncBatch)
+    {
+      synchronized (xctSyncLock)
+      {
+        xctSyncLock.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Returns the number of times the transaction log has been synced to disk by group commit.
+   */
+  public long getNumXctSyncs()
+  {
+    return numXctSyncs;
   }
 
   private File searchForSTVFile(File startDir, int depth)
@@ -780,7 +890,7 @@ public class Wizard implements EPGDBPublic2
         Index watchIndex = getIndex(WATCH_CODE, (byte)0);
         for (int i = 0; i < watchIndex.table.num; i++)
         {
-          Watched currWatch = (Watched) watchIndex.data[i];
+          Watched currWatch = (Watched) watchIndex.get(i);
           if (currWatch != null)
           {
             Airing watchAir = currWatch.getAiring();
@@ -816,7 +926,7 @@ public class Wizard implements EPGDBPublic2
         long wasteExpireTime = Sage.time() - 52*Sage.MILLIS_PER_WEEK;
         for (int i = 0; i < wasteIndex.table.num; i++)
         {
-          Wasted currWaste = (Wasted) wasteIndex.data[i];
+          Wasted currWaste = (Wasted) wasteIndex.get(i);
           if (currWaste != null)
           {
             Airing wasteAir = currWaste.getAiring();
@@ -871,7 +981,7 @@ public class Wizard implements EPGDBPublic2
         Airing lastAir = null;
         for (int i = 0; i < airIndex.table.num; i++)
         {
-          Airing iAir = (Airing) airIndex.data[i];
+          Airing iAir = (Airing) airIndex.get(i);
           if (iAir != null && iAir.id < maintainStartID)
           {
             boolean saveTheAir = toSave.contains(iAir) || (obeyAiringPersistence && iAir.persist != 0);
@@ -972,7 +1082,7 @@ public class Wizard implements EPGDBPublic2
         List<Airing> noShowAirsToAdd = new ArrayList<Airing>();
         for (int i = 0; i < airIndex.table.num; i++)
         {
-          Airing iAir = (Airing) airIndex.data[i];
+          Airing iAir = (Airing) airIndex.get(i);
           if (iAir == null)
             break;
           // Do this AFTER we remove all the airings from the DB so we don't get tricked and leave stations
@@ -1078,9 +1188,9 @@ public class Wizard implements EPGDBPublic2
         try {
           chanIdx.table.acquireReadLock();
           for (int i = 0; i < chanIdx.table.num; i++)
-            if (!usedStations.contains(((Channel) chanIdx.data[i]).stationID) &&
-                chanIdx.data[i].id < maintainStartID)
-              killChans.add(chanIdx.data[i]);
+            if (!usedStations.contains(((Channel) chanIdx.get(i)).stationID) &&
+                chanIdx.get(i).id < maintainStartID)
+              killChans.add(chanIdx.get(i));
         } finally {
           chanIdx.table.releaseReadLock();
         }
@@ -1109,7 +1219,7 @@ public class Wizard implements EPGDBPublic2
             showIdx.table.acquireReadLock();
             for (int i = 0; i < showIdx.table.num; i++)
             {
-              Show iShow = (Show) showIdx.data[i];
+              Show iShow = (Show) showIdx.get(i);
               if ((iShow.lastWatched == 0 || iShow.isMusic()) &&
                 (iShow != noShow) && (iShow.id < maintainStartID) &&
                 (getAirings(iShow, 0, true) == null) && (getEditorial(iShow) == null))
@@ -1140,7 +1250,7 @@ public class Wizard implements EPGDBPublic2
             showIdx.table.acquireReadLock();
             for (int i = 0; i < showIdx.table.num; i++)
             {
-              Show iShow = (Show) showIdx.data[i];
+              Show iShow = (Show) showIdx.get(i);
               if (iShow.title != null)
                 keeperIDs.add(iShow.title.id);
               for (int j = 0; j < iShow.categories.length; j++)
@@ -1168,7 +1278,7 @@ public class Wizard implements EPGDBPublic2
             peopleIdx.table.acquireReadLock();
             for (int i = 0; i < peopleIdx.table.num; i++)
             {
-              Person p = (Person) peopleIdx.data[i];
+              Person p = (Person) peopleIdx.get(i);
               if (p.awardNames != null)
               {
                 for (int j = 0; j < p.awardNames.length; j++)
@@ -1192,7 +1302,7 @@ public class Wizard implements EPGDBPublic2
             agentIdx.table.acquireReadLock();
             for (int i = 0; i < agentIdx.table.num; i++)
             {
-              Agent bond = (Agent) agentIdx.data[i];
+              Agent bond = (Agent) agentIdx.get(i);
               if (bond.title != null)
                 keeperIDs.add(bond.title.id);
               if (bond.person != null)
@@ -1276,7 +1386,7 @@ public class Wizard implements EPGDBPublic2
             strIndex.table.acquireReadLock();
             for (int i = 0; i < strIndex.table.num; i++)
             {
-              Stringer currStr = (Stringer) strIndex.data[i];
+              Stringer currStr = (Stringer) strIndex.get(i);
               if (!keeperIDs.contains(currStr.id) &&
                   currStr.id < maintainStartID)
               {
@@ -1303,7 +1413,7 @@ public class Wizard implements EPGDBPublic2
             strIndex.table.acquireReadLock();
             for (int i = 0; i < strIndex.table.num; i++)
             {
-              Stringer currStr = (Stringer) strIndex.data[i];
+              Stringer currStr = (Stringer) strIndex.get(i);
               if (!keeperIDs.contains(currStr.id) &&
                   currStr.id < maintainStartID)
               {
@@ -1335,7 +1445,7 @@ public class Wizard implements EPGDBPublic2
             strIndex.table.acquireReadLock();
             for (int i = 0; i < strIndex.table.num; i++)
             {
-              Person currStr = (Person) strIndex.data[i];
+              Person currStr = (Person) strIndex.get(i);
               if (!keeperIDs.contains(currStr.id) && currStr.id < maintainStartID)
               {
                 currRemoveSet.add(currStr);
@@ -1362,7 +1472,7 @@ public class Wizard implements EPGDBPublic2
             strIndex.table.acquireReadLock();
             for (int i = 0; i < strIndex.table.num; i++)
             {
-              Stringer currStr = (Stringer) strIndex.data[i];
+              Stringer currStr = (Stringer) strIndex.get(i);
               if (!keeperIDs.contains(currStr.id) && currStr.id < maintainStartID)
               {
                 currRemoveSet.add(currStr);
@@ -1388,7 +1498,7 @@ public class Wizard implements EPGDBPublic2
             strIndex.table.acquireReadLock();
             for (int i = 0; i < strIndex.table.num; i++)
             {
-              Stringer currStr = (Stringer) strIndex.data[i];
+              Stringer currStr = (Stringer) strIndex.get(i);
               if (!keeperIDs.contains(currStr.id) && currStr.id < maintainStartID)
               {
                 currRemoveSet.add(currStr);
@@ -1414,7 +1524,7 @@ public class Wizard implements EPGDBPublic2
             strIndex.table.acquireReadLock();
             for (int i = 0; i < strIndex.table.num; i++)
             {
-              Stringer currStr = (Stringer) strIndex.data[i];
+              Stringer currStr = (Stringer) strIndex.get(i);
               if (!keeperIDs.contains(currStr.id) && currStr.id < maintainStartID)
               {
                 currRemoveSet.add(currStr);
@@ -1497,8 +1607,8 @@ public class Wizard implements EPGDBPublic2
               {
                 break;
               }
-              Airing currAir = (Airing) airIndex.data[iair];
-              Show currShow = (Show) showIdx.data[ishow];
+              Airing currAir = (Airing) airIndex.get(iair);
+              Show currShow = (Show) showIdx.get(ishow);
               if (currAir == null)
               {
                 iair++;
@@ -1649,14 +1759,14 @@ public class Wizard implements EPGDBPublic2
                   if (mmCache.length < strIndex.table.num)
                     mmCache = new int[strIndex.table.num];
                   for (int i = 0; i < strIndex.table.num; i++) {
-                    if (strIndex.data[i] != null) {
-                      mmCache[i] = strIndex.data[i].getMediaMask();
-                      strIndex.data[i].setMediaMask(0);
+                    if (strIndex.get(i) != null) {
+                      mmCache[i] = strIndex.get(i).getMediaMask();
+                      strIndex.get(i).setMediaMask(0);
                     }
                   }
                   // Now propagate all of the Show media masks down to the title table
                   for (int i = 0; i < showIdx.table.num; i++) {
-                    Show currShow = (Show) showIdx.data[i];
+                    Show currShow = (Show) showIdx.get(i);
                     if (currShow != null && currShow.getMediaMask() != 0 && currShow.title != null) {
                       if (!currShow.title.hasMediaMask(currShow.getMediaMask())) {
                         currShow.title.addMediaMask(currShow.getMediaMask());
@@ -1667,16 +1777,16 @@ public class Wizard implements EPGDBPublic2
                   // Now go through and distribute the actual updates for any changes
                   // that occurred
                   for (int i = 0; i < strIndex.table.num; i++) {
-                    if (strIndex.data[i] != null && strIndex.data[i].getMediaMask() != mmCache[i]) {
-                      logUpdate(strIndex.data[i], TITLE_CODE);
+                    if (strIndex.get(i) != null && strIndex.get(i).getMediaMask() != mmCache[i]) {
+                      logUpdate(strIndex.get(i), TITLE_CODE);
                       currentUpdates++;
                       if((Sage.eventTime() - startMediaMaskTime) > WIZARD_MEDIAMASK_MAINTENANCE_LOCK_TIME) {
                         // Before breaking out, reset the media masks moving forward from this element.
                         // By doing this, we're inherently undoing the propagation that was done to each
                         // show/element above that didn't get logged.
                         for (i++; i < strIndex.table.num; i++)
-                          if (strIndex.data[i] != null)
-                            strIndex.data[i].setMediaMask(mmCache[i]);
+                          if (strIndex.get(i) != null)
+                            strIndex.get(i).setMediaMask(mmCache[i]);
                         throw new InterruptedException();
                       }
                       if (getMaxPendingClientXcts() > 8)
@@ -1723,16 +1833,16 @@ public class Wizard implements EPGDBPublic2
                     mmCache = new int[strIndex.table.num];
                   for (int i = 0; i < strIndex.table.num; i++)
                   {
-                    if (strIndex.data[i] != null)
+                    if (strIndex.get(i) != null)
                     {
-                      mmCache[i] = strIndex.data[i].getMediaMask();
-                      strIndex.data[i].setMediaMask(0);
+                      mmCache[i] = strIndex.get(i).getMediaMask();
+                      strIndex.get(i).setMediaMask(0);
                     }
                   }
                   // Now propagate all of the Show media masks down to the year table
                   for (int i = 0; i < showIdx.table.num; i++)
                   {
-                    Show currShow = (Show) showIdx.data[i];
+                    Show currShow = (Show) showIdx.get(i);
                     if (currShow != null && currShow.getMediaMask() != 0 && currShow.year != null)
                     {
                       if (!currShow.year.hasMediaMask(currShow.getMediaMask()))
@@ -1746,17 +1856,17 @@ public class Wizard implements EPGDBPublic2
                   // that occurred
                   for (int i = 0; i < strIndex.table.num; i++)
                   {
-                    if (strIndex.data[i] != null && strIndex.data[i].getMediaMask() != mmCache[i])
+                    if (strIndex.get(i) != null && strIndex.get(i).getMediaMask() != mmCache[i])
                     {
-                      logUpdate(strIndex.data[i], YEAR_CODE);
+                      logUpdate(strIndex.get(i), YEAR_CODE);
                       currentUpdates++;
                       if((Sage.eventTime() - startMediaMaskTime) > WIZARD_MEDIAMASK_MAINTENANCE_LOCK_TIME) {
                         // Before breaking out, reset the media masks moving forward from this element.
                         // By doing this, we're inherently undoing the propagation that was done to each
                         // show/element above that didn't get logged.
                         for (i++; i < strIndex.table.num; i++)
-                          if (strIndex.data[i] != null)
-                            strIndex.data[i].setMediaMask(mmCache[i]);
+                          if (strIndex.get(i) != null)
+                            strIndex.get(i).setMediaMask(mmCache[i]);
                         throw new InterruptedException();
                       }
                     }
@@ -1800,15 +1910,15 @@ public class Wizard implements EPGDBPublic2
                   if (mmCache.length < strIndex.table.num)
                     mmCache = new int[strIndex.table.num];
                   for (int i = 0; i < strIndex.table.num; i++) {
-                    if (strIndex.data[i] != null) {
-                      mmCache[i] = strIndex.data[i].getMediaMask();
-                      strIndex.data[i].setMediaMask(0);
+                    if (strIndex.get(i) != null) {
+                      mmCache[i] = strIndex.get(i).getMediaMask();
+                      strIndex.get(i).setMediaMask(0);
                     }
                   }
                   // Now propagate all of the Show media masks down to the people table
                   for (int i = 0; i < showIdx.table.num; i++)
                   {
-                    Show currShow = (Show) showIdx.data[i];
+                    Show currShow = (Show) showIdx.get(i);
                     if (currShow != null && currShow.getMediaMask() != 0 &&
                         currShow.people != null && currShow.people.length > 0) {
                       for (int j = 0; j < currShow.people.length; j++) {
@@ -1822,16 +1932,16 @@ public class Wizard implements EPGDBPublic2
                   // Now go through and distribute the actual updates for any changes
                   // that occurred
                   for (int i = 0; i < strIndex.table.num; i++) {
-                    if (strIndex.data[i] != null && strIndex.data[i].getMediaMask() != mmCache[i]) {
-                      logUpdate(strIndex.data[i], PEOPLE_CODE);
+                    if (strIndex.get(i) != null && strIndex.get(i).getMediaMask() != mmCache[i]) {
+                      logUpdate(strIndex.get(i), PEOPLE_CODE);
                       currentUpdates++;
                       if((Sage.eventTime() - startMediaMaskTime) > WIZARD_MEDIAMASK_MAINTENANCE_LOCK_TIME) {
                         // Before breaking out, reset the media masks moving forward from this element.
                         // By doing this, we're inherently undoing the propagation that was done to each
                         // show/element above that didn't get logged.
                         for (i++; i < strIndex.table.num; i++)
-                          if (strIndex.data[i] != null)
-                            strIndex.data[i].setMediaMask(mmCache[i]);
+                          if (strIndex.get(i) != null)
+                            strIndex.get(i).setMediaMask(mmCache[i]);
                         throw new InterruptedException();
                       }
                       if (getMaxPendingClientXcts() > 8)
@@ -1879,16 +1989,16 @@ public class Wizard implements EPGDBPublic2
                     mmCache = new int[strIndex.table.num];
                   for (int i = 0; i < strIndex.table.num; i++)
                   {
-                    if (strIndex.data[i] != null)
+                    if (strIndex.get(i) != null)
                     {
-                      mmCache[i] = strIndex.data[i].getMediaMask();
-                      strIndex.data[i].setMediaMask(0);
+                      mmCache[i] = strIndex.get(i).getMediaMask();
+                      strIndex.get(i).setMediaMask(0);
                     }
                   }
                   // Now propagate all of the Show media masks down to the stringer table
                   for (int i = 0; i < showIdx.table.num; i++)
                   {
-                    Show currShow = (Show) showIdx.data[i];
+                    Show currShow = (Show) showIdx.get(i);
                     if (currShow != null && currShow.getMediaMask() != 0 && currShow.categories.length > 0)
                     {
                       if (!currShow.categories[0].hasMediaMask(currShow.getMediaMask()))
@@ -1902,17 +2012,17 @@ public class Wizard implements EPGDBPublic2
                   // that occurred
                   for (int i = 0; i < strIndex.table.num; i++)
                   {
-                    if (strIndex.data[i] != null && strIndex.data[i].getMediaMask() != mmCache[i])
+                    if (strIndex.get(i) != null && strIndex.get(i).getMediaMask() != mmCache[i])
                     {
-                      logUpdate(strIndex.data[i], CATEGORY_CODE);
+                      logUpdate(strIndex.get(i), CATEGORY_CODE);
                       currentUpdates++;
                       if((Sage.eventTime() - startMediaMaskTime) > WIZARD_MEDIAMASK_MAINTENANCE_LOCK_TIME) {
                         // Before breaking out, reset the media masks moving forward from this element.
                         // By doing this, we're inherently undoing the propagation that was done to each
                         // show/element above that didn't get logged.
                         for (i++; i < strIndex.table.num; i++)
-                          if (strIndex.data[i] != null)
-                            strIndex.data[i].setMediaMask(mmCache[i]);
+                          if (strIndex.get(i) != null)
+                            strIndex.get(i).setMediaMask(mmCache[i]);
                         throw new InterruptedException();
                       }
                     }
@@ -1958,16 +2068,16 @@ public class Wizard implements EPGDBPublic2
                     mmCache = new int[strIndex.table.num];
                   for (int i = 0; i < strIndex.table.num; i++)
                   {
-                    if (strIndex.data[i] != null)
+                    if (strIndex.get(i) != null)
                     {
-                      mmCache[i] = strIndex.data[i].getMediaMask();
-                      strIndex.data[i].setMediaMask(0);
+                      mmCache[i] = strIndex.get(i).getMediaMask();
+                      strIndex.get(i).setMediaMask(0);
                     }
                   }
                   // Now propagate all of the Show media masks down to the stringer table
                   for (int i = 0; i < showIdx.table.num; i++)
                   {
-                    Show currShow = (Show) showIdx.data[i];
+                    Show currShow = (Show) showIdx.get(i);
                     if (currShow != null && currShow.getMediaMask() != 0 &&
                         currShow.categories != null && currShow.categories.length > 1)
                     {
@@ -1985,17 +2095,17 @@ public class Wizard implements EPGDBPublic2
                   // that occurred
                   for (int i = 0; i < strIndex.table.num; i++)
                   {
-                    if (strIndex.data[i] != null && strIndex.data[i].getMediaMask() != mmCache[i])
+                    if (strIndex.get(i) != null && strIndex.get(i).getMediaMask() != mmCache[i])
                     {
-                      logUpdate(strIndex.data[i], SUBCATEGORY_CODE);
+                      logUpdate(strIndex.get(i), SUBCATEGORY_CODE);
                       currentUpdates++;
                       if((Sage.eventTime() - startMediaMaskTime) > WIZARD_MEDIAMASK_MAINTENANCE_LOCK_TIME) {
                         // Before breaking out, reset the media masks moving forward from this element.
                         // By doing this, we're inherently undoing the propagation that was done to each
                         // show/element above that didn't get logged.
                         for (i++; i < strIndex.table.num; i++)
-                          if (strIndex.data[i] != null)
-                            strIndex.data[i].setMediaMask(mmCache[i]);
+                          if (strIndex.get(i) != null)
+                            strIndex.get(i).setMediaMask(mmCache[i]);
                         throw new InterruptedException();
                       }
                     }
@@ -2041,16 +2151,16 @@ public class Wizard implements EPGDBPublic2
                     mmCache = new int[strIndex.table.num];
                   for (int i = 0; i < strIndex.table.num; i++)
                   {
-                    if (strIndex.data[i] != null)
+                    if (strIndex.get(i) != null)
                     {
-                      mmCache[i] = strIndex.data[i].getMediaMask();
-                      strIndex.data[i].setMediaMask(0);
+                      mmCache[i] = strIndex.get(i).getMediaMask();
+                      strIndex.get(i).setMediaMask(0);
                     }
                   }
                   // Now propagate all of the Show media masks down to the stringer table
                   for (int i = 0; i < showIdx.table.num; i++)
                   {
-                    Show currShow = (Show) showIdx.data[i];
+                    Show currShow = (Show) showIdx.get(i);
                     if (currShow != null && currShow.getMediaMask() != 0 && currShow.rated != null)
                     {
                       if (!currShow.rated.hasMediaMask(currShow.getMediaMask()))
@@ -2064,17 +2174,17 @@ public class Wizard implements EPGDBPublic2
                   // that occurred
                   for (int i = 0; i < strIndex.table.num; i++)
                   {
-                    if (strIndex.data[i] != null && strIndex.data[i].getMediaMask() != mmCache[i])
+                    if (strIndex.get(i) != null && strIndex.get(i).getMediaMask() != mmCache[i])
                     {
-                      logUpdate(strIndex.data[i], RATED_CODE);
+                      logUpdate(strIndex.get(i), RATED_CODE);
                       currentUpdates++;
                       if((Sage.eventTime() - startMediaMaskTime) > WIZARD_MEDIAMASK_MAINTENANCE_LOCK_TIME) {
                         // Before breaking out, reset the media masks moving forward from this element.
                         // By doing this, we're inherently undoing the propagation that was done to each
                         // show/element above that didn't get logged.
                         for (i++; i < strIndex.table.num; i++)
-                          if (strIndex.data[i] != null)
-                            strIndex.data[i].setMediaMask(mmCache[i]);
+                          if (strIndex.get(i) != null)
+                            strIndex.get(i).setMediaMask(mmCache[i]);
                         throw new InterruptedException();
                       }
                     }
@@ -2120,16 +2230,16 @@ public class Wizard implements EPGDBPublic2
                     mmCache = new int[strIndex.table.num];
                   for (int i = 0; i < strIndex.table.num; i++)
                   {
-                    if (strIndex.data[i] != null)
+                    if (strIndex.get(i) != null)
                     {
-                      mmCache[i] = strIndex.data[i].getMediaMask();
-                      strIndex.data[i].setMediaMask(0);
+                      mmCache[i] = strIndex.get(i).getMediaMask();
+                      strIndex.get(i).setMediaMask(0);
                     }
                   }
                   // Now propagate all of the Show media masks down to the stringer table
                   for (int i = 0; i < showIdx.table.num; i++)
                   {
-                    Show currShow = (Show) showIdx.data[i];
+                    Show currShow = (Show) showIdx.get(i);
                     if (currShow != null && currShow.getMediaMask() != 0 && currShow.pr != null)
                     {
                       if (!currShow.pr.hasMediaMask(currShow.getMediaMask()))
@@ -2143,17 +2253,17 @@ public class Wizard implements EPGDBPublic2
                   // that occurred
                   for (int i = 0; i < strIndex.table.num; i++)
                   {
-                    if (strIndex.data[i] != null && strIndex.data[i].getMediaMask() != mmCache[i])
+                    if (strIndex.get(i) != null && strIndex.get(i).getMediaMask() != mmCache[i])
                     {
-                      logUpdate(strIndex.data[i], PR_CODE);
+                      logUpdate(strIndex.get(i), PR_CODE);
                       currentUpdates++;
                       if((Sage.eventTime() - startMediaMaskTime) > WIZARD_MEDIAMASK_MAINTENANCE_LOCK_TIME) {
                         // Before breaking out, reset the media masks moving forward from this element.
                         // By doing this, we're inherently undoing the propagation that was done to each
                         // show/element above that didn't get logged.
                         for (i++; i < strIndex.table.num; i++)
-                          if (strIndex.data[i] != null)
-                            strIndex.data[i].setMediaMask(mmCache[i]);
+                          if (strIndex.get(i) != null)
+                            strIndex.get(i).setMediaMask(mmCache[i]);
                         throw new InterruptedException();
                       }
                     }
@@ -2199,16 +2309,16 @@ public class Wizard implements EPGDBPublic2
                     mmCache = new int[strIndex.table.num];
                   for (int i = 0; i < strIndex.table.num; i++)
                   {
-                    if (strIndex.data[i] != null)
+                    if (strIndex.get(i) != null)
                     {
-                      mmCache[i] = strIndex.data[i].getMediaMask();
-                      strIndex.data[i].setMediaMask(0);
+                      mmCache[i] = strIndex.get(i).getMediaMask();
+                      strIndex.get(i).setMediaMask(0);
                     }
                   }
                   // Now propogate all of the Show media masks down to the people table
                   for (int i = 0; i < showIdx.table.num; i++)
                   {
-                    Show currShow = (Show) showIdx.data[i];
+                    Show currShow = (Show) showIdx.get(i);
                     if (currShow != null && currShow.getMediaMask() != 0 &&
                         currShow.ers != null && currShow.ers.length > 0)
                     {
@@ -2226,17 +2336,17 @@ public class Wizard implements EPGDBPublic2
                   // that occurred
                   for (int i = 0; i < strIndex.table.num; i++)
                   {
-                    if (strIndex.data[i] != null && strIndex.data[i].getMediaMask() != mmCache[i])
+                    if (strIndex.get(i) != null && strIndex.get(i).getMediaMask() != mmCache[i])
                     {
-                      logUpdate(strIndex.data[i], ER_CODE);
+                      logUpdate(strIndex.get(i), ER_CODE);
                       currentUpdates++;
                       if((Sage.eventTime() - startMediaMaskTime) > WIZARD_MEDIAMASK_MAINTENANCE_LOCK_TIME) {
                         // Before breaking out, reset the media masks moving forward from this element.
                         // By doing this, we're inherently undoing the propagation that was done to each
                         // show/element above that didn't get logged.
                         for (i++; i < strIndex.table.num; i++)
-                          if (strIndex.data[i] != null)
-                            strIndex.data[i].setMediaMask(mmCache[i]);
+                          if (strIndex.get(i) != null)
+                            strIndex.get(i).setMediaMask(mmCache[i]);
                         throw new InterruptedException();
                       }
                     }
@@ -2282,16 +2392,16 @@ public class Wizard implements EPGDBPublic2
                     mmCache = new int[strIndex.table.num];
                   for (int i = 0; i < strIndex.table.num; i++)
                   {
-                    if (strIndex.data[i] != null)
+                    if (strIndex.get(i) != null)
                     {
-                      mmCache[i] = strIndex.data[i].getMediaMask();
-                      strIndex.data[i].setMediaMask(0);
+                      mmCache[i] = strIndex.get(i).getMediaMask();
+                      strIndex.get(i).setMediaMask(0);
                     }
                   }
                   // Now propagate all of the Show media masks down to the stringer table
                   for (int i = 0; i < showIdx.table.num; i++)
                   {
-                    Show currShow = (Show) showIdx.data[i];
+                    Show currShow = (Show) showIdx.get(i);
                     if (currShow != null && currShow.getMediaMask() != 0)
                     {
                       if (currShow.bonuses != null && currShow.bonuses.length > 0)
@@ -2318,17 +2428,17 @@ public class Wizard implements EPGDBPublic2
                   // that occurred
                   for (int i = 0; i < strIndex.table.num; i++)
                   {
-                    if (strIndex.data[i] != null && strIndex.data[i].getMediaMask() != mmCache[i])
+                    if (strIndex.get(i) != null && strIndex.get(i).getMediaMask() != mmCache[i])
                     {
-                      logUpdate(strIndex.data[i], BONUS_CODE);
+                      logUpdate(strIndex.get(i), BONUS_CODE);
                       currentUpdates++;
                       if((Sage.eventTime() - startMediaMaskTime) > WIZARD_MEDIAMASK_MAINTENANCE_LOCK_TIME) {
                         // Before breaking out, reset the media masks moving forward from this element.
                         // By doing this, we're inherently undoing the propagation that was done to each
                         // show/element above that didn't get logged.
                         for (i++; i < strIndex.table.num; i++)
-                          if (strIndex.data[i] != null)
-                            strIndex.data[i].setMediaMask(mmCache[i]);
+                          if (strIndex.get(i) != null)
+                            strIndex.get(i).setMediaMask(mmCache[i]);
                         throw new InterruptedException();
                       }
                     }
@@ -2366,7 +2476,9 @@ public class Wizard implements EPGDBPublic2
          */
         if (saveAfter)
         {
-          saveDBFile();
+          // Compacting in the background keeps transactions going to the DB file while it's rewritten
+          if (!backgroundCompaction || !compactDBFile())
+            saveDBFile();
           if (Sage.DBG) System.out.println("Wizard DONE saving database info.");
         }
       } catch (Throwable e) {
@@ -2490,7 +2602,7 @@ public class Wizard implements EPGDBPublic2
           try {
             sTable.acquireWriteLock();
             for (int i = 0; i < sTable.num; i++) {
-              ((Show) sTable.primary.data[i]).lastWatched = 0;
+              ((Show) sTable.primary.get(i)).lastWatched = 0;
             }
           } finally {
             sTable.releaseWriteLock();
@@ -2505,7 +2617,7 @@ public class Wizard implements EPGDBPublic2
           try {
             sTable.acquireWriteLock();
             for (int i = 0; i < sTable.num; i++) {
-              ((Show) sTable.primary.data[i]).lastWatched = 0;
+              ((Show) sTable.primary.get(i)).lastWatched = 0;
             }
           } finally {
             sTable.releaseWriteLock();
@@ -2524,7 +2636,7 @@ public class Wizard implements EPGDBPublic2
       }
       else if (!Sage.client && dbFile != null)
       {
-        String mode = "rwd";
+        String mode = getDBFileMode();
         // 128k was chosen from observing most random writes are typically less than this distance
         // behind the actual write buffer. The original default of 64k would often miss even with
         // the optimizer trying to compensate for the last miss since the misses were more than 64k
@@ -2591,101 +2703,101 @@ public class Wizard implements EPGDBPublic2
       Table t = getTable(NETWORK_CODE);
       for (int i = 0; i < t.num; i++)
       {
-        dumpStream.println("Network: " + t.primary.data[i].getMediaMaskString() + ' ' + t.primary.data[i].toString());
+        dumpStream.println("Network: " + t.primary.get(i).getMediaMaskString() + ' ' + t.primary.get(i).toString());
       }
       t = getTable(CHANNEL_CODE);
       for (int i = 0; i < t.num; i++)
       {
-        dumpStream.println(t.primary.data[i].toString());
+        dumpStream.println(t.primary.get(i).toString());
       }
 
       Index indy = getIndex(TITLE_CODE, TITLES_BY_NAME_CODE);
       for (int i = 0; i < indy.table.num; i++)
-        dumpStream.println("Title: " + indy.data[i].getMediaMaskString() + ' ' + indy.data[i].toString());
+        dumpStream.println("Title: " + indy.get(i).getMediaMaskString() + ' ' + indy.get(i).toString());
 
       indy = getIndex(PRIME_TITLE_CODE, PRIME_TITLES_BY_NAME_CODE);
       for (int i = 0; i < indy.table.num; i++)
-        dumpStream.println("PrimeTitle: " + indy.data[i].getMediaMaskString() + ' ' + indy.data[i].toString());
+        dumpStream.println("PrimeTitle: " + indy.get(i).getMediaMaskString() + ' ' + indy.get(i).toString());
 
       indy = getIndex(PEOPLE_CODE, PEOPLE_BY_NAME_CODE);
       for (int i = 0; i < indy.table.num; i++)
-        dumpStream.println("Person: " + indy.data[i].getMediaMaskString() + ' ' + ((Person)indy.data[i]).getFullString());
+        dumpStream.println("Person: " + indy.get(i).getMediaMaskString() + ' ' + ((Person)indy.get(i)).getFullString());
 
       t = getTable(CATEGORY_CODE);
       for (int i = 0; i < t.num; i++)
       {
-        dumpStream.println("Category: " + t.primary.data[i].getMediaMaskString() + ' ' + t.primary.data[i].toString());
+        dumpStream.println("Category: " + t.primary.get(i).getMediaMaskString() + ' ' + t.primary.get(i).toString());
       }
       t = getTable(SUBCATEGORY_CODE);
       for (int i = 0; i < t.num; i++)
       {
-        dumpStream.println("SubCategory: " + t.primary.data[i].getMediaMaskString() + ' ' + t.primary.data[i].toString());
+        dumpStream.println("SubCategory: " + t.primary.get(i).getMediaMaskString() + ' ' + t.primary.get(i).toString());
       }
       t = getTable(RATED_CODE);
       for (int i = 0; i < t.num; i++)
       {
-        dumpStream.println("Rated: " + t.primary.data[i].getMediaMaskString() + ' ' + t.primary.data[i].toString());
+        dumpStream.println("Rated: " + t.primary.get(i).getMediaMaskString() + ' ' + t.primary.get(i).toString());
       }
       t = getTable(PR_CODE);
       for (int i = 0; i < t.num; i++)
       {
-        dumpStream.println("PR: " + t.primary.data[i].getMediaMaskString() + ' ' + t.primary.data[i].toString());
+        dumpStream.println("PR: " + t.primary.get(i).getMediaMaskString() + ' ' + t.primary.get(i).toString());
       }
       t = getTable(ER_CODE);
       for (int i = 0; i < t.num; i++)
       {
-        dumpStream.println("ER: " + t.primary.data[i].getMediaMaskString() + ' ' + t.primary.data[i].toString());
+        dumpStream.println("ER: " + t.primary.get(i).getMediaMaskString() + ' ' + t.primary.get(i).toString());
       }
       t = getTable(YEAR_CODE);
       for (int i = 0; i < t.num; i++)
       {
-        dumpStream.println("Year: " + t.primary.data[i].getMediaMaskString() + ' ' + t.primary.data[i].toString());
+        dumpStream.println("Year: " + t.primary.get(i).getMediaMaskString() + ' ' + t.primary.get(i).toString());
       }
       t = getTable(BONUS_CODE);
       for (int i = 0; i < t.num; i++)
       {
-        dumpStream.println("Bonus: " + t.primary.data[i].getMediaMaskString() + ' ' + t.primary.data[i].toString());
+        dumpStream.println("Bonus: " + t.primary.get(i).getMediaMaskString() + ' ' + t.primary.get(i).toString());
       }
 
       indy = getIndex(SHOW_CODE);
       for (int i = 0; i < indy.table.num; i++)
-        dumpStream.println(indy.data[i].getMediaMaskString() + ' ' + indy.data[i].toString());
+        dumpStream.println(indy.get(i).getMediaMaskString() + ' ' + indy.get(i).toString());
 
       indy = getIndex(AIRING_CODE, AIRINGS_BY_CT_CODE);
       for (int i = 0; i < indy.table.num; i++)
-        dumpStream.println(indy.data[i].getMediaMaskString() + ' ' + indy.data[i].toString());
+        dumpStream.println(indy.get(i).getMediaMaskString() + ' ' + indy.get(i).toString());
 
       t = getTable(AGENT_CODE);
       for (int i = 0; i < t.num; i++)
-        dumpStream.println(t.primary.data[i].toString());
+        dumpStream.println(t.primary.get(i).toString());
 
       t = getTable(MEDIAFILE_CODE);
       for (int i = 0; i < t.num; i++)
-        dumpStream.println(t.primary.data[i].getMediaMaskString() + ' ' + t.primary.data[i].toString());
+        dumpStream.println(t.primary.get(i).getMediaMaskString() + ' ' + t.primary.get(i).toString());
 
       t = getTable(MANUAL_CODE);
       for (int i = 0; i < t.num; i++)
-        dumpStream.println(t.primary.data[i].toString());
+        dumpStream.println(t.primary.get(i).toString());
 
       t = getTable(WASTED_CODE);
       for (int i = 0; i < t.num; i++)
-        dumpStream.println(t.primary.data[i].getMediaMaskString() + ' ' + t.primary.data[i].toString());
+        dumpStream.println(t.primary.get(i).getMediaMaskString() + ' ' + t.primary.get(i).toString());
 
       t = getTable(WATCH_CODE);
       for (int i = 0; i < t.num; i++)
-        dumpStream.println(t.primary.data[i].getMediaMaskString() + ' ' + t.primary.data[i].toString());
+        dumpStream.println(t.primary.get(i).getMediaMaskString() + ' ' + t.primary.get(i).toString());
 
       t = getTable(WIDGET_CODE);
       for (int i = 0; i < t.num; i++)
-        dumpStream.println(t.primary.data[i].toString());
+        dumpStream.println(t.primary.get(i).toString());
 
       t = getTable(SERIESINFO_CODE);
       for (int i = 0; i < t.num; i++)
-        dumpStream.println(t.primary.data[i].toString());
+        dumpStream.println(t.primary.get(i).toString());
 
       t = getTable(TVEDITORIAL_CODE);
       for (int i = 0; i < t.num; i++)
-        dumpStream.println(t.primary.data[i].toString());
+        dumpStream.println(t.primary.get(i).toString());
     }
     finally
     {
@@ -2708,13 +2820,20 @@ public class Wizard implements EPGDBPublic2
    */
   protected void notifyOfID(int idExists)
   {
-    // We are single threaded on load so we don't need the sync lock then; minor performance gain from this
+    // Only check under the lock on load if the ID is new since tables may be loaded on multiple threads;
+    // minor performance gain from this
     if (loading)
     {
       if (idExists >= nextID)
       {
-        nextID = idExists + 1;
-        Sage.putInt(prefsRoot + NEXT_UID, nextID);
+        synchronized (this)
+        {
+          if (idExists >= nextID)
+          {
+            nextID = idExists + 1;
+            Sage.putInt(prefsRoot + NEXT_UID, nextID);
+          }
+        }
       }
     }
     else
@@ -2764,7 +2883,7 @@ public class Wizard implements EPGDBPublic2
     try {
       t.acquireReadLock();
       Channel[] rv = new Channel[t.num];
-      System.arraycopy(t.primary.data, 0, rv, 0, rv.length);
+      t.primary.copyInto(0, rv, 0, rv.length);
       return rv;
     } finally {
       t.releaseReadLock();
@@ -2906,7 +3025,7 @@ public class Wizard implements EPGDBPublic2
     try {
       t.acquireReadLock();
       Playlist[] rv = new Playlist[t.num];
-      System.arraycopy(t.primary.data, 0, rv, 0, rv.length);
+      t.primary.copyInto(0, rv, 0, rv.length);
       return rv;
     } finally {
       t.releaseReadLock();
@@ -2922,8 +3041,8 @@ public class Wizard implements EPGDBPublic2
     try {
       t.acquireReadLock();
       for (int i = 0; i < t.num; i++)
-        if (((Playlist) t.primary.data[i]).isMusicPlaylist())
-          rv.add((Playlist)t.primary.data[i]);
+        if (((Playlist) t.primary.get(i)).isMusicPlaylist())
+          rv.add((Playlist)t.primary.get(i));
     } finally {
       t.releaseReadLock();
     }
@@ -2939,8 +3058,8 @@ public class Wizard implements EPGDBPublic2
     try {
       t.acquireReadLock();
       for (int i = 0; i < t.num; i++)
-        if (!((Playlist) t.primary.data[i]).isMusicPlaylist())
-          rv.add((Playlist)t.primary.data[i]);
+        if (!((Playlist) t.primary.get(i)).isMusicPlaylist())
+          rv.add((Playlist)t.primary.get(i));
     } finally {
       t.releaseReadLock();
     }
@@ -2990,7 +3109,7 @@ public class Wizard implements EPGDBPublic2
       while (low <= high)
       {
         int mid = (low + high) >> 1;
-        TVEditorial midVal = (TVEditorial) indy.data[mid];
+        TVEditorial midVal = (TVEditorial) indy.get(mid);
         int cmp = midVal.showID - showID;
 
         if (cmp < 0)
@@ -3016,7 +3135,7 @@ public class Wizard implements EPGDBPublic2
     try {
       t.acquireReadLock();
       TVEditorial[] rv = new TVEditorial[t.num];
-      System.arraycopy(t.primary.data, 0, rv, 0, rv.length);
+      t.primary.copyInto(0, rv, 0, rv.length);
       return rv;
     } finally {
       t.releaseReadLock();
@@ -3194,7 +3313,7 @@ public class Wizard implements EPGDBPublic2
     try {
       t.acquireReadLock();
       SeriesInfo[] rv = new SeriesInfo[t.num];
-      System.arraycopy(t.primary.data, 0, rv, 0, rv.length);
+      t.primary.copyInto(0, rv, 0, rv.length);
       return rv;
     } finally {
       t.releaseReadLock();
@@ -3209,7 +3328,7 @@ public class Wizard implements EPGDBPublic2
     try {
       t.acquireReadLock();
       Person[] rv = new Person[t.num];
-      System.arraycopy(t.primary.data, 0, rv, 0, rv.length);
+      t.primary.copyInto(0, rv, 0, rv.length);
       return rv;
     } finally {
       t.releaseReadLock();
@@ -3224,7 +3343,7 @@ public class Wizard implements EPGDBPublic2
     try {
       t.acquireReadLock();
       Show[] rv = new Show[t.num];
-      System.arraycopy(t.primary.data, 0, rv, 0, rv.length);
+      t.primary.copyInto(0, rv, 0, rv.length);
       return rv;
     } finally {
       t.releaseReadLock();
@@ -3242,7 +3361,7 @@ public class Wizard implements EPGDBPublic2
       while (low <= high)
       {
         int mid = (low + high) >> 1;
-        SeriesInfo midVal = (SeriesInfo) indy.data[mid];
+        SeriesInfo midVal = (SeriesInfo) indy.get(mid);
         int cmp = midVal.legacySeriesID - seriesID;
 
         if (cmp < 0)
@@ -3271,7 +3390,7 @@ public class Wizard implements EPGDBPublic2
       while (low <= high)
       {
         int mid = (low + high) >> 1;
-        SeriesInfo midVal = (SeriesInfo) indy.data[mid];
+        SeriesInfo midVal = (SeriesInfo) indy.get(mid);
         int cmp = midVal.showcardID - showcardID;
 
         if (cmp < 0)
@@ -3301,7 +3420,7 @@ public class Wizard implements EPGDBPublic2
       while (low <= high)
       {
         int mid = (low + high) >> 1;
-        SeriesInfo midVal = (SeriesInfo) indy.data[mid];
+        SeriesInfo midVal = (SeriesInfo) indy.get(mid);
         int cmp = midVal.id - id;
 
         if (cmp < 0)
@@ -3351,7 +3470,7 @@ public class Wizard implements EPGDBPublic2
       while (low <= high)
       {
         int mid = (low + high) >> 1;
-        UserRecord midVal = (UserRecord) indy.data[mid];
+        UserRecord midVal = (UserRecord) indy.get(mid);
         int cmp;
         if (midVal == null)
           cmp = 1;
@@ -3370,7 +3489,7 @@ public class Wizard implements EPGDBPublic2
           int endIdx = mid;
           while (startIdx > 0)
           {
-            if (store.equals(((UserRecord) indy.data[startIdx - 1]).store))
+            if (store.equals(((UserRecord) indy.get(startIdx - 1)).store))
               startIdx--;
             else
               break;
@@ -3378,13 +3497,13 @@ public class Wizard implements EPGDBPublic2
           high = indy.table.num;
           while (endIdx < high - 1)
           {
-            if (store.equals(((UserRecord) indy.data[endIdx + 1]).store))
+            if (store.equals(((UserRecord) indy.get(endIdx + 1)).store))
               endIdx++;
             else
               break;
           }
           UserRecord[] rv = new UserRecord[endIdx - startIdx + 1];
-          System.arraycopy(indy.data, startIdx, rv, 0, rv.length);
+          indy.copyInto(startIdx, rv, 0, rv.length);
           return rv;
         }
       }
@@ -3406,7 +3525,7 @@ public class Wizard implements EPGDBPublic2
       String lastStore = null;
       for (int i = 0; i < t.num; i++)
       {
-        UserRecord currRec = (UserRecord)t.primary.data[i];
+        UserRecord currRec = (UserRecord)t.primary.get(i);
         if (currRec.store != null && (lastStore == null || !lastStore.equals(currRec.store)))
         {
           storeList.add(currRec.store);
@@ -3431,7 +3550,7 @@ public class Wizard implements EPGDBPublic2
       while (low <= high)
       {
         int mid = (low + high) >> 1;
-        UserRecord midVal = (UserRecord) indy.data[mid];
+        UserRecord midVal = (UserRecord) indy.get(mid);
         int cmp;
         if (midVal == null)
           cmp = 1;
@@ -3469,7 +3588,7 @@ public class Wizard implements EPGDBPublic2
       while (low <= high)
       {
         int mid = (low + high) >> 1;
-        UserRecord midVal = (UserRecord) indy.data[mid];
+        UserRecord midVal = (UserRecord) indy.get(mid);
         int cmp = midVal.id - id;
 
         if (cmp < 0)
@@ -3728,7 +3847,7 @@ public class Wizard implements EPGDBPublic2
       usedLength = t.num;
       if (storeHereIfBigEnough.length < usedLength)
         storeHereIfBigEnough = new MediaFile[usedLength + 20];
-      System.arraycopy(t.primary.data, 0, storeHereIfBigEnough, 0, usedLength);
+      t.primary.copyInto(0, storeHereIfBigEnough, 0, usedLength);
     } finally {
       t.releaseReadLock();
     }
@@ -3741,13 +3860,14 @@ public class Wizard implements EPGDBPublic2
     if (loading) return new MediaFile[0];
 
     Table t = getTable(MEDIAFILE_CODE);
+    Index indy = t.primary;
     try {
-      t.acquireReadLock();
-      MediaFile[] rv = new MediaFile[t.num];
-      System.arraycopy(t.primary.data, 0, rv, 0, rv.length);
+      indy = t.acquireReadView(indy);
+      MediaFile[] rv = new MediaFile[indy.size()];
+      indy.copyInto(0, rv, 0, rv.length);
       return rv;
     } finally {
-      t.releaseReadLock();
+      t.releaseReadView(indy);
     }
   }
 
@@ -3766,7 +3886,7 @@ public class Wizard implements EPGDBPublic2
       {
         for (int i = 0; i < t.num; i++)
         {
-          MediaFile mf = (MediaFile)t.primary.data[i];
+          MediaFile mf = (MediaFile)t.primary.get(i);
           if (mf.archive && (mediaMask & mf.getMediaMask()) != 0)
             rv[x++] = mf;
         }
@@ -3775,7 +3895,7 @@ public class Wizard implements EPGDBPublic2
       {
         for (int i = 0; i < t.num; i++)
         {
-          MediaFile mf = (MediaFile)t.primary.data[i];
+          MediaFile mf = (MediaFile)t.primary.get(i);
           if ((mediaMask & mf.getMediaMask()) != 0)
             rv[x++] = mf;
         }
@@ -3818,7 +3938,7 @@ public class Wizard implements EPGDBPublic2
       while (low <= high)
       {
         int mid = (low + high) >> 1;
-        MediaFile midVal = (MediaFile) indy.data[mid];
+        MediaFile midVal = (MediaFile) indy.get(mid);
         int cmp = midVal.infoAiringID - airingID;
 
         if (cmp < 0)
@@ -3848,7 +3968,7 @@ public class Wizard implements EPGDBPublic2
       while (low <= high)
       {
         int mid = (low + high) >> 1;
-        MediaFile midVal = (MediaFile) indy.data[mid];
+        MediaFile midVal = (MediaFile) indy.get(mid);
         int cmp;
         if (midVal == null)
           cmp = 1;
@@ -3875,9 +3995,9 @@ public class Wizard implements EPGDBPublic2
         }
       }
       // Check if it's one of the secondary files for this MF object
-      if (high >= 0 && high < indy.data.length)
+      if (high >= 0 && high < indy.size())
       {
-        MediaFile testVal = (MediaFile) indy.data[high];
+        MediaFile testVal = (MediaFile) indy.get(high);
         if (testVal != null && testVal.hasFile(path))
           return testVal;
       }
@@ -3899,7 +4019,7 @@ public class Wizard implements EPGDBPublic2
       while (low <= high)
       {
         int mid = (low + high) >> 1;
-        MediaFile midVal = (MediaFile) indy.data[mid];
+        MediaFile midVal = (MediaFile) indy.get(mid);
         int cmp = midVal.id - fileID;
 
         if (cmp < 0)
@@ -3973,7 +4093,7 @@ public class Wizard implements EPGDBPublic2
     try {
       t.acquireReadLock();
       Wasted[] rv = new Wasted[t.num];
-      System.arraycopy(t.primary.data, 0, rv, 0, rv.length);
+      t.primary.copyInto(0, rv, 0, rv.length);
       return rv;
     } finally {
       t.releaseReadLock();
@@ -3996,7 +4116,7 @@ public class Wizard implements EPGDBPublic2
       while (low <= high)
       {
         int mid = (low + high) >> 1;
-        Wasted midVal = (Wasted) indy.data[mid];
+        Wasted midVal = (Wasted) indy.get(mid);
         int cmp = midVal.airingID - airingID;
 
         if (cmp < 0)
@@ -4059,7 +4179,7 @@ public class Wizard implements EPGDBPublic2
     try {
       indy.table.acquireReadLock();
       Agent[] rv = new Agent[indy.table.num];
-      System.arraycopy(indy.data, 0, rv, 0, rv.length);
+      indy.copyInto(0, rv, 0, rv.length);
       return rv;
     } finally {
       indy.table.releaseReadLock();
@@ -4075,8 +4195,8 @@ public class Wizard implements EPGDBPublic2
     try {
       indy.table.acquireReadLock();
       for (int i = 0; i < indy.table.num; i++)
-        if ((((Agent) indy.data[i]).agentMask & Agent.LOVE_MASK) != 0)
-          rv.add((Agent)indy.data[i]);
+        if ((((Agent) indy.get(i)).agentMask & Agent.LOVE_MASK) != 0)
+          rv.add((Agent)indy.get(i));
     } finally {
       indy.table.releaseReadLock();
     }
@@ -4183,7 +4303,7 @@ public class Wizard implements EPGDBPublic2
     try {
       t.acquireReadLock();
       ManualRecord[] rv = new ManualRecord[t.num];
-      System.arraycopy(t.primary.data, 0, rv, 0, rv.length);
+      t.primary.copyInto(0, rv, 0, rv.length);
       return rv;
     } finally {
       t.releaseReadLock();
@@ -4233,9 +4353,9 @@ public class Wizard implements EPGDBPublic2
       t.acquireReadLock();
       for (int i = 0; i < t.num; i++)
       {
-        if (((ManualRecord) t.primary.data[i]).infoAiringID == airingID ||
-            ((ManualRecord) t.primary.data[i]).id == airingID)
-          return (ManualRecord) t.primary.data[i];
+        if (((ManualRecord) t.primary.get(i)).infoAiringID == airingID ||
+            ((ManualRecord) t.primary.get(i)).id == airingID)
+          return (ManualRecord) t.primary.get(i);
       }
     } finally {
       t.releaseReadLock();
@@ -4250,7 +4370,7 @@ public class Wizard implements EPGDBPublic2
       t.acquireReadLock();
       for (int i = 0; i < t.num; i++)
       {
-        if (t.primary.data[i] == checkMe)
+        if (t.primary.get(i) == checkMe)
           return true;
       }
     } finally {
@@ -4276,7 +4396,7 @@ public class Wizard implements EPGDBPublic2
       while (low <= high)
       {
         int mid = (low + high) >> 1;
-        Show midVal = (Show) indy.data[mid];
+        Show midVal = (Show) indy.get(mid);
         int cmp = byteStringCompare(midVal.externalID, extIDbytes);
 
         if (cmp < 0)
@@ -4309,7 +4429,7 @@ public class Wizard implements EPGDBPublic2
       while (low <= high)
       {
         int mid = (low + high) >> 1;
-        Show midVal = (Show) indy.data[mid];
+        Show midVal = (Show) indy.get(mid);
         int cmp = byteStringPrefix(midVal.externalID, extIDbytes);
 
         if (cmp < 0)
@@ -4331,7 +4451,7 @@ public class Wizard implements EPGDBPublic2
       {
         while (index > 0)
         {
-          if (byteStringPrefix(((Show) indy.data[index - 1]).externalID, extIDbytes) == 0)
+          if (byteStringPrefix(((Show) indy.get(index - 1)).externalID, extIDbytes) == 0)
             index--;
           else
             break;
@@ -4340,13 +4460,13 @@ public class Wizard implements EPGDBPublic2
       int index2 = index;
       while (index2 < indy.table.num - 1)
       {
-        if (byteStringPrefix(((Show) indy.data[index2 + 1]).externalID, extIDbytes) == 0)
+        if (byteStringPrefix(((Show) indy.get(index2 + 1)).externalID, extIDbytes) == 0)
           index2++;
         else
           break;
       }
       Show[] rv = new Show[index2 - index + 1];
-      System.arraycopy(indy.data, index, rv, 0, rv.length);
+      indy.copyInto(index, rv, 0, rv.length);
       return rv;
     } finally {
       indy.table.releaseReadLock();
@@ -4373,7 +4493,7 @@ public class Wizard implements EPGDBPublic2
       while (low <= high)
       {
         int mid = (low + high) >> 1;
-      Show midVal = (Show) indy.data[mid];
+      Show midVal = (Show) indy.get(mid);
       int cmp = byteStringCompare(midVal.externalID, testBytes);
 
       if (cmp < 0)
@@ -4385,7 +4505,7 @@ public class Wizard implements EPGDBPublic2
       }
       if (low >= 0 && low < indy.table.num)
       {
-        Show s = (Show) indy.data[low];
+        Show s = (Show) indy.get(low);
         if (s != null && s.externalID.length == testBytes.length)
         {
           boolean noMatch = false;
@@ -4403,7 +4523,7 @@ public class Wizard implements EPGDBPublic2
       }
       if (high >= 0 && high < indy.table.num)
       {
-        Show s = (Show) indy.data[high];
+        Show s = (Show) indy.get(high);
         if (s != null && s.externalID.length == testBytes.length)
         {
           boolean noMatch = false;
@@ -4542,8 +4662,10 @@ public class Wizard implements EPGDBPublic2
       s.title = getTitleForName(title, mediaMask);
       s.episodeNameStr = (episodeName == null) ? "" : new String(episodeName);
       s.episodeNameBytes = null;
+      s.episodeNameRef = 0;
       s.descStr = (desc == null) ? "" : new String(desc);
       s.descBytes = null;
+      s.descRef = 0;
       if (!fromAPlugin && extID.startsWith("MV") && (categories == null || categories.length == 0 || !Sage.rez("Movie").equals(categories[0])))
       {
         if (categories == null)
@@ -4981,8 +5103,8 @@ public class Wizard implements EPGDBPublic2
       if (loading) return baseAir;
       int idx = indy.binarySearch(baseAir);
       if ((idx == -1) || (idx + relativeAmount < 0) || (idx + relativeAmount >= t.num)) return baseAir;
-      if (((Airing) indy.data[idx + relativeAmount]).stationID != baseAir.stationID) return baseAir;
-      return (Airing) indy.data[idx + relativeAmount];
+      if (((Airing) indy.get(idx + relativeAmount)).stationID != baseAir.stationID) return baseAir;
+      return (Airing) indy.get(idx + relativeAmount);
     } finally {
       t.releaseReadLock();
     }
@@ -4994,17 +5116,17 @@ public class Wizard implements EPGDBPublic2
     Table t = getTable(AIRING_CODE);
     Index indy = t.getIndex(AIRINGS_BY_CT_CODE);
     try {
-      t.acquireReadLock();
+      indy = t.acquireReadView(indy);
       if (loading) return Pooler.EMPTY_AIRING_ARRAY;
 
       int index, index2;
       int low = 0;
-      int high = t.num - 1;
+      int high = indy.size() - 1;
       index = -1;
       while (low <= high)
       {
         int mid = (low + high) >> 1;
-        Airing midVal = (Airing) indy.data[mid];
+        Airing midVal = (Airing) indy.get(mid);
         long cmp = midVal.stationID - stationID;
         if (cmp == 0)
           cmp = sign(midVal.time - startTime);
@@ -5026,25 +5148,25 @@ public class Wizard implements EPGDBPublic2
         // But check to be sure something is in that spot with no time gap
         if (!mustStart && (index > 0))
         {
-          Airing prevAir = (Airing) indy.data[index - 1];
+          Airing prevAir = (Airing) indy.get(index - 1);
           if (prevAir.stationID == stationID &&
               (prevAir.time + prevAir.duration > startTime)) index--;
         }
       }
       index2 = index;
-      for (; index2 < t.num; index2++)
+      for (; index2 < indy.size(); index2++)
       {
-        Airing a = (Airing) indy.data[index2];
+        Airing a = (Airing) indy.get(index2);
         if ((a.time >= endTime) || a.stationID != stationID)
         {
           break;
         }
       }
       Airing[] rv = new Airing[index2 - index];
-      if (rv.length > 0) System.arraycopy(indy.data, index, rv, 0, rv.length);
+      if (rv.length > 0) indy.copyInto(index, rv, 0, rv.length);
       return rv;
     } finally {
-      t.releaseReadLock();
+      t.releaseReadView(indy);
     }
   }
 
@@ -5076,7 +5198,7 @@ public class Wizard implements EPGDBPublic2
       while (low <= high)
       {
         int mid = (low + high) >> 1;
-        Airing midVal = (Airing) indy.data[mid];
+        Airing midVal = (Airing) indy.get(mid);
         int cmp = midVal.showID - forMe.id;
         if ((cmp == 0) && (midVal.time < startingAfter))
           cmp = -1;
@@ -5102,8 +5224,8 @@ public class Wizard implements EPGDBPublic2
           return Pooler.EMPTY_AIRING_ARRAY;
         while (index > 0)
         {
-          if ((((Airing) indy.data[index - 1]).showID == forMe.id) &&
-              (((Airing) indy.data[index - 1]).time >= startingAfter))
+          if ((((Airing) indy.get(index - 1)).showID == forMe.id) &&
+              (((Airing) indy.get(index - 1)).time >= startingAfter))
             index--;
           else
             break;
@@ -5112,13 +5234,13 @@ public class Wizard implements EPGDBPublic2
       int index2 = index;
       while (index2 < t.num - 1)
       {
-        if (((Airing) indy.data[index2 + 1]).showID == forMe.id)
+        if (((Airing) indy.get(index2 + 1)).showID == forMe.id)
           index2++;
         else
           break;
       }
       Airing[] rv = new Airing[index2 - index + 1];
-      System.arraycopy(indy.data, index, rv, 0, rv.length);
+      indy.copyInto(index, rv, 0, rv.length);
       return rv;
     } finally {
       t.releaseReadLock();
@@ -5177,7 +5299,7 @@ public class Wizard implements EPGDBPublic2
           while ( low < high )
           {
             mid = ( low + high ) >> 1;
-            air = (Airing) indy.data[mid];
+            air = (Airing) indy.get(mid);
             if ( mid == low )
               // cannot go deeper
               break;
@@ -5207,7 +5329,7 @@ public class Wizard implements EPGDBPublic2
             // skip noshows by moving back
             while ( index >0  && air != null && isNoShow(air.showID) && air.stationID == stationID ) {
               index--;
-              air =(Airing) indy.data[index];
+              air =(Airing) indy.get(index);
             }
 
             if ( air != null && air.stationID == stationID && ! isNoShow(air.showID) ) {
@@ -5275,7 +5397,7 @@ public class Wizard implements EPGDBPublic2
           while ( low < high )
           {
             mid = ( low + high ) >> 1;
-            air = (Airing) indy.data[mid];
+            air = (Airing) indy.get(mid);
             if ( mid == low )
               // cannot go deeper
               break;
@@ -5307,7 +5429,7 @@ public class Wizard implements EPGDBPublic2
             while ( index >0  && air != null && isNoShow(air.showID) && air.stationID == stationID )
             {
               index--;
-              air =(Airing) indy.data[index];
+              air =(Airing) indy.get(index);
             }
 
             if ( air != null && air.stationID == stationID && ! isNoShow(air.showID) )
@@ -5398,9 +5520,9 @@ public class Wizard implements EPGDBPublic2
       List<Watched> rv = new ArrayList<Watched>(maxCount);
       for (int i = t.num - 1; i >= 0; i--)
       {
-        if (indy.data[i].isTV())
+        if (indy.get(i).isTV())
         {
-          rv.add((Watched) indy.data[i]);
+          rv.add((Watched) indy.get(i));
           if (rv.size() >= maxCount)
             break;
         }
@@ -5426,7 +5548,7 @@ public class Wizard implements EPGDBPublic2
       while (low <= high)
       {
         int mid = (low + high) >> 1;
-        Watched midVal = (Watched) indy.data[mid];
+        Watched midVal = (Watched) indy.get(mid);
         int cmp = sign((midVal.realEnd == 0 ? midVal.realStart : midVal.realEnd) - startingAfter);
 
         if (cmp < 0)
@@ -5445,7 +5567,7 @@ public class Wizard implements EPGDBPublic2
       }
 
       Watched[] rv = new Watched[t.num - index];
-      System.arraycopy(indy.data, index, rv, 0, rv.length);
+      indy.copyInto(index, rv, 0, rv.length);
       return rv;
     } finally {
       t.releaseReadLock();
@@ -5468,7 +5590,7 @@ public class Wizard implements EPGDBPublic2
       while (low <= high)
       {
         int mid = (low + high) >> 1;
-        Watched midVal = (Watched) indy.data[mid];
+        Watched midVal = (Watched) indy.get(mid);
 
         int cmp = midVal.showID - watchAir.showID;
         if (cmp == 0)
@@ -5491,11 +5613,11 @@ public class Wizard implements EPGDBPublic2
       {
         return null;
       }
-      if (((Watched) indy.data[index]).airingID == watchAir.id)
-        return (Watched) indy.data[index];
+      if (((Watched) indy.get(index)).airingID == watchAir.id)
+        return (Watched) indy.get(index);
       while (index > 0)
       {
-        Watched currData = (Watched) indy.data[index - 1];
+        Watched currData = (Watched) indy.get(index - 1);
         if ((currData.showID == watchAir.showID) &&
             (currData.time == watchAir.getStartTime()))
         {
@@ -5509,7 +5631,7 @@ public class Wizard implements EPGDBPublic2
       int index2 = index;
       while (index2 < t.num - 1)
       {
-        Watched currData = (Watched) indy.data[index2 + 1];
+        Watched currData = (Watched) indy.get(index2 + 1);
         if ((currData.showID == watchAir.showID) &&
             (currData.time == watchAir.getStartTime()))
         {
@@ -5593,7 +5715,7 @@ public class Wizard implements EPGDBPublic2
   {
     if (id == 0) return null;
     if (id < 0)
-      return (Person) getIndex(PEOPLE_CODE).data[(-id) - 1];
+      return (Person) getIndex(PEOPLE_CODE).get((-id) - 1);
     return (Person) getIndex(PEOPLE_CODE).getSingle(id);
   }
   public Person getPersonForName(String name)
@@ -5618,7 +5740,7 @@ public class Wizard implements EPGDBPublic2
       while (low <= high)
       {
         int mid = (low + high) >> 1;
-        Person midVal = (Person) indy.data[mid];
+        Person midVal = (Person) indy.get(mid);
         int cmp = midVal.name.compareTo(name);
         // If it has a 0 extID in the DB, then return it as a match so we use it
         // to update the object to the new one
@@ -5684,7 +5806,7 @@ public class Wizard implements EPGDBPublic2
       while (low <= high)
       {
         int mid = (low + high) >> 1;
-        Person midVal = (Person) indy.data[mid];
+        Person midVal = (Person) indy.get(mid);
         int cmp = midVal.extID - extID;
         if (cmp < 0)
           low = mid + 1;
@@ -5719,7 +5841,7 @@ public class Wizard implements EPGDBPublic2
       while (low <= high)
       {
         int mid = (low + high) >> 1;
-        Person midVal = (Person) indy.data[mid];
+        Person midVal = (Person) indy.get(mid);
         int cmp = midVal.name.compareTo(name);
 
         if (cmp < 0)
@@ -5765,7 +5887,7 @@ public class Wizard implements EPGDBPublic2
       while (low <= high)
       {
         int mid = (low + high) >> 1;
-        Person midVal = (Person) indy.data[mid];
+        Person midVal = (Person) indy.get(mid);
         int cmp = midVal.name.compareTo(name);
 
         if (cmp < 0)
@@ -5777,20 +5899,20 @@ public class Wizard implements EPGDBPublic2
           high = low = mid;
           while (low > 0)
           {
-            if (((Person) indy.data[low - 1]).name.compareTo(name) == 0)
+            if (((Person) indy.get(low - 1)).name.compareTo(name) == 0)
               low--;
             else
               break;
           }
           while (high < indy.table.num - 1)
           {
-            if (((Person) indy.data[high + 1]).name.compareTo(name) == 0)
+            if (((Person) indy.get(high + 1)).name.compareTo(name) == 0)
               high++;
             else
               break;
           }
           Person[] rv = new Person[high - low + 1];
-          System.arraycopy(indy.data, low, rv, 0, rv.length);
+          indy.copyInto(low, rv, 0, rv.length);
           return rv;
         }
       }
@@ -5886,7 +6008,7 @@ public class Wizard implements EPGDBPublic2
           idx.table.acquireReadLock();
           for (int i = 0; i < idx.table.num; i++)
           {
-            MediaFile mf = (MediaFile) idx.data[i];
+            MediaFile mf = (MediaFile) idx.get(i);
             if (mf != null && mf.isMusic())
             {
               Show s = mf.getShow();
@@ -6047,7 +6169,7 @@ public class Wizard implements EPGDBPublic2
       idx.table.acquireReadLock();
       for (int i = 0; i < idx.table.num; i++)
       {
-        Show s = (Show) idx.data[i];
+        Show s = (Show) idx.get(i);
         if (s.isMusic())
         {
           for (int j = 0; j < s.people.length; j++)
@@ -6071,7 +6193,7 @@ public class Wizard implements EPGDBPublic2
       idx.table.acquireReadLock();
       for (int i = 0; i < idx.table.num; i++)
       {
-        Show s = (Show) idx.data[i];
+        Show s = (Show) idx.get(i);
         if (s.isMusic() && s.categories.length > 0)
           okGenres.add(s.categories[0].name);
       }
@@ -6089,9 +6211,9 @@ public class Wizard implements EPGDBPublic2
     try {
       idx.table.acquireReadLock();
       ArrayList<String> rv = new ArrayList<String>();
-      for (int i = 0; i < idx.data.length; i++)
-        if (idx.data[i] != null && (idx.data[i].getMediaMask() & mediaMask) != 0)
-          rv.add(((Stringer) idx.data[i]).name);
+      for (int i = 0; i < idx.size(); i++)
+        if (idx.get(i) != null && (idx.get(i).getMediaMask() & mediaMask) != 0)
+          rv.add(((Stringer) idx.get(i)).name);
       return rv.toArray(Pooler.EMPTY_STRING_ARRAY);
     } finally {
       idx.table.releaseReadLock();
@@ -6104,9 +6226,9 @@ public class Wizard implements EPGDBPublic2
     try {
       idx.table.acquireReadLock();
       ArrayList<String> rv = new ArrayList<String>();
-      for (int i = 0; i < idx.data.length; i++)
-        if (idx.data[i] != null && (idx.data[i].getMediaMask() & mediaMask) != 0)
-          rv.add(((Person) idx.data[i]).name);
+      for (int i = 0; i < idx.size(); i++)
+        if (idx.get(i) != null && (idx.get(i).getMediaMask() & mediaMask) != 0)
+          rv.add(((Person) idx.get(i)).name);
       return rv.toArray(Pooler.EMPTY_STRING_ARRAY);
     } finally {
       idx.table.releaseReadLock();
@@ -6119,18 +6241,18 @@ public class Wizard implements EPGDBPublic2
     Index idx = getIndex(CATEGORY_CODE);
     try {
       idx.table.acquireReadLock();
-      for (int i = 0; i < idx.data.length; i++)
-        if (idx.data[i] != null && (idx.data[i].getMediaMask() & mediaMask) != 0)
-          rv.add(((Stringer) idx.data[i]).name);
+      for (int i = 0; i < idx.size(); i++)
+        if (idx.get(i) != null && (idx.get(i).getMediaMask() & mediaMask) != 0)
+          rv.add(((Stringer) idx.get(i)).name);
     } finally {
       idx.table.releaseReadLock();
     }
     idx = getIndex(SUBCATEGORY_CODE);
     try {
       idx.table.acquireReadLock();
-      for (int i = 0; i < idx.data.length; i++)
-        if (idx.data[i] != null && (idx.data[i].getMediaMask() & mediaMask) != 0)
-          rv.add(((Stringer) idx.data[i]).name);
+      for (int i = 0; i < idx.size(); i++)
+        if (idx.get(i) != null && (idx.get(i).getMediaMask() & mediaMask) != 0)
+          rv.add(((Stringer) idx.get(i)).name);
     } finally {
       idx.table.releaseReadLock();
     }
@@ -6183,7 +6305,7 @@ public class Wizard implements EPGDBPublic2
           aidx.table.acquireReadLock();
           for (int i = 0; i < aidx.table.num; i++)
           {
-            Airing currAir = (Airing) aidx.data[i];
+            Airing currAir = (Airing) aidx.get(i);
             if (currAir.hasMediaMaskAny(mediaMask)) {
               if ((currAir.miscB & matchMiscB) != 0) {
                     rv.add(currAir);
@@ -6208,7 +6330,7 @@ public class Wizard implements EPGDBPublic2
           mfIdx.table.acquireReadLock();
           for (int i = 0; i < mfIdx.table.num; i++)
           {
-            MediaFile currMF = (MediaFile) mfIdx.data[i];
+            MediaFile currMF = (MediaFile) mfIdx.get(i);
             if ((currMF.getMediaMask() & mediaMask) == 0)
               continue;
             ContainerFormat cf = currMF.getFileFormat();
@@ -6253,11 +6375,11 @@ public class Wizard implements EPGDBPublic2
         idx.table.acquireReadLock();
         for (int i = 0; i < idx.table.num; i++)
         {
-          if ((idx.data[i].getMediaMask() & mediaMask) == 0)
+          if ((idx.get(i).getMediaMask() & mediaMask) == 0)
             continue;
-          if ((caseSensitive && ((Stringer) idx.data[i]).name.equals(str)) ||
-              (!caseSensitive && ((Stringer) idx.data[i]).name.equalsIgnoreCase(str)))
-            okTitleStringers.add((Stringer) idx.data[i]);
+          if ((caseSensitive && ((Stringer) idx.get(i)).name.equals(str)) ||
+              (!caseSensitive && ((Stringer) idx.get(i)).name.equalsIgnoreCase(str)))
+            okTitleStringers.add((Stringer) idx.get(i));
         }
       } finally {
         idx.table.releaseReadLock();
@@ -6271,11 +6393,11 @@ public class Wizard implements EPGDBPublic2
         idx.table.acquireReadLock();
         for (int i = 0; i < idx.table.num; i++)
         {
-          if ((idx.data[i].getMediaMask() & mediaMask) == 0)
+          if ((idx.get(i).getMediaMask() & mediaMask) == 0)
             continue;
-          if ((caseSensitive && ((Person) idx.data[i]).name.equals(str)) ||
-              (!caseSensitive && ((Person) idx.data[i]).name.equalsIgnoreCase(str)))
-            okPersonStringers.add((Person) idx.data[i]);
+          if ((caseSensitive && ((Person) idx.get(i)).name.equals(str)) ||
+              (!caseSensitive && ((Person) idx.get(i)).name.equalsIgnoreCase(str)))
+            okPersonStringers.add((Person) idx.get(i));
         }
       } finally {
         idx.table.releaseReadLock();
@@ -6289,11 +6411,11 @@ public class Wizard implements EPGDBPublic2
         idx.table.acquireReadLock();
         for (int i = 0; i < idx.table.num; i++)
         {
-          if ((idx.data[i].getMediaMask() & mediaMask) == 0)
+          if ((idx.get(i).getMediaMask() & mediaMask) == 0)
             continue;
-          if ((caseSensitive && ((Stringer) idx.data[i]).name.equals(str)) ||
-              (!caseSensitive && ((Stringer) idx.data[i]).name.equalsIgnoreCase(str)))
-            okCategoryStringers.add((Stringer) idx.data[i]);
+          if ((caseSensitive && ((Stringer) idx.get(i)).name.equals(str)) ||
+              (!caseSensitive && ((Stringer) idx.get(i)).name.equalsIgnoreCase(str)))
+            okCategoryStringers.add((Stringer) idx.get(i));
         }
       } finally {
         idx.table.releaseReadLock();
@@ -6303,11 +6425,11 @@ public class Wizard implements EPGDBPublic2
         idx.table.acquireReadLock();
         for (int i = 0; i < idx.table.num; i++)
         {
-          if ((idx.data[i].getMediaMask() & mediaMask) == 0)
+          if ((idx.get(i).getMediaMask() & mediaMask) == 0)
             continue;
-          if ((caseSensitive && ((Stringer) idx.data[i]).name.equals(str)) ||
-              (!caseSensitive && ((Stringer) idx.data[i]).name.equalsIgnoreCase(str)))
-            okCategoryStringers.add((Stringer) idx.data[i]);
+          if ((caseSensitive && ((Stringer) idx.get(i)).name.equals(str)) ||
+              (!caseSensitive && ((Stringer) idx.get(i)).name.equalsIgnoreCase(str)))
+            okCategoryStringers.add((Stringer) idx.get(i));
         }
       } finally {
         idx.table.releaseReadLock();
@@ -6321,11 +6443,11 @@ public class Wizard implements EPGDBPublic2
         idx.table.acquireReadLock();
         for (int i = 0; i < idx.table.num; i++)
         {
-          if ((idx.data[i].getMediaMask() & mediaMask) == 0)
+          if ((idx.get(i).getMediaMask() & mediaMask) == 0)
             continue;
-          if ((caseSensitive && ((Stringer) idx.data[i]).name.equals(str)) ||
-              (!caseSensitive && ((Stringer) idx.data[i]).name.equalsIgnoreCase(str)))
-            okRatedStringers.add((Stringer) idx.data[i]);
+          if ((caseSensitive && ((Stringer) idx.get(i)).name.equals(str)) ||
+              (!caseSensitive && ((Stringer) idx.get(i)).name.equalsIgnoreCase(str)))
+            okRatedStringers.add((Stringer) idx.get(i));
         }
       } finally {
         idx.table.releaseReadLock();
@@ -6339,11 +6461,11 @@ public class Wizard implements EPGDBPublic2
         idx.table.acquireReadLock();
         for (int i = 0; i < idx.table.num; i++)
         {
-          if ((idx.data[i].getMediaMask() & mediaMask) == 0)
+          if ((idx.get(i).getMediaMask() & mediaMask) == 0)
             continue;
-          if ((caseSensitive && ((Stringer) idx.data[i]).name.equals(str)) ||
-              (!caseSensitive && ((Stringer) idx.data[i]).name.equalsIgnoreCase(str)))
-            okERStringers.add((Stringer) idx.data[i]);
+          if ((caseSensitive && ((Stringer) idx.get(i)).name.equals(str)) ||
+              (!caseSensitive && ((Stringer) idx.get(i)).name.equalsIgnoreCase(str)))
+            okERStringers.add((Stringer) idx.get(i));
         }
       } finally {
         idx.table.releaseReadLock();
@@ -6357,11 +6479,11 @@ public class Wizard implements EPGDBPublic2
         idx.table.acquireReadLock();
         for (int i = 0; i < idx.table.num; i++)
         {
-          if ((idx.data[i].getMediaMask() & mediaMask) == 0)
+          if ((idx.get(i).getMediaMask() & mediaMask) == 0)
             continue;
-          if ((caseSensitive && ((Stringer) idx.data[i]).name.equals(str)) ||
-              (!caseSensitive && ((Stringer) idx.data[i]).name.equalsIgnoreCase(str)))
-            okYearStringers.add((Stringer) idx.data[i]);
+          if ((caseSensitive && ((Stringer) idx.get(i)).name.equals(str)) ||
+              (!caseSensitive && ((Stringer) idx.get(i)).name.equalsIgnoreCase(str)))
+            okYearStringers.add((Stringer) idx.get(i));
         }
       } finally {
         idx.table.releaseReadLock();
@@ -6375,11 +6497,11 @@ public class Wizard implements EPGDBPublic2
         idx.table.acquireReadLock();
         for (int i = 0; i < idx.table.num; i++)
         {
-          if ((idx.data[i].getMediaMask() & mediaMask) == 0)
+          if ((idx.get(i).getMediaMask() & mediaMask) == 0)
             continue;
-          if ((caseSensitive && ((Stringer) idx.data[i]).name.equals(str)) ||
-              (!caseSensitive && ((Stringer) idx.data[i]).name.equalsIgnoreCase(str)))
-            okMiscStringers.add((Stringer) idx.data[i]);
+          if ((caseSensitive && ((Stringer) idx.get(i)).name.equals(str)) ||
+              (!caseSensitive && ((Stringer) idx.get(i)).name.equalsIgnoreCase(str)))
+            okMiscStringers.add((Stringer) idx.get(i));
         }
       } finally {
         idx.table.releaseReadLock();
@@ -6393,7 +6515,7 @@ public class Wizard implements EPGDBPublic2
       show_loop:
         for (int i = 0; i < sidx.table.num; i++)
         {
-          Show currShow = (Show) sidx.data[i];
+          Show currShow = (Show) sidx.get(i);
           if ((currShow.getMediaMask() & mediaMask) == 0)
             continue;
           if ((title && okTitleStringers.contains(currShow.title)) ||
@@ -6487,7 +6609,7 @@ public class Wizard implements EPGDBPublic2
           aidx.table.acquireReadLock();
           for (int i = 0; i < aidx.table.num; i++)
           {
-            Airing currAir = (Airing) aidx.data[i];
+            Airing currAir = (Airing) aidx.get(i);
             if ((currAir.getMediaMask() & mediaMask) == 0)
               continue;
             if ((currAir.miscB & matchMiscB) != 0){
@@ -6531,16 +6653,16 @@ public class Wizard implements EPGDBPublic2
       okTitleStringers = new HashSet<Stringer>();
       idx = getIndex(TITLE_CODE);
       try {
-        idx.table.acquireReadLock();
-        for (int i = 0; i < idx.table.num; i++)
+        idx = idx.table.acquireReadView(idx);
+        for (int i = 0; i < idx.size(); i++)
         {
-          if ((idx.data[i].getMediaMask() & mediaMask) == 0)
+          if ((idx.get(i).getMediaMask() & mediaMask) == 0)
             continue;
-          if (pat.matcher(((Stringer) idx.data[i]).name).matches())
-            okTitleStringers.add((Stringer) idx.data[i]);
+          if (pat.matcher(((Stringer) idx.get(i)).name).matches())
+            okTitleStringers.add((Stringer) idx.get(i));
         }
       } finally {
-        idx.table.releaseReadLock();
+        idx.table.releaseReadView(idx);
       }
     }
     if (person)
@@ -6548,16 +6670,16 @@ public class Wizard implements EPGDBPublic2
       okPersonStringers = new HashSet<Person>();
       idx = getIndex(PEOPLE_CODE);
       try {
-        idx.table.acquireReadLock();
-        for (int i = 0; i < idx.table.num; i++)
+        idx = idx.table.acquireReadView(idx);
+        for (int i = 0; i < idx.size(); i++)
         {
-          if ((idx.data[i].getMediaMask() & mediaMask) == 0)
+          if ((idx.get(i).getMediaMask() & mediaMask) == 0)
             continue;
-          if (pat.matcher(((Person) idx.data[i]).name).matches())
-            okPersonStringers.add((Person) idx.data[i]);
+          if (pat.matcher(((Person) idx.get(i)).name).matches())
+            okPersonStringers.add((Person) idx.get(i));
         }
       } finally {
-        idx.table.releaseReadLock();
+        idx.table.releaseReadView(idx);
       }
     }
     if (category)
@@ -6565,29 +6687,29 @@ public class Wizard implements EPGDBPublic2
       okCategoryStringers = new HashSet<Stringer>();
       idx = getIndex(CATEGORY_CODE);
       try {
-        idx.table.acquireReadLock();
-        for (int i = 0; i < idx.table.num; i++)
+        idx = idx.table.acquireReadView(idx);
+        for (int i = 0; i < idx.size(); i++)
         {
-          if ((idx.data[i].getMediaMask() & mediaMask) == 0)
+          if ((idx.get(i).getMediaMask() & mediaMask) == 0)
             continue;
-          if (pat.matcher(((Stringer) idx.data[i]).name).matches())
-            okCategoryStringers.add((Stringer) idx.data[i]);
+          if (pat.matcher(((Stringer) idx.get(i)).name).matches())
+            okCategoryStringers.add((Stringer) idx.get(i));
         }
       } finally {
-        idx.table.releaseReadLock();
+        idx.table.releaseReadView(idx);
       }
       idx = getIndex(SUBCATEGORY_CODE);
       try {
-        idx.table.acquireReadLock();
-        for (int i = 0; i < idx.table.num; i++)
+        idx = idx.table.acquireReadView(idx);
+        for (int i = 0; i < idx.size(); i++)
         {
-          if ((idx.data[i].getMediaMask() & mediaMask) == 0)
+          if ((idx.get(i).getMediaMask() & mediaMask) == 0)
             continue;
-          if (pat.matcher(((Stringer) idx.data[i]).name).matches())
-            okCategoryStringers.add((Stringer) idx.data[i]);
+          if (pat.matcher(((Stringer) idx.get(i)).name).matches())
+            okCategoryStringers.add((Stringer) idx.get(i));
         }
       } finally {
-        idx.table.releaseReadLock();
+        idx.table.releaseReadView(idx);
       }
     }
     if (rated)
@@ -6595,16 +6717,16 @@ public class Wizard implements EPGDBPublic2
       okRatedStringers = new HashSet<Stringer>();
       idx = getIndex(RATED_CODE);
       try {
-        idx.table.acquireReadLock();
-        for (int i = 0; i < idx.table.num; i++)
+        idx = idx.table.acquireReadView(idx);
+        for (int i = 0; i < idx.size(); i++)
         {
-          if ((idx.data[i].getMediaMask() & mediaMask) == 0)
+          if ((idx.get(i).getMediaMask() & mediaMask) == 0)
             continue;
-          if (pat.matcher(((Stringer) idx.data[i]).name).matches())
-            okRatedStringers.add((Stringer) idx.data[i]);
+          if (pat.matcher(((Stringer) idx.get(i)).name).matches())
+            okRatedStringers.add((Stringer) idx.get(i));
         }
       } finally {
-        idx.table.releaseReadLock();
+        idx.table.releaseReadView(idx);
       }
     }
     if (extendedRatings)
@@ -6612,16 +6734,16 @@ public class Wizard implements EPGDBPublic2
       okERStringers = new HashSet<Stringer>();
       idx = getIndex(ER_CODE);
       try {
-        idx.table.acquireReadLock();
-        for (int i = 0; i < idx.table.num; i++)
+        idx = idx.table.acquireReadView(idx);
+        for (int i = 0; i < idx.size(); i++)
         {
-          if ((idx.data[i].getMediaMask() & mediaMask) == 0)
+          if ((idx.get(i).getMediaMask() & mediaMask) == 0)
             continue;
-          if (pat.matcher(((Stringer) idx.data[i]).name).matches())
-            okERStringers.add((Stringer) idx.data[i]);
+          if (pat.matcher(((Stringer) idx.get(i)).name).matches())
+            okERStringers.add((Stringer) idx.get(i));
         }
       } finally {
-        idx.table.releaseReadLock();
+        idx.table.releaseReadView(idx);
       }
     }
     if (year)
@@ -6629,16 +6751,16 @@ public class Wizard implements EPGDBPublic2
       okYearStringers = new HashSet<Stringer>();
       idx = getIndex(YEAR_CODE);
       try {
-        idx.table.acquireReadLock();
-        for (int i = 0; i < idx.table.num; i++)
+        idx = idx.table.acquireReadView(idx);
+        for (int i = 0; i < idx.size(); i++)
         {
-          if ((idx.data[i].getMediaMask() & mediaMask) == 0)
+          if ((idx.get(i).getMediaMask() & mediaMask) == 0)
             continue;
-          if (pat.matcher(((Stringer) idx.data[i]).name).matches())
-            okYearStringers.add((Stringer) idx.data[i]);
+          if (pat.matcher(((Stringer) idx.get(i)).name).matches())
+            okYearStringers.add((Stringer) idx.get(i));
         }
       } finally {
-        idx.table.releaseReadLock();
+        idx.table.releaseReadView(idx);
       }
     }
     if (misc)
@@ -6646,27 +6768,27 @@ public class Wizard implements EPGDBPublic2
       okMiscStringers = new HashSet<Stringer>();
       idx = getIndex(BONUS_CODE);
       try {
-        idx.table.acquireReadLock();
-        for (int i = 0; i < idx.table.num; i++)
+        idx = idx.table.acquireReadView(idx);
+        for (int i = 0; i < idx.size(); i++)
         {
-          if ((idx.data[i].getMediaMask() & mediaMask) == 0)
+          if ((idx.get(i).getMediaMask() & mediaMask) == 0)
             continue;
-          if (pat.matcher(((Stringer) idx.data[i]).name).matches())
-            okMiscStringers.add((Stringer) idx.data[i]);
+          if (pat.matcher(((Stringer) idx.get(i)).name).matches())
+            okMiscStringers.add((Stringer) idx.get(i));
         }
       } finally {
-        idx.table.releaseReadLock();
+        idx.table.releaseReadView(idx);
       }
     }
     Index sidx = getIndex(SHOW_CODE);
     Vector<Airing> rv = new Vector<Airing>(500);
     int MAX_SEARCH_RESULTS = Sage.getInt("wizard/max_search_results", 1000);
     try {
-      sidx.table.acquireReadLock();
+      sidx = sidx.table.acquireReadView(sidx);
       show_loop:
-        for (int i = 0; i < sidx.table.num; i++)
+        for (int i = 0; i < sidx.size(); i++)
         {
-          Show currShow = (Show) sidx.data[i];
+          Show currShow = (Show) sidx.get(i);
           if ((currShow.getMediaMask() & mediaMask) == 0)
             continue;
 
@@ -6746,7 +6868,7 @@ public class Wizard implements EPGDBPublic2
           }
         }
     } finally {
-      sidx.table.releaseReadLock();
+      sidx.table.releaseReadView(sidx);
     }
     if (misc)
     {
@@ -6756,10 +6878,10 @@ public class Wizard implements EPGDBPublic2
       {
         Index aidx = getIndex(AIRING_CODE);
         try {
-          aidx.table.acquireReadLock();
-          for (int i = 0; i < aidx.table.num; i++)
+          aidx = aidx.table.acquireReadView(aidx);
+          for (int i = 0; i < aidx.size(); i++)
           {
-            Airing currAir = (Airing) aidx.data[i];
+            Airing currAir = (Airing) aidx.get(i);
             if (currAir.hasMediaMaskAny(mediaMask)) {
               if ((currAir.miscB & matchMiscB) != 0) {
                 rv.add(currAir);
@@ -6778,17 +6900,17 @@ public class Wizard implements EPGDBPublic2
             }
           }
         } finally {
-          aidx.table.releaseReadLock();
+          aidx.table.releaseReadView(aidx);
         }
       }
       if (Sage.getBoolean("wizard/search_media_formats", false))
       {
         Index mfIdx = getIndex(MEDIAFILE_CODE);
         try {
-          mfIdx.table.acquireReadLock();
-          for (int i = 0; i < mfIdx.table.num; i++)
+          mfIdx = mfIdx.table.acquireReadView(mfIdx);
+          for (int i = 0; i < mfIdx.size(); i++)
           {
-            MediaFile currMF = (MediaFile) mfIdx.data[i];
+            MediaFile currMF = (MediaFile) mfIdx.get(i);
             if ((currMF.getMediaMask() & mediaMask) == 0)
               continue;
             ContainerFormat cf = currMF.getFileFormat();
@@ -6799,7 +6921,7 @@ public class Wizard implements EPGDBPublic2
             }
           }
         } finally {
-          mfIdx.table.releaseReadLock();
+          mfIdx.table.releaseReadView(mfIdx);
         }
       }
     }
@@ -6815,11 +6937,11 @@ public class Wizard implements EPGDBPublic2
       idx.table.acquireReadLock();
       for (int i = 0; i < idx.table.num; i++)
       {
-        if ((idx.data[i].getMediaMask() & mediaMask) == 0)
+        if ((idx.get(i).getMediaMask() & mediaMask) == 0)
           continue;
-        if (pattern.matcher(((Stringer) idx.data[i]).name).matches())
+        if (pattern.matcher(((Stringer) idx.get(i)).name).matches())
         {
-          okTitles.add(((Stringer) idx.data[i]).name);
+          okTitles.add(((Stringer) idx.get(i)).name);
           if (okTitles.size() >= MAX_SEARCH_RESULTS)
             break;
         }
@@ -6860,7 +6982,7 @@ public class Wizard implements EPGDBPublic2
       sidx.table.acquireReadLock();
       for (int i = 0; i < sidx.table.num; i++)
       {
-        Show currShow = (Show) sidx.data[i];
+        Show currShow = (Show) sidx.get(i);
         if ((currShow.getMediaMask() & mediaMask) == 0)
           continue;
         if (currShow.title == str)
@@ -6887,7 +7009,7 @@ public class Wizard implements EPGDBPublic2
       sidx.table.acquireReadLock();
       for (int i = 0; i < sidx.table.num; i++)
       {
-        MediaFile mf = (MediaFile) sidx.data[i];
+        MediaFile mf = (MediaFile) sidx.get(i);
         Show s;
         if (mf.isMusic() && ((s = mf.getShow()) != null) &&
             (s.title == str))
@@ -6919,7 +7041,7 @@ public class Wizard implements EPGDBPublic2
       idx.table.acquireReadLock();
       for (int i = 0; i < idx.table.num; i++)
       {
-        Person strgr = (Person) idx.data[i];
+        Person strgr = (Person) idx.get(i);
         if ((strgr.getMediaMask() & mediaMask) == 0)
           continue;
         if (pat.matcher(strgr.name).matches())
@@ -6989,7 +7111,7 @@ public class Wizard implements EPGDBPublic2
       while (low <= high)
       {
         int mid = (low + high) >> 1;
-        Person midVal = (Person) indy.data[mid];
+        Person midVal = (Person) indy.get(mid);
         int cmp = midVal.extID - targetExtID;
         if (cmp < 0)
           low = mid + 1;
@@ -7002,7 +7124,7 @@ public class Wizard implements EPGDBPublic2
           low = high = mid;
           while (low > 0)
           {
-            Person lowbie = (Person) indy.data[low - 1];
+            Person lowbie = (Person) indy.get(low - 1);
             if (lowbie != null && lowbie.extID == targetExtID)
               low--;
             else
@@ -7010,7 +7132,7 @@ public class Wizard implements EPGDBPublic2
           }
           while (high < t.num - 1)
           {
-            Person higher = (Person) indy.data[high + 1];
+            Person higher = (Person) indy.get(high + 1);
             if (higher != null && higher.extID == targetExtID)
               high++;
             else
@@ -7018,7 +7140,7 @@ public class Wizard implements EPGDBPublic2
           }
           Person[] rv = new Person[2 + high - low];
           rv[0] = originalPerson;
-          System.arraycopy(indy.data, low, rv, 1, rv.length - 1);
+          indy.copyInto(low, rv, 1, rv.length - 1);
           return rv;
         }
       }
@@ -7041,7 +7163,7 @@ public class Wizard implements EPGDBPublic2
       sidx.table.acquireReadLock();
       for (int i = 0; i < sidx.table.num; i++)
       {
-        Show currShow = (Show) sidx.data[i];
+        Show currShow = (Show) sidx.get(i);
         if ((currShow.getMediaMask() & mediaMask) == 0)
           continue;
         for (int j = 0; j < currShow.people.length; j++)
@@ -7068,7 +7190,7 @@ public class Wizard implements EPGDBPublic2
       sidx.table.acquireReadLock();
       for (int i = 0; i < sidx.table.num; i++)
       {
-        Show currShow = (Show) sidx.data[i];
+        Show currShow = (Show) sidx.get(i);
         if (currShow.isMusic() && currShow.categories.length > 0 && currShow.categories[0] == str)
         {
           rv.addAll(Arrays.asList(getAirings(currShow, 0)));
@@ -7154,7 +7276,7 @@ public class Wizard implements EPGDBPublic2
     try {
       idx.table.acquireReadLock();
       for (int i = 0; i < idx.table.num; i++) {
-        Channel chan = (Channel) idx.data[i];
+        Channel chan = (Channel) idx.get(i);
         if (includeDisabled || chan.isViewable()) {
           // use StringMatchUtils to perform faster substring matching
           // on start-of-word where multiple words may match
@@ -7256,6 +7378,363 @@ public class Wizard implements EPGDBPublic2
     }
   }
 
+  private void allocateTable(Table t, int theSize)
+  {
+    if (Sage.DBG) System.out.println("Wizard allocating table for " + getNameForCode(t.tableCode) + " of size " + theSize);
+    try {
+      t.acquireWriteLock();
+      t.num = theSize;
+      t.primary.allocate(theSize);
+      for (int i = 0; i < t.others.length; i++)
+        t.others[i].allocate(theSize);
+    } finally {
+      t.releaseWriteLock();
+    }
+  }
+
+  private void loadTableData(Table t, DataInput in, byte ver, long cmdLength, Map<Integer, Integer> idMap,
+      int baseID) throws IOException
+  {
+    long loadStart = Sage.eventTime();
+    if (Sage.DBG) System.out.println("Wizard loading main index for " + getNameForCode(t.tableCode) + " bytes=" + cmdLength);
+    if (GENERATE_MEDIA_MASK)
+    {
+      // NOTE: This will take a LONG time to load in this case because we'll be extracting file format
+      // information for every media file in the DB, so update the splash so the user realizes this.
+      Sage.setSplashText(Sage.rez("MediaFile_Format_Load_Wait"));
+    }
+    try {
+      t.acquireWriteLock();
+      Index indy = t.primary;
+      LuceneIndex index = null;
+      boolean indexInitialized = false;
+      if(t.tableCode == SHOW_CODE) {
+        index = getShowIndex();
+      } else if (t.tableCode == PEOPLE_CODE) {
+        index = getPersonIndex();
+      }
+      if(index != null) {
+        if(index.getWriter().numDocs() != indy.table.num) {
+          if (Sage.DBG) {
+            System.out.println("Lucene index(" + index.name
+                + ") does not have same item count as wizard (idx:" + index.getWriter().numDocs()
+                + ", wiz:" + indy.table.num + ") - RESETING");
+          }
+          index.resetIndex();
+        } else {
+          if(Sage.DBG) System.out.println("Lucene index(" + index.name
+              + ") counts(" + index.getWriter().numDocs()
+              + ", " + indy.table.num + ") - Loaded from storage; Wizard not impeded");
+          indexInitialized = true;
+        }
+      }
+      for (int i = 0; i < indy.table.num; i++)
+      {
+        DBObject newObj = loadDBObject(t.tableCode, in, ver, idMap, baseID);
+        if(newObj != null) {
+          // This object is being added to the table out-of-band, see if we must updated
+          if(index != null && !indexInitialized) {
+            if(t.tableCode == SHOW_CODE) {
+              addShowToLucene((Show)newObj);
+            } else if (t.tableCode == PEOPLE_CODE) {
+              addPersonToLucene((Person)newObj);
+            }
+          }
+        }
+        indy.set(i, newObj);
+        // Widgets/Shows use a lot of memory on load because of the property conversions
+        if ((i % 1000) == 0)
+          Sage.gcPause();
+      }
+      long totalTime = Sage.eventTime() - loadStart;
+      if (Sage.DBG) System.out.println("Load time for " + getNameForCode(t.tableCode) + " " + totalTime +
+          " msec " + (((float)totalTime)/indy.table.num) + " msec/object");
+      loadStart = Sage.eventTime();
+      indy.check();
+      if (Sage.DBG) System.out.println("Index check time for " + getNameForCode(t.tableCode) + " " + (Sage.eventTime() - loadStart) + " msec");
+      if (ver < 0x53)
+      {
+        for (int k = 0; k < t.others.length; k++)
+        {
+          loadStart = Sage.eventTime();
+          if (Sage.DBG) System.out.println("Wizard building alt. index " + k + " for " + getNameForCode(t.tableCode));
+          t.others[k].setAll(t.primary.toArray(), t.num);
+          t.others[k].check();
+          if (Sage.DBG) System.out.println("Alt. index " + k + " for " + getNameForCode(t.tableCode) + " load time " + (Sage.eventTime() - loadStart) + " msec");
+        }
+      }
+
+      // Mark un-initialzied lucene indexs as live.
+      if (index != null) {
+        if (!indexInitialized) {
+          synchronized (index.getTransactionLock()) {
+            if (Sage.DBG)
+              System.out.println("Lucene index(" + index.name + ") built from Wizard");
+            index.indexTransactions.add(null);
+            index.getTransactionLock().notifyAll();
+          }
+        } else {
+          if (Sage.DBG)
+            System.out.println("Lucene index(" + index.name + ") initialized from disk");
+        }
+      }
+    } finally {
+      t.releaseWriteLock();
+    }
+    Sage.gcPause();
+  }
+
+  private void loadIndexData(Table t, byte indexCode, DataInput in, long cmdLength) throws IOException
+  {
+    long loadStart = Sage.eventTime();
+    if (Sage.DBG) System.out.println("Wizard loading alt index " + indexCode + " for " + getNameForCode(t.tableCode) + " bytes=" + cmdLength);
+    try {
+      t.acquireWriteLock();
+      Index indy = t.getIndex(indexCode);
+      Index primaryIndex = t.primary;
+      boolean loadFailed = false;
+      for (int i = 0; i < indy.table.num; i++)
+      {
+        int idx = in.readInt();
+        if (idx < 0 || idx >= indy.table.num) {
+          loadFailed = true;
+          if (Sage.DBG) System.out.println("ERROR in DB file index table, invalid index of:" + idx + " size=" + indy.table.num);
+        } else {
+          indy.set(i, primaryIndex.get(idx));
+        }
+      }
+      if (loadFailed) {
+        if (Sage.DBG) System.out.println("Repairing index due to error on load...");
+        // We call check() below which will fix the ordering...normally it would be presorted so check()
+        // would execute very quickly, but this will have to reorder things so it will execute more slowly but
+        // that's better than completely failing to load
+        indy.setAll(primaryIndex.toArray(), indy.table.num);
+      }
+      long totalTime = Sage.eventTime() - loadStart;
+      if (Sage.DBG) System.out.println("Load time for alt index " + indexCode+ " for " + getNameForCode(t.tableCode) + " " + totalTime +
+          " msec");
+      loadStart = Sage.eventTime();
+      indy.check();
+      if (Sage.DBG) System.out.println("Index check time for alt index " + indexCode + " for " +
+          getNameForCode(t.tableCode) + " " + (Sage.eventTime() - loadStart) + " msec");
+    } finally {
+      t.releaseWriteLock();
+    }
+  }
+
+  // The tables that objects in other tables resolve their references to while they're being loaded
+  private static final byte[] LOAD_REFERENCE_TABLES = { YEAR_CODE, NETWORK_CODE, TITLE_CODE, BONUS_CODE, PEOPLE_CODE,
+    SUBCATEGORY_CODE, RATED_CODE, PR_CODE, ER_CODE, CATEGORY_CODE, PRIME_TITLE_CODE };
+
+  // Returns the tables that need to be fully loaded before the objects in the specified table can be loaded
+  private static byte[] getLoadDependencies(byte tableCode)
+  {
+    if (tableCode == PEOPLE_CODE)
+      return new byte[] { BONUS_CODE };
+    for (int i = 0; i < LOAD_REFERENCE_TABLES.length; i++)
+    {
+      if (LOAD_REFERENCE_TABLES[i] == tableCode)
+        return Pooler.EMPTY_BYTE_ARRAY;
+    }
+    return LOAD_REFERENCE_TABLES;
+  }
+
+  // Location of the records for one table in the DB file
+  private static class TableSection
+  {
+    TableSection(Table table)
+    {
+      this.table = table;
+    }
+    Table table;
+    long dataPos = -1;
+    long dataLength;
+    List<Byte> indexCodes = new ArrayList<Byte>();
+    List<Long> indexPos = new ArrayList<Long>();
+    List<Long> indexLength = new ArrayList<Long>();
+  }
+
+  private SageDataFile openDBReader(long pos, byte ver) throws IOException
+  {
+    SageDataFile rv = new SageDataFile(new BufferedSageFile(new LocalSageFile(dbFile, true),
+        BufferedSageFile.READ_BUFFER_SIZE), (ver == 0x54) ? Sage.BYTE_CHARSET : Sage.I18N_CHARSET);
+    rv.seek(pos);
+    return rv;
+  }
+
+  /*
+   * Loads the table data at the start of the DB file on a pool of threads. The header of each record is read to find
+   * where each table's data is, and then each table is decoded with its own reader of the file. Tables only wait for the
+   * ones their objects reference (see getLoadDependencies) and the secondary indices of a table are each built on their
+   * own thread once the table's objects are loaded. Returns the file position of the first record after the table data
+   * so the transactions can be replayed from there; or -1 if the tables couldn't be loaded this way, in which case
+   * they're left empty and the whole file should be loaded normally.
+   */
+  private long loadTablesInParallel(SageDataFile in, long fileLength, final byte ver) throws IOException
+  {
+    long loadStart = Sage.eventTime();
+    long fp = in.position();
+    final Map<Byte, TableSection> sections = new HashMap<Byte, TableSection>();
+    TableSection currSection = null;
+    while (fp + 6 <= fileLength)
+    {
+      in.seek(fp);
+      int cmdLength = in.readInt();
+      if (cmdLength < 6 || fp + cmdLength > fileLength)
+        break;
+      byte opcode = in.readByte();
+      byte typecode = in.readByte();
+      if (opcode == SIZE)
+      {
+        Table t = getTable(typecode);
+        if (t == null)
+          return -1;
+        allocateTable(t, in.readInt());
+        currSection = new TableSection(t);
+        sections.put(typecode, currSection);
+      }
+      else if (opcode == FULL_DATA && currSection != null)
+      {
+        currSection.dataPos = in.position();
+        currSection.dataLength = cmdLength;
+      }
+      else if (opcode == INDEX_DATA && currSection != null)
+      {
+        currSection.indexCodes.add(typecode);
+        currSection.indexPos.add(in.position());
+        currSection.indexLength.add((long) cmdLength);
+      }
+      else
+        break;
+      fp += cmdLength;
+    }
+    for (TableSection section : sections.values())
+    {
+      if (section.dataPos < 0 && section.table.num > 0)
+      {
+        if (Sage.DBG) System.out.println("Missing table data for " + getNameForCode(section.table.tableCode) +
+            ", doing a normal DB load");
+        clearTables();
+        return -1;
+      }
+    }
+
+    int numThreads = Math.min(Math.max(Runtime.getRuntime().availableProcessors(), 1), sections.size());
+    if (Sage.DBG) System.out.println("Wizard loading " + sections.size() + " tables using " + numThreads + " threads");
+    final ExecutorService loaders = Executors.newFixedThreadPool(Math.max(numThreads, 1), new ThreadFactory()
+    {
+      public Thread newThread(Runnable r)
+      {
+        Thread t = new Thread(r, "DBLoader");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    final Map<Byte, Future<?>> tableLoads = new HashMap<Byte, Future<?>>();
+    final Queue<Future<?>> indexLoads = new ConcurrentLinkedQueue<Future<?>>();
+    try
+    {
+      // These are submitted in the order they were written which always has the tables that are referenced before
+      // the ones that reference them. So anything a load waits on has already been taken by another thread.
+      for (int i = 0; i < WRITE_ORDER.length; i++)
+      {
+        final TableSection section = sections.get(WRITE_ORDER[i]);
+        if (section == null || section.dataPos < 0)
+          continue;
+        byte[] deps = getLoadDependencies(section.table.tableCode);
+        final List<Future<?>> waitFor = new ArrayList<Future<?>>();
+        for (int j = 0; j < deps.length; j++)
+        {
+          Future<?> depLoad = tableLoads.get(deps[j]);
+          if (depLoad != null)
+            waitFor.add(depLoad);
+        }
+        tableLoads.put(section.table.tableCode, loaders.submit(new Callable<Object>()
+        {
+          public Object call() throws Exception
+          {
+            for (int j = 0; j < waitFor.size(); j++)
+              waitFor.get(j).get();
+            SageDataFile reader = openDBReader(section.dataPos, ver);
+            try
+            {
+              loadTableData(section.table, reader, ver, section.dataLength, null, 0);
+            }
+            finally
+            {
+              reader.close();
+            }
+            for (int j = 0; j < section.indexCodes.size(); j++)
+            {
+              final byte indexCode = section.indexCodes.get(j);
+              final long indexPos = section.indexPos.get(j);
+              final long indexLength = section.indexLength.get(j);
+              indexLoads.add(loaders.submit(new Callable<Object>()
+              {
+                public Object call() throws Exception
+                {
+                  SageDataFile reader = openDBReader(indexPos, ver);
+                  try
+                  {
+                    loadIndexData(section.table, indexCode, reader, indexLength);
+                  }
+                  finally
+                  {
+                    reader.close();
+                  }
+                  return null;
+                }
+              }));
+            }
+            return null;
+          }
+        }));
+      }
+      int numDone = 0;
+      for (int i = 0; i < WRITE_ORDER.length; i++)
+      {
+        Future<?> tableLoad = tableLoads.get(WRITE_ORDER[i]);
+        if (tableLoad == null) continue;
+        tableLoad.get();
+        Sage.setSplashText(Sage.rez("Module_Init_Progress", new Object[] { Sage.rez("Object_Database"),
+            new Double((((double) ++numDone) / tableLoads.size()) * fp / fileLength) }));
+      }
+      // All of the index loads have been queued once the tables are done
+      Future<?> indexLoad;
+      while ((indexLoad = indexLoads.poll()) != null)
+        indexLoad.get();
+    }
+    catch (Exception e)
+    {
+      Throwable cause = (e instanceof ExecutionException) ? e.getCause() : e;
+      System.out.println("ERROR loading DB tables in parallel, doing a normal DB load instead: " + cause);
+      if (Sage.DBG) Sage.printStackTrace(cause);
+      loaders.shutdownNow();
+      try
+      {
+        loaders.awaitTermination(60, TimeUnit.SECONDS);
+      }
+      catch (InterruptedException ie){}
+      clearTables();
+      return -1;
+    }
+    finally
+    {
+      loaders.shutdown();
+    }
+    if (Sage.DBG) System.out.println("Wizard parallel table load time " + (Sage.eventTime() - loadStart) + " msec");
+    return fp;
+  }
+
+  private void clearTables()
+  {
+    for (int i = 0; i < tables.length; i++)
+    {
+      if (tables[i] != null)
+        allocateTable(tables[i], 0);
+    }
+  }
+
   private Table lastTable;
 
   private byte processXctFromStream(DataInput in, byte ver, long cmdLength,
@@ -7274,148 +7753,19 @@ public class Wizard implements EPGDBPublic2
       lastTable = getTable(typecode);
       if (lastTable == null)
         return opcode;
-      int theSize = in.readInt();
-      if (Sage.DBG) System.out.println("Wizard allocating table for " + getNameForCode(typecode) + " of size " + theSize);
-      try {
-        lastTable.acquireWriteLock();
-        lastTable.num = theSize;
-        lastTable.primary.data = new DBObject[theSize + INC_SIZE];
-        for (int i = 0; i < lastTable.others.length; i++)
-          lastTable.others[i].data = new DBObject[theSize + INC_SIZE];
-      } finally {
-        lastTable.releaseWriteLock();
-      }
+      allocateTable(lastTable, in.readInt());
     }
     else if (opcode == FULL_DATA)
     {
       if (lastTable == null)
         return opcode;
-      long loadStart = Sage.eventTime();
-      if (Sage.DBG) System.out.println("Wizard loading main index for " + getNameForCode(lastTable.tableCode) + " bytes=" + cmdLength);
-      if (GENERATE_MEDIA_MASK)
-      {
-        // NOTE: This will take a LONG time to load in this case because we'll be extracting file format
-        // information for every media file in the DB, so update the splash so the user realizes this.
-        Sage.setSplashText(Sage.rez("MediaFile_Format_Load_Wait"));
-      }
-      try {
-        lastTable.acquireWriteLock();
-        Index indy = lastTable.primary;
-        LuceneIndex index = null;
-        boolean indexInitialized = false;
-        if(lastTable.tableCode == SHOW_CODE) {
-          index = getShowIndex();
-        } else if (lastTable.tableCode == PEOPLE_CODE) {
-          index = getPersonIndex();
-        }
-        if(index != null) {
-          if(index.getWriter().numDocs() != indy.table.num) {
-            if (Sage.DBG) {
-              System.out.println("Lucene index(" + index.name
-                  + ") does not have same item count as wizard (idx:" + index.getWriter().numDocs()
-                  + ", wiz:" + indy.table.num + ") - RESETING");
-            }
-            index.resetIndex();
-          } else {
-            if(Sage.DBG) System.out.println("Lucene index(" + index.name
-                + ") counts(" + index.getWriter().numDocs()
-                + ", " + indy.table.num + ") - Loaded from storage; Wizard not impeded");
-            indexInitialized = true;
-          }
-        }
-        for (int i = 0; i < indy.table.num; i++)
-        {
-          DBObject newObj = loadDBObject(lastTable.tableCode, in, ver, idMap, baseID);
-          if(newObj != null) {
-            // This object is being added to the table out-of-band, see if we must updated
-            if(index != null && !indexInitialized) {
-              if(lastTable.tableCode == SHOW_CODE) {
-                addShowToLucene((Show)newObj);
-              } else if (lastTable.tableCode == PEOPLE_CODE) {
-                addPersonToLucene((Person)newObj);
-              }
-            }
-          }
-          indy.data[i] = newObj;
-          // Widgets/Shows use a lot of memory on load because of the property conversions
-          if ((i % 1000) == 0)
-            Sage.gcPause();
-        }
-        long totalTime = Sage.eventTime() - loadStart;
-        if (Sage.DBG) System.out.println("Load time for " + getNameForCode(lastTable.tableCode) + " " + totalTime +
-            " msec " + (((float)totalTime)/indy.table.num) + " msec/object");
-        loadStart = Sage.eventTime();
-        indy.check();
-        if (Sage.DBG) System.out.println("Index check time for " + getNameForCode(lastTable.tableCode) + " " + (Sage.eventTime() - loadStart) + " msec");
-        if (ver < 0x53)
-        {
-          for (int k = 0; k < lastTable.others.length; k++)
-          {
-            loadStart = Sage.eventTime();
-            if (Sage.DBG) System.out.println("Wizard building alt. index " + k + " for " + getNameForCode(lastTable.tableCode));
-            System.arraycopy(lastTable.primary.data, 0, lastTable.others[k].data, 0, lastTable.num);
-            lastTable.others[k].check();
-            if (Sage.DBG) System.out.println("Alt. index " + k + " for " + getNameForCode(lastTable.tableCode) + " load time " + (Sage.eventTime() - loadStart) + " msec");
-          }
-        }
-
-        // Mark un-initialzied lucene indexs as live.
-        if (index != null) {
-          if (!indexInitialized) {
-            synchronized (index.getTransactionLock()) {
-              if (Sage.DBG)
-                System.out.println("Lucene index(" + index.name + ") built from Wizard");
-              index.indexTransactions.add(null);
-              index.getTransactionLock().notifyAll();
-            }
-          } else {
-            if (Sage.DBG)
-              System.out.println("Lucene index(" + index.name + ") initialized from disk");
-          }
-        }
-      } finally {
-        lastTable.releaseWriteLock();
-      }
-      Sage.gcPause();
+      loadTableData(lastTable, in, ver, cmdLength, idMap, baseID);
     }
     else if (opcode == INDEX_DATA)
     {
       if (lastTable == null)
         return opcode;
-      long loadStart = Sage.eventTime();
-      if (Sage.DBG) System.out.println("Wizard loading alt index " + typecode + " for " + getNameForCode(lastTable.tableCode) + " bytes=" + cmdLength);
-      try {
-        lastTable.acquireWriteLock();
-        Index indy = lastTable.getIndex(typecode);
-        Index primaryIndex = lastTable.primary;
-        boolean loadFailed = false;
-        for (int i = 0; i < indy.table.num; i++)
-        {
-          int idx = in.readInt();
-          if (idx < 0 || idx >= indy.table.num) {
-            loadFailed = true;
-            if (Sage.DBG) System.out.println("ERROR in DB file index table, invalid index of:" + idx + " size=" + indy.table.num);
-          } else {
-            indy.data[i] = primaryIndex.data[idx];
-          }
-        }
-        if (loadFailed) {
-          if (Sage.DBG) System.out.println("Repairing index due to error on load...");
-          // We call check() below which will fix the ordering...normally it would be presorted so check()
-          // would execute very quickly, but this will have to reorder things so it will execute more slowly but
-          // that's better than completely failing to load
-          System.arraycopy(primaryIndex.data, 0, indy.data, 0, indy.table.num);
-        }
-        long totalTime = Sage.eventTime() - loadStart;
-        if (Sage.DBG) System.out.println("Load time for alt index " + typecode+ " for " + getNameForCode(lastTable.tableCode) + " " + totalTime +
-            " msec");
-        loadStart = Sage.eventTime();
-        indy.check();
-        if (Sage.DBG) System.out.println("Index check time for alt index " + typecode + " for " +
-            getNameForCode(lastTable.tableCode) + " " + (Sage.eventTime() - loadStart) + " msec");
-      } finally {
-        lastTable.releaseWriteLock();
-      }
+      loadIndexData(lastTable, typecode, in, cmdLength);
     }
     else
     {
@@ -7544,6 +7894,15 @@ public class Wizard implements EPGDBPublic2
         Table t = null;
         HashMap<Byte, Set<DBObject>> killMap = new HashMap<Byte, Set<DBObject>>();
         if (Sage.DBG) System.out.println("DBFile at version " + version + " FileSize=" + fileLength);
+        // The parallel load reads the file with its own readers which is only done for unencrypted files. Older versions
+        // also convert objects in ways that modify other tables while loading.
+        if (version >= 0x54 && idTranslation == null && !GENERATE_MEDIA_MASK &&
+            Sage.getBoolean(prefsRoot + PARALLEL_LOAD, true) && Runtime.getRuntime().availableProcessors() > 1)
+        {
+          long tablesStart = in.position();
+          long tablesEnd = loadTablesInParallel(in, fileLength, version);
+          in.seek(tablesEnd >= 0 ? tablesEnd : tablesStart);
+        }
         long fp = in.position();
         int cmdLength = 0;
         byte opcode = 0;
@@ -7631,7 +7990,7 @@ public class Wizard implements EPGDBPublic2
             Index indy = t.primary;
             for (int i = 0; i < indy.table.num; i++)
             {
-              DBObject newObj = indy.data[i];
+              DBObject newObj = indy.get(i);
               if (!newObj.validate())
               {
                 Set<DBObject> tempSet = killMap.get(t.tableCode);
@@ -7680,7 +8039,7 @@ public class Wizard implements EPGDBPublic2
           Index airIndex = getIndex(AIRING_CODE, AIRINGS_BY_CT_CODE);
           for (int i = 0; i < airIndex.table.num; i++)
           {
-            Airing iAir = (Airing) airIndex.data[i];
+            Airing iAir = (Airing) airIndex.get(i);
             if (iAir != null && usedStations.contains(iAir.stationID))
             {
               iAir.addMediaMask(DBObject.MEDIA_MASK_TV);
@@ -7699,7 +8058,7 @@ public class Wizard implements EPGDBPublic2
           Index showIndex = getIndex(SHOW_CODE);
           for (int i = 0; i < showIndex.table.num; i++)
           {
-            Show s = (Show) showIndex.data[i];
+            Show s = (Show) showIndex.get(i);
             if (s != null && s.categories.length > 0)
             {
               if (getCategoryForID(s.categories[0].id, false) == null)
@@ -7824,6 +8183,8 @@ public class Wizard implements EPGDBPublic2
   private void saveDBFile() throws IOException
   {
     if (Sage.client || disableDatabase) return;
+    long saveStartTime = Sage.eventTime();
+    long savedBytes = 0;
     synchronized (pendingWriteXcts)
     {
       // If writes are suspended already due to sending a DB to a client...then hold off until that's done before we proceed.
@@ -7874,10 +8235,8 @@ public class Wizard implements EPGDBPublic2
         }
       }
       // Looks cleaner and creates one less string for !Sage.EMBEDDED.
-      String fileMode = "rwd";
+      String fileMode = getDBFileMode();
       if(!backupFailed) {
-        int dbWriteFlags = 0;
-
         long startSaveTime = Sage.eventTime();
         File realDBFile = dbFile;
         // Use a temp file here so that we can be 100% sure the valid version byte is present and the
@@ -7908,45 +8267,9 @@ public class Wizard implements EPGDBPublic2
           if (Sage.DBG) System.out.println("Wizard writing out table info for " +
               getNameForCode(WRITE_ORDER[i]));
           Table currTable = getTable(WRITE_ORDER[i]);
-          // 7/14/2016 JS: Setting the variable here doesn't make any sense; it never gets used.
-          long fp;// = dbout.position();
-          dbout.writeInt(10);
-          dbout.writeByte(SIZE);
           try {
             currTable.acquireReadLock();
-            dbout.writeByte(currTable.tableCode);
-            dbout.writeInt(currTable.num);
-            if (currTable.num > 0)
-            {
-              fp = dbout.position();
-              dbout.writeInt(Integer.MAX_VALUE);
-              dbout.writeByte(FULL_DATA);
-              dbout.writeByte(currTable.primary.indexCode);
-
-              DBObject[] currData = currTable.primary.data;
-              for (int j = 0; j < currTable.num; j++)
-              {
-                DBObject dbobj = currData[j];
-                dbobj.write(dbout, dbWriteFlags);
-                dbobj.lookupIdx = -(j + 1);
-              }
-
-              logCmdLength(dbout, fp);
-
-              for (int k = 0; k < currTable.others.length; k++)
-              {
-                Index currIdx = currTable.others[k];
-                currData = currIdx.data;
-                dbout.writeInt((4 * currTable.num) + 6);
-                dbout.writeByte(INDEX_DATA);
-                dbout.writeByte(currIdx.indexCode);
-                for (int m = 0; m < currTable.num; m++)
-                {
-                  dbout.writeInt(-1*(currData[m].lookupIdx + 1));
-                }
-              }
-              // We don't need to log the command length because we knew it when we started writing it out
-            }
+            writeTableData(dbout, currTable, currTable.primary, currTable.others);
             // Remove any transasctions that are for the full table we just wrote out,
             // updates that occur after this need to be written
             synchronized (pendingWriteXcts)
@@ -7966,6 +8289,7 @@ public class Wizard implements EPGDBPublic2
         if (Sage.DBG) System.out.println("DB saveTime=" + ((endSaveTime - startSaveTime)/1000.0) + " sec");
         numUncompXcts = 0;
         long fp = dbout.position();
+        savedBytes = fp;
         dbout.setLength(fp);
         dbout.sync();
         dbout.seek(verPos);
@@ -7990,94 +8314,374 @@ public class Wizard implements EPGDBPublic2
             Sage.I18N_CHARSET);
         dbout.seek(dbout.length());
       }
-      while (true)
+      writePendingXcts();
+    }
+    long saveTime = Sage.eventTime() - saveStartTime;
+    if (savedBytes > 0)
+      reportCompaction(saveTime, saveTime, savedBytes, 0);
+    Sage.gcPause();
+  }
+
+  // Writes out all of the transactions that were queued while writes were suspended and then resumes
+  // normal transaction logging. The outLock must be held when calling this.
+  private void writePendingXcts() throws IOException
+  {
+    while (true)
+    {
+      XctObject nextXct = null;
+      synchronized (pendingWriteXcts)
       {
-        XctObject nextXct = null;
-        synchronized (pendingWriteXcts)
+        if (pendingWriteXcts.isEmpty())
         {
-          if (pendingWriteXcts.isEmpty())
-          {
-            suspendWrite = false;
-            break;
-          }
-          nextXct = pendingWriteXcts.remove(0);
+          suspendWrite = false;
+          pendingWriteXcts.notifyAll();
+          break;
         }
+        nextXct = pendingWriteXcts.remove(0);
+      }
 
-        long fp = dbout.position();
-        dbout.writeInt(Integer.MAX_VALUE);
-        dbout.writeByte(nextXct.xctType);
-        dbout.writeByte(nextXct.objectType);
+      writeXct(dbout, nextXct.xctType, nextXct.objectType, nextXct.obj);
+      numUncompXcts++;
+      xctLogged(nextXct.xctType, nextXct.objectType, nextXct.obj);
+    }
+  }
+
+  private void writeXct(SageDataFile out, byte xctType, byte objectType, DBObject obj) throws IOException
+  {
+    long fp = out.position();
+    out.writeInt(Integer.MAX_VALUE);
+    out.writeByte(xctType);
+    out.writeByte(objectType);
+    try {
+      acquireReadLock(objectType);
+      obj.write(out, 0);
+    } finally {
+      releaseReadLock(objectType);
+    }
+    logCmdLength(out, fp);
+  }
+
+  // Writes the SIZE, FULL_DATA and INDEX_DATA records for a table. If the indices are the live ones then the caller
+  // must hold the table's read lock. If they're snapshots then the read lock is only held while each batch of
+  // objects is written out so writers to the table don't have to wait for the whole thing.
+  private void writeTableData(SageDataFile out, Table currTable, Index primary, Index[] others) throws IOException
+  {
+    int num = primary.size();
+    out.writeInt(10);
+    out.writeByte(SIZE);
+    out.writeByte(currTable.tableCode);
+    out.writeInt(num);
+    if (num > 0)
+    {
+      long fp = out.position();
+      out.writeInt(Integer.MAX_VALUE);
+      out.writeByte(FULL_DATA);
+      out.writeByte(primary.indexCode);
+
+      DBObject[] currData = primary.toArray();
+      boolean lockBatches = primary.isSnapshot();
+      for (int j = 0; j < num; j += COMPACTION_BATCH_SIZE)
+      {
+        int batchEnd = Math.min(num, j + COMPACTION_BATCH_SIZE);
         try {
-          acquireReadLock(nextXct.objectType);
-          nextXct.obj.write(dbout, 0);
+          if (lockBatches) currTable.acquireReadLock();
+          for (int k = j; k < batchEnd; k++)
+          {
+            DBObject dbobj = currData[k];
+            dbobj.write(out, 0);
+            dbobj.lookupIdx = -(k + 1);
+          }
         } finally {
-          releaseReadLock(nextXct.objectType);
+          if (lockBatches) currTable.releaseReadLock();
         }
-        logCmdLength(dbout, fp);
-        numUncompXcts++;
       }
+
+      logCmdLength(out, fp);
+
+      for (int k = 0; k < others.length; k++)
+      {
+        Index currIdx = others[k];
+        currData = currIdx.toArray();
+        out.writeInt((4 * num) + 6);
+        out.writeByte(INDEX_DATA);
+        out.writeByte(currIdx.indexCode);
+        for (int m = 0; m < num; m++)
+        {
+          out.writeInt(-1*(currData[m].lookupIdx + 1));
+        }
+      }
+      // We don't need to log the command length because we knew it when we started writing it out
     }
-    Sage.gcPause();
   }
 
   /*
-   * ADD/REMOVE Object Methods
-   * UPDATE Object Methods. For these if logTX is true, then it logs an update on the arg
-   * and doesn't use the arg as a template for locating the one that it changed.
+   * Rewrites the DB file without stopping transactions from being logged to it. Each table is snapshotted and then
+   * written out to a temp file while the current DB file keeps getting the transactions. Transactions logged after a
+   * table was snapshotted are captured and appended to the new file. Writes are only suspended at the end while the last
+   * of those are written and the files are swapped. Returns false if the compaction couldn't be done; the DB file
+   * will be unchanged in that case.
    */
-  void logUpdate(DBObject updateMe, byte code)
-  {
-    if (disableDatabase) return;
-    if (Sage.client) return;
-    getTable(code).incModCount();
-    synchronized (pendingWriteXcts)
+  private boolean compactDBFile() throws IOException
+  {
+    if (Sage.client || disableDatabase || dbout == null || dbFile == null) return false;
+    if (Sage.DBG) System.out.println("Wizard compacting database file in the background...");
+    long startTime = Sage.eventTime();
+    File tmpFile = new File(dbFile.getAbsolutePath() + ".tmp");
+    Index[] primaryViews = new Index[tables.length];
+    Index[][] otherViews = new Index[tables.length][];
+    Map<DBObject, Boolean> tailState = new java.util.IdentityHashMap<DBObject, Boolean>();
+    SageDataFile out = null;
+    boolean suspended = false;
+    long suspendStart = 0;
+    long bytesWritten = 0;
+    int tailXcts = 0;
+    synchronized (compactXctLock)
     {
-      if (suspendWrite)
+      compactXcts = new ArrayList<XctObject>();
+    }
+    try
+    {
+      // Get a consistent view of each table. Anything that was logged before we got it is already in there.
+      for (int i = 0; i < WRITE_ORDER.length; i++)
       {
-        pendingWriteXcts.add(new XctObject(UPDATE, code, updateMe));
-        distributeOp(UPDATE, code, updateMe);
-        return;
+        Table currTable = getTable(WRITE_ORDER[i]);
+        try {
+          currTable.acquireWriteLock();
+          currTable.primary.publishSnapshot();
+          primaryViews[currTable.tableCode] = currTable.primary.getPublishedSnapshot();
+          otherViews[currTable.tableCode] = new Index[currTable.others.length];
+          for (int j = 0; j < currTable.others.length; j++)
+          {
+            currTable.others[j].publishSnapshot();
+            otherViews[currTable.tableCode][j] = currTable.others[j].getPublishedSnapshot();
+          }
+          synchronized (compactXctLock)
+          {
+            for (int j = 0; j < compactXcts.size(); j++)
+            {
+              if (compactXcts.get(j).objectType == currTable.tableCode)
+                compactXcts.remove(j--);
+            }
+          }
+        } finally {
+          currTable.releaseWriteLock();
+        }
       }
-      numUncompXcts++;
+
+      tmpFile.delete();
+      tmpFile.createNewFile();
+      out = new SageDataFile(new BufferedSageFile(
+          new LocalSageFile(tmpFile, "rw"),
+          BufferedSageFile.READ_BUFFER_SIZE, 131072),
+          Sage.I18N_CHARSET);
+      out.writeUnencryptedByte((byte) 'W');
+      out.writeUnencryptedByte((byte) 'I');
+      out.writeUnencryptedByte((byte) 'Z');
+      // The BAD_VERSION marker is to signify incompletely saved DB files.
+      long verPos = out.position();
+      out.writeUnencryptedByte(BAD_VERSION);
+      for (int i = 0; i < WRITE_ORDER.length; i++)
+      {
+        Table currTable = getTable(WRITE_ORDER[i]);
+        writeTableData(out, currTable, primaryViews[currTable.tableCode], otherViews[currTable.tableCode]);
+      }
+      // Catch up on what was logged while we were writing the tables, then get the rest with writes suspended
+      tailXcts += writeCompactionTail(out, primaryViews, tailState, false);
+
+      synchronized (pendingWriteXcts)
+      {
+        // If writes are suspended already due to sending a DB to a client...then hold off until that's done before we proceed.
+        while (suspendWrite)
+        {
+          try { pendingWriteXcts.wait(1000);} catch (Exception e){}
+        }
+        suspendWrite = true;
+        suspended = true;
+      }
+      suspendStart = Sage.eventTime();
       synchronized (outLock)
       {
-        SageDataFile frf = dbout;
-        if (frf == null) return;
-        long fp = frf.position();
         try
         {
-          if (listeners.isEmpty())
+          tailXcts += writeCompactionTail(out, primaryViews, tailState, true);
+          bytesWritten = out.position();
+          out.setLength(bytesWritten);
+          out.sync();
+          out.seek(verPos);
+          out.writeUnencryptedByte(VERSION);
+          out.close();
+          out = null;
+
+          dbout.close();
+          dbout = null;
+          dbBackupFile.delete();
+          if (!dbFile.renameTo(dbBackupFile))
           {
-            frf.writeInt(Integer.MAX_VALUE);
-            frf.writeByte(UPDATE);
-            frf.writeByte(code);
-            updateMe.write(frf, 0);
-            logCmdLength(frf, fp);
+            if (Sage.DBG) System.out.println("Renaming of DB Backup file failed...do a copy instead.");
+            IOUtils.copyFile(dbFile, dbBackupFile);
+            dbFile.delete();
           }
-          else
+          if (!tmpFile.renameTo(dbFile))
           {
-            byte[] xctData = distributeOp(UPDATE, code, updateMe);
-            frf.writeInt(xctData.length + 4);
-            frf.write(xctData);
+            IOUtils.copyFile(tmpFile, dbFile);
+            tmpFile.delete();
           }
+          numUncompXcts = tailXcts;
         }
-        catch (Exception e)
+        finally
         {
-          if (Sage.DBG) System.out.println("Error updating DB file:" + e);
-          if (Sage.DBG) e.printStackTrace();
-          try
-          {
-            frf.flush();
-            frf.seek(fp);
-          }
-          catch (IOException ioe)
+          if (dbout == null)
           {
-            System.out.println("IO Error updating DB file: " + ioe);
-            ioe.printStackTrace();
+            // This is the new file if the swap worked, otherwise it's whatever we have left
+            if (!dbFile.isFile() && dbBackupFile.isFile())
+              dbBackupFile.renameTo(dbFile);
+            dbout = new SageDataFile(new BufferedSageFile(
+                new LocalSageFile(dbFile, getDBFileMode()),
+                BufferedSageFile.READ_BUFFER_SIZE, 131072),
+                Sage.I18N_CHARSET);
+            dbout.seek(dbout.length());
           }
+          writePendingXcts();
+          suspended = false;
+        }
+      }
+    }
+    catch (IOException e)
+    {
+      // The DB file is still usable either way, so the normal save can take over from here
+      System.out.println("Error compacting DB file: " + e);
+      e.printStackTrace(System.out);
+      return false;
+    }
+    finally
+    {
+      synchronized (compactXctLock)
+      {
+        compactXcts = null;
+      }
+      if (out != null)
+      {
+        try
+        {
+          out.close();
+        }
+        catch (Exception e){}
+        tmpFile.delete();
+      }
+      if (suspended)
+      {
+        synchronized (outLock)
+        {
+          writePendingXcts();
+        }
+      }
+      // Let the readers go back to publishing snapshots when they want them
+      for (int i = 0; i < primaryViews.length; i++)
+      {
+        if (primaryViews[i] != null)
+        {
+          Table currTable = getTable((byte) i);
+          currTable.primary.discardSnapshot();
+          for (int j = 0; j < currTable.others.length; j++)
+            currTable.others[j].discardSnapshot();
         }
       }
     }
+    long suspendTime = Sage.eventTime() - suspendStart;
+    long totalTime = Sage.eventTime() - startTime;
+    if (Sage.DBG) System.out.println("DB compactTime=" + (totalTime/1000.0) + " sec suspendTime=" + (suspendTime/1000.0) +
+        " sec bytes=" + bytesWritten + " tailXcts=" + tailXcts);
+    reportCompaction(totalTime, suspendTime, bytesWritten, tailXcts);
+    Sage.gcPause();
+    return true;
+  }
+
+  // Appends the transactions that were logged after each table was snapshotted to the compacted DB file. If finish is
+  // true then this stops capturing them, the outLock must be held in that case. Returns the number written.
+  private int writeCompactionTail(SageDataFile out, Index[] primaryViews, Map<DBObject, Boolean> tailState, boolean finish)
+      throws IOException
+  {
+    int numWritten = 0;
+    while (true)
+    {
+      List<XctObject> currXcts;
+      synchronized (compactXctLock)
+      {
+        currXcts = compactXcts;
+        if (currXcts.isEmpty() && !finish)
+          return numWritten;
+        compactXcts = finish ? null : new ArrayList<XctObject>();
+      }
+      for (int i = 0; i < currXcts.size(); i++)
+      {
+        XctObject currXct = currXcts.get(i);
+        byte xctType = currXct.xctType;
+        // Tables are modified before the transaction is logged; so an add can show up here after we already
+        // got the object in the snapshot. Loading that would put it in the table twice, so make it an update.
+        Boolean present = tailState.get(currXct.obj);
+        if (present == null)
+        {
+          Index view = primaryViews[currXct.objectType];
+          present = Boolean.valueOf(view != null && view.binarySearch(currXct.obj) >= 0);
+        }
+        if (xctType == ADD && present.booleanValue())
+          xctType = UPDATE;
+        if (xctType == ADD)
+          tailState.put(currXct.obj, Boolean.TRUE);
+        else if (xctType == REMOVE)
+          tailState.put(currXct.obj, Boolean.FALSE);
+        writeXct(out, xctType, currXct.objectType, currXct.obj);
+        numWritten++;
+      }
+      if (finish)
+        return numWritten;
+    }
+  }
+
+  /**
+   * Receives the results of each rewrite of the database file.
+   */
+  public interface CompactionMetrics
+  {
+    /**
+     * Called after the database file has been rewritten.
+     * @param totalTime the number of msec the rewrite took
+     * @param suspendTime the number of msec that transactions were held back from the file during the rewrite
+     * @param bytesWritten the size of the new database file
+     * @param tailXcts the number of transactions appended to the file after the tables were written
+     */
+    public void dbCompacted(long totalTime, long suspendTime, long bytesWritten, int tailXcts);
+  }
+
+  public void setCompactionMetrics(CompactionMetrics x)
+  {
+    compactionMetrics = x;
+  }
+
+  private void reportCompaction(long totalTime, long suspendTime, long bytesWritten, int tailXcts)
+  {
+    CompactionMetrics metrics = compactionMetrics;
+    if (metrics != null)
+    {
+      try
+      {
+        metrics.dbCompacted(totalTime, suspendTime, bytesWritten, tailXcts);
+      }
+      catch (Throwable t)
+      {
+        if (Sage.DBG) System.out.println("ERROR in DB compaction metrics:" + t);
+      }
+    }
+  }
+
+  /*
+   * ADD/REMOVE Object Methods
+   * UPDATE Object Methods. For these if logTX is true, then it logs an update on the arg
+   * and doesn't use the arg as a template for locating the one that it changed.
+   */
+  void logUpdate(DBObject updateMe, byte code)
+  {
+    logXct(UPDATE, code, updateMe);
   }
 
   // NOTE: Narflex - 05/10/2012 - We used to use the distributeUpdate call for sending out mediaMask changes during maintenance,
@@ -8117,70 +8721,28 @@ public class Wizard implements EPGDBPublic2
 
   void logRemove(DBObject removeMe, byte code)
   {
-    if (disableDatabase) return;
-    if (Sage.client) return;
-    getTable(code).incModCount();
-    synchronized (pendingWriteXcts)
-    {
-      if (suspendWrite)
-      {
-        pendingWriteXcts.add(new XctObject(REMOVE, code, removeMe));
-        distributeOp(REMOVE, code, removeMe);
-        return;
-      }
-      numUncompXcts++;
-      synchronized (outLock)
-      {
-        SageDataFile frf = dbout;
-        if (frf == null) return;
-        long fp = frf.position();
-        try
-        {
-          if (listeners.isEmpty())
-          {
-            frf.writeInt(Integer.MAX_VALUE);
-            frf.writeByte(REMOVE);
-            frf.writeByte(code);
-            removeMe.write(frf, 0);
-            logCmdLength(frf, fp);
-          }
-          else
-          {
-            byte[] xctData = distributeOp(REMOVE, code, removeMe);
-            frf.writeInt(xctData.length + 4);
-            frf.write(xctData);
-          }
-        }
-        catch (Exception e)
-        {
-          if (Sage.DBG) System.out.println("Error updating DB file:" + e);
-          if (Sage.DBG) e.printStackTrace();
-          try
-          {
-            frf.flush();
-            frf.seek(fp);
-          }
-          catch (IOException ioe)
-          {
-            System.out.println("IO Error updating DB file: " + ioe);
-            ioe.printStackTrace(System.out);
-          }
-        }
-      }
-    }
+    logXct(REMOVE, code, removeMe);
   }
 
   void logAdd(DBObject addMe, byte code)
+  {
+    logXct(ADD, code, addMe);
+  }
+
+  private void logXct(byte opCode, byte code, DBObject obj)
   {
     if (disableDatabase) return;
     if (Sage.client) return;
     getTable(code).incModCount();
+    // This lets the profiler only redo what changed
+    if (god != null)
+      god.notifyDBChange(opCode, code, obj);
     synchronized (pendingWriteXcts)
     {
       if (suspendWrite)
       {
-        pendingWriteXcts.add(new XctObject(ADD, code, addMe));
-        distributeOp(ADD, code, addMe);
+        pendingWriteXcts.add(new XctObject(opCode, code, obj));
+        distributeOp(opCode, code, obj);
         return;
       }
       numUncompXcts++;
@@ -8194,17 +8756,18 @@ public class Wizard implements EPGDBPublic2
           if (listeners.isEmpty())
           {
             frf.writeInt(Integer.MAX_VALUE);
-            frf.writeByte(ADD);
+            frf.writeByte(opCode);
             frf.writeByte(code);
-            addMe.write(frf, 0);
+            obj.write(frf, 0);
             logCmdLength(frf, fp);
           }
           else
           {
-            byte[] xctData = distributeOp(ADD, code, addMe);
+            byte[] xctData = distributeOp(opCode, code, obj);
             frf.writeInt(xctData.length + 4);
             frf.write(xctData);
           }
+          xctLogged(opCode, code, obj);
         }
         catch (Exception e)
         {
@@ -8276,10 +8839,10 @@ public class Wizard implements EPGDBPublic2
 
   private Stringer getLinearStringerForNameWhileLocked(Table t, String name)
   {
-    for (int i = 0; (i < t.num) && (t.primary.data[i] != null); i++)
+    for (int i = 0; (i < t.num) && (t.primary.get(i) != null); i++)
     {
-      if (((Stringer) t.primary.data[i]).name.equals(name))
-        return (Stringer) t.primary.data[i];
+      if (((Stringer) t.primary.get(i)).name.equals(name))
+        return (Stringer) t.primary.get(i);
     }
     return null;
   }
@@ -8410,7 +8973,7 @@ public class Wizard implements EPGDBPublic2
     while (low <= high)
     {
       int mid = (low + high) >> 1;
-      Stringer midVal = (Stringer) indy.data[mid];
+      Stringer midVal = (Stringer) indy.get(mid);
       int cmp = midVal.name.compareTo(name);
 
       if (cmp < 0)
@@ -8449,8 +9012,8 @@ public class Wizard implements EPGDBPublic2
     try {
       idx.table.acquireReadLock();
       for (int i = 0; i < idx.table.num; i++)
-        if (idx.data[i].id == channelID)
-          return (Channel) idx.data[i];
+        if (idx.get(i).id == channelID)
+          return (Channel) idx.get(i);
     } finally {
       idx.table.releaseReadLock();
     }
@@ -8500,7 +9063,7 @@ public class Wizard implements EPGDBPublic2
   {
     if (id == 0) return null;
     if (id < 0)
-      return (Stringer) getIndex(CATEGORY_CODE).data[(-id) - 1];
+      return (Stringer) getIndex(CATEGORY_CODE).get((-id) - 1);
     Stringer rv = (Stringer) getIndex(CATEGORY_CODE).getSingle(id);
     if (rv == null && allowSubCat)
     {
@@ -8518,7 +9081,7 @@ public class Wizard implements EPGDBPublic2
   {
     if (id == 0) return null;
     if (id < 0)
-      return (Stringer) getIndex(SUBCATEGORY_CODE).data[(-id) - 1];
+      return (Stringer) getIndex(SUBCATEGORY_CODE).get((-id) - 1);
     Stringer rv = (Stringer) getIndex(SUBCATEGORY_CODE).getSingle(id);
     return rv;
   }
@@ -8527,7 +9090,7 @@ public class Wizard implements EPGDBPublic2
   {
     if (id == 0) return null;
     if (id < 0)
-      return (Stringer) getIndex(TITLE_CODE).data[(-id) - 1];
+      return (Stringer) getIndex(TITLE_CODE).get((-id) - 1);
     return (Stringer) getIndex(TITLE_CODE).getSingle(id);
   }
 
@@ -8551,7 +9114,7 @@ public class Wizard implements EPGDBPublic2
   {
     if (id == 0) return null;
     if (id < 0)
-      return (Stringer) getIndex(NETWORK_CODE).data[(-id) - 1];
+      return (Stringer) getIndex(NETWORK_CODE).get((-id) - 1);
     return (Stringer) getIndex(NETWORK_CODE).getSingle(id);
   }
 
@@ -8559,7 +9122,7 @@ public class Wizard implements EPGDBPublic2
   {
     if (id == 0) return null;
     if (id < 0)
-      return (Stringer) getIndex(RATED_CODE).data[(-id) - 1];
+      return (Stringer) getIndex(RATED_CODE).get((-id) - 1);
     return (Stringer) getIndex(RATED_CODE).getSingle(id);
   }
 
@@ -8567,7 +9130,7 @@ public class Wizard implements EPGDBPublic2
   {
     if (id == 0) return null;
     if (id < 0)
-      return (Stringer) getIndex(PR_CODE).data[(-id) - 1];
+      return (Stringer) getIndex(PR_CODE).get((-id) - 1);
     return (Stringer) getIndex(PR_CODE).getSingle(id);
   }
 
@@ -8575,7 +9138,7 @@ public class Wizard implements EPGDBPublic2
   {
     if (id == 0) return null;
     if (id < 0)
-      return (Stringer) getIndex(ER_CODE).data[(-id) - 1];
+      return (Stringer) getIndex(ER_CODE).get((-id) - 1);
     return (Stringer) getIndex(ER_CODE).getSingle(id);
   }
 
@@ -8583,7 +9146,7 @@ public class Wizard implements EPGDBPublic2
   {
     if (id == 0) return null;
     if (id < 0)
-      return (Stringer) getIndex(YEAR_CODE).data[(-id) - 1];
+      return (Stringer) getIndex(YEAR_CODE).get((-id) - 1);
     return (Stringer) getIndex(YEAR_CODE).getSingle(id);
   }
 
@@ -8591,7 +9154,7 @@ public class Wizard implements EPGDBPublic2
   {
     if (id == 0) return null;
     if (id < 0)
-      return (Stringer) getIndex(BONUS_CODE).data[(-id) - 1];
+      return (Stringer) getIndex(BONUS_CODE).get((-id) - 1);
     return (Stringer) getIndex(BONUS_CODE).getSingle(id);
   }
 
@@ -8786,6 +9349,7 @@ public class Wizard implements EPGDBPublic2
           dbout.writeInt(xctBuffer.size() + 4);
           byte[] xctData = xctBuffer.toByteArray();
           dbout.write(xctData);
+          xctLogged(nextXct.xctType, nextXct.objectType, nextXct.obj);
           if (!clientFailed)
           {
             try
@@ -8884,9 +9448,9 @@ public class Wizard implements EPGDBPublic2
       Table t = tables[i];
       if (t == null) continue;
       t.num = 0;
-      t.primary.data = new DBObject[0];
+      t.primary.allocate(0);
       for (int j = 0; j < t.others.length; j++)
-        t.others[j].data = new DBObject[0];
+        t.others[j].allocate(0);
     }
     if (Sage.DBG) System.out.println("Done freeing the database!");
   }
@@ -8978,6 +9542,18 @@ public class Wizard implements EPGDBPublic2
   private boolean flashOverflow;
   private boolean maintenanceNeeded;
   private int numUncompXcts;
+  private final boolean groupCommit;
+  private final long xctSyncInterval;
+  private final int xctSyncBatch;
+  private final Object xctSyncLock = new Object();
+  // Number of transactions written since the DB file was last synced, guarded by outLock
+  private int unsyncedXcts;
+  private volatile long numXctSyncs;
+  private final boolean backgroundCompaction;
+  private final Object compactXctLock = new Object();
+  // Transactions logged while the DB file is being compacted, null when it isn't
+  private volatile List<XctObject> compactXcts;
+  private volatile CompactionMetrics compactionMetrics;
 
   private SageTVConnection.MyDataOutput cachedDOS;
   private ByteArrayOutputStream cachedBAOS;
@@ -9041,12 +9617,12 @@ public class Wizard implements EPGDBPublic2
       idx.table.acquireReadLock();
       for (int i = 0; i < idx.table.num; i++)
       {
-        if ((idx.data[i].getMediaMask() & mediaMask) == 0)
+        if ((idx.get(i).getMediaMask() & mediaMask) == 0)
           continue;
         if (StringMatchUtils.wordMatchesNte(
-            ((Stringer) idx.data[i]).name,nteString))
+            ((Stringer) idx.get(i)).name,nteString))
         {
-          okTitles.add(((Stringer) idx.data[i]).name);
+          okTitles.add(((Stringer) idx.get(i)).name);
           if (okTitles.size() >= MAX_SEARCH_RESULTS)
             break;
         }
@@ -9461,7 +10037,7 @@ public class Wizard implements EPGDBPublic2
           resetIndex();
           Table table = Wizard.getInstance().getTable(this.type);
           Index showIndex = table.getIndex((byte) 0);
-          for(Object o : showIndex.data) {
+          for(Object o : showIndex.toArray()) {
             if(o != null) {
               work.add(o);
             }
@@ -38,6 +38,9 @@ public class Database {
       newSet[i++] = toker.nextToken() + " ";
     pronounsToTrim = newSet;
   }
+  // The methods SortLexical gets the text for directly instead of calling them through the API
+  private static final String[] LEXICAL_SORT_METHODS = { "GetMediaTitle", "GetShowTitle", "GetAiringTitle",
+    "GetAlbumArtist", "GetAlbumName", "GetChannelName", "GetShowEpisode" };
   private static String trimPronouns(String s)
   {
     if (TRIM_PRONOUNS_IN_SORTING)
@@ -369,6 +372,14 @@ public class Database {
         String filterMethName = getString(stack);
         Object dataObj = stack.pop();
         if (dataObj == null) return null;
+        // Removing elements one at a time from an array backed List is O(n) each, so those are filtered like an
+        // array and then the List is refilled with what passed.
+        java.util.List inPlaceList = null;
+        if (dataObj instanceof java.util.List && dataObj instanceof java.util.RandomAccess)
+        {
+          inPlaceList = (java.util.List) dataObj;
+          dataObj = inPlaceList.toArray();
+        }
         if ("UserCategories".equals(filterMethName))
         {
           if (matchValue == null)
@@ -376,7 +387,7 @@ public class Database {
             if (!invertRes)
               return null;
             else
-              return dataObj;
+              return (inPlaceList != null) ? inPlaceList : dataObj;
           }
           java.util.StringTokenizer toker = new java.util.StringTokenizer(matchValue.toString(), ",");
           String[] catMatches = new String[toker.countTokens()];
@@ -411,6 +422,8 @@ public class Database {
               if (invertRes != testResult)
                 passedData.add(currData[i]);
             }
+            if (inPlaceList != null)
+              return refill(inPlaceList, passedData);
             return passedData.toArray((Object[])java.lang.reflect.Array.newInstance(filterClass,
                 passedData.size()));
           }
@@ -615,6 +628,7 @@ public class Database {
           }
           else
           {
+            String matchStr = (matchValue == null) ? null : matchValue.toString();
             for (int i = 0; i < currData.length; i++)
             {
               boolean testResult = false;
@@ -628,8 +642,8 @@ public class Database {
                 filtMeth.run(stack);
                 Object testRes = stack.pop();
                 boolean didPass = (testRes == matchValue) || (testRes != null &&
-                    (testRes.equals(matchValue) || (matchValue != null &&
-                    testRes.toString().equals(matchValue.toString()))));
+                    (testRes.equals(matchValue) || (matchStr != null &&
+                    testRes.toString().equals(matchStr))));
                 if (didPass)
                 {
                   testResult = true;
@@ -640,10 +654,22 @@ public class Database {
                 passedData.add(currData[i]);
             }
           }
+          if (inPlaceList != null)
+            return refill(inPlaceList, passedData);
           return passedData.toArray((Object[])java.lang.reflect.Array.newInstance(filterClass,
               passedData.size()));
         }
       }
+      private java.util.List refill(java.util.List list, java.util.ArrayList passedData)
+      {
+        // Nothing was removed, don't touch it since it may not be modifiable
+        if (passedData.size() != list.size())
+        {
+          list.clear();
+          list.addAll(passedData);
+        }
+        return list;
+      }
       private boolean categoryTest(Object obj, String[] cats, Agent[] cachedFavs)
       {
         // Root this in the Airing object since everything else will link to that quickly
@@ -1407,6 +1433,8 @@ public class Database {
       public Object runSafely(Catbert.FastStack stack) throws Exception
       {
         java.util.Comparator sortie = null;
+        // When this is set sortie compares these instead of the data
+        Object[] sortKeys = null;
         boolean invertOrder;
         Object[] currData;
         int extraSortArgs = curNumberOfParameters - 3;
@@ -1459,27 +1487,42 @@ public class Database {
             final boolean specialChannelCompare = (filterMethName != null) && filterMethName.indexOf("ChannelNumber") != -1;
             if (filterMethName.equalsIgnoreCase("ChannelNumber"))
               filterMethName = extraArgs.remove(extraArgs.size() - 1).toString();
-            final sage.jep.function.PostfixMathCommandI sortMeth =
+            sage.jep.function.PostfixMathCommandI sortMeth =
                 (sage.jep.function.PostfixMathCommandI) Catbert.getAPI().get(filterMethName);
+            // Call the method once for each element and sort on what it returns, rather than calling it
+            // for both elements in every comparison. It's only called when there's something to compare, and
+            // failures are reported the same way they are from the comparison.
+            if (currData != null && currData.length > 1)
+            {
+              if (sortMeth == null)
+                throw new IllegalArgumentException("Return type for Sort method is not a Comparable: no method named " +
+                    filterMethName);
+              sortKeys = new Object[currData.length];
+              Catbert.FastStack s = new Catbert.FastStack();
+              try
+              {
+                for (int i = 0; i < currData.length; i++)
+                {
+                  s.push(currData[i]);
+                  for (int k = extraArgs.size() - 1; k >= 0; k--)
+                    s.push(extraArgs.get(k));
+                  sortMeth.setCurNumberOfParameters(1 + extraArgs.size());
+                  sortMeth.run(s);
+                  sortKeys[i] = s.pop();
+                }
+              }
+              catch (Exception e)
+              {
+                e.printStackTrace();
+                throw new IllegalArgumentException("Return type for Sort method is not a Comparable: " + e);
+              }
+            }
             sortie = new java.util.Comparator()
             {
-              public int compare(Object o1, Object o2)
+              public int compare(Object c1, Object c2)
               {
                 try
                 {
-                  Catbert.FastStack s = new Catbert.FastStack();
-                  s.push(o1);
-                  for (int i = extraArgs.size() - 1; i >= 0; i--)
-                    s.push(extraArgs.get(i));
-                  sortMeth.setCurNumberOfParameters(1 + extraArgs.size());
-                  sortMeth.run(s);
-                  Object c1 = s.pop();
-                  s.push(o2);
-                  for (int i = extraArgs.size() - 1; i >= 0; i--)
-                    s.push(extraArgs.get(i));
-                  sortMeth.setCurNumberOfParameters(1 + extraArgs.size());
-                  sortMeth.run(s);
-                  Object c2 = s.pop();
                   if (specialChannelCompare)
                   {
                     try
@@ -1571,7 +1614,9 @@ public class Database {
               };
             }
           }
-          if (sortie != null)
+          if (sortKeys != null)
+            KeySort.sort(currData, sortKeys, sortie);
+          else if (sortie != null)
             java.util.Arrays.sort(currData, sortie);
           else
             java.util.Arrays.sort(currData);
@@ -1788,244 +1833,76 @@ public class Database {
         else
           currData = (Object[]) fooData;
         updateTrimPronouns();
-        // Make some of these explicit to speed them up
-        if ("GetMediaTitle".equals(filterMethName))
-        {
-          sortie = new java.util.Comparator()
-          {
-            public int compare(Object o1, Object o2)
-            {
-              MediaFile c1 = getMediaFileObj(o1);
-              MediaFile c2 = getMediaFileObj(o2);
-              if (c1 == c2)
-                return 0;
-              if (c1 == null)
-                return invertOrder ? -1 : 1;
-              if (c2 == null)
-                return invertOrder ? 1 : -1;
-              return (invertOrder ? -1 : 1) *
-                  (USE_COLLATOR_SORTING ? collie.compare(trimPronouns(c1.getMediaTitle()), trimPronouns(c2.getMediaTitle())) :
-                    trimPronouns(c1.getMediaTitle()).compareToIgnoreCase(trimPronouns(c2.getMediaTitle())));
-            }
-            private java.text.Collator collie;
-            {
-              if (USE_COLLATOR_SORTING)
-              {
-                collie = java.text.Collator.getInstance(Sage.userLocale);
-                collie.setStrength(java.text.Collator.SECONDARY);
-              }
-            }
-          };
-        }
-        else if ("GetShowTitle".equals(filterMethName) || "GetAiringTitle".equals(filterMethName))
+        if (currData != null && currData.length > 1)
         {
-          sortie = new java.util.Comparator()
+          // Get the text for each element once, and when we're using a Collator make a CollationKey from it so the
+          // language specific work is also done once per element instead of in every comparison
+          java.text.Collator collie = null;
+          if (USE_COLLATOR_SORTING)
           {
-            public int compare(Object o1, Object o2)
-            {
-              Show c1 = getShowObj(o1);
-              Show c2 = getShowObj(o2);
-              if (c1 == c2)
-                return 0;
-              if (c1 == null)
-                return invertOrder ? -1 : 1;
-              if (c2 == null)
-                return invertOrder ? 1 : -1;
-              return (invertOrder ? -1 : 1) *
-                  (USE_COLLATOR_SORTING ? collie.compare(trimPronouns(c1.getTitle()), trimPronouns(c2.getTitle())) :
-                    trimPronouns(c1.getTitle()).compareToIgnoreCase(trimPronouns(c2.getTitle())));
-            }
-            private java.text.Collator collie;
-            {
-              if (USE_COLLATOR_SORTING)
-              {
-                collie = java.text.Collator.getInstance(Sage.userLocale);
-                collie.setStrength(java.text.Collator.SECONDARY);
-              }
-            }
-          };
-        }
-        else if ("GetAlbumArtist".equals(filterMethName))
-        {
-          sortie = new java.util.Comparator()
+            collie = java.text.Collator.getInstance(Sage.userLocale);
+            collie.setStrength(java.text.Collator.SECONDARY);
+          }
+          // Make some of these explicit to speed them up
+          int explicitTech = 0;
+          for (int i = 0; i < LEXICAL_SORT_METHODS.length; i++)
           {
-            public int compare(Object o1, Object o2)
+            if (LEXICAL_SORT_METHODS[i].equals(filterMethName))
             {
-              Album c1 = getAlbumObj(o1);
-              Album c2 = getAlbumObj(o2);
-              if (c1 == c2)
-                return 0;
-              if (c1 == null)
-                return invertOrder ? -1 : 1;
-              if (c2 == null)
-                return invertOrder ? 1 : -1;
-              return (invertOrder ? -1 : 1) *
-                  (USE_COLLATOR_SORTING ? collie.compare(trimPronouns(c1.getArtist()), trimPronouns(c2.getArtist())) :
-                    trimPronouns(c1.getArtist()).compareToIgnoreCase(trimPronouns(c2.getArtist())));
-            }
-            private java.text.Collator collie;
-            {
-              if (USE_COLLATOR_SORTING)
-              {
-                collie = java.text.Collator.getInstance(Sage.userLocale);
-                collie.setStrength(java.text.Collator.SECONDARY);
-              }
+              explicitTech = i + 1;
+              break;
             }
-          };
-        }
-        else if ("GetAlbumName".equals(filterMethName))
-        {
-          sortie = new java.util.Comparator()
+          }
+          sage.jep.function.PostfixMathCommandI sortMeth = (filterMethName == null || explicitTech != 0) ? null :
+            (sage.jep.function.PostfixMathCommandI) Catbert.getAPI().get(filterMethName);
+          Catbert.FastStack s = new Catbert.FastStack();
+          Object[] sortKeys = new Object[currData.length];
+          for (int i = 0; i < currData.length; i++)
           {
-            public int compare(Object o1, Object o2)
+            String text;
+            if (explicitTech != 0)
+              text = getLexicalSortText(currData[i], explicitTech);
+            else if (sortMeth != null)
             {
-              Album c1 = getAlbumObj(o1);
-              Album c2 = getAlbumObj(o2);
-              if (c1 == c2)
-                return 0;
-              if (c1 == null)
-                return invertOrder ? -1 : 1;
-              if (c2 == null)
-                return invertOrder ? 1 : -1;
-              return (invertOrder ? -1 : 1) *
-                  (USE_COLLATOR_SORTING ? collie.compare(trimPronouns(c1.getTitle()), trimPronouns(c2.getTitle())) :
-                    trimPronouns(c1.getTitle()).compareToIgnoreCase(trimPronouns(c2.getTitle())));
-            }
-            private java.text.Collator collie;
-            {
-              if (USE_COLLATOR_SORTING)
+              s.push(currData[i]);
+              for (int k = extraArgs.size() - 1; k >= 0; k--)
+                s.push(extraArgs.get(k));
+              sortMeth.setCurNumberOfParameters(1 + extraArgs.size());
+              try
               {
-                collie = java.text.Collator.getInstance(Sage.userLocale);
-                collie.setStrength(java.text.Collator.SECONDARY);
+                sortMeth.run(s);
               }
-            }
-          };
-        }
-        else if ("GetChannelName".equals(filterMethName))
-        {
-          sortie = new java.util.Comparator()
-          {
-            public int compare(Object o1, Object o2)
-            {
-              Channel c1 = getChannelObj(o1);
-              Channel c2 = getChannelObj(o2);
-              if (c1 == c2)
-                return 0;
-              if (c1 == null)
-                return invertOrder ? -1 : 1;
-              if (c2 == null)
-                return invertOrder ? 1 : -1;
-              return (invertOrder ? -1 : 1) *
-                  (USE_COLLATOR_SORTING ? collie.compare(trimPronouns(c1.getName()), trimPronouns(c2.getName())) :
-                    trimPronouns(c1.getName()).compareToIgnoreCase(trimPronouns(c2.getName())));
-            }
-            private java.text.Collator collie;
-            {
-              if (USE_COLLATOR_SORTING)
+              catch (Exception e)
               {
-                collie = java.text.Collator.getInstance(Sage.userLocale);
-                collie.setStrength(java.text.Collator.SECONDARY);
+                System.out.println("ERROR executing method in LexicalSort:" + e);
+                e.printStackTrace();
               }
+              Object res = s.pop();
+              text = (res == null) ? null : res.toString();
             }
-          };
-        }
-        else if ("GetShowEpisode".equals(filterMethName))
-        {
-          sortie = new java.util.Comparator()
-          {
-            public int compare(Object o1, Object o2)
-            {
-              Show c1 = getShowObj(o1);
-              Show c2 = getShowObj(o2);
-              if (c1 == c2)
-                return 0;
-              if (c1 == null)
-                return invertOrder ? -1 : 1;
-              if (c2 == null)
-                return invertOrder ? 1 : -1;
-              return (invertOrder ? -1 : 1) *
-                  (USE_COLLATOR_SORTING ? collie.compare(trimPronouns(c1.getEpisodeName()), trimPronouns(c2.getEpisodeName())) :
-                    trimPronouns(c1.getEpisodeName()).compareToIgnoreCase(trimPronouns(c2.getEpisodeName())));
-            }
-            private java.text.Collator collie;
+            else
+              text = (currData[i] == null) ? null : currData[i].toString();
+            if (text != null)
             {
-              if (USE_COLLATOR_SORTING)
-              {
-                collie = java.text.Collator.getInstance(Sage.userLocale);
-                collie.setStrength(java.text.Collator.SECONDARY);
-              }
+              text = trimPronouns(text);
+              sortKeys[i] = (collie != null) ? collie.getCollationKey(text) : text;
             }
-          };
-        }
-        else
-        {
-          final sage.jep.function.PostfixMathCommandI sortMeth = (filterMethName == null) ? null :
-            (sage.jep.function.PostfixMathCommandI) Catbert.getAPI().get(filterMethName);
+          }
           sortie = new java.util.Comparator()
           {
-            public int compare(Object o1, Object o2)
+            public int compare(Object k1, Object k2)
             {
-              Object c1=null, c2=null;
-              if (sortMeth != null)
-              {
-                Catbert.FastStack s = new Catbert.FastStack();
-                s.push(o1);
-                for (int i = extraArgs.size() - 1; i >= 0; i--)
-                  s.push(extraArgs.get(i));
-                sortMeth.setCurNumberOfParameters(1 + extraArgs.size());
-                try
-                {
-                  sortMeth.run(s);
-                }
-                catch (Exception e)
-                {
-                  System.out.println("ERROR executing method in LexicalSort:" + e);
-                  e.printStackTrace();
-                }
-                c1 = s.pop();
-                s.push(o2);
-                for (int i = extraArgs.size() - 1; i >= 0; i--)
-                  s.push(extraArgs.get(i));
-                sortMeth.setCurNumberOfParameters(1 + extraArgs.size());
-                try
-                {
-                  sortMeth.run(s);
-                }
-                catch (Exception e)
-                {
-                  System.out.println("ERROR executing method in LexicalSort:" + e);
-                  e.printStackTrace();
-                }
-                c2 = s.pop();
-              }
-              else
-              {
-                c1 = o1;
-                c2 = o2;
-              }
-              if (c1 == c2)
+              if (k1 == k2)
                 return 0;
-              if (c1 == null)
+              if (k1 == null)
                 return invertOrder ? -1 : 1;
-              if (c2 == null)
+              if (k2 == null)
                 return invertOrder ? 1 : -1;
-              return (invertOrder ? -1 : 1) *
-                  (USE_COLLATOR_SORTING ? collie.compare(trimPronouns(c1.toString()), trimPronouns(c2.toString())) :
-                    trimPronouns(c1.toString()).compareToIgnoreCase(trimPronouns(c2.toString())));
-            }
-            private java.text.Collator collie;
-            {
-              if (USE_COLLATOR_SORTING)
-              {
-                collie = java.text.Collator.getInstance(Sage.userLocale);
-                collie.setStrength(java.text.Collator.SECONDARY);
-              }
+              return (invertOrder ? -1 : 1) * ((k1 instanceof String) ? ((String) k1).compareToIgnoreCase((String) k2) :
+                ((java.text.CollationKey) k1).compareTo((java.text.CollationKey) k2));
             }
           };
-        }
-        if (currData != null)
-        {
-          java.util.Arrays.sort(currData, sortie);
+          KeySort.sort(currData, sortKeys, sortie);
           //if (Sage.DBG) System.out.println("Sort res=" + java.util.Arrays.asList(currData));
         }
         if (fooData instanceof java.util.Map)
@@ -2041,6 +1918,34 @@ public class Database {
         }
         return currData;
       }
+      // The text that's compared for the methods in LEXICAL_SORT_METHODS, tech is the position in there plus one
+      private String getLexicalSortText(Object o, int tech)
+      {
+        switch (tech)
+        {
+          case 1:
+            MediaFile mf = getMediaFileObj(o);
+            return (mf == null) ? null : mf.getMediaTitle();
+          case 2:
+          case 3:
+            Show s = getShowObj(o);
+            return (s == null) ? null : s.getTitle();
+          case 4:
+            Album al = getAlbumObj(o);
+            return (al == null) ? null : al.getArtist();
+          case 5:
+            al = getAlbumObj(o);
+            return (al == null) ? null : al.getTitle();
+          case 6:
+            Channel c = getChannelObj(o);
+            return (c == null) ? null : c.getName();
+          case 7:
+            s = getShowObj(o);
+            return (s == null) ? null : s.getEpisodeName();
+          default:
+            return null;
+        }
+      }
     });
     rft.put(new PredefinedJEPFunction("Database", "GetAiringsOnChannelAtTime", 4, new String[] {"Channel", "StartTime",
         "EndTime","MustStartDuringTime"})
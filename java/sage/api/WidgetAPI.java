@@ -72,6 +72,7 @@ public class WidgetAPI {
           // 601
           //Wizard.getInstance().importWidgetFile(stack.getUIMgr(), f);
 
+          stack.getUIMgr().makeWidgetsEditable();
           stack.getUIMgr().getModuleGroup().importXML(f, stack.getUIMgr());
 
           if (stack.getUIMgr().getBoolean("save_stv_after_import", true))
@@ -196,7 +197,9 @@ public class WidgetAPI {
        */
       public Object runSafely(Catbert.FastStack stack) throws Exception{
         String s = getString(stack);
-        return stack.getUIMgr() == null ? null : stack.getUIMgr().getModuleGroup().addWidget(WidgetMeta.getTypeForName(s));
+        if (stack.getUIMgr() == null) return null;
+        stack.getUIMgr().makeWidgetsEditable();
+        return stack.getUIMgr().getModuleGroup().addWidget(WidgetMeta.getTypeForName(s));
       }});
     rft.put(new PredefinedJEPFunction("Widget", "AddWidgetWithSymbol", new String[] { "WidgetType", "Symbol" })
     {
@@ -213,7 +216,9 @@ public class WidgetAPI {
       public Object runSafely(Catbert.FastStack stack) throws Exception{
         String symb = getString(stack);
         String s = getString(stack);
-        return stack.getUIMgr() == null ? null : stack.getUIMgr().getModuleGroup().addWidget(WidgetMeta.getTypeForName(s), symb);
+        if (stack.getUIMgr() == null) return null;
+        stack.getUIMgr().makeWidgetsEditable();
+        return stack.getUIMgr().getModuleGroup().addWidget(WidgetMeta.getTypeForName(s), symb);
       }});
     rft.put(new PredefinedJEPFunction("Widget", "RemoveWidget", new String[] { "Widget" })
     {
@@ -224,7 +229,7 @@ public class WidgetAPI {
        * @declaration public void RemoveWidget(Widget Widget);
        */
       public Object runSafely(Catbert.FastStack stack) throws Exception{
-        stack.getUIMgr().getModuleGroup().removeWidget(getWidget(stack)); return null;
+        stack.getUIMgr().getModuleGroup().removeWidget(getEditableWidget(stack)); return null;
       }});
     rft.put(new PredefinedJEPFunction("Widget", "AddWidgetChild", new String[] { "WidgetParent", "WidgetChild" })
     {
@@ -237,8 +242,8 @@ public class WidgetAPI {
        * @declaration public void AddWidgetChild(Widget WidgetParent, Widget WidgetChild);
        */
       public Object runSafely(Catbert.FastStack stack) throws Exception{
-        Widget cw = getWidget(stack);
-        Widget pw = getWidget(stack);
+        Widget cw = getEditableWidget(stack);
+        Widget pw = getEditableWidget(stack);
         if (cw != null && pw != null && pw.willContain(cw))
           WidgetFidget.contain(pw, cw);
         return null;
@@ -256,8 +261,8 @@ public class WidgetAPI {
        */
       public Object runSafely(Catbert.FastStack stack) throws Exception{
         int idx = getInt(stack);
-        Widget cw = getWidget(stack);
-        Widget pw = getWidget(stack);
+        Widget cw = getEditableWidget(stack);
+        Widget pw = getEditableWidget(stack);
         if (cw != null && pw != null && pw.willContain(cw))
           WidgetFidget.contain(pw, cw, idx);
         return null;
@@ -273,8 +278,8 @@ public class WidgetAPI {
        * @declaration public void RemoveWidgetChild(Widget WidgetParent, Widget WidgetChild);
        */
       public Object runSafely(Catbert.FastStack stack) throws Exception{
-        Widget cw = getWidget(stack);
-        Widget pw = getWidget(stack);
+        Widget cw = getEditableWidget(stack);
+        Widget pw = getEditableWidget(stack);
         if (cw != null && pw != null)
           WidgetFidget.discontent(pw, cw);
         return null;
@@ -337,7 +342,7 @@ public class WidgetAPI {
       public Object runSafely(Catbert.FastStack stack) throws Exception{
         String pv = getString(stack);
         String pn = getString(stack);
-        Widget w = getWidget(stack);
+        Widget w = getEditableWidget(stack);
         if (w != null)
           WidgetFidget.setProperty(w, WidgetMeta.getPropForName(pn), pv);
         return null;
@@ -383,7 +388,7 @@ public class WidgetAPI {
        */
       public Object runSafely(Catbert.FastStack stack) throws Exception{
         String s = getString(stack);
-        Widget w = getWidget(stack);
+        Widget w = getEditableWidget(stack);
         if (w != null)
           WidgetFidget.setName(w, s);
         return null;
@@ -84,8 +84,49 @@ public class ModuleGroup
     return defaultModule.lastModified();
   }
 
+  /**
+   * Gives this group its own copy of the Widgets if it's sharing them with other groups. This needs to be done before
+   * anything modifies them; the methods in here that add or remove Widgets do it themselves.
+   * @return true if the Widgets were copied, anything that was obtained from this group before then refers to the
+   * shared copy and should be looked up again with {@link #getEditableWidget}
+   */
+  public synchronized boolean makeEditable()
+  {
+    if (!shared)
+      return false;
+    if (sage.Sage.DBG) System.out.println("Modules: copying shared widgets so they can be modified " + defaultModule);
+    tv.sage.mod.Module mod = defaultModule.copy();
+    mod.setModuleGroup(this);
+    java.util.Map<String, Widget> newSymbolMap = new java.util.HashMap<String, Widget>(symbolMap.size() * 4 / 3 + 1);
+    for (java.util.Map.Entry<String, Widget> ent : symbolMap.entrySet())
+      newSymbolMap.put(ent.getKey(), mod.getWidgetForId(ent.getValue().id()));
+    sharedFrom = defaultModule;
+    moduleMap.put(mod.name(), mod);
+    defaultModule = mod;
+    symbolMap = newSymbolMap;
+    shared = false;
+    return true;
+  }
+
+  /**
+   * Returns this group's own copy of a Widget so it can be modified, copying the Widgets first if they're shared.
+   */
+  public sage.Widget getEditableWidget(sage.Widget w)
+  {
+    makeEditable();
+    if (w != null && sharedFrom != null && w.getModule() == sharedFrom)
+      return defaultModule.getWidgetForId(w.id());
+    return w;
+  }
+
+  public boolean isShared()
+  {
+    return shared;
+  }
+
   public sage.Widget addWidget(byte type)
   {
+    makeEditable();
     sage.Widget rv = (defaultModule.addWidget(type, null));
     if (rv.symbol() != null)
       symbolMap.put(rv.symbol(), rv);
@@ -94,6 +135,7 @@ public class ModuleGroup
 
   public sage.Widget addWidget(byte type, String symbol)
   {
+    makeEditable();
     sage.Widget rv = (defaultModule.addWidget(type, symbol));
     if (rv.symbol() != null)
       symbolMap.put(rv.symbol(), rv);
@@ -102,6 +144,7 @@ public class ModuleGroup
 
   public sage.Widget klone(sage.Widget w)
   {
+    w = getEditableWidget(w);
     sage.Widget rv = defaultModule.kloneWidget(w);
     if (rv.symbol() != null)
       symbolMap.put(rv.symbol(), rv);
@@ -110,12 +153,14 @@ public class ModuleGroup
 
   public void removeWidget(sage.Widget w)
   {
+    w = getEditableWidget(w);
     symbolMap.remove(w.symbol());
     defaultModule.removeWidget(w);
   }
 
   public void resurrectWidget(sage.Widget w)
   {
+    makeEditable();
     defaultModule.resurrectWidget(w);
     if (w.symbol() != null)
       symbolMap.put(w.symbol(), w);
@@ -126,12 +171,53 @@ public class ModuleGroup
     defaultModule.retranslate();
   }
 
-  // Cache the last one loaded in case we reload it again so it'll be quick!
-  private static String cachedModuleName;
-  private static tv.sage.mod.Module cachedModule;
-  private static java.util.Map<String, Widget> cachedSymbolMap = new java.util.HashMap<String, Widget>();
-  private static long timestampCachedModule;
-  private static long timestampCachedModuleFile;
+  // The Widgets loaded from each XML STV file are shared by all of the groups that load that same file, until one of
+  // them needs to modify them. That way each UI that connects doesn't have to parse it again or keep its own copy.
+  // (canonical path-String, SharedModule)
+  private static final java.util.Map<String, SharedModule> sharedModules = new java.util.HashMap<String, SharedModule>();
+
+  private static class SharedModule
+  {
+    long lastModified;
+    long length;
+    tv.sage.mod.Module module;
+    java.util.Map<String, Widget> symbolMap;
+  }
+
+  // true if defaultModule and symbolMap are shared with other groups and can't be modified
+  private boolean shared;
+  // What we were sharing before we made our own copy
+  private tv.sage.mod.Module sharedFrom;
+
+  private tv.sage.mod.Module loadSharedXML(java.io.File file) throws tv.sage.SageException
+  {
+    String key;
+    try
+    {
+      key = file.getCanonicalPath();
+    }
+    catch (java.io.IOException e)
+    {
+      key = file.getAbsolutePath();
+    }
+    synchronized (sharedModules)
+    {
+      SharedModule sm = sharedModules.get(key);
+      if (sm == null || sm.lastModified != file.lastModified() || sm.length != file.length())
+      {
+        sm = new SharedModule();
+        sm.lastModified = file.lastModified();
+        sm.length = file.length();
+        sm.symbolMap = new java.util.HashMap<String, Widget>();
+        sm.module = tv.sage.mod.Module.loadXML(null, sm.symbolMap, file);
+        sharedModules.put(key, sm);
+      }
+      else if (sage.Sage.DBG) System.out.println("Modules: using the already loaded widgets for " + file);
+      symbolMap = sm.symbolMap;
+      shared = true;
+      return sm.module;
+    }
+  }
 
   public void load(java.util.Properties moduleProperties) throws tv.sage.SageException
   {
@@ -198,6 +284,10 @@ public class ModuleGroup
 			{
 				mod = tv.sage.mod.Module.loadXBMC(file);
 			}
+      else if (sage.Sage.getBoolean("share_stv_widgets", true))
+      {
+        mod = loadSharedXML(file);
+      }
       else
       {
         mod = tv.sage.mod.Module.loadXML(this, symbolMap, file);
@@ -232,6 +322,7 @@ public class ModuleGroup
 
   public void importXML(java.io.File file, sage.UIManager uiMan) throws tv.sage.SageException
   {
+    makeEditable();
     if (defaultModule != null)
     {
       defaultModule.importXML(symbolMap, file, uiMan);
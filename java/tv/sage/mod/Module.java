@@ -319,6 +319,83 @@ public class Module implements tv.sage.Modular
     }
   }
 
+  /**
+   * Makes a copy of this Module with its own copies of all the Widgets. They're at the same indexes as the originals so
+   * they have the same ids.
+   */
+  public synchronized Module copy()
+  {
+    Module rv = new Module(name);
+    rv.description = description;
+    rv.hot = hot;
+    rv.lastModified = lastModified;
+    rv.wimpz = new AbstractWidget[wimpz.length];
+    rv.wimpzLength = wimpzLength;
+    RawWidget[] rwz = new RawWidget[wimpzLength];
+    for (int i = 0; i < wimpzLength; i++)
+    {
+      if (wimpz[i] != null)
+      {
+        rwz[i] = new CopiedWidget(wimpz[i]);
+        rv.wimpz[i] = (wimpz[i] instanceof Proxy) ? new Proxy(rwz[i]) : AbstractWidget.create(rwz[i]);
+      }
+    }
+    for (int i = 0; i < wimpzLength; i++)
+    {
+      if (rv.wimpz[i] != null)
+        rv.wimpz[i].setCC(rwz[i], rv, rv.wimpz);
+    }
+    return (rv);
+  }
+
+  // An existing Widget as raw data so it can be copied the same way they get loaded
+  private static class CopiedWidget implements RawWidget
+  {
+    private final AbstractWidget widget;
+
+    CopiedWidget(AbstractWidget widget)
+    {
+      this.widget = widget;
+    }
+
+    public byte type()
+    { return (widget.type()); }
+    public String name()
+    { return (widget.name()); }
+
+    public java.util.Properties properties()
+    {
+      java.util.Properties rv = new java.util.Properties();
+      String[] valuez = widget.getPropertyValues();
+      if (valuez != null)
+      {
+        for (int i = 0; i < valuez.length; i++)
+        {
+          if (valuez[i] != null)
+            rv.setProperty(sage.Widget.PROPS[i], valuez[i]);
+        }
+      }
+      return (rv);
+    }
+
+    public int index()
+    { return (widget.index()); }
+    public int[] contentz()
+    { return (indexes(widget.contentz())); }
+    public int[] containerz()
+    { return (indexes(widget.containerz())); }
+    public String symbol()
+    { return (widget.symbol()); }
+
+    private static int[] indexes(AbstractWidget[] awz)
+    {
+      int[] rv = new int[awz.length];
+      for (int i = 0; i < awz.length; i++)
+        rv[i] = awz[i].index();
+      return (rv);
+    }
+  }
+
   public void retranslate()
   {
     tv.sage.mod.Translator.reset();
@@ -724,23 +801,49 @@ public class Module implements tv.sage.Modular
 
     try
     {
-      tv.sage.xml.ModuleXMLParser mxp =  new tv.sage.xml.ModuleXMLParser(xmlFile);
-
-      mxp.parse();
+      String moduleName;
+      RawWidget[] mxwz;
+      RawWidget[] mxsz;
+
+      // Use the compiled copy of the XML if we've got one that matches it
+      boolean useCache = sage.Sage.getBoolean("stv_binary_cache", true);
+      byte[] xmlHash = useCache ? STVCache.hash(xmlFile) : null;
+      STVCache cache = useCache ? STVCache.load(xmlFile, xmlHash) : null;
+      if (cache != null)
+      {
+        if (sage.Sage.DBG) System.out.println("Modules: loadXML using cache count = " + cache.widgetz.length);
 
-      if (sage.Sage.DBG) {
-        System.out.println("Modules: loadXML count = " + mxp.widgetv.size());
-        System.out.println("Modules: loadXML depth = " + mxp.maxDepth);
-        System.out.println("Modules: loadXML anon  = " + mxp.anonCount);
-        System.out.println("Modules: loadXML sym   = " + mxp.symbolv.size());
+        moduleName = cache.moduleName;
+        mxwz = cache.widgetz;
+        mxsz = cache.symbolz;
       }
+      else
+      {
+        tv.sage.xml.ModuleXMLParser mxp =  new tv.sage.xml.ModuleXMLParser(xmlFile);
+
+        mxp.parse();
 
-      tv.sage.xml.ModuleXMLWidget[] mxwz =
-          (tv.sage.xml.ModuleXMLWidget[])mxp.widgetv.toArray(new tv.sage.xml.ModuleXMLWidget[mxp.widgetv.size()]);
+        if (sage.Sage.DBG) {
+          System.out.println("Modules: loadXML count = " + mxp.widgetv.size());
+          System.out.println("Modules: loadXML depth = " + mxp.maxDepth);
+          System.out.println("Modules: loadXML anon  = " + mxp.anonCount);
+          System.out.println("Modules: loadXML sym   = " + mxp.symbolv.size());
+        }
 
-      tv.sage.xml.ModuleXMLWidget.fixCC(mxwz);
+        tv.sage.xml.ModuleXMLWidget[] xmlwz =
+            (tv.sage.xml.ModuleXMLWidget[])mxp.widgetv.toArray(new tv.sage.xml.ModuleXMLWidget[mxp.widgetv.size()]);
+
+        tv.sage.xml.ModuleXMLWidget.fixCC(xmlwz);
+
+        moduleName = mxp.ModuleName;
+        mxwz = xmlwz;
+        mxsz = (tv.sage.xml.ModuleXMLWidget[])mxp.symbolv.toArray(new tv.sage.xml.ModuleXMLWidget[mxp.symbolv.size()]);
+
+        if (useCache)
+          STVCache.save(xmlFile, xmlHash, moduleName, mxwz, mxsz);
+      }
 
-      Module mod = new Module(mxp.ModuleName);
+      Module mod = new Module(moduleName);
       // We need to set this now so symbol validation works properly
       mod.setModuleGroup(group);
 
@@ -749,8 +852,6 @@ public class Module implements tv.sage.Modular
       mod.load(mxwz);
 
       // publish symbols
-      tv.sage.xml.ModuleXMLWidget[] mxsz =
-          (tv.sage.xml.ModuleXMLWidget[])mxp.symbolv.toArray(new tv.sage.xml.ModuleXMLWidget[mxp.symbolv.size()]);
 
       // Fix UID counting issues by analyzing the symbol map. This is for a mistake Jeff made where we reset the UID counter
       // on Andy & his machine.
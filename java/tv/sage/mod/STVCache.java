@@ -0,0 +1,302 @@
+/*
+ * Copyright 2015 The SageTV Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tv.sage.mod;
+
+/**
+ * A compiled copy of an STV XML file that's kept next to it, so the widgets can be loaded without
+ * parsing the XML again. It has the RawWidgets the way they are after the parser is done with them;
+ * with their contents and containers already resolved to indexes, and the symbols the parser found
+ * in the same order. All of the strings are in one table so the ones that repeat are only stored
+ * and created once.
+ * <p>
+ * The cache has the MD5 of the XML in it and is only used when that still matches, the whole file is
+ * read in at once and then decoded from memory.
+ */
+final class STVCache
+{
+  private static final int MAGIC = ('S' << 24) | ('T' << 16) | ('V' << 8) | 'C';
+  private static final int VERSION = 1;
+  private static final String SUFFIX = ".cache";
+
+  final String moduleName;
+  // Indexed by their index()
+  final RawWidget[] widgetz;
+  // The symbols as the parser found them, these can repeat
+  final RawWidget[] symbolz;
+
+  private STVCache(String moduleName, RawWidget[] widgetz, RawWidget[] symbolz)
+  {
+    this.moduleName = moduleName;
+    this.widgetz = widgetz;
+    this.symbolz = symbolz;
+  }
+
+  static java.io.File getCacheFile(java.io.File xmlFile)
+  {
+    return (new java.io.File(xmlFile.getPath() + SUFFIX));
+  }
+
+  static byte[] hash(java.io.File file) throws java.io.IOException
+  {
+    java.security.MessageDigest md;
+    try
+    {
+      md = java.security.MessageDigest.getInstance("MD5");
+    }
+    catch (java.security.NoSuchAlgorithmException e)
+    {
+      throw (new java.io.IOException(e.toString()));
+    }
+    java.io.InputStream is = new java.io.FileInputStream(file);
+    try
+    {
+      byte[] buf = new byte[65536];
+      int num;
+      while ((num = is.read(buf)) != -1)
+        md.update(buf, 0, num);
+    }
+    finally
+    {
+      is.close();
+    }
+    return (md.digest());
+  }
+
+  /**
+   * Returns the cache for this XML file, or null if there isn't one, it's for a different version of
+   * the XML or it can't be read.
+   */
+  static STVCache load(java.io.File xmlFile, byte[] xmlHash)
+  {
+    java.io.File cacheFile = getCacheFile(xmlFile);
+    if (!cacheFile.isFile())
+      return (null);
+    try
+    {
+      byte[] data = new byte[(int) cacheFile.length()];
+      java.io.DataInputStream in = new java.io.DataInputStream(new java.io.FileInputStream(cacheFile));
+      try
+      {
+        in.readFully(data);
+      }
+      finally
+      {
+        in.close();
+      }
+      in = new java.io.DataInputStream(new java.io.ByteArrayInputStream(data));
+      if (in.readInt() != MAGIC || in.readInt() != VERSION)
+      {
+        if (sage.Sage.DBG) System.out.println("Modules: ignoring STV cache with an unknown format " + cacheFile);
+        return (null);
+      }
+      byte[] cacheHash = new byte[in.readUnsignedByte()];
+      in.readFully(cacheHash);
+      if (!java.util.Arrays.equals(cacheHash, xmlHash))
+      {
+        if (sage.Sage.DBG) System.out.println("Modules: STV cache is out of date " + cacheFile);
+        return (null);
+      }
+
+      String[] strings = new String[in.readInt()];
+      byte[] buf = new byte[256];
+      for (int i = 0; i < strings.length; i++)
+      {
+        int len = in.readInt();
+        if (len > buf.length)
+          buf = new byte[len];
+        in.readFully(buf, 0, len);
+        strings[i] = new String(buf, 0, len, sage.Sage.I18N_CHARSET);
+      }
+
+      String moduleName = readString(in, strings);
+      CachedWidget[] widgetz = new CachedWidget[in.readInt()];
+      for (int i = 0; i < widgetz.length; i++)
+      {
+        CachedWidget cw = new CachedWidget();
+        cw.index = i;
+        cw.type = in.readByte();
+        cw.name = readString(in, strings);
+        cw.symbol = readString(in, strings);
+        int numProps = in.readInt();
+        for (int j = 0; j < numProps; j++)
+        {
+          String propName = readString(in, strings);
+          cw.properties.setProperty(propName, readString(in, strings));
+        }
+        cw.contentz = readIndexes(in, widgetz.length);
+        cw.containerz = readIndexes(in, widgetz.length);
+        widgetz[i] = cw;
+      }
+      int[] symbolIndexes = readIndexes(in, widgetz.length);
+      RawWidget[] symbolz = new RawWidget[symbolIndexes.length];
+      for (int i = 0; i < symbolz.length; i++)
+        symbolz[i] = widgetz[symbolIndexes[i]];
+      return (new STVCache(moduleName, widgetz, symbolz));
+    }
+    catch (Exception e)
+    {
+      if (sage.Sage.DBG) System.out.println("Modules: unable to load STV cache " + cacheFile + " of:" + e);
+      return (null);
+    }
+  }
+
+  /**
+   * Writes the cache for the RawWidgets that were just parsed from this XML file. The indexes of the
+   * widgets must already be set. Failures are only logged since the XML can always be parsed again.
+   */
+  static void save(java.io.File xmlFile, byte[] xmlHash, String moduleName, RawWidget[] widgetz, RawWidget[] symbolz)
+  {
+    java.io.File cacheFile = getCacheFile(xmlFile);
+    java.io.File tempFile = new java.io.File(cacheFile.getPath() + ".tmp");
+    try
+    {
+      // The strings are written first so they can all be decoded before the widgets that use them
+      java.util.Map<String, Integer> stringMap = new java.util.HashMap<String, Integer>();
+      java.util.List<String> stringList = new java.util.ArrayList<String>();
+      java.io.ByteArrayOutputStream widgetBytes = new java.io.ByteArrayOutputStream(widgetz.length * 64);
+      java.io.DataOutputStream out = new java.io.DataOutputStream(widgetBytes);
+      writeString(out, moduleName, stringMap, stringList);
+      out.writeInt(widgetz.length);
+      for (int i = 0; i < widgetz.length; i++)
+      {
+        RawWidget rw = widgetz[i];
+        if (rw.index() != i)
+          throw (new java.io.IOException("Widget index mismatch " + rw.index() + " at " + i));
+        out.writeByte(rw.type());
+        writeString(out, rw.name(), stringMap, stringList);
+        writeString(out, rw.symbol(), stringMap, stringList);
+        java.util.Properties props = rw.properties();
+        out.writeInt(props.size());
+        java.util.Iterator<java.util.Map.Entry<Object, Object>> walker = props.entrySet().iterator();
+        while (walker.hasNext())
+        {
+          java.util.Map.Entry<Object, Object> ent = walker.next();
+          writeString(out, (String) ent.getKey(), stringMap, stringList);
+          writeString(out, (String) ent.getValue(), stringMap, stringList);
+        }
+        writeIndexes(out, rw.contentz());
+        writeIndexes(out, rw.containerz());
+      }
+      int[] symbolIndexes = new int[symbolz.length];
+      for (int i = 0; i < symbolz.length; i++)
+        symbolIndexes[i] = symbolz[i].index();
+      writeIndexes(out, symbolIndexes);
+      out.flush();
+
+      out = new java.io.DataOutputStream(new java.io.BufferedOutputStream(new java.io.FileOutputStream(tempFile), 65536));
+      try
+      {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeByte(xmlHash.length);
+        out.write(xmlHash);
+        out.writeInt(stringList.size());
+        for (int i = 0; i < stringList.size(); i++)
+        {
+          byte[] b = stringList.get(i).getBytes(sage.Sage.I18N_CHARSET);
+          out.writeInt(b.length);
+          out.write(b);
+        }
+        widgetBytes.writeTo(out);
+      }
+      finally
+      {
+        out.close();
+      }
+      cacheFile.delete();
+      if (!tempFile.renameTo(cacheFile))
+        throw (new java.io.IOException("Unable to rename " + tempFile + " to " + cacheFile));
+      if (sage.Sage.DBG) System.out.println("Modules: wrote STV cache " + cacheFile + " size=" + cacheFile.length());
+    }
+    catch (Exception e)
+    {
+      if (sage.Sage.DBG) System.out.println("Modules: unable to write STV cache " + cacheFile + " of:" + e);
+      tempFile.delete();
+    }
+  }
+
+  private static void writeString(java.io.DataOutputStream out, String s, java.util.Map<String, Integer> stringMap,
+      java.util.List<String> stringList) throws java.io.IOException
+  {
+    if (s == null)
+    {
+      out.writeInt(-1);
+      return;
+    }
+    Integer idx = stringMap.get(s);
+    if (idx == null)
+    {
+      idx = stringList.size();
+      stringList.add(s);
+      stringMap.put(s, idx);
+    }
+    out.writeInt(idx);
+  }
+
+  private static String readString(java.io.DataInputStream in, String[] strings) throws java.io.IOException
+  {
+    int idx = in.readInt();
+    return ((idx == -1) ? null : strings[idx]);
+  }
+
+  private static void writeIndexes(java.io.DataOutputStream out, int[] indexes) throws java.io.IOException
+  {
+    out.writeInt(indexes.length);
+    for (int i = 0; i < indexes.length; i++)
+      out.writeInt(indexes[i]);
+  }
+
+  private static int[] readIndexes(java.io.DataInputStream in, int numWidgets) throws java.io.IOException
+  {
+    int n = in.readInt();
+    if (n == 0)
+      return (sage.Pooler.EMPTY_INT_ARRAY);
+    int[] rv = new int[n];
+    for (int i = 0; i < n; i++)
+    {
+      rv[i] = in.readInt();
+      if (rv[i] < 0 || rv[i] >= numWidgets)
+        throw (new java.io.IOException("Bad widget index " + rv[i]));
+    }
+    return (rv);
+  }
+
+  private static class CachedWidget implements RawWidget
+  {
+    byte type;
+    String name;
+    String symbol;
+    final java.util.Properties properties = new java.util.Properties();
+    int index;
+    int[] contentz;
+    int[] containerz;
+
+    public byte type()
+    { return (type); }
+    public String name()
+    { return (name); }
+    public java.util.Properties properties()
+    { return (properties); }
+    public int index()
+    { return (index); }
+    public int[] contentz()
+    { return (contentz); }
+    public int[] containerz()
+    { return (containerz); }
+    public String symbol()
+    { return (symbol); }
+  }
+}
@@ -0,0 +1,85 @@
+package sage;
+
+import org.testng.annotations.Test;
+import sage.jep.JEP;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.testng.Assert.*;
+
+public class ExpressionCacheTest
+{
+  @Test
+  public void testGetPut()
+  {
+    ExpressionCache cache = new ExpressionCache(100);
+    assertNull(cache.get("1 + 1"));
+    JEP parser = new JEP();
+    cache.put("1 + 1", parser);
+    assertSame(cache.get("1 + 1"), parser);
+    assertEquals(cache.size(), 1);
+    cache.clear();
+    assertNull(cache.get("1 + 1"));
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsed()
+  {
+    ExpressionCache cache = new ExpressionCache(1000);
+    JEP keep = new JEP();
+    cache.put("keep", keep);
+    for (int i = 0; i < 10000; i++)
+    {
+      cache.put("expr" + i, new JEP());
+      // Keep using this one so it never gets old enough to be removed
+      assertSame(cache.get("keep"), keep);
+      assertTrue(cache.size() <= 1000, "Cache grew past its limit to " + cache.size());
+    }
+    // The newest entries should all still be there
+    for (int i = 9900; i < 10000; i++)
+      assertNotNull(cache.get("expr" + i));
+    assertNull(cache.get("expr0"));
+  }
+
+  @Test
+  public void testConcurrentAccess() throws Throwable
+  {
+    final ExpressionCache cache = new ExpressionCache(500);
+    final int numThreads = 8;
+    final CountDownLatch done = new CountDownLatch(numThreads);
+    final Throwable[] failure = new Throwable[1];
+    for (int t = 0; t < numThreads; t++)
+    {
+      final int threadNum = t;
+      new Thread()
+      {
+        public void run()
+        {
+          try
+          {
+            for (int i = 0; i < 20000; i++)
+            {
+              String expr = "expr" + ((i * 31 + threadNum) % 2000);
+              JEP parser = cache.get(expr);
+              if (parser == null)
+                cache.put(expr, new JEP());
+            }
+          }
+          catch (Throwable e)
+          {
+            failure[0] = e;
+          }
+          finally
+          {
+            done.countDown();
+          }
+        }
+      }.start();
+    }
+    done.await();
+    if (failure[0] != null)
+      throw failure[0];
+    // Trimming is done by one thread at a time so it can go a little over while that's happening
+    assertTrue(cache.size() <= 500 + numThreads, "Cache grew past its limit to " + cache.size());
+  }
+}
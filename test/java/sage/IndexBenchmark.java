@@ -0,0 +1,142 @@
+package sage;
+
+import java.io.File;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Replays the airings from a real Wiz.bin file into the secondary indices the Airing table uses and times
+ * it against the old flat sorted array implementation.
+ * <p>
+ * Usage: IndexBenchmark &lt;path to Wiz.bin&gt;
+ * <p>
+ * The database file is copied to a temporary location before it's loaded so the original is never touched.
+ */
+public class IndexBenchmark
+{
+  public static void main(String[] args) throws Throwable
+  {
+    if (args.length < 1)
+    {
+      System.out.println("Usage: IndexBenchmark <path to Wiz.bin>");
+      return;
+    }
+
+    TestUtils.initializeSageTVForTesting();
+    File dbCopy = File.createTempFile("IndexBenchmark", ".bin");
+    File dbBackup = File.createTempFile("IndexBenchmark", ".bak");
+    dbCopy.deleteOnExit();
+    dbBackup.deleteOnExit();
+    IOUtils.copyFile(new File(args[0]), dbCopy);
+    Wizard wiz = Wizard.prime(dbCopy.getAbsolutePath(), dbBackup.getAbsolutePath());
+
+    // The primary index is sorted by ID which is the order the airings were originally added in
+    DBObject[] airings = wiz.getRawAccess(Wizard.AIRING_CODE, (byte) 0).clone();
+    System.out.println("Loaded " + airings.length + " airings from " + args[0]);
+
+    Comparator[] comps = new Comparator[] { DBObject.ID_COMPARATOR, Airing.SHOW_ID_COMPARATOR,
+        Airing.CHANNEL_TIME_COMPARATOR };
+    // Shuffle with a fixed seed for the removes so all the runs do the same work
+    DBObject[] removeOrder = airings.clone();
+    Random random = new Random(airings.length);
+    for (int i = removeOrder.length - 1; i > 0; i--)
+    {
+      int j = random.nextInt(i + 1);
+      DBObject swap = removeOrder[i];
+      removeOrder[i] = removeOrder[j];
+      removeOrder[j] = swap;
+    }
+
+    // The first pass warms up the JIT
+    for (int pass = 0; pass < 3; pass++)
+    {
+      long pagedAdd = 0, pagedRemove = 0, flatAdd = 0, flatRemove = 0;
+      for (int c = 0; c < comps.length; c++)
+      {
+        Index paged = new Index(comps[c]);
+        long start = System.nanoTime();
+        for (int i = 0; i < airings.length; i++)
+          paged.add(airings[i]);
+        pagedAdd += System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < removeOrder.length; i++)
+          paged.remove(removeOrder[i]);
+        pagedRemove += System.nanoTime() - start;
+
+        FlatIndex flat = new FlatIndex(comps[c]);
+        start = System.nanoTime();
+        for (int i = 0; i < airings.length; i++)
+          flat.add(airings[i]);
+        flatAdd += System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < removeOrder.length; i++)
+          flat.remove(removeOrder[i]);
+        flatRemove += System.nanoTime() - start;
+      }
+      System.out.println("Pass " + pass + " paged add=" + (pagedAdd / 1000000) + " msec remove=" +
+          (pagedRemove / 1000000) + " msec flat add=" + (flatAdd / 1000000) + " msec remove=" +
+          (flatRemove / 1000000) + " msec");
+    }
+    System.exit(0);
+  }
+
+  // This is how Index stored its data before it used pages, kept here for comparison
+  private static class FlatIndex
+  {
+    FlatIndex(Comparator comp)
+    {
+      this.comp = comp;
+    }
+
+    void add(DBObject addMe)
+    {
+      int index = binarySearch(addMe);
+      if (index < 0) index = -(index + 1);
+      DBObject[] newData = data;
+      if (data.length == num)
+      {
+        newData = new DBObject[num + Wizard.INC_SIZE];
+        if (index > 0) System.arraycopy(data, 0, newData, 0, index);
+      }
+      if (index < num) System.arraycopy(data, index, newData, index + 1, num - index);
+      newData[index] = addMe;
+      data = newData;
+      num++;
+    }
+
+    void remove(DBObject removeMe)
+    {
+      int index = binarySearch(removeMe);
+      if (index < 0) return;
+      // Find the exact object, there may be more than one that are equal by the comparator
+      int i = index;
+      while (i > 0 && comp.compare(data[i - 1], removeMe) == 0) i--;
+      while (i < num && data[i] != removeMe && comp.compare(data[i], removeMe) == 0) i++;
+      if (i == num || data[i] != removeMe) return;
+      System.arraycopy(data, i + 1, data, i, num - i - 1);
+      data[--num] = null;
+    }
+
+    int binarySearch(Object key)
+    {
+      int low = 0;
+      int high = num - 1;
+      while (low <= high)
+      {
+        int mid = (low + high) >> 1;
+        int cmp = comp.compare(data[mid], key);
+        if (cmp < 0)
+          low = mid + 1;
+        else if (cmp > 0)
+          high = mid - 1;
+        else
+          return mid;
+      }
+      return -(low + 1);
+    }
+
+    private Comparator comp;
+    private DBObject[] data = new DBObject[Wizard.INC_SIZE];
+    private int num;
+  }
+}
@@ -0,0 +1,291 @@
+package sage;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import static org.testng.Assert.*;
+
+public class IndexTest
+{
+  @BeforeClass
+  public void setUp() throws Throwable
+  {
+    TestUtils.initializeSageTVForTesting();
+  }
+
+  private static Airing newAiring(int id, int stationID, long time)
+  {
+    Airing air = new Airing(id);
+    air.stationID = stationID;
+    air.time = time;
+    return air;
+  }
+
+  private static void verifyIndex(Index index, List<Airing> expected)
+  {
+    DBObject[] data = index.toArray();
+    assertEquals(data.length, expected.size());
+    assertEquals(index.size(), expected.size());
+    for (int i = 0; i < data.length - 1; i++)
+      assertTrue(index.comp.compare(data[i], data[i + 1]) <= 0, "Index out of order at " + i);
+    for (int i = 0; i < data.length; i++)
+      assertSame(index.get(i), data[i]);
+    assertEquals(new HashSet<DBObject>(java.util.Arrays.asList(data)), new HashSet<DBObject>(expected));
+  }
+
+  @Test
+  public void testAddRemoveUpdate()
+  {
+    Random random = new Random('S' + 'A' + 'G' + 'E');
+    Index index = new Index(Wizard.AIRINGS_BY_CT_CODE, Airing.CHANNEL_TIME_COMPARATOR);
+    List<Airing> expected = new ArrayList<Airing>();
+    int nextID = 1;
+    // Enough operations to split and merge a lot of pages
+    for (int i = 0; i < 50000; i++)
+    {
+      int op = random.nextInt(10);
+      if (op < 5 || expected.isEmpty())
+      {
+        Airing air = newAiring(nextID++, random.nextInt(50), random.nextInt(500));
+        index.add(air);
+        expected.add(air);
+      }
+      else if (op < 8)
+      {
+        Airing air = expected.remove(random.nextInt(expected.size()));
+        assertTrue(index.remove(air));
+      }
+      else
+      {
+        Airing air = expected.get(random.nextInt(expected.size()));
+        Airing newAir = newAiring(air.id, random.nextInt(50), random.nextInt(500));
+        assertTrue(index.update(air, newAir));
+        air.stationID = newAir.stationID;
+        air.time = newAir.time;
+      }
+      if (i % 5000 == 0)
+        verifyIndex(index, expected);
+    }
+    verifyIndex(index, expected);
+  }
+
+  @Test
+  public void testBinarySearch()
+  {
+    Index index = new Index(Wizard.AIRINGS_BY_CT_CODE, Airing.CHANNEL_TIME_COMPARATOR);
+    // Add them in reverse so every insert goes at the front of the index
+    for (int i = 9999; i >= 0; i--)
+      index.add(newAiring(i + 1, 1, i * 2));
+    assertEquals(index.size(), 10000);
+
+    for (int i = 0; i < 10000; i++)
+    {
+      assertEquals(index.binarySearch(newAiring(0, 1, i * 2)), i);
+      // Odd times are between the entries, this gives us the insertion point
+      assertEquals(index.binarySearch(newAiring(0, 1, i * 2 + 1)), -(i + 2));
+    }
+    assertEquals(index.binarySearch(newAiring(0, 0, 0)), -1);
+    assertEquals(index.binarySearch(newAiring(0, 2, 0)), -10001);
+
+    Airing[] range = new Airing[1000];
+    index.copyInto(4000, range, 0, range.length);
+    for (int i = 0; i < range.length; i++)
+      assertEquals(range[i].time, (4000 + i) * 2);
+  }
+
+  @Test
+  public void testBinarySearchByID()
+  {
+    Index index = new Index(DBObject.ID_COMPARATOR);
+    for (int i = 0; i < 5000; i++)
+      index.add(newAiring(i * 3 + 1, 0, 0));
+    for (int i = 0; i < 5000; i++)
+    {
+      assertEquals(index.binarySearch(i * 3 + 1), i);
+      assertEquals(index.binarySearch(i * 3 + 2), -(i + 2));
+    }
+  }
+
+  @Test
+  public void testSetAll()
+  {
+    Index index = new Index(DBObject.ID_COMPARATOR);
+    index.allocate(2000);
+    for (int i = 0; i < 2000; i++)
+      index.set(i, newAiring(2000 - i, 0, 0));
+    DBObject[] data = index.toArray().clone();
+    java.util.Arrays.sort(data, DBObject.ID_COMPARATOR);
+    index.setAll(data, data.length);
+    for (int i = 0; i < 2000; i++)
+      assertEquals(index.get(i).id, i + 1);
+    assertNull(index.get(2000));
+    assertNull(index.get(-1));
+  }
+
+  @Test
+  public void testSnapshotIsolation()
+  {
+    Index index = new Index(Wizard.AIRINGS_BY_CT_CODE, Airing.CHANNEL_TIME_COMPARATOR);
+    Table table = new Table(Wizard.AIRING_CODE, index);
+    table.setWizard(Wizard.getInstance());
+    List<Airing> expected = new ArrayList<Airing>();
+    for (int i = 0; i < 5000; i++)
+    {
+      Airing air = newAiring(i + 1, i % 7, i);
+      index.add(air);
+      expected.add(air);
+    }
+    index.publishSnapshot();
+    Index snapshot = index.getPublishedSnapshot();
+    assertTrue(snapshot.isSnapshot());
+
+    // Changes to the live index must not show up in the snapshot
+    List<Airing> live = new ArrayList<Airing>(expected);
+    for (int i = 0; i < 2500; i++)
+    {
+      assertTrue(index.remove(live.remove(live.size() - 1)));
+      Airing air = newAiring(10000 + i, 3, i);
+      index.add(air);
+      live.add(air);
+    }
+    verifyIndex(snapshot, expected);
+    verifyIndex(index, live);
+  }
+
+  @Test
+  public void testReadViewDoesNotWaitForWriter() throws Throwable
+  {
+    Index index = new Index(DBObject.ID_COMPARATOR);
+    final Table table = new Table(Wizard.AIRING_CODE, index);
+    table.setWizard(Wizard.getInstance());
+    for (int i = 0; i < 1000; i++)
+      index.add(newAiring(i + 1, 0, 0));
+
+    // The first reader that finds a writer in there has to wait, but it asks for a snapshot to be published
+    final CountDownLatch writerHasLock = new CountDownLatch(1);
+    final CountDownLatch finishWriting = new CountDownLatch(1);
+    Thread writer = new Thread()
+    {
+      public void run()
+      {
+        table.acquireWriteLock();
+        writerHasLock.countDown();
+        try {
+          finishWriting.await();
+        } catch (InterruptedException e) {}
+        table.releaseWriteLock();
+      }
+    };
+    writer.start();
+    writerHasLock.await();
+    Thread reader = new Thread()
+    {
+      public void run()
+      {
+        Index view = table.acquireReadView(table.primary);
+        table.releaseReadView(view);
+      }
+    };
+    reader.start();
+    Thread.sleep(100);
+    finishWriting.countDown();
+    writer.join();
+    reader.join();
+    assertNotNull(index.getPublishedSnapshot());
+
+    // Now a writer holding the lock shouldn't block the reader
+    table.acquireWriteLock();
+    try {
+      index.add(newAiring(5000, 0, 0));
+      final Index[] view = new Index[1];
+      Thread snapReader = new Thread()
+      {
+        public void run()
+        {
+          view[0] = table.acquireReadView(table.primary);
+          table.releaseReadView(view[0]);
+        }
+      };
+      snapReader.start();
+      snapReader.join(5000);
+      assertFalse(snapReader.isAlive());
+      assertTrue(view[0].isSnapshot());
+      assertEquals(view[0].size(), 1000);
+      assertEquals(index.size(), 1001);
+    } finally {
+      table.releaseWriteLock();
+    }
+  }
+
+  @Test
+  public void testReadViewSeesOwnWriteWhileAnotherThreadWrites() throws Throwable
+  {
+    Index index = new Index(DBObject.ID_COMPARATOR);
+    final Table table = new Table(Wizard.AIRING_CODE, index);
+    table.setWizard(Wizard.getInstance());
+    for (int i = 0; i < 1000; i++)
+      index.add(newAiring(i + 1, 0, 0));
+
+    // Get snapshots going by having a reader find a writer in there
+    Thread writer = holdWriteLock(table);
+    Thread reader = new Thread()
+    {
+      public void run()
+      {
+        Index view = table.acquireReadView(table.primary);
+        table.releaseReadView(view);
+      }
+    };
+    reader.start();
+    Thread.sleep(100);
+    writer.interrupt();
+    writer.join();
+    reader.join();
+    assertNotNull(index.getPublishedSnapshot());
+
+    // Our own write has to be in what we read even if someone else has the lock by then
+    Airing air = newAiring(5000, 0, 0);
+    table.add(air, false);
+    writer = holdWriteLock(table);
+    try {
+      Index view = table.acquireReadView(table.primary);
+      try {
+        assertTrue(view.isSnapshot());
+        assertEquals(view.size(), 1001);
+        assertSame(view.get(view.size() - 1), air);
+      } finally {
+        table.releaseReadView(view);
+      }
+    } finally {
+      writer.interrupt();
+      writer.join();
+    }
+  }
+
+  // Starts a thread that takes the write lock for the table and holds it until the thread is interrupted
+  private static Thread holdWriteLock(final Table table) throws InterruptedException
+  {
+    final CountDownLatch hasLock = new CountDownLatch(1);
+    Thread writer = new Thread()
+    {
+      public void run()
+      {
+        table.acquireWriteLock();
+        hasLock.countDown();
+        try {
+          Thread.sleep(Long.MAX_VALUE);
+        } catch (InterruptedException e) {}
+        table.releaseWriteLock();
+      }
+    };
+    writer.start();
+    hasLock.await();
+    return writer;
+  }
+}
@@ -0,0 +1,119 @@
+package sage;
+
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import static org.testng.Assert.*;
+
+public class KeySortTest
+{
+  private static final Comparator KEY_COMPARE = new Comparator()
+  {
+    public int compare(Object o1, Object o2)
+    {
+      return ((Integer) o1).compareTo((Integer) o2);
+    }
+  };
+
+  @Test
+  public void testSortIsStable()
+  {
+    Random random = new Random(23);
+    for (int round = 0; round < 100; round++)
+    {
+      int count = random.nextInt(3000);
+      Integer[] keys = new Integer[count];
+      Integer[] positions = new Integer[count];
+      for (int i = 0; i < count; i++)
+      {
+        // Lots of equal keys so the order they end up in matters
+        keys[i] = random.nextInt(1 + count / 10);
+        positions[i] = i;
+      }
+      final Integer[] sortKeys = keys;
+      Arrays.sort(positions, new Comparator<Integer>()
+      {
+        public int compare(Integer o1, Integer o2)
+        {
+          return sortKeys[o1].compareTo(sortKeys[o2]);
+        }
+      });
+      int[] expected = new int[count];
+      for (int i = 0; i < count; i++)
+        expected[i] = positions[i];
+      // Sorted on this thread and split up into runs on the workers
+      assertEquals(KeySort.sortPositions(keys, KEY_COMPARE, Integer.MAX_VALUE, 1), expected);
+      assertEquals(KeySort.sortPositions(keys, KEY_COMPARE, 0, 1 + random.nextInt(8)), expected);
+    }
+  }
+
+  @Test
+  public void testSortData() throws Throwable
+  {
+    TestUtils.initializeSageTVForTesting();
+    Object[] data = new Object[] { "c", "a", "d", "b", "e" };
+    Object[] keys = new Object[] { 3, 1, 4, 1, 5 };
+    KeySort.sort(data, keys, KEY_COMPARE);
+    assertEquals(data, new Object[] { "a", "b", "c", "d", "e" });
+  }
+
+  @Test
+  public void testSortByUnknownMethod() throws Throwable
+  {
+    TestUtils.initializeSageTVForTesting();
+    // There's nothing to compare so the method is never needed
+    assertEquals((Object[]) sortByMethod(new Object[] { "a" }, "NoSuchSortMethod"), new Object[] { "a" });
+    try
+    {
+      sortByMethod(new Object[] { "b", "a" }, "NoSuchSortMethod");
+      fail("Sorting by a method that doesn't exist should fail");
+    }
+    catch (Exception e)
+    {
+      Throwable cause = e;
+      while (!(cause instanceof IllegalArgumentException) && cause.getCause() != null)
+        cause = cause.getCause();
+      assertTrue(cause instanceof IllegalArgumentException, "Unexpected failure " + e);
+    }
+  }
+
+  private static Object sortByMethod(Object[] data, String method) throws Exception
+  {
+    sage.jep.function.PostfixMathCommandI sort = (sage.jep.function.PostfixMathCommandI) Catbert.getAPI().get("Sort");
+    Catbert.FastStack stack = new Catbert.FastStack();
+    stack.push(data);
+    stack.push(Boolean.FALSE);
+    stack.push(method);
+    sort.setCurNumberOfParameters(3);
+    sort.run(stack);
+    return stack.pop();
+  }
+
+  @Test
+  public void testExceptionsFromWorkers()
+  {
+    Object[] keys = new Object[5000];
+    Arrays.fill(keys, 1);
+    keys[4000] = null;
+    try
+    {
+      KeySort.sortPositions(keys, new Comparator()
+      {
+        public int compare(Object o1, Object o2)
+        {
+          if (o1 == null || o2 == null)
+            throw new IllegalArgumentException("null key");
+          return 0;
+        }
+      }, 0, 4);
+      fail("The exception from the worker should have been thrown");
+    }
+    catch (IllegalArgumentException e)
+    {
+      assertEquals(e.getMessage(), "null key");
+    }
+  }
+}
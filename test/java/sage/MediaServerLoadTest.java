@@ -0,0 +1,148 @@
+package sage;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Simulates a number of clients streaming a file from a MediaServer at the same time, the way the extenders and
+ * placeshifters do it: OPEN the file, then keep sending READ requests for the next block and reading the data back.
+ * Each client starts at a different offset and wraps around at the end of the file.
+ * <p>
+ * Usage: MediaServerLoadTest &lt;host&gt; &lt;port&gt; &lt;file path on the server&gt; [numClients] [seconds] [readSize]
+ * <p>
+ * The file must be one the server allows access to, such as a recording or something listed in the
+ * media_server/extra_allowed_files property. Run it against a server with media_server/reactor_mode on and off
+ * to compare them.
+ */
+public class MediaServerLoadTest
+{
+  public static void main(String[] args) throws Throwable
+  {
+    if (args.length < 3)
+    {
+      System.out.println("Usage: MediaServerLoadTest <host> <port> <file path on the server> [numClients] [seconds] [readSize]");
+      return;
+    }
+    String host = args[0];
+    int port = Integer.parseInt(args[1]);
+    String path = args[2];
+    int numClients = (args.length > 3) ? Integer.parseInt(args[3]) : 6;
+    int seconds = (args.length > 4) ? Integer.parseInt(args[4]) : 30;
+    int readSize = (args.length > 5) ? Integer.parseInt(args[5]) : 65536;
+    System.out.println(runLoad(host, port, path, numClients, seconds * 1000L, readSize));
+    System.exit(0);
+  }
+
+  /**
+   * Runs the clients for the specified time and returns a summary of the throughput they got.
+   */
+  public static String runLoad(final String host, final int port, final String path, int numClients,
+      final long duration, final int readSize) throws Throwable
+  {
+    final AtomicLong totalBytes = new AtomicLong();
+    final AtomicLong totalReads = new AtomicLong();
+    final AtomicLong maxLatency = new AtomicLong();
+    final CountDownLatch started = new CountDownLatch(numClients);
+    final CountDownLatch done = new CountDownLatch(numClients);
+    final Throwable[] failure = new Throwable[1];
+    final long[] clientBytes = new long[numClients];
+    for (int i = 0; i < numClients; i++)
+    {
+      final int clientNum = i;
+      final int numOffsets = numClients;
+      Thread t = new Thread("LoadClient-" + i)
+      {
+        public void run()
+        {
+          Socket sock = null;
+          try
+          {
+            sock = new Socket(host, port);
+            sock.setTcpNoDelay(true);
+            OutputStream out = sock.getOutputStream();
+            DataInputStream in = new DataInputStream(new java.io.BufferedInputStream(sock.getInputStream()));
+            out.write(("OPEN " + path + "\r\n").getBytes(Sage.BYTE_CHARSET));
+            String response = readLine(in);
+            if (!"OK".equals(response))
+              throw new IOException("OPEN failed with:" + response);
+            out.write("SIZE\r\n".getBytes(Sage.BYTE_CHARSET));
+            response = readLine(in);
+            long size = Long.parseLong(response.substring(0, response.indexOf(' ')));
+            if (size < readSize)
+              throw new IOException("File is smaller than the read size:" + size);
+            byte[] buf = new byte[readSize];
+            long offset = (size / numOffsets) * clientNum;
+            started.countDown();
+            started.await();
+            long end = System.currentTimeMillis() + duration;
+            while (System.currentTimeMillis() < end)
+            {
+              if (offset + readSize > size)
+                offset = 0;
+              long start = System.nanoTime();
+              out.write(("READ " + offset + " " + readSize + "\r\n").getBytes(Sage.BYTE_CHARSET));
+              in.readFully(buf);
+              long latency = (System.nanoTime() - start) / 1000;
+              long currMax;
+              while (latency > (currMax = maxLatency.get()) && !maxLatency.compareAndSet(currMax, latency));
+              offset += readSize;
+              clientBytes[clientNum] += readSize;
+              totalBytes.addAndGet(readSize);
+              totalReads.incrementAndGet();
+            }
+            out.write("QUIT\r\n".getBytes(Sage.BYTE_CHARSET));
+          }
+          catch (Throwable e)
+          {
+            synchronized (failure)
+            {
+              if (failure[0] == null)
+                failure[0] = e;
+            }
+            started.countDown();
+          }
+          finally
+          {
+            if (sock != null)
+            {
+              try
+              {
+                sock.close();
+              }
+              catch (IOException e){}
+            }
+            done.countDown();
+          }
+        }
+      };
+      t.setDaemon(true);
+      t.start();
+    }
+    done.await();
+    if (failure[0] != null)
+      throw failure[0];
+    StringBuilder sb = new StringBuilder();
+    sb.append(numClients).append(" clients read ").append(totalBytes.get() / (1024*1024)).append(" MB in ").
+        append(totalReads.get()).append(" requests, ").append(totalBytes.get() * 1000 / duration / (1024*1024)).
+        append(" MB/s total, max request latency ").append(maxLatency.get() / 1000).append(" msec");
+    for (int i = 0; i < numClients; i++)
+      sb.append("\r\n  client ").append(i).append(": ").append(clientBytes[i] * 1000 / duration / (1024*1024)).append(" MB/s");
+    return sb.toString();
+  }
+
+  private static String readLine(DataInputStream in) throws IOException
+  {
+    StringBuilder sb = new StringBuilder();
+    int c;
+    while ((c = in.read()) != -1 && c != '\n')
+    {
+      if (c != '\r')
+        sb.append((char) c);
+    }
+    return sb.toString();
+  }
+}
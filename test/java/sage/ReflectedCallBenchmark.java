@@ -0,0 +1,67 @@
+package sage;
+
+/**
+ * Times Catbert expressions that make reflected Java calls. The Java calls the STVs in this tree use the most (like
+ * java_util_Properties_getProperty and java_lang_String_split) are predefined so they don't use reflection; these are
+ * the other ones they call along with a few common ones from plugins, and they're resolved by
+ * Catbert.ReflectedJEPFunction.
+ * <p>
+ * Usage: ReflectedCallBenchmark [nocache] [iterations]
+ * <p>
+ * Run it with and without nocache to compare the cached call sites to resolving the method on every call.
+ */
+public class ReflectedCallBenchmark
+{
+  private static final String[] EXPRESSIONS = {
+    "java_util_Vector_size(Vec)",
+    "java_util_Map_get(Map, \"ui/theme\")",
+    "java_util_Map_remove(Map, \"missing\")",
+    "java_lang_String_getBytes(Str)",
+    "java_lang_String_startsWith(Str, \"Alpha\")",
+    "java_lang_String_substring(Str, 6)",
+    "java_math_BigInteger_toString(Big, 16)",
+    "java_lang_Math_max(3, 7)",
+    "java_lang_Math_max(3.5, 7)",
+    "new_java_io_File(Str)",
+  };
+
+  public static void main(String[] args) throws Throwable
+  {
+    boolean noCache = args.length > 0 && "nocache".equals(args[0]);
+    int iterations = (args.length > (noCache ? 1 : 0)) ? Integer.parseInt(args[noCache ? 1 : 0]) : 200000;
+    TestUtils.initializeSageTVForTesting();
+    // This has to be set before Catbert is loaded
+    Sage.putBoolean("ui/reflection_call_site_cache", !noCache);
+
+    Catbert.Context context = new Catbert.Context();
+    java.util.Map<String, String> map = new java.util.HashMap<String, String>();
+    map.put("ui/theme", "blue");
+    context.set("Map", map);
+    context.set("Str", "Alpha,Beta,Gamma,Delta");
+    java.util.Vector<Object> vec = new java.util.Vector<Object>();
+    vec.add("one");
+    context.set("Vec", vec);
+    context.set("Big", new java.math.BigInteger("123456789012345678901234567890"));
+    for (int i = 0; i < EXPRESSIONS.length; i++)
+      System.out.println(EXPRESSIONS[i] + " = " + Catbert.evaluateExpression(EXPRESSIONS[i], context, null, null));
+
+    // The first passes warm up the JIT
+    for (int pass = 0; pass < 4; pass++)
+    {
+      StringBuilder sb = new StringBuilder("Pass " + pass + (noCache ? " (no call site cache)" : ""));
+      long total = 0;
+      for (int e = 0; e < EXPRESSIONS.length; e++)
+      {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++)
+          Catbert.evaluateExpression(EXPRESSIONS[e], context, null, null);
+        long time = System.nanoTime() - start;
+        total += time;
+        sb.append("\r\n  ").append(EXPRESSIONS[e]).append(": ").append(time / iterations).append(" nsec/call");
+      }
+      sb.append("\r\n  total=").append(total / 1000000).append(" msec");
+      System.out.println(sb);
+    }
+    System.exit(0);
+  }
+}
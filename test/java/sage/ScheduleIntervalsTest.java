@@ -0,0 +1,147 @@
+package sage;
+
+import org.testng.annotations.Test;
+
+import java.util.Random;
+
+import static org.testng.Assert.*;
+
+public class ScheduleIntervalsTest
+{
+  private static final long MIN = 60000;
+
+  @Test
+  public void testOverlapsMatchPairwise()
+  {
+    Random random = new Random(19);
+    for (int round = 0; round < 200; round++)
+    {
+      int count = random.nextInt(60);
+      long[] starts = new long[count];
+      long[] ends = new long[count];
+      fill(random, starts, ends, count);
+      ScheduleIntervals intervals = new ScheduleIntervals(starts, ends, count);
+      assertEquals(intervals.size(), count);
+      for (int q = 0; q < 50; q++)
+      {
+        long start = random.nextInt(24 * 60) * MIN;
+        long end = start + random.nextInt(4 * 60) * MIN;
+        int num = 0;
+        for (int i = 0; i < count; i++)
+        {
+          if (ends[i] > start && starts[i] < end)
+            num++;
+        }
+        int[] expected = new int[num];
+        num = 0;
+        for (int i = 0; i < count; i++)
+        {
+          if (ends[i] > start && starts[i] < end)
+            expected[num++] = i;
+        }
+        assertEquals(intervals.getOverlaps(start, end), expected);
+        assertEquals(intervals.overlaps(start, end), expected.length > 0);
+      }
+    }
+  }
+
+  @Test
+  public void testMaxConcurrent()
+  {
+    long[] starts = new long[] { 0, 30 * MIN, 60 * MIN, 60 * MIN, 90 * MIN };
+    long[] ends = new long[] { 60 * MIN, 90 * MIN, 120 * MIN, 90 * MIN, 120 * MIN };
+    // Back to back ones don't overlap
+    assertEquals(ScheduleIntervals.getMaxConcurrent(starts, ends, 5), 3);
+    assertEquals(ScheduleIntervals.getMaxConcurrent(starts, ends, 2), 2);
+    assertEquals(ScheduleIntervals.getMaxConcurrent(starts, ends, 0), 0);
+  }
+
+  @Test
+  public void testTimeline()
+  {
+    Random random = new Random(21);
+    for (int round = 0; round < 200; round++)
+    {
+      ScheduleIntervals.Timeline timeline = new ScheduleIntervals.Timeline();
+      long[] starts = new long[40];
+      long[] ends = new long[40];
+      int num = 0;
+      for (int i = 0; i < 40; i++)
+      {
+        long start = random.nextInt(24 * 60) * MIN;
+        // Include some empty ones, those only overlap something that's on before and after them
+        long end = start + random.nextInt(3 * 60) * MIN;
+        boolean overlaps = false;
+        for (int j = 0; j < num; j++)
+          overlaps |= ends[j] > start && starts[j] < end;
+        assertEquals(timeline.overlaps(start, end), overlaps);
+        assertEquals(timeline.add(start, end), !overlaps);
+        if (!overlaps)
+        {
+          starts[num] = start;
+          ends[num++] = end;
+        }
+        assertEquals(timeline.size(), num);
+      }
+      timeline.clear();
+      assertEquals(timeline.size(), 0);
+      assertFalse(timeline.overlaps(0, Long.MAX_VALUE));
+    }
+  }
+
+  @Test
+  public void testOverlapGroups()
+  {
+    Random random = new Random(22);
+    for (int round = 0; round < 200; round++)
+    {
+      int count = random.nextInt(30);
+      long[] starts = new long[count];
+      long[] ends = new long[count];
+      fill(random, starts, ends, count);
+      int[] groups = ScheduleIntervals.getOverlapGroups(starts, ends, count);
+      // Connect everything that overlaps, the groups should be the same as the connected sets
+      int[] connected = new int[count];
+      for (int i = 0; i < count; i++)
+        connected[i] = i;
+      boolean changed = true;
+      while (changed)
+      {
+        changed = false;
+        for (int i = 0; i < count; i++)
+        {
+          for (int j = 0; j < count; j++)
+          {
+            if (ends[i] > starts[j] && starts[i] < ends[j] && connected[j] < connected[i])
+            {
+              connected[i] = connected[j];
+              changed = true;
+            }
+          }
+        }
+      }
+      for (int i = 0; i < count; i++)
+      {
+        for (int j = 0; j < count; j++)
+        {
+          // Empty times between groups can be in either one, they don't overlap anything
+          if (ends[i] > starts[i] && ends[j] > starts[j])
+            assertEquals(groups[i] == groups[j], connected[i] == connected[j], "Times " + i + " and " + j);
+          // Later groups start later
+          if (groups[i] < groups[j])
+            assertTrue(starts[i] <= starts[j]);
+        }
+      }
+    }
+  }
+
+  private static void fill(Random random, long[] starts, long[] ends, int count)
+  {
+    for (int i = 0; i < count; i++)
+    {
+      // Half hour boundaries like real airings so there's lots of equal times
+      starts[i] = random.nextInt(48) * 30 * MIN;
+      ends[i] = starts[i] + random.nextInt(6) * 30 * MIN;
+    }
+  }
+}
@@ -0,0 +1,234 @@
+package sage;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Replays schedules that were saved by the Scheduler's export (set the scheduler_export_file property to the path to
+ * write it to) through the overlap checks it does, and times the interval tree and sweeps in ScheduleIntervals
+ * against comparing each recording with all of the others. The results of both are checked to be the same.
+ * <p>
+ * The export only has what made it into the schedule, the Scheduler looks at a lot more than that while it decides
+ * what to record. So each recording is copied into the candidates a number of times with its time moved around by
+ * up to a couple hours, which gives about as many overlaps as a busy lineup has.
+ * <p>
+ * Usage: ScheduleReplayBenchmark [-copies N] &lt;exported schedule file&gt;...
+ * <p>
+ * If no files are given a week of half hour to two hour recordings on 8 encoders is generated instead.
+ */
+public class ScheduleReplayBenchmark
+{
+  public static void main(String[] args) throws Throwable
+  {
+    int copies = 8;
+    List<File> files = new ArrayList<File>();
+    for (int i = 0; i < args.length; i++)
+    {
+      if ("-copies".equals(args[i]) && i + 1 < args.length)
+        copies = Integer.parseInt(args[++i]);
+      else
+        files.add(new File(args[i]));
+    }
+    if (files.isEmpty())
+    {
+      System.out.println("Usage: ScheduleReplayBenchmark [-copies N] <exported schedule file>...");
+      System.out.println("No files given, using a generated schedule");
+      replay("generated", generateSchedule(8, new Random(8)), copies);
+    }
+    for (int i = 0; i < files.size(); i++)
+      replay(files.get(i).toString(), loadSchedule(files.get(i)), copies);
+    System.exit(0);
+  }
+
+  private static void replay(String name, Schedule sched, int copies)
+  {
+    Random random = new Random(sched.size());
+    int numEncoders = sched.encoders.size();
+    int count = sched.size() * copies;
+    long[] starts = new long[count];
+    long[] ends = new long[count];
+    int[] encs = new int[count];
+    for (int i = 0; i < count; i++)
+    {
+      int x = i % sched.size();
+      // The first copy is the real schedule
+      long shift = (i < sched.size()) ? 0 : (random.nextInt(9) - 4) * 30 * 60000L;
+      starts[i] = sched.starts.get(x) + shift;
+      ends[i] = sched.ends.get(x) + shift;
+      encs[i] = (i < sched.size()) ? sched.encs.get(x) : random.nextInt(numEncoders);
+    }
+    System.out.println(name + ": " + sched.size() + " recordings on " + numEncoders + " encoders, replaying " +
+        count + " candidates");
+
+    // The first pass warms up the JIT
+    for (int pass = 0; pass < 3; pass++)
+    {
+      // How many times each one overlaps something else on its encoder
+      long start = System.nanoTime();
+      long pairConflicts = 0;
+      for (int i = 0; i < count; i++)
+      {
+        for (int j = 0; j < count; j++)
+        {
+          if (i != j && encs[i] == encs[j] && ends[j] > starts[i] && starts[j] < ends[i])
+            pairConflicts++;
+        }
+      }
+      long pairConflictTime = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      long treeConflicts = 0;
+      for (int e = 0; e < numEncoders; e++)
+      {
+        int encCount = 0;
+        long[] encStarts = new long[count];
+        long[] encEnds = new long[count];
+        for (int i = 0; i < count; i++)
+        {
+          if (encs[i] == e)
+          {
+            encStarts[encCount] = starts[i];
+            encEnds[encCount++] = ends[i];
+          }
+        }
+        ScheduleIntervals intervals = new ScheduleIntervals(encStarts, encEnds, encCount);
+        for (int i = 0; i < encCount; i++)
+          treeConflicts += intervals.getOverlaps(encStarts[i], encEnds[i]).length - 1;
+      }
+      long treeConflictTime = System.nanoTime() - start;
+      if (pairConflicts != treeConflicts)
+        throw new IllegalStateException("Conflict counts don't match pairwise=" + pairConflicts + " tree=" + treeConflicts);
+
+      // Whether they could all be recorded if any encoder could record any of them; the most that are on at once
+      start = System.nanoTime();
+      int pairMax = 0;
+      for (int i = 0; i < count; i++)
+      {
+        int num = 0;
+        for (int j = 0; j < count; j++)
+        {
+          if (starts[j] <= starts[i] && ends[j] > starts[i])
+            num++;
+        }
+        pairMax = Math.max(pairMax, num);
+      }
+      long pairFeasibleTime = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      int sweepMax = ScheduleIntervals.getMaxConcurrent(starts, ends, count);
+      long sweepFeasibleTime = System.nanoTime() - start;
+      if (pairMax != sweepMax)
+        throw new IllegalStateException("Max concurrent doesn't match pairwise=" + pairMax + " sweep=" + sweepMax);
+
+      System.out.println("Pass " + pass + " encoder conflicts=" + treeConflicts + " pairwise=" +
+          (pairConflictTime / 1000) + " usec tree=" + (treeConflictTime / 1000) + " usec; max concurrent=" + sweepMax +
+          " pairwise=" + (pairFeasibleTime / 1000) + " usec sweep=" +
+          (sweepFeasibleTime / 1000) + " usec");
+    }
+  }
+
+  // Reads the tab separated file written by Scheduler.exportSchedule
+  private static Schedule loadSchedule(File f) throws Exception
+  {
+    // This is the format of Sage.dfClean, it doesn't have the year so assume they're all around now
+    SimpleDateFormat df = new SimpleDateFormat("EE M/d H:mm");
+    Calendar now = Calendar.getInstance();
+    Schedule rv = new Schedule();
+    BufferedReader reader = new BufferedReader(new FileReader(f));
+    try
+    {
+      String line = reader.readLine();
+      if (line == null || !line.startsWith("Encoder\t"))
+        throw new IllegalArgumentException("Not a schedule export file:" + f);
+      while ((line = reader.readLine()) != null)
+      {
+        String[] cols = line.split("\t");
+        if (cols.length < 3)
+          continue;
+        long start = parseTime(df, cols[1], now);
+        long end = parseTime(df, cols[2], now);
+        if (end < start)
+          end = addYear(end);
+        rv.add(cols[0], start, end);
+      }
+    }
+    finally
+    {
+      reader.close();
+    }
+    if (rv.size() == 0)
+      throw new IllegalArgumentException("No recordings in schedule export file:" + f);
+    return rv;
+  }
+
+  private static long parseTime(SimpleDateFormat df, String s, Calendar now) throws ParseException
+  {
+    Calendar cal = Calendar.getInstance();
+    cal.setTime(df.parse(s));
+    cal.set(Calendar.YEAR, now.get(Calendar.YEAR));
+    // Schedules only go forward so anything that looks like it's long ago is really next year
+    if (cal.getTimeInMillis() < now.getTimeInMillis() - 180 * Sage.MILLIS_PER_DAY)
+      cal.add(Calendar.YEAR, 1);
+    return cal.getTimeInMillis();
+  }
+
+  private static long addYear(long time)
+  {
+    Calendar cal = Calendar.getInstance();
+    cal.setTime(new Date(time));
+    cal.add(Calendar.YEAR, 1);
+    return cal.getTimeInMillis();
+  }
+
+  private static Schedule generateSchedule(int numEncoders, Random random)
+  {
+    Schedule rv = new Schedule();
+    long base = (System.currentTimeMillis() / Sage.MILLIS_PER_HR) * Sage.MILLIS_PER_HR;
+    for (int e = 0; e < numEncoders; e++)
+    {
+      long time = base;
+      while (time < base + Sage.MILLIS_PER_WEEK)
+      {
+        // Leave some gaps, then a recording that's padded a bit like the favorites often are
+        time += random.nextInt(8) * 30 * 60000L;
+        long end = time + (1 + random.nextInt(4)) * 30 * 60000L;
+        rv.add("Encoder " + e, time - 60000L, end + 120000L);
+        time = end + 180000L;
+      }
+    }
+    return rv;
+  }
+
+  private static class Schedule
+  {
+    void add(String encoder, long start, long end)
+    {
+      Integer enc = encoders.get(encoder);
+      if (enc == null)
+        encoders.put(encoder, enc = encoders.size());
+      encs.add(enc);
+      starts.add(start);
+      ends.add(end);
+    }
+
+    int size()
+    {
+      return starts.size();
+    }
+
+    Map<String, Integer> encoders = new HashMap<String, Integer>();
+    List<Integer> encs = new ArrayList<Integer>();
+    List<Long> starts = new ArrayList<Long>();
+    List<Long> ends = new ArrayList<Long>();
+  }
+}
@@ -0,0 +1,122 @@
+package sage;
+
+import java.io.File;
+import java.text.Collator;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Times Database.Sort and SortLexical with a method as the sort technique on a generated library of files, against
+ * the comparators they used before that call the method for both elements in every comparison. The results of both
+ * are checked to be in the same order.
+ * <p>
+ * The library is java.io.File objects for episodes of a few thousand shows in a few folders, they're sorted by
+ * java_io_File_toString which is called through the API the same way any other method would be.
+ * <p>
+ * Usage: SortBenchmark [number of files]
+ */
+public class SortBenchmark
+{
+  private static final String METHOD = "java_io_File_toString";
+
+  public static void main(String[] args) throws Throwable
+  {
+    int count = (args.length > 0) ? Integer.parseInt(args[0]) : 50000;
+    TestUtils.initializeSageTVForTesting();
+    File[] files = generateLibrary(count, new Random(count));
+    System.out.println("Sorting " + count + " files on " + Carny.PROCESSOR_COUNT + " processors");
+
+    Catbert.Context context = new Catbert.Context();
+    final sage.jep.function.PostfixMathCommandI meth =
+        (sage.jep.function.PostfixMathCommandI) Catbert.getAPI().get(METHOD);
+    final Collator collie = Collator.getInstance(Sage.userLocale);
+    collie.setStrength(Collator.SECONDARY);
+    Comparator oldSort = new Comparator()
+    {
+      public int compare(Object o1, Object o2)
+      {
+        return ((Comparable) call(meth, o1)).compareTo(call(meth, o2));
+      }
+    };
+    Comparator oldSortLexical = new Comparator()
+    {
+      public int compare(Object o1, Object o2)
+      {
+        return collie.compare(call(meth, o1).toString(), call(meth, o2).toString());
+      }
+    };
+
+    // The first passes warm up the JIT
+    for (int pass = 0; pass < 4; pass++)
+    {
+      File[] data = files.clone();
+      long start = System.nanoTime();
+      Arrays.sort(data, oldSort);
+      long oldSortTime = System.nanoTime() - start;
+      context.set("Data", files.clone());
+      start = System.nanoTime();
+      Object[] sorted = (Object[]) Catbert.evaluateExpression("Sort(Data, false, \"" + METHOD + "\")", context, null, null);
+      long sortTime = System.nanoTime() - start;
+      if (!Arrays.equals(data, sorted))
+        throw new IllegalStateException("Sort results don't match");
+
+      data = files.clone();
+      start = System.nanoTime();
+      Arrays.sort(data, oldSortLexical);
+      long oldLexicalTime = System.nanoTime() - start;
+      context.set("Data", files.clone());
+      start = System.nanoTime();
+      // Sage.userLocale is used for both and the generated names don't start with any of the words it ignores
+      sorted = (Object[]) Catbert.evaluateExpression("SortLexical(Data, false, \"" + METHOD + "\")", context, null, null);
+      long lexicalTime = System.nanoTime() - start;
+      if (!Arrays.equals(data, sorted))
+        throw new IllegalStateException("SortLexical results don't match");
+
+      System.out.println("Pass " + pass + " Sort old=" + (oldSortTime / 1000000) + " msec new=" + (sortTime / 1000000) +
+          " msec; SortLexical old=" + (oldLexicalTime / 1000000) + " msec new=" + (lexicalTime / 1000000) + " msec");
+    }
+    System.exit(0);
+  }
+
+  private static Object call(sage.jep.function.PostfixMathCommandI meth, Object o)
+  {
+    try
+    {
+      Catbert.FastStack s = new Catbert.FastStack();
+      s.push(o);
+      meth.setCurNumberOfParameters(1);
+      meth.run(s);
+      return s.pop();
+    }
+    catch (Exception e)
+    {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  private static File[] generateLibrary(int count, Random random)
+  {
+    String[] folders = { "/media/TV", "/media/Recordings", "/media/Movies", "/mnt/nas/video" };
+    String[] words = { "Night", "City", "Blue", "Doctor", "Island", "House", "Law", "Secret", "Star", "River",
+        "Garden", "Kitchen", "Murder", "Storm", "Castle", "Empire", "Family", "Ghost", "Hunter", "Journey" };
+    int numShows = Math.max(1, count / 20);
+    String[] shows = new String[numShows];
+    for (int i = 0; i < numShows; i++)
+    {
+      shows[i] = words[random.nextInt(words.length)] + " " + words[random.nextInt(words.length)] +
+          ((random.nextInt(4) == 0) ? " " + words[random.nextInt(words.length)] : "") + " " + i;
+    }
+    File[] rv = new File[count];
+    for (int i = 0; i < count; i++)
+    {
+      String show = shows[random.nextInt(numShows)];
+      // Mixed case so the case insensitive compare matters
+      if (random.nextBoolean())
+        show = show.toUpperCase();
+      rv[i] = new File(folders[random.nextInt(folders.length)] + "/" + show + "/" + show + " S" +
+          (1 + random.nextInt(12)) + "E" + (1 + random.nextInt(24)) + ".mkv");
+    }
+    return rv;
+  }
+}
@@ -0,0 +1,41 @@
+package sage;
+
+import org.testng.annotations.Test;
+
+import java.util.Vector;
+import java.util.regex.Pattern;
+
+import static org.testng.Assert.*;
+
+public class WizardSearchTest
+{
+  @Test
+  public void testSearchFieldsMiscFlags() throws Throwable
+  {
+    TestUtils.initializeSageTVForTesting();
+    Wizard wiz = Wizard.getInstance();
+    // The tables only get the Wizard when it loads a DB file, which tests don't do
+    java.lang.reflect.Method initWizInTables = Wizard.class.getDeclaredMethod("initWizInTables");
+    initWizInTables.setAccessible(true);
+    initWizInTables.invoke(wiz);
+    Show show = wiz.addShow("Misc Flag Search Show", "", "", 60000, null, (String[]) null, null, null, null,
+        null, null, null, "EPMISCSEARCH01", null, 0, DBObject.MEDIA_MASK_TV, (short) 0, (short) 0, false, 0,
+        Pooler.EMPTY_2D_BYTE_ARRAY);
+    Airing hdAir = wiz.addAiring(show, 71234, Sage.time() + Sage.MILLIS_PER_DAY, 60000, (byte) 0,
+        Airing.HDTV_MASK, (byte) 0, DBObject.MEDIA_MASK_TV);
+    Airing sdAir = wiz.addAiring(show, 71234, Sage.time() + 2 * Sage.MILLIS_PER_DAY, 60000, (byte) 0,
+        0, (byte) 0, DBObject.MEDIA_MASK_TV);
+
+    // Nothing but the airing flags matches this, so no show is found through the stringers first
+    Pattern pat = Pattern.compile(Pattern.quote(Sage.rez("HDTV")), Pattern.CASE_INSENSITIVE);
+    Vector<Airing> found = wiz.searchFields(pat, true, true, true, true, true, true, true, true, true,
+        DBObject.MEDIA_MASK_ALL);
+    assertTrue(found.contains(hdAir));
+    assertFalse(found.contains(sdAir));
+
+    found = wiz.searchFields(pat, false, false, false, false, false, false, false, false, true,
+        DBObject.MEDIA_MASK_ALL);
+    assertTrue(found.contains(hdAir));
+    assertFalse(found.contains(sdAir));
+  }
+}
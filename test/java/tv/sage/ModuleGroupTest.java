@@ -0,0 +1,66 @@
+package tv.sage;
+
+import org.testng.annotations.Test;
+import sage.TestUtils;
+import sage.Widget;
+import sage.WidgetFidget;
+
+import java.io.File;
+import java.util.Properties;
+
+import static org.testng.Assert.*;
+
+public class ModuleGroupTest
+{
+  @Test
+  public void testSharedWidgetsAreCopiedOnWrite() throws Throwable
+  {
+    TestUtils.initializeSageTVForTesting();
+    File stv = File.createTempFile("shared", ".xml");
+    stv.deleteOnExit();
+    new File(stv.getPath() + ".cache").deleteOnExit();
+    ModuleGroup source = ModuleManager.newModuleGroup();
+    Widget menu = source.addWidget(Widget.MENU);
+    WidgetFidget.setName(menu, "Main Menu");
+    Widget panel = source.addWidget(Widget.PANEL);
+    WidgetFidget.setName(panel, "Panel");
+    WidgetFidget.contain(menu, panel);
+    source.defaultModule.saveXML(stv, null);
+
+    Properties props = new Properties();
+    props.put("STV", stv.toString());
+    ModuleGroup mg1 = ModuleManager.loadModuleGroup(props);
+    ModuleGroup mg2 = ModuleManager.loadModuleGroup(props);
+    assertTrue(mg1.isShared());
+    assertSame(mg1.defaultModule, mg2.defaultModule);
+    assertSame(mg1.symbolMap, mg2.symbolMap);
+
+    Widget sharedMenu = mg1.getWidgets(Widget.MENU)[0];
+    Widget sharedPanel = sharedMenu.contents()[0];
+    assertTrue(mg1.makeEditable());
+    assertFalse(mg1.makeEditable());
+    assertFalse(mg1.isShared());
+    assertTrue(mg2.isShared());
+    assertNotSame(mg1.defaultModule, mg2.defaultModule);
+
+    // The copy has the same ids and structure, and changing it doesn't change the shared one
+    Widget menuCopy = mg1.getEditableWidget(sharedMenu);
+    assertNotSame(menuCopy, sharedMenu);
+    assertEquals(menuCopy.id(), sharedMenu.id());
+    assertEquals(menuCopy.getModule(), mg1.defaultModule);
+    assertEquals(menuCopy.getUntranslatedName(), "Main Menu");
+    assertSame(menuCopy.contents()[0], mg1.getEditableWidget(sharedPanel));
+    assertSame(mg1.symbolMap.get(menuCopy.symbol()), menuCopy);
+    WidgetFidget.setName(menuCopy, "Changed");
+    WidgetFidget.discontent(menuCopy, menuCopy.contents()[0]);
+    assertEquals(sharedMenu.getUntranslatedName(), "Main Menu");
+    assertEquals(sharedMenu.contents().length, 1);
+    assertEquals(mg2.getWidgets().length, 2);
+
+    // Once the file changes it gets loaded again
+    assertTrue(stv.setLastModified(stv.lastModified() - 10000));
+    ModuleGroup mg3 = ModuleManager.loadModuleGroup(props);
+    assertNotSame(mg3.defaultModule, mg2.defaultModule);
+    assertEquals(mg3.getWidgets().length, 2);
+  }
+}
@@ -0,0 +1,81 @@
+package tv.sage.mod;
+
+import org.testng.annotations.Test;
+import sage.TestUtils;
+import sage.Widget;
+import sage.WidgetFidget;
+import tv.sage.ModuleGroup;
+import tv.sage.ModuleManager;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.testng.Assert.*;
+
+public class STVCacheTest
+{
+  @Test
+  public void testCacheLoadsTheSameWidgets() throws Throwable
+  {
+    TestUtils.initializeSageTVForTesting();
+    File stv = File.createTempFile("cached", ".xml");
+    File cacheFile = STVCache.getCacheFile(stv);
+    stv.deleteOnExit();
+    cacheFile.deleteOnExit();
+    ModuleGroup source = ModuleManager.newModuleGroup();
+    Widget menu = source.addWidget(Widget.MENU);
+    WidgetFidget.setName(menu, "Main Menu");
+    Widget panel = source.addWidget(Widget.PANEL);
+    WidgetFidget.setName(panel, "Panel");
+    WidgetFidget.setProperty(panel, Widget.FIXED_WIDTH, "0.5");
+    WidgetFidget.setProperty(panel, Widget.BACKGROUND_COLOR, "=\"0x\" + Color");
+    Widget panel2 = source.addWidget(Widget.PANEL);
+    WidgetFidget.setName(panel2, "Panel");
+    WidgetFidget.contain(menu, panel);
+    WidgetFidget.contain(menu, panel2);
+    WidgetFidget.contain(panel, panel2);
+    source.defaultModule.saveXML(stv, null);
+
+    Module parsed = Module.loadXML(null, new HashMap(), stv);
+    assertTrue(cacheFile.isFile());
+    STVCache cache = STVCache.load(stv, STVCache.hash(stv));
+    assertNotNull(cache);
+    assertEquals(cache.widgetz.length, 3);
+
+    Map symbolMap = new HashMap();
+    Module cached = Module.loadXML(null, symbolMap, stv);
+    Widget[] expected = parsed.getWidgetz();
+    Widget[] actual = cached.getWidgetz();
+    assertEquals(actual.length, expected.length);
+    for (int i = 0; i < expected.length; i++)
+    {
+      assertEquals(actual[i].id(), expected[i].id());
+      assertEquals(actual[i].type(), expected[i].type());
+      assertEquals(actual[i].getUntranslatedName(), expected[i].getUntranslatedName());
+      assertEquals(actual[i].symbol(), expected[i].symbol());
+      assertSame(symbolMap.get(actual[i].symbol()), actual[i]);
+      for (byte p = 0; p <= Widget.MAX_PROP_NUM; p++)
+        assertEquals(actual[i].getProperty(p), expected[i].getProperty(p));
+      assertEquals(ids(actual[i].contents()), ids(expected[i].contents()));
+      assertEquals(ids(actual[i].containers()), ids(expected[i].containers()));
+    }
+
+    // Changing the XML makes it parse it again
+    FileWriter writer = new FileWriter(stv, true);
+    writer.write("\n");
+    writer.close();
+    assertNull(STVCache.load(stv, STVCache.hash(stv)));
+    assertEquals(Module.loadXML(null, new HashMap(), stv).getWidgetz().length, 3);
+    assertNotNull(STVCache.load(stv, STVCache.hash(stv)));
+  }
+
+  private static int[] ids(Widget[] widgz)
+  {
+    int[] rv = new int[widgz.length];
+    for (int i = 0; i < widgz.length; i++)
+      rv[i] = widgz[i].id();
+    return rv;
+  }
+}